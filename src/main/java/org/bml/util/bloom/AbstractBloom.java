@@ -0,0 +1,353 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Base class for {@link Bloom} implementations that hash with a
+ * {@link BloomHashStrategy}. Every element is reduced to a single 64 bit hash
+ * and implementations only have to set and probe the k positions for that
+ * hash. This class handles the element to hash mapping, the sizing math and
+ * the false positive calculations.
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public abstract class AbstractBloom<E> implements Bloom<E>, Serializable {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The number of elements hashed together by the batch methods.
+     */
+    protected static final int BATCH_SIZE = 256;
+    /**
+     * The hash function used to set and probe bits.
+     */
+    private final BloomHashStrategy hashStrategy;
+    /**
+     * The number of hash functions, AKA k.
+     */
+    private final int numberOfHashFunctions;
+    /**
+     * The expected (maximum) number of elements to be added.
+     */
+    private final int expectedNumberOfElements;
+
+    /**
+     * Creates a new AbstractBloom.
+     *
+     * @param hashStrategy the hash function used to set and probe bits.
+     * @param numberOfHashFunctions the number of hash functions, AKA k.
+     * @param expectedNumberOfElements the expected (maximum) number of elements to be added.
+     * @pre hashStrategy!=null
+     * @pre numberOfHashFunctions>0
+     * @pre expectedNumberOfElements>0
+     */
+    protected AbstractBloom(final BloomHashStrategy hashStrategy, final int numberOfHashFunctions, final int expectedNumberOfElements) {
+        checkNotNull(hashStrategy, "Can not create a Bloom filter with a null hashStrategy parameter.");
+        checkArgument(numberOfHashFunctions > 0, "Can not create a Bloom filter with a numberOfHashFunctions parameter that does not meet (numberOfHashFunctions > 0).");
+        checkArgument(expectedNumberOfElements > 0, "Can not create a Bloom filter with an expectedNumberOfElements parameter that does not meet (expectedNumberOfElements > 0).");
+        this.hashStrategy = hashStrategy;
+        this.numberOfHashFunctions = numberOfHashFunctions;
+        this.expectedNumberOfElements = expectedNumberOfElements;
+    }
+
+    /**
+     * The optimal number of hash functions for a desired false positive
+     * probability. k = ceil(-log_2(false prob.))
+     *
+     * @param falsePositiveProbability the desired false positive probability.
+     * @return the optimal number of hash functions.
+     */
+    public static int optimalNumberOfHashFunctions(final double falsePositiveProbability) {
+        return (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)));
+    }
+
+    /**
+     * The number of bits per element needed for a desired false positive
+     * probability. c = k / ln(2)
+     *
+     * @param falsePositiveProbability the desired false positive probability.
+     * @return the number of bits per element.
+     */
+    public static double optimalBitsPerElement(final double falsePositiveProbability) {
+        return optimalNumberOfHashFunctions(falsePositiveProbability) / Math.log(2);
+    }
+
+    /**
+     * Sets the k positions for a hash produced by {@link #getHashStrategy()}.
+     * Exposed so callers that probe several filters built on the same strategy
+     * only hash each element once.
+     *
+     * @param hash a 64 bit hash from this filters hash strategy.
+     */
+    public abstract void addHash(long hash);
+
+    /**
+     * Checks the k positions for a hash produced by {@link #getHashStrategy()}.
+     *
+     * @param hash a 64 bit hash from this filters hash strategy.
+     * @return true if the element the hash was produced from could have been
+     * inserted into the Bloom filter.
+     */
+    public abstract boolean containsHash(long hash);
+
+    /**
+     * Sets the k positions for a run of hashes produced by
+     * {@link #getHashStrategy()}. Implementations override this when they can
+     * order the writes better than one hash at a time.
+     *
+     * @param hashes 64 bit hashes from this filters hash strategy.
+     * @param offset the index of the first hash to add.
+     * @param length the number of hashes to add.
+     */
+    public void addHashes(final long[] hashes, final int offset, final int length) {
+        for (int c = offset, end = offset + length; c < end; c++) {
+            addHash(hashes[c]);
+        }
+    }
+
+    /**
+     * Checks the k positions for a run of hashes produced by
+     * {@link #getHashStrategy()}. The result for <code>hashes[c]</code> is
+     * written to <code>out[c]</code>. Implementations override this to probe
+     * in an order that lets the CPU overlap cache misses.
+     *
+     * @param hashes 64 bit hashes from this filters hash strategy.
+     * @param offset the index of the first hash to check.
+     * @param length the number of hashes to check.
+     * @param out receives true for each hash that could have been inserted.
+     */
+    public void containsHashes(final long[] hashes, final int offset, final int length, final boolean[] out) {
+        for (int c = offset, end = offset + length; c < end; c++) {
+            out[c] = containsHash(hashes[c]);
+        }
+    }
+
+    /**
+     * Checks a batch of hashes produced by {@link #getHashStrategy()}, for
+     * callers that hash their keys once and probe several filters.
+     *
+     * @param hashes 64 bit hashes from this filters hash strategy.
+     * @param out receives true for each hash that could have been inserted.
+     * @pre out.length&gt;=hashes.length
+     */
+    public void containsAll(final long[] hashes, final boolean[] out) {
+        checkArgument(out.length >= hashes.length, "Can not check %s hashes into an out array of length %s.", hashes.length, out.length);
+        containsHashes(hashes, 0, hashes.length, out);
+    }
+
+    /**
+     * Adds a batch of byte arrays to the Bloom filter. The batch is hashed
+     * in runs of {@link #BATCH_SIZE} before any bits are set.
+     *
+     * @param elements the byte arrays to add.
+     */
+    public void addAll(final byte[][] elements) {
+        final long[] hashes = new long[Math.min(elements.length, BATCH_SIZE)];
+        for (int offset = 0; offset < elements.length; offset += BATCH_SIZE) {
+            final int length = Math.min(BATCH_SIZE, elements.length - offset);
+            BloomHashing.hashAll(hashStrategy, elements, offset, length, hashes);
+            addHashes(hashes, 0, length);
+        }
+    }
+
+    /**
+     * Checks a batch of byte arrays. The batch is hashed in runs of
+     * {@link #BATCH_SIZE} before any bits are probed.
+     *
+     * @param elements the byte arrays to check.
+     * @param out receives true for each element that could have been inserted.
+     * @pre out.length&gt;=elements.length
+     */
+    public void containsAll(final byte[][] elements, final boolean[] out) {
+        checkArgument(out.length >= elements.length, "Can not check %s elements into an out array of length %s.", elements.length, out.length);
+        final long[] hashes = new long[Math.min(elements.length, BATCH_SIZE)];
+        final boolean[] found = new boolean[hashes.length];
+        for (int offset = 0; offset < elements.length; offset += BATCH_SIZE) {
+            final int length = Math.min(BATCH_SIZE, elements.length - offset);
+            BloomHashing.hashAll(hashStrategy, elements, offset, length, hashes);
+            containsHashes(hashes, 0, length, found);
+            System.arraycopy(found, 0, out, offset, length);
+        }
+    }
+
+    /**
+     * Returns the number of bits in the Bloom filter as a long. Filters that
+     * can hold more than {@link Integer#MAX_VALUE} bits override this, all
+     * sizing math in this class uses it instead of {@link #size()}.
+     *
+     * @return the number of bits in the Bloom filter.
+     */
+    public long bitSize() {
+        return size();
+    }
+
+    /**
+     * Return the hash strategy used by this Bloom filter.
+     *
+     * @return the hash strategy.
+     */
+    public BloomHashStrategy getHashStrategy() {
+        return hashStrategy;
+    }
+
+    /**
+     * Calculate the probability of a false positive given the specified
+     * number of inserted elements.
+     *
+     * @param numberOfElements number of inserted elements.
+     * @return probability of a false positive.
+     */
+    public double getFalsePositiveProbability(final double numberOfElements) {
+        // (1 - e^(-k * n / m)) ^ k
+        return Math.pow(1 - Math.exp(-numberOfHashFunctions * numberOfElements / (double) bitSize()), numberOfHashFunctions);
+    }
+
+    /**
+     * Calculates the expected probability of false positives assuming the
+     * number of inserted elements equals the number of expected elements.
+     *
+     * @return expected probability of false positives.
+     */
+    public double expectedFalsePositiveProbability() {
+        return getFalsePositiveProbability(expectedNumberOfElements);
+    }
+
+    @Override
+    public double getFalsePositiveProbability() {
+        return getFalsePositiveProbability(count());
+    }
+
+    @Override
+    public int getK() {
+        return numberOfHashFunctions;
+    }
+
+    @Override
+    public void add(final E element) {
+        addHash(BloomHashing.hash(hashStrategy, element));
+    }
+
+    /**
+     * Adds a long to the Bloom filter without boxing or encoding it.
+     *
+     * @param value the value to add to the Bloom filter.
+     */
+    public void addLong(final long value) {
+        addHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Adds a CharSequence to the Bloom filter without creating a String or
+     * encoding it to bytes.
+     *
+     * @param value the characters to add to the Bloom filter.
+     */
+    public void add(final CharSequence value) {
+        addHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Adds an array of bytes to the Bloom filter.
+     *
+     * @param bytes array of bytes to add to the Bloom filter.
+     */
+    public void add(final byte[] bytes) {
+        addHash(hashStrategy.hash(bytes, 0, bytes.length));
+    }
+
+    @Override
+    public void addAll(final Collection<? extends E> c) {
+        for (E element : c) {
+            add(element);
+        }
+    }
+
+    @Override
+    public boolean contains(final E element) {
+        return containsHash(BloomHashing.hash(hashStrategy, element));
+    }
+
+    /**
+     * Returns true if the long could have been inserted into the Bloom filter.
+     *
+     * @param value the value to check.
+     * @return true if the value could have been inserted into the Bloom filter.
+     */
+    public boolean containsLong(final long value) {
+        return containsHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Returns true if the CharSequence could have been inserted into the Bloom filter.
+     *
+     * @param value the characters to check.
+     * @return true if the characters could have been inserted into the Bloom filter.
+     */
+    public boolean contains(final CharSequence value) {
+        return containsHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Returns true if the array of bytes could have been inserted into the Bloom filter.
+     *
+     * @param bytes array of bytes to check.
+     * @return true if the array could have been inserted into the Bloom filter.
+     */
+    public boolean contains(final byte[] bytes) {
+        return containsHash(hashStrategy.hash(bytes, 0, bytes.length));
+    }
+
+    @Override
+    public boolean containsAll(final Collection<? extends E> c) {
+        for (E element : c) {
+            if (!contains(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getExpectedNumberOfElements() {
+        return expectedNumberOfElements;
+    }
+
+    @Override
+    public double getExpectedBitsPerElement() {
+        return bitSize() / (double) expectedNumberOfElements;
+    }
+
+    @Override
+    public double getBitsPerElement() {
+        return bitSize() / (double) count();
+    }
+}
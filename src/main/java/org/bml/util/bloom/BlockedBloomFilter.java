@@ -0,0 +1,259 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+
+/**
+ * A cache line blocked Bloom filter as described by Putze, Sanders and Singler
+ * in "Cache-, Hash- and Space-Efficient Bloom Filters". The filter is split
+ * into 64 byte blocks, the size of a cache line on all current x86 and ARM
+ * server parts. An element picks one block and all k of its bits are set in
+ * that block, so a lookup costs at most one cache miss no matter how large the
+ * filter is or how big k gets.
+ * <p>
+ * The price is accuracy. Blocks do not fill evenly so, for the same number of
+ * bits, the false positive rate is higher than a standard {@link BloomFilter}.
+ * {@link #getFalsePositiveProbability()} accounts for this and reports the
+ * blocked rate rather than the standard formula.</p>
+ * <p>
+ * Like {@link BloomFilter} this class is not thread safe.</p>
+ *
+ * @see BloomFilter#createBlocked(double, int)
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class BlockedBloomFilter<E> extends AbstractBloom<E> {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The number of bits in a block. One 64 byte cache line.
+     */
+    public static final int BLOCK_BITS = 512;
+    /**
+     * The number of longs in a block.
+     */
+    private static final int BLOCK_WORDS = BLOCK_BITS / Long.SIZE;
+    /**
+     * The largest number of blocks that keeps {@link #size()} within an int.
+     */
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_BITS;
+
+    /**
+     * The bits of the filter, {@link #BLOCK_WORDS} longs per block.
+     */
+    private final long[] words;
+    /**
+     * The number of blocks.
+     */
+    private final int numBlocks;
+    /**
+     * The number of elements added.
+     */
+    private int numberOfAddedElements;
+
+    /**
+     * Constructs an empty blocked Bloom filter with the same number of bits
+     * and hash functions a {@link BloomFilter} would use for the passed false
+     * positive probability, hashing with {@link BloomHashStrategies#MURMUR3_128}.
+     *
+     * @param falsePositiveProbability the false positive probability of the equivalent standard filter.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     */
+    public BlockedBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements) {
+        this(falsePositiveProbability, expectedNumberOfElements, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Constructs an empty blocked Bloom filter with the same number of bits
+     * and hash functions a {@link BloomFilter} would use for the passed false
+     * positive probability.
+     *
+     * @param falsePositiveProbability the false positive probability of the equivalent standard filter.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @param hashStrategy the hash function used to pick blocks and bits.
+     */
+    public BlockedBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements, final BloomHashStrategy hashStrategy) {
+        this((int) Math.ceil(optimalBitsPerElement(falsePositiveProbability) * expectedNumberOfElements / BLOCK_BITS),
+                expectedNumberOfElements,
+                optimalNumberOfHashFunctions(falsePositiveProbability),
+                hashStrategy);
+    }
+
+    /**
+     * Constructs an empty blocked Bloom filter.
+     *
+     * @param numBlocks the number of 512 bit blocks.
+     * @param expectedNumberOfElements the expected number of elements in the Bloom filter.
+     * @param numberOfHashFunctions the number of bits set per element.
+     * @param hashStrategy the hash function used to pick blocks and bits.
+     * @pre numBlocks>0
+     */
+    public BlockedBloomFilter(final int numBlocks, final int expectedNumberOfElements, final int numberOfHashFunctions, final BloomHashStrategy hashStrategy) {
+        super(hashStrategy, numberOfHashFunctions, expectedNumberOfElements);
+        checkArgument(numBlocks > 0 && numBlocks <= MAX_BLOCKS, "Can not create a BlockedBloomFilter with a numBlocks parameter that does not meet (0 < numBlocks <= %s).", MAX_BLOCKS);
+        this.numBlocks = numBlocks;
+        this.words = new long[numBlocks * BLOCK_WORDS];
+    }
+
+    /**
+     * Picks the block for a hash. Multiply and shift maps the high 32 bits of
+     * the hash onto [0, numBlocks) without a division.
+     *
+     * @param hash a 64 bit hash from the hash strategy.
+     * @return the index of the first word of the block.
+     */
+    private int blockOffset(final long hash) {
+        return (int) (((hash >>> 32) * numBlocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    /**
+     * Steps the per element bit generator. Double hashing inside a 512 bit
+     * block leaves too few distinct bit patterns and measurably raises the
+     * false positive rate, so each of the k bits is taken from the top 9 bits
+     * of a 64 bit linear congruential sequence seeded with the hash.
+     *
+     * @param state the current generator state.
+     * @return the next generator state.
+     */
+    private static long next(final long state) {
+        return state * 0x5851f42d4c957f2dL + 0x14057b7ef767814fL;
+    }
+
+    @Override
+    public void addHash(final long hash) {
+        final int offset = blockOffset(hash);
+        long state = hash;
+        for (int i = getK(); i > 0; i--) {
+            state = next(state);
+            final int bit = (int) (state >>> 55);
+            words[offset + (bit >>> 6)] |= 1L << bit;
+        }
+        numberOfAddedElements++;
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        return containsBlock(blockOffset(hash), hash);
+    }
+
+    /**
+     * Checks a run of hashes in two passes. The first pass only computes the
+     * block of every hash. The second pass probes the blocks, and since no
+     * probe depends on the one before it the CPU can have several block loads
+     * in flight at once instead of stalling on each miss in turn.
+     *
+     * @param hashes 64 bit hashes from this filters hash strategy.
+     * @param offset the index of the first hash to check.
+     * @param length the number of hashes to check.
+     * @param out receives true for each hash that could have been inserted.
+     */
+    @Override
+    public void containsHashes(final long[] hashes, final int offset, final int length, final boolean[] out) {
+        final int[] offsets = new int[Math.min(length, BATCH_SIZE)];
+        for (int start = offset, end = offset + length; start < end; start += offsets.length) {
+            final int run = Math.min(offsets.length, end - start);
+            for (int c = 0; c < run; c++) {
+                offsets[c] = blockOffset(hashes[start + c]);
+            }
+            for (int c = 0; c < run; c++) {
+                out[start + c] = containsBlock(offsets[c], hashes[start + c]);
+            }
+        }
+    }
+
+    /**
+     * Checks the k bits of a hash in its block.
+     *
+     * @param offset the index of the first word of the block.
+     * @param hash a 64 bit hash from the hash strategy.
+     * @return true if all k bits are set.
+     */
+    private boolean containsBlock(final int offset, final long hash) {
+        long state = hash;
+        for (int i = getK(); i > 0; i--) {
+            state = next(state);
+            final int bit = (int) (state >>> 55);
+            if ((words[offset + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the probability of a false positive given the specified
+     * number of inserted elements. The number of elements per block follows a
+     * Poisson distribution and each block is treated as a small standard Bloom
+     * filter with that many elements.
+     *
+     * @param numberOfElements number of inserted elements.
+     * @return probability of a false positive.
+     */
+    @Override
+    public double getFalsePositiveProbability(final double numberOfElements) {
+        final int k = getK();
+        final double lambda = numberOfElements / numBlocks;
+        if (lambda <= 0) {
+            return 0;
+        }
+        final int limit = (int) Math.ceil(lambda + 10 * Math.sqrt(lambda) + 10);
+        double poisson = Math.exp(-lambda), result = 0;
+        for (int load = 0; load <= limit; load++) {
+            if (load > 0) {
+                poisson *= lambda / load;
+            }
+            result += poisson * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) load * k), k);
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(words, 0L);
+        numberOfAddedElements = 0;
+    }
+
+    @Override
+    public int size() {
+        return numBlocks * BLOCK_BITS;
+    }
+
+    @Override
+    public int count() {
+        return numberOfAddedElements;
+    }
+
+    /**
+     * The number of 512 bit blocks in the filter.
+     *
+     * @return the number of blocks.
+     */
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+}
@@ -56,17 +56,27 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
             numberOfHashFunctions; // number of hash functions
     static final Charset charset = Charset.forName("UTF-8"); // encoding used for storing hash values as strings
     static final String hashName = "MD5"; // MD5 gives good enough accuracy in most circumstances. Change to SHA1 if it's needed
-    static final MessageDigest digestFunction;
-
-    static { // The digest method is reused between instances
-        MessageDigest tmp;
-        try {
-            tmp = MessageDigest.getInstance(hashName);
-        } catch (NoSuchAlgorithmException e) {
-            tmp = null;
+    /**
+     * The hash function used to set and probe bits. When null the filter uses the original salted MD5 digest from
+     * {@link #createHashes(byte[], int)} so filters restored through
+     * {@link #BloomFilter(int, int, int, java.util.BitSet)} keep their bit layout.
+     */
+    private final BloomHashStrategy hashStrategy;
+
+    /**
+     * The digest method is reused between filters but not between threads. MessageDigest is stateful so one instance
+     * per thread avoids the global lock a single shared digest requires.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST_FUNCTION = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(hashName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Every Java platform is required to support " + hashName, e);
+            }
         }
-        digestFunction = tmp;
-    }
+    };
 
     /**
      * Constructs an empty Bloom filter. The total length of the Bloom filter will be
@@ -77,6 +87,20 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
      * @param numberOfHashFunctions is the number of hash functions used.
      */
     public BloomFilter(double bitsPerElement, int expectedNumberOfFilterElements, int numberOfHashFunctions) {
+        this(bitsPerElement, expectedNumberOfFilterElements, numberOfHashFunctions, (BloomHashStrategy) null);
+    }
+
+    /**
+     * Constructs an empty Bloom filter that hashes with the passed strategy. The total length of the Bloom filter will
+     * be bitsPerElement * expectedNumberOfFilterElements.
+     *
+     * @param bitsPerElement is the number of bits used per element.
+     * @param expectedNumberOfFilterElements is the expected number of elements the filter will contain.
+     * @param numberOfHashFunctions is the number of hash functions used.
+     * @param hashStrategy the hash function to use or null for the legacy MD5 digest.
+     */
+    public BloomFilter(double bitsPerElement, int expectedNumberOfFilterElements, int numberOfHashFunctions, BloomHashStrategy hashStrategy) {
+        this.hashStrategy = hashStrategy;
         this.expectedNumberOfFilterElements = expectedNumberOfFilterElements;
         this.numberOfHashFunctions = numberOfHashFunctions;
         this.bitsPerElement = bitsPerElement;
@@ -112,6 +136,38 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
                 (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)))); // k = ceil(-log_2(false prob.))
     }
 
+    /**
+     * Constructs an empty Bloom filter with a given false positive probability that hashes with the passed strategy.
+     * Use {@link BloomHashStrategies#MURMUR3_128} for a lock free, allocation free hash path.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @param hashStrategy the hash function to use or null for the legacy MD5 digest.
+     */
+    public BloomFilter(double falsePositiveProbability, int expectedNumberOfElements, BloomHashStrategy hashStrategy) {
+        this(Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2))) / Math.log(2), // c = k / ln(2)
+                expectedNumberOfElements,
+                (int) Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2))), // k = ceil(-log_2(false prob.))
+                hashStrategy);
+    }
+
+    /**
+     * Creates an empty cache line blocked Bloom filter with the same number of bits and hash functions as
+     * <code>new BloomFilter(falsePositiveProbability, expectedNumberOfElements)</code>. Every lookup touches a
+     * single 64 byte block instead of k random positions, which makes lookups on large filters several times faster
+     * at the cost of a somewhat higher false positive rate. The actual rate is reported by
+     * {@link BlockedBloomFilter#getFalsePositiveProbability()}.
+     *
+     * @param <E> Object type that is to be inserted into the Bloom filter.
+     * @param falsePositiveProbability is the false positive probability of the equivalent standard filter.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @return a new, empty blocked Bloom filter.
+     * @see BlockedBloomFilter
+     */
+    public static <E> BlockedBloomFilter<E> createBlocked(double falsePositiveProbability, int expectedNumberOfElements) {
+        return new BlockedBloomFilter<E>(falsePositiveProbability, expectedNumberOfElements);
+    }
+
     /**
      * Construct a new Bloom filter based on existing Bloom filter data.
      *
@@ -126,6 +182,24 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
         this.numberOfAddedElements = actualNumberOfFilterElements;
     }
 
+    /**
+     * Construct a new Bloom filter based on existing Bloom filter data that was built with the passed strategy.
+     *
+     * @param bitSetSize defines how many bits should be used for the filter.
+     * @param expectedNumberOfFilterElements defines the maximum number of elements the filter is expected to contain.
+     * @param actualNumberOfFilterElements specifies how many elements have been inserted into the <code>filterData</code> BitSet.
+     * @param filterData a BitSet representing an existing Bloom filter.
+     * @param hashStrategy the hash function the filter data was built with or null for the legacy MD5 digest.
+     */
+    public BloomFilter(int bitSetSize, int expectedNumberOfFilterElements, int actualNumberOfFilterElements, BitSet filterData, BloomHashStrategy hashStrategy) {
+        this(bitSetSize / (double) expectedNumberOfFilterElements,
+                expectedNumberOfFilterElements,
+                (int) Math.round((bitSetSize / (double) expectedNumberOfFilterElements) * Math.log(2.0)),
+                hashStrategy);
+        this.bitset = filterData;
+        this.numberOfAddedElements = actualNumberOfFilterElements;
+    }
+
     /**
      * Generates a digest based on the contents of a String.
      *
@@ -171,13 +245,11 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
 
         int k = 0;
         byte salt = 0;
+        final MessageDigest digestFunction = DIGEST_FUNCTION.get();
         while (k < hashes) {
-            byte[] digest;
-            synchronized (digestFunction) {
-                digestFunction.update(salt);
-                salt++;
-                digest = digestFunction.digest(data);
-            }
+            digestFunction.update(salt);
+            salt++;
+            final byte[] digest = digestFunction.digest(data);
 
             for (int i = 0; i < digest.length / 4 && k < hashes; i++) {
                 int h = 0;
@@ -219,6 +291,9 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
         if (this.bitset != other.bitset && (this.bitset == null || !this.bitset.equals(other.bitset))) {
             return false;
         }
+        if (this.hashStrategy != other.hashStrategy) {
+            return false;
+        }
         return true;
     }
 
@@ -303,7 +378,11 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
      * @param element is an element to register in the Bloom filter.
      */
     public void add(E element) {
-        add(element.toString().getBytes(charset));
+        if (hashStrategy == null) {
+            add(element.toString().getBytes(charset));
+        } else {
+            addHash(BloomHashing.hash(hashStrategy, element));
+        }
     }
 
     /**
@@ -312,6 +391,10 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
      * @param bytes array of bytes to add to the Bloom filter.
      */
     public void add(byte[] bytes) {
+        if (hashStrategy != null) {
+            addHash(hashStrategy.hash(bytes, 0, bytes.length));
+            return;
+        }
         int[] hashes = createHashes(bytes, numberOfHashFunctions);
         for (int hash : hashes) {
             bitset.set(Math.abs(hash % bitSetSize), true);
@@ -319,6 +402,48 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
         numberOfAddedElements++;
     }
 
+    /**
+     * Adds a long to the Bloom filter. When a hash strategy is set the value is hashed directly without boxing or
+     * encoding. This is equivalent to adding the value as a boxed Long. The method is not an overload of
+     * {@link #add(Object)} because Java widens a char, short or int argument to long ahead of boxing it, so a
+     * <code>BloomFilter&lt;Character&gt;</code> would otherwise add 99 where 'c' was meant.
+     *
+     * @param value the value to add to the Bloom filter.
+     */
+    public void addLong(long value) {
+        if (hashStrategy == null) {
+            add(Long.toString(value).getBytes(charset));
+        } else {
+            addHash(hashStrategy.hash(value));
+        }
+    }
+
+    /**
+     * Adds a CharSequence to the Bloom filter. When a hash strategy is set the characters are hashed directly
+     * without creating a String or encoding to bytes. This is equivalent to adding the value as an element.
+     *
+     * @param value the characters to add to the Bloom filter.
+     */
+    public void add(CharSequence value) {
+        if (hashStrategy == null) {
+            add(value.toString().getBytes(charset));
+        } else {
+            addHash(hashStrategy.hash(value));
+        }
+    }
+
+    /**
+     * Sets the k bits for a hash produced by the hash strategy.
+     *
+     * @param hash a 64 bit hash from the hash strategy.
+     */
+    private void addHash(long hash) {
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            bitset.set(BloomHashing.index(hash, i, bitSetSize));
+        }
+        numberOfAddedElements++;
+    }
+
     /**
      * Adds all elements from a Collection to the Bloom filter.
      *
@@ -339,7 +464,10 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
      * @return true if the element could have been inserted into the Bloom filter.
      */
     public boolean contains(E element) {
-        return contains(element.toString().getBytes(charset));
+        if (hashStrategy == null) {
+            return contains(element.toString().getBytes(charset));
+        }
+        return containsHash(BloomHashing.hash(hashStrategy, element));
     }
 
     /**
@@ -351,6 +479,9 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
      * @return true if the array could have been inserted into the Bloom filter.
      */
     public boolean contains(byte[] bytes) {
+        if (hashStrategy != null) {
+            return containsHash(hashStrategy.hash(bytes, 0, bytes.length));
+        }
         int[] hashes = createHashes(bytes, numberOfHashFunctions);
         for (int hash : hashes) {
             if (!bitset.get(Math.abs(hash % bitSetSize))) {
@@ -360,6 +491,47 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
         return true;
     }
 
+    /**
+     * Returns true if the long could have been inserted into the Bloom filter.
+     *
+     * @param value the value to check.
+     * @return true if the value could have been inserted into the Bloom filter.
+     */
+    public boolean containsLong(long value) {
+        if (hashStrategy == null) {
+            return contains(Long.toString(value).getBytes(charset));
+        }
+        return containsHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Returns true if the CharSequence could have been inserted into the Bloom filter.
+     *
+     * @param value the characters to check.
+     * @return true if the characters could have been inserted into the Bloom filter.
+     */
+    public boolean contains(CharSequence value) {
+        if (hashStrategy == null) {
+            return contains(value.toString().getBytes(charset));
+        }
+        return containsHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Checks the k bits for a hash produced by the hash strategy.
+     *
+     * @param hash a 64 bit hash from the hash strategy.
+     * @return true if all k bits are set.
+     */
+    private boolean containsHash(long hash) {
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            if (!bitset.get(BloomHashing.index(hash, i, bitSetSize))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns true if all the elements of a Collection could have been inserted
      * into the Bloom filter. Use getFalsePositiveProbability() to calculate the
@@ -406,6 +578,15 @@ public class BloomFilter<E> implements Bloom<E>, Serializable {
         return bitset;
     }
 
+    /**
+     * Return the hash strategy used by this Bloom filter.
+     *
+     * @return the hash strategy or null if the legacy MD5 digest is used.
+     */
+    public BloomHashStrategy getHashStrategy() {
+        return hashStrategy;
+    }
+
     /**
      * Returns the number of bits in the Bloom filter. Use count() to retrieve
      * the number of inserted elements.
@@ -0,0 +1,249 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * The built in {@link BloomHashStrategy} implementations.
+ *
+ * @author Brian M. Lima
+ */
+public enum BloomHashStrategies implements BloomHashStrategy {
+
+    /**
+     * The x64 128 bit variant of Austin Appleby's MurmurHash3. The first 64
+     * bits of the 128 bit digest are returned and split into two 32 bit halves
+     * for double hashing. This is the same approach Guava uses for its
+     * MURMUR128_MITZ_32 strategy. Computed entirely on the stack with no
+     * shared state or allocation.
+     */
+    MURMUR3_128((byte) 1) {
+
+        @Override
+        public long hash(final byte[] bytes, final int offset, final int length) {
+            long h1 = 0, h2 = 0, k1, k2;
+            final int blocks = length >>> 4;
+            int i = offset;
+            for (int b = 0; b < blocks; b++, i += 16) {
+                k1 = getLongLE(bytes, i);
+                k2 = getLongLE(bytes, i + 8);
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+            final int tail = length & 15;
+            k1 = 0;
+            k2 = 0;
+            for (int t = tail - 1; t >= 8; t--) {
+                k2 ^= (long) (bytes[i + t] & 0xff) << ((t - 8) << 3);
+            }
+            for (int t = Math.min(tail, 8) - 1; t >= 0; t--) {
+                k1 ^= (long) (bytes[i + t] & 0xff) << (t << 3);
+            }
+            if (tail > 8) {
+                h2 ^= mixK2(k2);
+            }
+            if (tail > 0) {
+                h1 ^= mixK1(k1);
+            }
+            return finish(h1, h2, length);
+        }
+
+        @Override
+        public long hash(final long value) {
+            //A single 8 byte little endian tail, no blocks.
+            return finish(mixK1(value), 0, 8);
+        }
+
+        @Override
+        public long hash(final CharSequence value) {
+            long h1 = 0, h2 = 0, k1, k2;
+            final int length = value.length();
+            final int blocks = length >>> 3;
+            int i = 0;
+            for (int b = 0; b < blocks; b++, i += 8) {
+                k1 = getCharsLE(value, i);
+                k2 = getCharsLE(value, i + 4);
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+            final int tail = length & 7;
+            k1 = 0;
+            k2 = 0;
+            for (int t = tail - 1; t >= 4; t--) {
+                k2 ^= (long) value.charAt(i + t) << ((t - 4) << 4);
+            }
+            for (int t = Math.min(tail, 4) - 1; t >= 0; t--) {
+                k1 ^= (long) value.charAt(i + t) << (t << 4);
+            }
+            if (tail > 4) {
+                h2 ^= mixK2(k2);
+            }
+            if (tail > 0) {
+                h1 ^= mixK1(k1);
+            }
+            return finish(h1, h2, length << 1);
+        }
+    };
+
+    /**
+     * MurmurHash3 x64 128 constant.
+     */
+    private static final long C1 = 0x87c37b91114253d5L;
+    /**
+     * MurmurHash3 x64 128 constant.
+     */
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * The identifier written to persisted filter headers.
+     */
+    private final byte id;
+
+    /**
+     * Creates a new BloomHashStrategies.
+     *
+     * @param id the identifier written to persisted filter headers.
+     */
+    BloomHashStrategies(final byte id) {
+        this.id = id;
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     * Look up a built in strategy by its identifier.
+     *
+     * @param id the identifier as returned by {@link #getId()}.
+     * @return the strategy with the passed identifier.
+     * @throws IllegalArgumentException if no built in strategy has the passed identifier.
+     */
+    public static BloomHashStrategies forId(final byte id) throws IllegalArgumentException {
+        for (BloomHashStrategies strategy : values()) {
+            if (strategy.id == id) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown BloomHashStrategy id " + id);
+    }
+
+    /**
+     * Reads 8 bytes as a little endian long.
+     *
+     * @param bytes the source.
+     * @param i index of the first byte.
+     * @return the long value.
+     */
+    private static long getLongLE(final byte[] bytes, final int i) {
+        return (bytes[i] & 0xffL)
+                | (bytes[i + 1] & 0xffL) << 8
+                | (bytes[i + 2] & 0xffL) << 16
+                | (bytes[i + 3] & 0xffL) << 24
+                | (bytes[i + 4] & 0xffL) << 32
+                | (bytes[i + 5] & 0xffL) << 40
+                | (bytes[i + 6] & 0xffL) << 48
+                | (bytes[i + 7] & 0xffL) << 56;
+    }
+
+    /**
+     * Reads 4 chars as a little endian long.
+     *
+     * @param chars the source.
+     * @param i index of the first char.
+     * @return the long value.
+     */
+    private static long getCharsLE(final CharSequence chars, final int i) {
+        return (long) chars.charAt(i)
+                | (long) chars.charAt(i + 1) << 16
+                | (long) chars.charAt(i + 2) << 32
+                | (long) chars.charAt(i + 3) << 48;
+    }
+
+    /**
+     * Mixes the first half of a block.
+     *
+     * @param k1 the first 8 bytes of a block.
+     * @return the mixed value.
+     */
+    private static long mixK1(final long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    /**
+     * Mixes the second half of a block.
+     *
+     * @param k2 the second 8 bytes of a block.
+     * @return the mixed value.
+     */
+    private static long mixK2(final long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    /**
+     * The MurmurHash3 64 bit finalizer.
+     *
+     * @param k the value to mix.
+     * @return the avalanched value.
+     */
+    private static long fmix64(final long k) {
+        long r = k;
+        r ^= r >>> 33;
+        r *= 0xff51afd7ed558ccdL;
+        r ^= r >>> 33;
+        r *= 0xc4ceb9fe1a85ec53L;
+        r ^= r >>> 33;
+        return r;
+    }
+
+    /**
+     * Finalizes the two 64 bit lanes and returns the first 64 bits of the 128
+     * bit digest.
+     *
+     * @param h1 the first lane.
+     * @param h2 the second lane.
+     * @param length the number of bytes hashed.
+     * @return the first 64 bits of the digest.
+     */
+    private static long finish(final long h1, final long h2, final int length) {
+        long a = h1 ^ length, b = h2 ^ length;
+        a += b;
+        b += a;
+        a = fmix64(a);
+        b = fmix64(b);
+        return a + b;
+    }
+}
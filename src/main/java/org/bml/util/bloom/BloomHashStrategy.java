@@ -0,0 +1,78 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.Serializable;
+
+/**
+ * A pluggable hash function for {@link Bloom} implementations. A strategy
+ * produces a single 64 bit hash per element which the filter expands into k
+ * bit positions using double hashing (Kirsch and Mitzenmacher, "Less Hashing,
+ * Same Performance"). See {@link BloomHashing#index(long, int, int)}.
+ * <p>
+ * Implementations must be stateless so a single instance can be shared by any
+ * number of filters and threads without locking, and should not allocate on
+ * any of the hash paths.</p>
+ *
+ * @see BloomHashStrategies
+ * @author Brian M. Lima
+ */
+public interface BloomHashStrategy extends Serializable {
+
+    /**
+     * A stable identifier for this strategy. The identifier is written along
+     * with persisted filter data so a filter is always re-opened with the hash
+     * function it was built with.
+     *
+     * @return the identifier of this strategy.
+     */
+    byte getId();
+
+    /**
+     * Hashes a range of an array of bytes.
+     *
+     * @param bytes the data to hash.
+     * @param offset the index of the first byte to hash.
+     * @param length the number of bytes to hash.
+     * @return a 64 bit hash of the range.
+     */
+    long hash(byte[] bytes, int offset, int length);
+
+    /**
+     * Hashes a long value without boxing or encoding it.
+     *
+     * @param value the value to hash.
+     * @return a 64 bit hash of the value.
+     */
+    long hash(long value);
+
+    /**
+     * Hashes the UTF-16 code units of a CharSequence directly. No String or
+     * byte array is created, so the result is NOT the same as hashing the
+     * UTF-8 encoding of the same characters.
+     *
+     * @param value the characters to hash.
+     * @return a 64 bit hash of the characters.
+     */
+    long hash(CharSequence value);
+}
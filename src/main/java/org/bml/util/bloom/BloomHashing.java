@@ -0,0 +1,117 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * Shared helpers for filters that use a {@link BloomHashStrategy}. Keeping the
+ * element to hash mapping and the double hashing in one place guarantees that
+ * every filter built on the same strategy sets and probes the same bits for
+ * the same element.
+ *
+ * @author Brian M. Lima
+ */
+public final class BloomHashing {
+
+    /**
+     * Utility class. Do not instantiate.
+     */
+    private BloomHashing() {
+    }
+
+    /**
+     * Hashes an element using the cheapest path for its type.
+     * CharSequences are hashed without encoding, integral numbers are hashed
+     * as longs and byte arrays are hashed directly. Anything else falls back
+     * to hashing the characters of <code>toString()</code>.
+     *
+     * @param strategy the hash function to use.
+     * @param element the element to hash.
+     * @return the 64 bit hash of the element.
+     */
+    public static long hash(final BloomHashStrategy strategy, final Object element) {
+        if (element instanceof CharSequence) {
+            return strategy.hash((CharSequence) element);
+        }
+        if (element instanceof Long || element instanceof Integer || element instanceof Short || element instanceof Byte) {
+            return strategy.hash(((Number) element).longValue());
+        }
+        if (element instanceof byte[]) {
+            final byte[] bytes = (byte[]) element;
+            return strategy.hash(bytes, 0, bytes.length);
+        }
+        return strategy.hash(element.toString());
+    }
+
+    /**
+     * Hashes a run of byte arrays into a run of longs. Hashing a whole batch
+     * before probing keeps the hash function hot and leaves the probe loop
+     * free of anything but independent memory loads.
+     *
+     * @param strategy the hash function to use.
+     * @param elements the byte arrays to hash.
+     * @param offset the index of the first element to hash.
+     * @param length the number of elements to hash.
+     * @param out receives the hashes, starting at index 0.
+     */
+    public static void hashAll(final BloomHashStrategy strategy, final byte[][] elements, final int offset, final int length, final long[] out) {
+        for (int c = 0; c < length; c++) {
+            final byte[] bytes = elements[offset + c];
+            out[c] = strategy.hash(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Computes the i'th bit index for a 64 bit hash using double hashing.
+     * The low and high 32 bits of the hash are used as the two independent
+     * hash functions: <code>g(i) = h1 + (i + 1) * h2</code>.
+     *
+     * @param hash the 64 bit hash of an element.
+     * @param i which of the k hash functions to compute, 0 based.
+     * @param numBits the number of bits in the filter.
+     * @return a bit index in the range [0, numBits).
+     */
+    public static int index(final long hash, final int i, final int numBits) {
+        int combined = (int) hash + (i + 1) * (int) (hash >>> 32);
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % numBits;
+    }
+
+    /**
+     * Computes the i'th bit index for a 64 bit hash in a filter that may have
+     * more than {@link Integer#MAX_VALUE} bits. The second hash function is a
+     * bijective remix of the first so all 64 bits take part in both:
+     * <code>g(i) = h1 + (i + 1) * h2</code>.
+     *
+     * @param hash the 64 bit hash of an element.
+     * @param i which of the k hash functions to compute, 0 based.
+     * @param numBits the number of bits in the filter.
+     * @return a bit index in the range [0, numBits).
+     */
+    public static long index(final long hash, final int i, final long numBits) {
+        final long h2 = Long.rotateLeft(hash, 32) * 0x9e3779b97f4a7c15L;
+        return ((hash + (i + 1) * h2) & Long.MAX_VALUE) % numBits;
+    }
+}
@@ -0,0 +1,213 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe Bloom filter. Bits live in an {@link AtomicLongArray} and are
+ * set with a compare and swap on the containing word, so any number of threads
+ * can add and check elements at the same time without locking. A word that
+ * already has the bit set is never written, which keeps cache lines shared
+ * between cores once the filter has warmed up.
+ * <p>
+ * The element count is kept in a striped {@link LongAdder}. It is exact once
+ * all adds have returned but may lag concurrent adds, so
+ * {@link #getFalsePositiveProbability()} is an approximation while the filter
+ * is being written to.</p>
+ * <p>
+ * This is the filter to share between the workers of an
+ * {@link org.bml.util.elasticconsumer.ElasticConsumer ElasticConsumer}
+ * without an outside lock.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class ConcurrentBloomFilter<E> extends AbstractBloom<E> {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The bits of the filter, 64 per word.
+     */
+    private final AtomicLongArray bits;
+    /**
+     * The number of bits in the filter.
+     */
+    private final int bitSetSize;
+    /**
+     * Striped count of the number of elements added.
+     */
+    private final LongAdder numberOfAddedElements = new LongAdder();
+
+    /**
+     * Constructs an empty Bloom filter with a given false positive probability
+     * that hashes with {@link BloomHashStrategies#MURMUR3_128}.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     */
+    public ConcurrentBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements) {
+        this(falsePositiveProbability, expectedNumberOfElements, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Constructs an empty Bloom filter with a given false positive probability.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @param hashStrategy the hash function used to set and probe bits.
+     */
+    public ConcurrentBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements, final BloomHashStrategy hashStrategy) {
+        this((int) Math.ceil(optimalBitsPerElement(falsePositiveProbability) * expectedNumberOfElements),
+                expectedNumberOfElements,
+                optimalNumberOfHashFunctions(falsePositiveProbability),
+                hashStrategy);
+    }
+
+    /**
+     * Constructs an empty Bloom filter.
+     *
+     * @param bitSetSize defines how many bits should be used in total for the filter.
+     * @param expectedNumberOfElements defines the maximum number of elements the filter is expected to contain.
+     * @param numberOfHashFunctions is the number of hash functions used.
+     * @param hashStrategy the hash function used to set and probe bits.
+     */
+    public ConcurrentBloomFilter(final int bitSetSize, final int expectedNumberOfElements, final int numberOfHashFunctions, final BloomHashStrategy hashStrategy) {
+        super(hashStrategy, numberOfHashFunctions, expectedNumberOfElements);
+        this.bitSetSize = bitSetSize;
+        this.bits = new AtomicLongArray((int) ((bitSetSize + 63L) >>> 6));
+    }
+
+    @Override
+    public void addHash(final long hash) {
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            setBit(BloomHashing.index(hash, i, bitSetSize));
+        }
+        numberOfAddedElements.increment();
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            if (!getBit(BloomHashing.index(hash, i, bitSetSize))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a run of hashes in two passes. The first pass loads only the
+     * first position of every hash. Those loads do not depend on each other so
+     * the CPU keeps many cache misses in flight at once, and most absent keys
+     * are rejected there. The second pass checks the remaining positions of
+     * the survivors.
+     *
+     * @param hashes 64 bit hashes from this filters hash strategy.
+     * @param offset the index of the first hash to check.
+     * @param length the number of hashes to check.
+     * @param out receives true for each hash that could have been inserted.
+     */
+    @Override
+    public void containsHashes(final long[] hashes, final int offset, final int length, final boolean[] out) {
+        final int end = offset + length;
+        for (int c = offset; c < end; c++) {
+            out[c] = getBit(BloomHashing.index(hashes[c], 0, bitSetSize));
+        }
+        final int k = getK();
+        for (int c = offset; c < end; c++) {
+            for (int i = 1; i < k && out[c]; i++) {
+                out[c] = getBit(BloomHashing.index(hashes[c], i, bitSetSize));
+            }
+        }
+    }
+
+    /**
+     * Read a single bit from the Bloom filter.
+     *
+     * @param bit the bit to read.
+     * @return true if the bit is set, false if it is not.
+     */
+    public boolean getBit(final int bit) {
+        return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Atomically set a single bit in the Bloom filter.
+     *
+     * @param bit the bit to set.
+     */
+    public void setBit(final int bit) {
+        final int word = bit >>> 6;
+        final long mask = 1L << bit;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    /**
+     * Sets all bits to false in the Bloom filter. Adds running concurrently with
+     * a clear may or may not survive it.
+     */
+    @Override
+    public void clear() {
+        for (int c = 0; c < bits.length(); c++) {
+            bits.set(c, 0L);
+        }
+        numberOfAddedElements.reset();
+    }
+
+    @Override
+    public int size() {
+        return bitSetSize;
+    }
+
+    @Override
+    public int count() {
+        return (int) numberOfAddedElements.sum();
+    }
+
+    /**
+     * Copies the words of the filter into a new array. The copy is not an
+     * atomic snapshot when other threads are adding elements.
+     *
+     * @return the bits of the filter, 64 per word, lowest bit first.
+     */
+    public long[] toLongArray() {
+        final long[] words = new long[bits.length()];
+        for (int c = 0; c < words.length; c++) {
+            words[c] = bits.get(c);
+        }
+        return words;
+    }
+}
@@ -0,0 +1,327 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A count-min sketch as described by Cormode and Muthukrishnan in "An Improved
+ * Data Stream Summary: The Count-Min Sketch and its Applications". Estimates
+ * how many times each element has been added in a fixed amount of memory no
+ * matter how many distinct elements there are. This makes it a bounded memory
+ * replacement for the value to occurrence maps used by
+ * {@link org.bml.util.profile.field.GenericFieldProfiler GenericFieldProfiler}
+ * on high cardinality fields.
+ * <p>
+ * Estimates never undercount. With probability <code>confidence</code> an
+ * estimate overcounts by at most <code>relativeError * totalCount</code>.
+ * Updates are conservative, as described by Estan and Varghese, only the
+ * counters that hold the current minimum are raised, which lowers the
+ * overcount considerably on skewed data. Conservative update means counts can
+ * not be removed.</p>
+ * <p>
+ * Like {@link BloomFilter} this class is not thread safe.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be counted, e.g. String or Integer.
+ */
+public class CountMinSketch<E> implements Serializable {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The hash function used to pick counters.
+     */
+    private final BloomHashStrategy hashStrategy;
+    /**
+     * The number of counters in a row.
+     */
+    private final int width;
+    /**
+     * The number of rows.
+     */
+    private final int depth;
+    /**
+     * The counters, depth rows of width counters.
+     */
+    private final long[] counters;
+    /**
+     * The sum of all counts added.
+     */
+    private long totalCount;
+
+    /**
+     * Constructs an empty count-min sketch that hashes with
+     * {@link BloomHashStrategies#MURMUR3_128}.
+     *
+     * @param relativeError the overcount bound as a fraction of the total count.
+     * @param confidence the probability an estimate is within the overcount bound.
+     */
+    public CountMinSketch(final double relativeError, final double confidence) {
+        this(relativeError, confidence, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Constructs an empty count-min sketch sized for an error bound.
+     *
+     * @param relativeError the overcount bound as a fraction of the total count.
+     * @param confidence the probability an estimate is within the overcount bound.
+     * @param hashStrategy the hash function used to pick counters.
+     * @pre 0 &lt; relativeError &lt; 1
+     * @pre 0 &lt; confidence &lt; 1
+     */
+    public CountMinSketch(final double relativeError, final double confidence, final BloomHashStrategy hashStrategy) {
+        this(widthFor(relativeError), depthFor(confidence), hashStrategy);
+    }
+
+    /**
+     * Constructs an empty count-min sketch.
+     *
+     * @param width the number of counters in a row.
+     * @param depth the number of rows.
+     * @param hashStrategy the hash function used to pick counters.
+     * @pre width&gt;0
+     * @pre depth&gt;0
+     * @pre hashStrategy!=null
+     */
+    public CountMinSketch(final int width, final int depth, final BloomHashStrategy hashStrategy) {
+        checkArgument(width > 0, "Can not create a CountMinSketch with a width parameter that does not meet (width > 0).");
+        checkArgument(depth > 0, "Can not create a CountMinSketch with a depth parameter that does not meet (depth > 0).");
+        checkArgument((long) width * depth <= Integer.MAX_VALUE, "Can not create a CountMinSketch with more than %s counters.", Integer.MAX_VALUE);
+        checkNotNull(hashStrategy, "Can not create a CountMinSketch with a null hashStrategy parameter.");
+        this.width = width;
+        this.depth = depth;
+        this.hashStrategy = hashStrategy;
+        this.counters = new long[width * depth];
+    }
+
+    /**
+     * The row width needed for a relative error. w = ceil(e / relativeError)
+     *
+     * @param relativeError the overcount bound as a fraction of the total count.
+     * @return the number of counters in a row.
+     */
+    public static int widthFor(final double relativeError) {
+        checkArgument(relativeError > 0 && relativeError < 1, "Can not size a CountMinSketch with a relativeError parameter that does not meet (0 < relativeError < 1).");
+        return (int) Math.ceil(Math.E / relativeError);
+    }
+
+    /**
+     * The number of rows needed for a confidence. d = ceil(ln(1 / (1 - confidence)))
+     *
+     * @param confidence the probability an estimate is within the overcount bound.
+     * @return the number of rows.
+     */
+    public static int depthFor(final double confidence) {
+        checkArgument(confidence > 0 && confidence < 1, "Can not size a CountMinSketch with a confidence parameter that does not meet (0 < confidence < 1).");
+        return Math.max(1, (int) Math.ceil(Math.log(1 / (1 - confidence))));
+    }
+
+    /**
+     * Adds a count for the element a hash was produced from.
+     *
+     * @param hash a 64 bit hash from this sketches hash strategy.
+     * @param count the number of occurrences to add.
+     * @pre count&gt;=0
+     */
+    public void addHash(final long hash, final long count) {
+        checkArgument(count >= 0, "Can not add a negative count to a CountMinSketch.");
+        final long target = estimateHash(hash) + count;
+        for (int row = 0; row < depth; row++) {
+            final int counter = row * width + BloomHashing.index(hash, row, width);
+            if (counters[counter] < target) {
+                counters[counter] = target;
+            }
+        }
+        totalCount += count;
+    }
+
+    /**
+     * Estimates the count for the element a hash was produced from.
+     *
+     * @param hash a 64 bit hash from this sketches hash strategy.
+     * @return the estimated count, never less than the true count.
+     */
+    public long estimateHash(final long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row * width + BloomHashing.index(hash, row, width)]);
+        }
+        return min;
+    }
+
+    /**
+     * Adds one occurrence of an element.
+     *
+     * @param element the element to count.
+     */
+    public void add(final E element) {
+        addHash(BloomHashing.hash(hashStrategy, element), 1);
+    }
+
+    /**
+     * Adds occurrences of an element.
+     *
+     * @param element the element to count.
+     * @param count the number of occurrences to add.
+     */
+    public void add(final E element, final long count) {
+        addHash(BloomHashing.hash(hashStrategy, element), count);
+    }
+
+    /**
+     * Adds one occurrence of a long without boxing or encoding it.
+     *
+     * @param value the value to count.
+     */
+    public void addLong(final long value) {
+        addHash(hashStrategy.hash(value), 1);
+    }
+
+    /**
+     * Adds one occurrence of a CharSequence without creating a String or
+     * encoding it to bytes.
+     *
+     * @param value the characters to count.
+     */
+    public void add(final CharSequence value) {
+        addHash(hashStrategy.hash(value), 1);
+    }
+
+    /**
+     * Adds one occurrence of an array of bytes.
+     *
+     * @param bytes the bytes to count.
+     */
+    public void add(final byte[] bytes) {
+        addHash(hashStrategy.hash(bytes, 0, bytes.length), 1);
+    }
+
+    /**
+     * Estimates the number of times an element has been added.
+     *
+     * @param element the element to estimate.
+     * @return the estimated count, never less than the true count.
+     */
+    public long estimateCount(final E element) {
+        return estimateHash(BloomHashing.hash(hashStrategy, element));
+    }
+
+    /**
+     * Estimates the number of times a long has been added.
+     *
+     * @param value the value to estimate.
+     * @return the estimated count, never less than the true count.
+     */
+    public long estimateCountLong(final long value) {
+        return estimateHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Estimates the number of times a CharSequence has been added.
+     *
+     * @param value the characters to estimate.
+     * @return the estimated count, never less than the true count.
+     */
+    public long estimateCount(final CharSequence value) {
+        return estimateHash(hashStrategy.hash(value));
+    }
+
+    /**
+     * Estimates the number of times an array of bytes has been added.
+     *
+     * @param bytes the bytes to estimate.
+     * @return the estimated count, never less than the true count.
+     */
+    public long estimateCount(final byte[] bytes) {
+        return estimateHash(hashStrategy.hash(bytes, 0, bytes.length));
+    }
+
+    /**
+     * Sets all counters to zero.
+     */
+    public void clear() {
+        Arrays.fill(counters, 0L);
+        totalCount = 0;
+    }
+
+    /**
+     * The sum of all counts added.
+     *
+     * @return the total count.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * The number of counters in a row.
+     *
+     * @return the width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * The number of rows.
+     *
+     * @return the depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The overcount bound as a fraction of the total count. e / w
+     *
+     * @return the relative error.
+     */
+    public double getRelativeError() {
+        return Math.E / width;
+    }
+
+    /**
+     * The probability an estimate is within the overcount bound. 1 - e^-d
+     *
+     * @return the confidence.
+     */
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    /**
+     * Return the hash strategy used by this sketch.
+     *
+     * @return the hash strategy.
+     */
+    public BloomHashStrategy getHashStrategy() {
+        return hashStrategy;
+    }
+}
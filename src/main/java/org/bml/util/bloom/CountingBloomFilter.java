@@ -0,0 +1,249 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+
+/**
+ * A counting Bloom filter as described by Fan, Cao, Almeida and Broder in
+ * "Summary Cache". Each position holds a 4 bit counter instead of a bit so
+ * elements can be removed as well as added. Counters are packed 16 to a long
+ * which makes the filter 4 times the size of a {@link BloomFilter} with the
+ * same false positive probability.
+ * <p>
+ * A counter that reaches 15 is saturated and stays at 15, removes no longer
+ * decrement it. This keeps the filter free of false negatives at the cost of
+ * never clearing that position. With optimally sized filters the chance of any
+ * counter saturating is negligible.</p>
+ * <p>
+ * Removing an element that was never added can clear positions shared with
+ * elements that were and cause false negatives. Only remove elements known to
+ * be in the filter.</p>
+ * <p>
+ * Like {@link BloomFilter} this class is not thread safe.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class CountingBloomFilter<E> extends AbstractBloom<E> {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The number of bits in a counter.
+     */
+    public static final int COUNTER_BITS = 4;
+    /**
+     * The largest value a counter can hold.
+     */
+    public static final int MAX_COUNT = (1 << COUNTER_BITS) - 1;
+    /**
+     * log2 of the number of counters in a long.
+     */
+    private static final int COUNTERS_PER_WORD_SHIFT = 4;
+
+    /**
+     * The counters of the filter, 16 per word.
+     */
+    private final long[] words;
+    /**
+     * The number of counters in the filter.
+     */
+    private final int numCounters;
+    /**
+     * The number of elements added less the number removed.
+     */
+    private int numberOfAddedElements;
+
+    /**
+     * Constructs an empty counting Bloom filter with a given false positive
+     * probability that hashes with {@link BloomHashStrategies#MURMUR3_128}.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     */
+    public CountingBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements) {
+        this(falsePositiveProbability, expectedNumberOfElements, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Constructs an empty counting Bloom filter with a given false positive
+     * probability.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @param hashStrategy the hash function used to pick counters.
+     */
+    public CountingBloomFilter(final double falsePositiveProbability, final int expectedNumberOfElements, final BloomHashStrategy hashStrategy) {
+        this((int) Math.ceil(optimalBitsPerElement(falsePositiveProbability) * expectedNumberOfElements),
+                expectedNumberOfElements,
+                optimalNumberOfHashFunctions(falsePositiveProbability),
+                hashStrategy);
+    }
+
+    /**
+     * Constructs an empty counting Bloom filter.
+     *
+     * @param numCounters the number of 4 bit counters in the filter.
+     * @param expectedNumberOfElements defines the maximum number of elements the filter is expected to contain.
+     * @param numberOfHashFunctions is the number of hash functions used.
+     * @param hashStrategy the hash function used to pick counters.
+     * @pre numCounters>0
+     */
+    public CountingBloomFilter(final int numCounters, final int expectedNumberOfElements, final int numberOfHashFunctions, final BloomHashStrategy hashStrategy) {
+        super(hashStrategy, numberOfHashFunctions, expectedNumberOfElements);
+        checkArgument(numCounters > 0, "Can not create a CountingBloomFilter with a numCounters parameter that does not meet (numCounters > 0).");
+        this.numCounters = numCounters;
+        this.words = new long[(int) ((numCounters + (1L << COUNTERS_PER_WORD_SHIFT) - 1) >>> COUNTERS_PER_WORD_SHIFT)];
+    }
+
+    /**
+     * Reads a single counter.
+     *
+     * @param counter the index of the counter.
+     * @return the value of the counter, 0 to {@link #MAX_COUNT}.
+     */
+    public int getCounter(final int counter) {
+        return (int) (words[counter >>> COUNTERS_PER_WORD_SHIFT] >>> shift(counter)) & MAX_COUNT;
+    }
+
+    /**
+     * The bit offset of a counter within its word.
+     *
+     * @param counter the index of the counter.
+     * @return the bit offset.
+     */
+    private static int shift(final int counter) {
+        return (counter & ((1 << COUNTERS_PER_WORD_SHIFT) - 1)) * COUNTER_BITS;
+    }
+
+    @Override
+    public void addHash(final long hash) {
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            final int counter = BloomHashing.index(hash, i, numCounters);
+            if (getCounter(counter) < MAX_COUNT) {
+                words[counter >>> COUNTERS_PER_WORD_SHIFT] += 1L << shift(counter);
+            }
+        }
+        numberOfAddedElements++;
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            if (getCounter(BloomHashing.index(hash, i, numCounters)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the element a hash was produced from. Nothing is changed unless
+     * {@link #containsHash(long)} is true for the hash.
+     *
+     * @param hash a 64 bit hash from this filters hash strategy.
+     * @return true if the element could have been in the filter and was removed.
+     */
+    public boolean removeHash(final long hash) {
+        if (!containsHash(hash)) {
+            return false;
+        }
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            final int counter = BloomHashing.index(hash, i, numCounters);
+            if (getCounter(counter) < MAX_COUNT) {
+                words[counter >>> COUNTERS_PER_WORD_SHIFT] -= 1L << shift(counter);
+            }
+        }
+        numberOfAddedElements--;
+        return true;
+    }
+
+    /**
+     * Removes an element from the Bloom filter.
+     *
+     * @param element the element to remove.
+     * @return true if the element could have been in the filter and was removed.
+     */
+    public boolean remove(final E element) {
+        return removeHash(BloomHashing.hash(getHashStrategy(), element));
+    }
+
+    /**
+     * Removes a long from the Bloom filter.
+     *
+     * @param value the value to remove.
+     * @return true if the value could have been in the filter and was removed.
+     */
+    public boolean removeLong(final long value) {
+        return removeHash(getHashStrategy().hash(value));
+    }
+
+    /**
+     * Removes a CharSequence from the Bloom filter.
+     *
+     * @param value the characters to remove.
+     * @return true if the characters could have been in the filter and were removed.
+     */
+    public boolean remove(final CharSequence value) {
+        return removeHash(getHashStrategy().hash(value));
+    }
+
+    /**
+     * Removes an array of bytes from the Bloom filter.
+     *
+     * @param bytes array of bytes to remove.
+     * @return true if the array could have been in the filter and was removed.
+     */
+    public boolean remove(final byte[] bytes) {
+        return removeHash(getHashStrategy().hash(bytes, 0, bytes.length));
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(words, 0L);
+        numberOfAddedElements = 0;
+    }
+
+    /**
+     * Returns the number of counters in the Bloom filter, the equivalent of
+     * the number of bits in a {@link BloomFilter}.
+     *
+     * @return the number of counters.
+     */
+    @Override
+    public int size() {
+        return numCounters;
+    }
+
+    @Override
+    public int count() {
+        return numberOfAddedElements;
+    }
+}
@@ -0,0 +1,429 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Bloom filter whose bits live in a memory mapped file instead of on the
+ * heap. Opening an existing filter only maps the file, so filters of several
+ * GB are available immediately after a process restart, do not count against
+ * the heap and add nothing to GC pause times. Writes go straight to the page
+ * cache, {@link #force()} makes them durable.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE} byte header holding the
+ * format version, the hash strategy id, k, the number of bits, the expected
+ * number of elements and the number of added elements. The bits follow the
+ * header and are mapped in segments of up to 1GB so the filter is not limited
+ * to the 2GB a single {@link MappedByteBuffer} can address.</p>
+ * <p>
+ * A filter opened read only can be shared between any number of threads and
+ * processes. A writable filter allows concurrent {@link #contains(Object)}
+ * calls but adds must come from a single thread or be externally
+ * synchronized.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class MappedBloomFilter<E> extends AbstractBloom<E> implements Closeable {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Identifies a file as a MappedBloomFilter. ASCII "BLOM".
+     */
+    private static final int MAGIC = 0x424c4f4d;
+    /**
+     * The file format version.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The number of bytes reserved for the header.
+     */
+    public static final int HEADER_SIZE = 64;
+    /**
+     * Header offset of the hash strategy id.
+     */
+    private static final int HASH_ID_OFFSET = 8;
+    /**
+     * Header offset of k.
+     */
+    private static final int K_OFFSET = 12;
+    /**
+     * Header offset of the number of bits.
+     */
+    private static final int NUM_BITS_OFFSET = 16;
+    /**
+     * Header offset of the expected number of elements.
+     */
+    private static final int EXPECTED_OFFSET = 24;
+    /**
+     * Header offset of the number of added elements.
+     */
+    private static final int COUNT_OFFSET = 32;
+    /**
+     * The largest k a header may hold, the k for the smallest positive false
+     * positive probability.
+     */
+    private static final int MAX_K = optimalNumberOfHashFunctions(Double.MIN_VALUE);
+    /**
+     * log2 of the number of bytes in each mapped data segment.
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    /**
+     * Mask for the byte offset within a data segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    /**
+     * The file backing this filter.
+     */
+    private final File file;
+    /**
+     * True if the file was mapped read only.
+     */
+    private final boolean readOnly;
+    /**
+     * The number of bits in the filter.
+     */
+    private final long numBits;
+    /**
+     * The mapped header.
+     */
+    private final transient MappedByteBuffer header;
+    /**
+     * The mapped bits.
+     */
+    private final transient MappedByteBuffer[] segments;
+    /**
+     * The number of added elements. Mirrored into the header on every add.
+     */
+    private long numberOfAddedElements;
+
+    /**
+     * Maps a filter file. Use {@link #create(File, double, int)} or
+     * {@link #open(File, boolean)}.
+     *
+     * @param file the file backing this filter.
+     * @param channel an open channel on the file.
+     * @param readOnly true to map the file read only.
+     * @param hashStrategy the hash strategy the file was built with.
+     * @param numberOfHashFunctions k.
+     * @param numBits the number of bits in the filter.
+     * @param expectedNumberOfElements the expected number of elements.
+     * @throws IOException on a failure to map the file.
+     */
+    private MappedBloomFilter(final File file, final FileChannel channel, final boolean readOnly, final BloomHashStrategy hashStrategy,
+            final int numberOfHashFunctions, final long numBits, final int expectedNumberOfElements) throws IOException {
+        super(hashStrategy, numberOfHashFunctions, expectedNumberOfElements);
+        this.file = file;
+        this.readOnly = readOnly;
+        this.numBits = numBits;
+        final FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        this.header = channel.map(mode, 0, HEADER_SIZE);
+        final long dataBytes = dataBytes(numBits);
+        this.segments = new MappedByteBuffer[(int) ((dataBytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int c = 0; c < segments.length; c++) {
+            final long position = (long) c << SEGMENT_SHIFT;
+            segments[c] = channel.map(mode, HEADER_SIZE + position, Math.min(SEGMENT_MASK + 1, dataBytes - position));
+        }
+        this.numberOfAddedElements = header.getLong(COUNT_OFFSET);
+    }
+
+    /**
+     * Creates a new, empty filter file sized for a false positive probability
+     * that hashes with {@link BloomHashStrategies#MURMUR3_128}. An existing
+     * file is overwritten.
+     *
+     * @param <E> Object type that is to be inserted into the Bloom filter.
+     * @param file the file to create.
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @return a writable filter backed by the file.
+     * @throws IOException on a failure to create or map the file.
+     */
+    public static <E> MappedBloomFilter<E> create(final File file, final double falsePositiveProbability, final int expectedNumberOfElements) throws IOException {
+        return create(file, falsePositiveProbability, expectedNumberOfElements, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Creates a new, empty filter file sized for a false positive probability.
+     * An existing file is overwritten.
+     *
+     * @param <E> Object type that is to be inserted into the Bloom filter.
+     * @param file the file to create.
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
+     * @param hashStrategy the hash function used to set and probe bits.
+     * @return a writable filter backed by the file.
+     * @throws IOException on a failure to create or map the file.
+     */
+    public static <E> MappedBloomFilter<E> create(final File file, final double falsePositiveProbability, final int expectedNumberOfElements,
+            final BloomHashStrategy hashStrategy) throws IOException {
+        checkArgument(expectedNumberOfElements > 0, "Can not create a MappedBloomFilter with an expectedNumberOfElements parameter that does not meet (expectedNumberOfElements > 0).");
+        final int k = optimalNumberOfHashFunctions(falsePositiveProbability);
+        final long numBits = (long) Math.ceil(optimalBitsPerElement(falsePositiveProbability) * expectedNumberOfElements);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + dataBytes(numBits));
+            final FileChannel channel = raf.getChannel();
+            final MappedBloomFilter<E> filter = new MappedBloomFilter<E>(file, channel, false, hashStrategy, k, numBits, expectedNumberOfElements);
+            filter.header.putInt(0, MAGIC);
+            filter.header.putInt(4, VERSION);
+            filter.header.put(HASH_ID_OFFSET, hashStrategy.getId());
+            filter.header.putInt(K_OFFSET, k);
+            filter.header.putLong(NUM_BITS_OFFSET, numBits);
+            filter.header.putInt(EXPECTED_OFFSET, expectedNumberOfElements);
+            filter.header.putLong(COUNT_OFFSET, 0L);
+            return filter;
+        }
+    }
+
+    /**
+     * Opens an existing filter file built with one of the
+     * {@link BloomHashStrategies}.
+     *
+     * @param <E> Object type that is to be inserted into the Bloom filter.
+     * @param file the file to open.
+     * @param readOnly true to map the file read only. Read only filters can be
+     * shared between processes.
+     * @return a filter backed by the file.
+     * @throws IOException on a failure to map the file or if the file is not a
+     * MappedBloomFilter.
+     */
+    public static <E> MappedBloomFilter<E> open(final File file, final boolean readOnly) throws IOException {
+        return open(file, readOnly, null);
+    }
+
+    /**
+     * Opens an existing filter file.
+     *
+     * @param <E> Object type that is to be inserted into the Bloom filter.
+     * @param file the file to open.
+     * @param readOnly true to map the file read only. Read only filters can be
+     * shared between processes.
+     * @param hashStrategy the hash strategy the file was built with, or null
+     * to look the strategy id up in {@link BloomHashStrategies}.
+     * @return a filter backed by the file.
+     * @throws IOException on a failure to map the file, if the file is not a
+     * MappedBloomFilter, if its header is corrupt or if it was built with a
+     * different hash strategy.
+     */
+    public static <E> MappedBloomFilter<E> open(final File file, final boolean readOnly, final BloomHashStrategy hashStrategy) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw")) {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("File " + file.getAbsolutePath() + " is too short to be a MappedBloomFilter.");
+            }
+            final MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (head.getInt(0) != MAGIC) {
+                throw new IOException("File " + file.getAbsolutePath() + " is not a MappedBloomFilter.");
+            }
+            if (head.getInt(4) != VERSION) {
+                throw new IOException("File " + file.getAbsolutePath() + " has unsupported MappedBloomFilter version " + head.getInt(4));
+            }
+            final byte hashId = head.get(HASH_ID_OFFSET);
+            final BloomHashStrategy strategy;
+            if (hashStrategy == null) {
+                try {
+                    strategy = BloomHashStrategies.forId(hashId);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("File " + file.getAbsolutePath() + " was built with an unknown hash strategy.", e);
+                }
+            } else if (hashStrategy.getId() != hashId) {
+                throw new IOException("File " + file.getAbsolutePath() + " was built with hash strategy id " + hashId + " not " + hashStrategy.getId());
+            } else {
+                strategy = hashStrategy;
+            }
+            final int k = head.getInt(K_OFFSET);
+            if (k <= 0 || k > MAX_K) {
+                throw new IOException("File " + file.getAbsolutePath() + " has an invalid number of hash functions " + k);
+            }
+            final long numBits = head.getLong(NUM_BITS_OFFSET);
+            if (numBits <= 0) {
+                throw new IOException("File " + file.getAbsolutePath() + " has an invalid number of bits " + numBits);
+            }
+            final int expectedNumberOfElements = head.getInt(EXPECTED_OFFSET);
+            if (expectedNumberOfElements <= 0) {
+                throw new IOException("File " + file.getAbsolutePath() + " has an invalid expected number of elements " + expectedNumberOfElements);
+            }
+            if (channel.size() < HEADER_SIZE + dataBytes(numBits)) {
+                throw new IOException("File " + file.getAbsolutePath() + " is truncated.");
+            }
+            return new MappedBloomFilter<E>(file, channel, readOnly, strategy, k, numBits, expectedNumberOfElements);
+        }
+    }
+
+    /**
+     * The number of data bytes needed for a number of bits, rounded up to a
+     * whole number of longs.
+     *
+     * @param numBits the number of bits.
+     * @return the number of data bytes.
+     */
+    private static long dataBytes(final long numBits) {
+        return ((numBits + 63) >>> 6) << 3;
+    }
+
+    /**
+     * Throws if this filter was opened read only.
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("MappedBloomFilter " + file.getAbsolutePath() + " was opened read only.");
+        }
+    }
+
+    @Override
+    public void addHash(final long hash) {
+        checkWritable();
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            final long bit = BloomHashing.index(hash, i, numBits);
+            final long index = bit >>> 3;
+            final MappedByteBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+            final int offset = (int) (index & SEGMENT_MASK);
+            segment.put(offset, (byte) (segment.get(offset) | (1 << (bit & 7))));
+        }
+        header.putLong(COUNT_OFFSET, ++numberOfAddedElements);
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        final int k = getK();
+        for (int i = 0; i < k; i++) {
+            final long bit = BloomHashing.index(hash, i, numBits);
+            final long index = bit >>> 3;
+            if ((segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        checkWritable();
+        for (MappedByteBuffer segment : segments) {
+            for (int c = 0; c < segment.capacity(); c += 8) {
+                segment.putLong(c, 0L);
+            }
+        }
+        numberOfAddedElements = 0;
+        header.putLong(COUNT_OFFSET, 0L);
+    }
+
+    /**
+     * Returns the number of bits in the Bloom filter, capped at
+     * {@link Integer#MAX_VALUE}. Use {@link #bitSize()} for the exact value.
+     *
+     * @return the number of bits in the Bloom filter.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(numBits, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long bitSize() {
+        return numBits;
+    }
+
+    /**
+     * Returns the number of elements added, capped at {@link Integer#MAX_VALUE}.
+     *
+     * @return number of elements added to the Bloom filter.
+     */
+    @Override
+    public int count() {
+        return (int) Math.min(numberOfAddedElements, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The file backing this filter.
+     *
+     * @return the file backing this filter.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Check if this filter was opened read only.
+     *
+     * @return true if this filter was opened read only.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Forces any changes to the header and bits out to the storage device.
+     * Does nothing for read only filters.
+     */
+    public void force() {
+        if (readOnly) {
+            return;
+        }
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Forces any changes out to the storage device. The mapping itself is
+     * released when this filter is garbage collected.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    /**
+     * Serialization only records the backing file. A deserialized filter
+     * re-maps the file.
+     *
+     * @return a filter backed by the same file.
+     * @throws ObjectStreamException if the file can no longer be mapped.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        try {
+            return open(file, readOnly, getHashStrategy());
+        } catch (IOException e) {
+            final InvalidObjectException ex = new InvalidObjectException("Unable to re-map MappedBloomFilter " + file.getAbsolutePath());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+}
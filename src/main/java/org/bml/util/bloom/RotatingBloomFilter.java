@@ -0,0 +1,276 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Bloom filter that forgets. Answers "was this seen in the last window"
+ * questions, such as de-duplicating an unbounded event stream over the last 24
+ * hours, in bounded memory.
+ * <p>
+ * The window is split into a ring of generations, each a
+ * {@link ConcurrentBloomFilter} sized for the elements expected in one
+ * generation. New elements go to the current generation and lookups check all
+ * of them. Every <code>window / generations</code> the oldest generation is
+ * cleared and becomes the current one. An element is therefore remembered for
+ * at least <code>window * (generations - 1) / generations</code> and at most
+ * <code>window</code>. More generations give a sharper cut off at the cost of a
+ * higher compound false positive probability for the same memory.</p>
+ * <p>
+ * Rotation is checked on every add and lookup against a {@link Ticker} so no
+ * background thread is needed. Adds and lookups are thread safe and lock free
+ * outside of rotation.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class RotatingBloomFilter<E> extends AbstractBloom<E> {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The ring of generations.
+     */
+    private final ConcurrentBloomFilter<E>[] generations;
+    /**
+     * The length of one generation in nanoseconds.
+     */
+    private final long generationNanos;
+    /**
+     * The time source used to decide when to rotate.
+     */
+    private transient Ticker ticker;
+    /**
+     * The index of the generation taking new elements.
+     */
+    private volatile int current;
+    /**
+     * The ticker reading at which the next rotation is due.
+     */
+    private volatile long nextRotation;
+
+    /**
+     * Constructs an empty rotating Bloom filter that hashes with
+     * {@link BloomHashStrategies#MURMUR3_128} and keeps time with the system
+     * nano time.
+     *
+     * @param window how long an element is remembered for.
+     * @param unit the unit of the window.
+     * @param numberOfGenerations the number of filters the window is split into.
+     * @param falsePositiveProbability the desired false positive probability of each generation.
+     * @param expectedNumberOfElements the expected number of elements added per generation.
+     */
+    public RotatingBloomFilter(final long window, final TimeUnit unit, final int numberOfGenerations,
+            final double falsePositiveProbability, final int expectedNumberOfElements) {
+        this(window, unit, numberOfGenerations, falsePositiveProbability, expectedNumberOfElements, BloomHashStrategies.MURMUR3_128, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructs an empty rotating Bloom filter.
+     *
+     * @param window how long an element is remembered for.
+     * @param unit the unit of the window.
+     * @param numberOfGenerations the number of filters the window is split into.
+     * @param falsePositiveProbability the desired false positive probability of each generation.
+     * @param expectedNumberOfElements the expected number of elements added per generation.
+     * @param hashStrategy the hash function used to set and probe bits.
+     * @param ticker the time source used to decide when to rotate.
+     * @pre window&gt;0
+     * @pre numberOfGenerations&gt;=2
+     * @pre ticker!=null
+     */
+    @SuppressWarnings("unchecked")
+    public RotatingBloomFilter(final long window, final TimeUnit unit, final int numberOfGenerations,
+            final double falsePositiveProbability, final int expectedNumberOfElements,
+            final BloomHashStrategy hashStrategy, final Ticker ticker) {
+        super(hashStrategy, optimalNumberOfHashFunctions(falsePositiveProbability), expectedNumberOfElements);
+        checkArgument(window > 0, "Can not create a RotatingBloomFilter with a window parameter that does not meet (window > 0).");
+        checkNotNull(unit, "Can not create a RotatingBloomFilter with a null unit parameter.");
+        checkArgument(numberOfGenerations >= 2, "Can not create a RotatingBloomFilter with a numberOfGenerations parameter that does not meet (numberOfGenerations >= 2).");
+        checkNotNull(ticker, "Can not create a RotatingBloomFilter with a null ticker parameter.");
+        this.generationNanos = Math.max(1, unit.toNanos(window) / numberOfGenerations);
+        this.ticker = ticker;
+        this.generations = new ConcurrentBloomFilter[numberOfGenerations];
+        for (int c = 0; c < numberOfGenerations; c++) {
+            generations[c] = new ConcurrentBloomFilter<E>(falsePositiveProbability, expectedNumberOfElements, hashStrategy);
+        }
+        this.nextRotation = ticker.read() + generationNanos;
+    }
+
+    /**
+     * Ticker readings do not survive a JVM restart so a deserialized filter
+     * keeps time with the system ticker and starts a fresh generation.
+     *
+     * @param in the stream to read from.
+     * @throws IOException on read failure.
+     * @throws ClassNotFoundException if a class in the stream can not be found.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ticker = Ticker.systemTicker();
+        this.nextRotation = ticker.read() + generationNanos;
+    }
+
+    /**
+     * Rotates if the current generation has expired. Rotations missed while
+     * the filter was idle are caught up, clearing one generation each, so an
+     * idle period longer than the window empties the filter.
+     */
+    private void maybeRotate() {
+        if (ticker.read() - nextRotation >= 0) {
+            rotate();
+        }
+    }
+
+    /**
+     * Catches up on all rotations that are due.
+     */
+    private synchronized void rotate() {
+        final long behind = ticker.read() - nextRotation;
+        if (behind < 0) {
+            return;
+        }
+        final long missed = behind / generationNanos + 1;
+        for (long c = Math.min(missed, generations.length); c > 0; c--) {
+            final int next = (current + 1) % generations.length;
+            generations[next].clear();
+            current = next;
+        }
+        nextRotation += missed * generationNanos;
+    }
+
+    @Override
+    public void addHash(final long hash) {
+        maybeRotate();
+        generations[current].addHash(hash);
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        maybeRotate();
+        for (ConcurrentBloomFilter<E> generation : generations) {
+            if (generation.containsHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the current probability of a false positive. This is the compound
+     * probability of any generation reporting a false positive.
+     *
+     * @return probability of false positives.
+     */
+    @Override
+    public double getFalsePositiveProbability() {
+        maybeRotate();
+        double none = 1;
+        for (ConcurrentBloomFilter<E> generation : generations) {
+            none *= 1 - generation.getFalsePositiveProbability();
+        }
+        return 1 - none;
+    }
+
+    /**
+     * Calculate the compound probability of a false positive if every
+     * generation held the specified number of elements.
+     *
+     * @param numberOfElements number of elements per generation.
+     * @return probability of a false positive.
+     */
+    @Override
+    public double getFalsePositiveProbability(final double numberOfElements) {
+        return 1 - Math.pow(1 - generations[0].getFalsePositiveProbability(numberOfElements), generations.length);
+    }
+
+    /**
+     * Sets all bits to false in every generation.
+     */
+    @Override
+    public synchronized void clear() {
+        for (ConcurrentBloomFilter<E> generation : generations) {
+            generation.clear();
+        }
+    }
+
+    /**
+     * Returns the total number of bits in all generations, capped at
+     * {@link Integer#MAX_VALUE}.
+     *
+     * @return the number of bits in the Bloom filter.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(bitSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long bitSize() {
+        return (long) generations[0].size() * generations.length;
+    }
+
+    /**
+     * Returns the number of elements added across all live generations, an
+     * upper bound on the number of distinct elements in the window.
+     *
+     * @return number of elements added in the window.
+     */
+    @Override
+    public int count() {
+        maybeRotate();
+        long count = 0;
+        for (ConcurrentBloomFilter<E> generation : generations) {
+            count += generation.count();
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The number of generations the window is split into.
+     *
+     * @return the number of generations.
+     */
+    public int getNumberOfGenerations() {
+        return generations.length;
+    }
+
+    /**
+     * The length of one generation.
+     *
+     * @param unit the unit to return the length in.
+     * @return the length of one generation.
+     */
+    public long getGenerationLength(final TimeUnit unit) {
+        return unit.convert(generationNanos, TimeUnit.NANOSECONDS);
+    }
+}
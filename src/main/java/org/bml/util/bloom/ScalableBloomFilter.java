@@ -0,0 +1,315 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A Bloom filter that grows with the number of elements added, as described
+ * by Almeida, Baquero, Preguica and Hutchison in "Scalable Bloom Filters".
+ * <p>
+ * The filter starts as a single {@link ConcurrentBloomFilter} sized for the
+ * expected number of elements. When that filter is full a new one with
+ * <code>growthFactor</code> times the capacity is chained on and all new
+ * elements go to it. Each new filter is built with a false positive
+ * probability <code>tighteningRatio</code> times lower than the last so the
+ * compound false positive probability converges on the configured bound no
+ * matter how many elements are added. A plain {@link BloomFilter} silently
+ * degrades once it passes its expected number of elements, this filter does
+ * not.</p>
+ * <p>
+ * Adds and lookups are thread safe and lock free. Only growing takes a lock,
+ * which happens a logarithmic number of times.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
+ */
+public class ScalableBloomFilter<E> extends AbstractBloom<E> {
+
+    /**
+     * Version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The default capacity multiplier for each new filter.
+     */
+    public static final int DEFAULT_GROWTH_FACTOR = 2;
+    /**
+     * The default false positive probability multiplier for each new filter.
+     */
+    public static final double DEFAULT_TIGHTENING_RATIO = 0.85;
+    /**
+     * The largest sampling mask for the fullness check. At most one add in 64
+     * sums the striped count of the current filter.
+     */
+    private static final int MAX_GROWTH_CHECK_MASK = 63;
+    /**
+     * Odd multiplier that spreads every bit of a hash into the high bits used
+     * to sample the fullness check.
+     */
+    private static final long GROWTH_CHECK_MIX = 0x9E3779B97F4A7C15L;
+
+    /**
+     * The chain of filters. The last filter takes all new elements.
+     */
+    private final List<ConcurrentBloomFilter<E>> filters = new CopyOnWriteArrayList<ConcurrentBloomFilter<E>>();
+    /**
+     * The compound false positive probability bound.
+     */
+    private final double falsePositiveProbability;
+    /**
+     * The capacity multiplier for each new filter.
+     */
+    private final int growthFactor;
+    /**
+     * The false positive probability multiplier for each new filter.
+     */
+    private final double tighteningRatio;
+    /**
+     * The filter currently taking new elements.
+     */
+    private volatile ConcurrentBloomFilter<E> current;
+
+    /**
+     * Constructs an empty scalable Bloom filter with the default growth factor
+     * and tightening ratio that hashes with {@link BloomHashStrategies#MURMUR3_128}.
+     *
+     * @param falsePositiveProbability the bound on the compound false positive probability.
+     * @param initialNumberOfElements the number of elements the first filter is sized for.
+     */
+    public ScalableBloomFilter(final double falsePositiveProbability, final int initialNumberOfElements) {
+        this(falsePositiveProbability, initialNumberOfElements, DEFAULT_GROWTH_FACTOR, DEFAULT_TIGHTENING_RATIO, BloomHashStrategies.MURMUR3_128);
+    }
+
+    /**
+     * Constructs an empty scalable Bloom filter.
+     *
+     * @param falsePositiveProbability the bound on the compound false positive probability.
+     * @param initialNumberOfElements the number of elements the first filter is sized for.
+     * @param growthFactor the capacity multiplier for each new filter.
+     * @param tighteningRatio the false positive probability multiplier for each new filter.
+     * @param hashStrategy the hash function used to set and probe bits.
+     * @pre 0 &lt; falsePositiveProbability &lt; 1
+     * @pre growthFactor&gt;=1
+     * @pre 0 &lt; tighteningRatio &lt; 1
+     */
+    public ScalableBloomFilter(final double falsePositiveProbability, final int initialNumberOfElements, final int growthFactor,
+            final double tighteningRatio, final BloomHashStrategy hashStrategy) {
+        super(hashStrategy, optimalNumberOfHashFunctions(falsePositiveProbability * (1 - tighteningRatio)), initialNumberOfElements);
+        checkArgument(falsePositiveProbability > 0 && falsePositiveProbability < 1, "Can not create a ScalableBloomFilter with a falsePositiveProbability parameter that does not meet (0 < falsePositiveProbability < 1).");
+        checkArgument(growthFactor >= 1, "Can not create a ScalableBloomFilter with a growthFactor parameter that does not meet (growthFactor >= 1).");
+        checkArgument(tighteningRatio > 0 && tighteningRatio < 1, "Can not create a ScalableBloomFilter with a tighteningRatio parameter that does not meet (0 < tighteningRatio < 1).");
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.growthFactor = growthFactor;
+        this.tighteningRatio = tighteningRatio;
+        this.current = newFilter(0);
+        this.filters.add(current);
+    }
+
+    /**
+     * The false positive probability of the i'th filter in the chain. The sum
+     * of the geometric series is the configured bound.
+     *
+     * @param i the position of the filter in the chain.
+     * @return the false positive probability for the filter.
+     */
+    private double filterFalsePositiveProbability(final int i) {
+        return falsePositiveProbability * (1 - tighteningRatio) * Math.pow(tighteningRatio, i);
+    }
+
+    /**
+     * The number of elements the i'th filter in the chain is sized for.
+     *
+     * @param i the position of the filter in the chain.
+     * @return the capacity of the filter.
+     */
+    private int filterCapacity(final int i) {
+        return (int) Math.min(Integer.MAX_VALUE, getExpectedNumberOfElements() * Math.pow(growthFactor, i));
+    }
+
+    /**
+     * Creates the i'th filter in the chain.
+     *
+     * @param i the position of the filter in the chain.
+     * @return a new empty filter.
+     */
+    private ConcurrentBloomFilter<E> newFilter(final int i) {
+        return new ConcurrentBloomFilter<E>(filterFalsePositiveProbability(i), filterCapacity(i), getHashStrategy());
+    }
+
+    /**
+     * Chains on a new filter if the passed filter is still the current filter
+     * and is full.
+     *
+     * @param full the filter that was found full.
+     */
+    private synchronized void grow(final ConcurrentBloomFilter<E> full) {
+        if (current != full) {
+            return;
+        }
+        current = newFilter(filters.size());
+        filters.add(current);
+    }
+
+    /**
+     * The sampling mask for the fullness check of a filter sized for the
+     * passed capacity. Small filters are checked on every add; larger ones
+     * on about one add in capacity / 64, up to one in 64, so a filter
+     * overfills by at most about 1.5% of its capacity before the chain grows.
+     *
+     * @param capacity the number of elements the filter is sized for.
+     * @return a mask of low bits that must all be clear to check.
+     */
+    static int growthCheckMask(final int capacity) {
+        return Math.min(MAX_GROWTH_CHECK_MASK, Integer.highestOneBit((capacity >>> 6) | 1) - 1);
+    }
+
+    /**
+     * Adds the hash to the current filter. Summing the striped count of the
+     * filter touches every cell, so only a sample of adds, picked by the
+     * mixed hash, checks whether the filter is full.
+     *
+     * @param hash the hash of the element.
+     */
+    @Override
+    public void addHash(final long hash) {
+        final ConcurrentBloomFilter<E> filter = current;
+        filter.addHash(hash);
+        final int sample = (int) ((hash * GROWTH_CHECK_MIX) >>> 32);
+        if ((sample & growthCheckMask(filter.getExpectedNumberOfElements())) == 0
+                && filter.count() >= filter.getExpectedNumberOfElements()) {
+            grow(filter);
+        }
+    }
+
+    @Override
+    public boolean containsHash(final long hash) {
+        for (ConcurrentBloomFilter<E> filter : filters) {
+            if (filter.containsHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the current probability of a false positive. This is the compound
+     * probability of any filter in the chain reporting a false positive.
+     *
+     * @return probability of false positives.
+     */
+    @Override
+    public double getFalsePositiveProbability() {
+        double none = 1;
+        for (ConcurrentBloomFilter<E> filter : filters) {
+            none *= 1 - filter.getFalsePositiveProbability();
+        }
+        return 1 - none;
+    }
+
+    /**
+     * Calculate the compound probability of a false positive if the specified
+     * number of elements were added to an empty chain.
+     *
+     * @param numberOfElements number of inserted elements.
+     * @return probability of a false positive.
+     */
+    @Override
+    public double getFalsePositiveProbability(final double numberOfElements) {
+        double none = 1, remaining = numberOfElements;
+        for (int i = 0; remaining > 0; i++) {
+            final int capacity = filterCapacity(i);
+            final double p = filterFalsePositiveProbability(i);
+            final int k = optimalNumberOfHashFunctions(p);
+            final double bits = Math.ceil(optimalBitsPerElement(p) * capacity);
+            none *= 1 - Math.pow(1 - Math.exp(-k * Math.min(remaining, capacity) / bits), k);
+            remaining -= capacity;
+        }
+        return 1 - none;
+    }
+
+    /**
+     * Returns the number of hash functions used by the filter currently taking
+     * new elements. Each filter in the chain tightens its false positive
+     * probability by the tightening ratio, so k grows by log2(1 / ratio) per
+     * filter: about one more hash function every four filters at the default
+     * ratio of 0.85.
+     *
+     * @return k of the current filter.
+     */
+    @Override
+    public int getK() {
+        return current.getK();
+    }
+
+    /**
+     * Drops all but a new, empty first filter.
+     */
+    @Override
+    public synchronized void clear() {
+        final ConcurrentBloomFilter<E> first = newFilter(0);
+        filters.clear();
+        filters.add(first);
+        current = first;
+    }
+
+    /**
+     * Returns the total number of bits in all filters in the chain, capped at
+     * {@link Integer#MAX_VALUE}.
+     *
+     * @return the number of bits in the Bloom filter.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(bitSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long bitSize() {
+        long bits = 0;
+        for (ConcurrentBloomFilter<E> filter : filters) {
+            bits += filter.size();
+        }
+        return bits;
+    }
+
+    @Override
+    public int count() {
+        long count = 0;
+        for (ConcurrentBloomFilter<E> filter : filters) {
+            count += filter.count();
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The number of filters in the chain.
+     *
+     * @return the number of filters in the chain.
+     */
+    public int getNumberOfFilters() {
+        return filters.size();
+    }
+}
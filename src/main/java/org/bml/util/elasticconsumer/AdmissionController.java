@@ -0,0 +1,348 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for an {@link ElasticConsumer} input queue. Objects are
+ * admitted while the queue depth is under an admission limit scaled by their
+ * {@link Priority}, and the limit is adjusted once an interval by additive
+ * increase, multiplicative decrease on the queueing delay.
+ * <p>
+ * The delay test follows CoDel: what matters is not how long the queue gets
+ * during a burst but whether it ever drains. The smallest depth seen during an
+ * interval is the standing queue, and dividing it by the dequeue rate over the
+ * interval gives the delay every object waited regardless of bursts. When that
+ * is over the target delay the limit is cut by the back off factor, otherwise
+ * it grows by the increase step, between the minimum and maximum limit.
+ * Lower priorities hit their share of a falling limit first and are shed,
+ * while the queue keeps room for higher priorities.</p>
+ * <p>
+ * Depth is sampled on each call to {@link #admit(Priority, int)} and the
+ * dequeue rate is derived from {@link #onEnqueued()} and the change in depth,
+ * so every object put on the queue must be reported. {@link ElasticConsumer}
+ * does this for all of its offer methods.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class AdmissionController {
+
+    /**
+     * The default queueing delay above which the limit comes down, CoDel's
+     * 5 milliseconds.
+     */
+    public static final long DEFAULT_TARGET_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    /**
+     * The default interval between limit adjustments, CoDel's 100
+     * milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * The default factor the limit is multiplied by when the delay is over
+     * target.
+     */
+    public static final double DEFAULT_BACKOFF = 0.75;
+
+    /**
+     * The largest the admission limit gets, usually the queue capacity.
+     */
+    private final int maxLimit;
+    /**
+     * The smallest the admission limit gets.
+     */
+    private int minLimit;
+    /**
+     * The amount the limit grows by in an interval under target.
+     */
+    private int increase;
+    /**
+     * The factor the limit is multiplied by in an interval over target.
+     */
+    private double backoff = DEFAULT_BACKOFF;
+    /**
+     * The standing queueing delay that is tolerated.
+     */
+    private long targetDelayNanos = DEFAULT_TARGET_DELAY_NANOS;
+    /**
+     * The time between limit adjustments.
+     */
+    private volatile long intervalNanos = DEFAULT_INTERVAL_NANOS;
+    /**
+     * The time source.
+     */
+    private final Ticker ticker;
+
+    /**
+     * The current admission limit.
+     */
+    private volatile int limit;
+    /**
+     * The standing queue delay estimated for the last interval.
+     */
+    private volatile long delayNanos = 0;
+    /**
+     * The smallest queue depth seen in the current interval.
+     */
+    private final AtomicInteger minDepth = new AtomicInteger(Integer.MAX_VALUE);
+    /**
+     * Objects put on the queue.
+     */
+    private final LongAdder enqueued = new LongAdder();
+    /**
+     * Objects shed, by priority ordinal.
+     */
+    private final AtomicLongArray shed = new AtomicLongArray(Priority.values().length);
+    /**
+     * When the current interval started.
+     */
+    private volatile long intervalStart;
+    /**
+     * The queue depth when the current interval started.
+     */
+    private int intervalStartDepth = 0;
+    /**
+     * The enqueued count when the current interval started.
+     */
+    private long intervalStartEnqueued = 0;
+
+    /**
+     * Creates an AdmissionController with the default target and interval
+     * that starts fully open.
+     *
+     * @param maxLimit the largest the admission limit gets, usually the queue
+     * capacity.
+     * @pre maxLimit&gt;0
+     */
+    public AdmissionController(final int maxLimit) {
+        this(maxLimit, Ticker.systemTicker());
+    }
+
+    /**
+     * Creates an AdmissionController with the default target and interval
+     * that starts fully open.
+     *
+     * @param maxLimit the largest the admission limit gets, usually the queue
+     * capacity.
+     * @param ticker the time source.
+     * @pre maxLimit&gt;0
+     * @pre ticker!=null
+     */
+    public AdmissionController(final int maxLimit, final Ticker ticker) {
+        checkArgument(maxLimit > 0, "Can not create an AdmissionController with a maxLimit parameter that does not meet (maxLimit > 0).");
+        checkNotNull(ticker, "Can not create an AdmissionController with a null ticker parameter.");
+        this.maxLimit = maxLimit;
+        this.minLimit = Math.max(1, maxLimit / 10);
+        this.increase = Math.max(1, maxLimit / 20);
+        this.limit = maxLimit;
+        this.ticker = ticker;
+        this.intervalStart = ticker.read();
+    }
+
+    /**
+     * Sets the smallest the admission limit gets. Defaults to a tenth of the
+     * maximum.
+     *
+     * @param minLimit the smallest admission limit.
+     * @return this controller.
+     * @pre 0 &lt; minLimit &lt;= maxLimit
+     */
+    public synchronized AdmissionController setMinLimit(final int minLimit) {
+        checkArgument(minLimit > 0 && minLimit <= maxLimit, "Can not set a minLimit that does not meet (0 < minLimit <= maxLimit).");
+        this.minLimit = minLimit;
+        this.limit = Math.max(limit, minLimit);
+        return this;
+    }
+
+    /**
+     * Sets the amount the limit grows by in an interval under target.
+     * Defaults to a twentieth of the maximum.
+     *
+     * @param increase the additive increase.
+     * @return this controller.
+     * @pre increase&gt;0
+     */
+    public synchronized AdmissionController setIncrease(final int increase) {
+        checkArgument(increase > 0, "Can not set an increase that does not meet (increase > 0).");
+        this.increase = increase;
+        return this;
+    }
+
+    /**
+     * Sets the factor the limit is multiplied by in an interval over target.
+     *
+     * @param backoff the multiplicative decrease.
+     * @return this controller.
+     * @pre 0 &lt; backoff &lt; 1
+     */
+    public synchronized AdmissionController setBackoff(final double backoff) {
+        checkArgument(backoff > 0 && backoff < 1, "Can not set a backoff that does not meet (0 < backoff < 1).");
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * Sets the standing queueing delay that is tolerated.
+     *
+     * @param targetDelay the target delay.
+     * @param unit the unit of the target delay.
+     * @return this controller.
+     * @pre targetDelay&gt;0
+     */
+    public synchronized AdmissionController setTargetDelay(final long targetDelay, final TimeUnit unit) {
+        checkArgument(targetDelay > 0, "Can not set a targetDelay that does not meet (targetDelay > 0).");
+        this.targetDelayNanos = unit.toNanos(targetDelay);
+        return this;
+    }
+
+    /**
+     * Sets the time between limit adjustments. It should be a few times the
+     * normal time to process an object.
+     *
+     * @param interval the interval.
+     * @param unit the unit of the interval.
+     * @return this controller.
+     * @pre interval&gt;0
+     */
+    public synchronized AdmissionController setInterval(final long interval, final TimeUnit unit) {
+        checkArgument(interval > 0, "Can not set an interval that does not meet (interval > 0).");
+        this.intervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Decides whether to admit an object. Objects are admitted while the
+     * depth is under the priority's share of the admission limit.
+     * {@link Priority#CRITICAL} objects are always admitted.
+     *
+     * @param priority the priority of the object.
+     * @param depth the current depth of the queue.
+     * @return true to admit, false if the object should be shed.
+     */
+    public boolean admit(final Priority priority, final int depth) {
+        final long now = ticker.read();
+        if (now - intervalStart >= intervalNanos) {
+            adjust(now, depth);
+        }
+        int min;
+        while (depth < (min = minDepth.get()) && !minDepth.compareAndSet(min, depth)) {
+        }
+        if (depth < limit * priority.getShare()) {
+            return true;
+        }
+        shed.incrementAndGet(priority.ordinal());
+        return false;
+    }
+
+    /**
+     * Closes an interval and adjusts the limit.
+     *
+     * @param now the current time.
+     * @param depth the current depth of the queue.
+     */
+    private synchronized void adjust(final long now, final int depth) {
+        final long elapsed = now - intervalStart;
+        if (elapsed < intervalNanos) {
+            return;
+        }
+        final long enqueuedNow = enqueued.sum();
+        final long dequeued = Math.max(0, enqueuedNow - intervalStartEnqueued - (depth - intervalStartDepth));
+        final int standing = Math.min(minDepth.getAndSet(Integer.MAX_VALUE), depth);
+        if (standing == 0) {
+            delayNanos = 0;
+        } else if (dequeued == 0) {
+            delayNanos = Long.MAX_VALUE;
+        } else {
+            delayNanos = (long) (standing * (elapsed / (double) dequeued));
+        }
+        if (delayNanos > targetDelayNanos) {
+            limit = Math.max(minLimit, (int) (limit * backoff));
+        } else {
+            limit = Math.min(maxLimit, limit + increase);
+        }
+        intervalStart = now;
+        intervalStartDepth = depth;
+        intervalStartEnqueued = enqueuedNow;
+    }
+
+    /**
+     * Records that an object was put on the queue.
+     */
+    public void onEnqueued() {
+        enqueued.increment();
+    }
+
+    /**
+     * The current admission limit.
+     *
+     * @return the admission limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * The standing queueing delay estimated at the end of the last interval.
+     *
+     * @return the delay in nanoseconds, {@link Long#MAX_VALUE} if nothing was
+     * dequeued while the queue never drained.
+     */
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * The standing queueing delay that is tolerated.
+     *
+     * @return the target delay in nanoseconds.
+     */
+    public synchronized long getTargetDelayNanos() {
+        return targetDelayNanos;
+    }
+
+    /**
+     * The number of objects shed at a priority.
+     *
+     * @param priority the priority.
+     * @return the number of objects shed at the priority.
+     */
+    public long getShedCount(final Priority priority) {
+        return shed.get(priority.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("limit=").append(limit)
+                .append(" delayNanos=").append(delayNanos == Long.MAX_VALUE ? "inf" : String.valueOf(delayNanos));
+        for (Priority priority : Priority.values()) {
+            builder.append(" shed").append(priority).append('=').append(shed.get(priority.ordinal()));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time reading of an {@link ElasticConsumer} drain, logged while
+ * the drain runs, readable from
+ * {@link ElasticConsumer#getDrainProgress()} and returned when it finishes.
+ *
+ * @author Brian M. Lima
+ */
+public final class DrainProgress {
+
+    /**
+     * The number of workers being drained.
+     */
+    private final int workers;
+    /**
+     * The number of workers whose run loops have returned.
+     */
+    private final int workersStopped;
+    /**
+     * The number of objects still in the input queue.
+     */
+    private final int queued;
+    /**
+     * The number of objects handed to the spill sink.
+     */
+    private final int spilled;
+    /**
+     * The number of objects the spill sink failed to store.
+     */
+    private final int lost;
+    /**
+     * The time since the drain started in nanoseconds.
+     */
+    private final long elapsedNanos;
+    /**
+     * True if the deadline passed before every worker stopped.
+     */
+    private final boolean timedOut;
+    /**
+     * True once the drain has finished.
+     */
+    private final boolean finished;
+
+    /**
+     * Creates a new DrainProgress.
+     *
+     * @param workers the number of workers being drained.
+     * @param workersStopped the number of workers whose run loops have returned.
+     * @param queued the number of objects still in the input queue.
+     * @param spilled the number of objects handed to the spill sink.
+     * @param lost the number of objects the spill sink failed to store.
+     * @param elapsedNanos the time since the drain started in nanoseconds.
+     * @param timedOut true if the deadline passed before every worker stopped.
+     * @param finished true once the drain has finished.
+     */
+    public DrainProgress(final int workers, final int workersStopped, final int queued, final int spilled, final int lost,
+            final long elapsedNanos, final boolean timedOut, final boolean finished) {
+        this.workers = workers;
+        this.workersStopped = workersStopped;
+        this.queued = queued;
+        this.spilled = spilled;
+        this.lost = lost;
+        this.elapsedNanos = elapsedNanos;
+        this.timedOut = timedOut;
+        this.finished = finished;
+    }
+
+    /**
+     * Getter for the number of workers being drained.
+     *
+     * @return the number of workers being drained.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Getter for the number of workers whose run loops have returned.
+     *
+     * @return the number of stopped workers.
+     */
+    public int getWorkersStopped() {
+        return workersStopped;
+    }
+
+    /**
+     * Getter for the number of objects still in the input queue.
+     *
+     * @return the number of queued objects.
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Getter for the number of objects handed to the spill sink.
+     *
+     * @return the number of spilled objects.
+     */
+    public int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Getter for the number of objects the spill sink failed to store.
+     *
+     * @return the number of lost objects.
+     */
+    public int getLost() {
+        return lost;
+    }
+
+    /**
+     * Getter for the time since the drain started in nanoseconds.
+     *
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * True if the deadline passed before every worker stopped. Workers still
+     * running finish the object they are on and then stop.
+     *
+     * @return true if the drain timed out.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * True once the drain has finished.
+     *
+     * @return true if the drain has finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WORKERS_STOPPED=%s/%s QUEUED=%s SPILLED=%s LOST=%s ELAPSED_MS=%s TIMED_OUT=%s FINISHED=%s",
+                workersStopped, workers, queued, spilled, lost, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), timedOut, finished);
+    }
+}
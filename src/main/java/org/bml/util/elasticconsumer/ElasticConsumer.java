@@ -22,18 +22,33 @@ package org.bml.util.elasticconsumer;
  *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
  * #L%
  */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.EnumMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
 
+import org.bml.util.exception.OverloadedException;
+import org.bml.util.exception.RejectionReason;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.rt.telemetry.LatencyHistogram;
+import org.bml.util.threads.SpillSink;
 import org.bml.util.threads.WorkerThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +62,44 @@ import org.slf4j.LoggerFactory;
  *
  * This particular version latches onto a BlockingQueue and continues working.
  *
+ * Set a {@link ScalingPolicy} to have the consumer grow and shrink its pool of
+ * workers on its own based on queue depth, enqueue and dequeue rates and worker
+ * cycle latency. Without one the pool only changes size through
+ * {@link #addWorkerThread()} and {@link #removeWorkerThread(boolean)}.
+ *
+ * Workers are started as their own platform threads unless a worker
+ * {@link Executor} is set, in which case their run loops are executed on it.
+ * With a virtual thread executor from
+ * {@link org.bml.util.threads.WorkerExecutors#newVirtualThreadExecutor(String)}
+ * a consumer can run thousands of blocking workers. The consumer's own
+ * reporting and scaling loop is always a platform thread.
+ *
+ * Build the consumer on a {@link PartitionedBlockingQueue} to keep objects with
+ * the same key in order, or on a {@link WorkStealingBlockingQueue} to give
+ * each worker a local deque that idle workers steal from. Both are
+ * {@link WorkerLaneQueue}s. The consumer registers each worker it adds with
+ * the queue and unregisters each worker it removes, which rebalances the
+ * lanes across the remaining workers.
+ *
+ * {@link #offer(Object, long, TimeUnit)} blocks up to its timeout and returns
+ * false whatever the cause. {@link #tryOffer(Object, Priority)} and
+ * {@link #offerAsync(Object, Priority, long, TimeUnit)} instead throw an
+ * {@link OverloadedException} or {@link UnavailableException} carrying a
+ * {@link RejectionReason}, so callers can tell saturation from shutdown, and
+ * with an {@link AdmissionController} set they shed low priority objects
+ * early, before the queue fills and queueing delay builds up.
+ *
+ * {@link #doShutdown()} stops workers after their current object and
+ * abandons whatever is still queued. {@link #drain(long, TimeUnit, SpillSink)}
+ * lets workers finish the queue, up to a deadline, and hands anything left
+ * after it to a {@link SpillSink}. Both wait on worker termination rather than
+ * polling for it, and log their progress while they wait.
+ *
+ * Build the consumer on a {@link SpillingBlockingQueue} to hold a bounded
+ * number of objects on the heap and spill the rest to a memory mapped log on
+ * local disk, so a downstream outage fills the disk instead of the heap or
+ * dropping objects.
+ *
  * @author Brian M. Lima
  * @param <D> The Data container class for data that is to be consumed. This is
  * the result of a producer in a producer consumer pattern.
@@ -65,7 +118,7 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      * Either way there should be a default logger and a check method to setup
      * debug level logging to the console if no other setup is provided.
      */
-    private Logger log = LoggerFactory.getLogger(ElasticConsumer.class);
+    private volatile Logger log = LoggerFactory.getLogger(ElasticConsumer.class);
 
     /**
      * I have to figure out what the correct pattern for logging is. 1. Static
@@ -79,7 +132,7 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      *
      * @return the log
      */
-    public synchronized Logger getLog() {
+    public Logger getLog() {
         return log;
     }
 
@@ -95,7 +148,7 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      *
      * @param log the log to set
      */
-    public synchronized void setLog(final Logger log) {
+    public void setLog(final Logger log) {
         this.log = log;
     }
 
@@ -189,10 +242,16 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
         }
     }
     /**
-     * The Set of WorkerThread implementations operating on behalf of this
-     * ElasticConsumer.
+     * The WorkerThread implementations operating on behalf of this
+     * ElasticConsumer and counts of their states.
+     */
+    private final WorkerRegistry registry = new WorkerRegistry();
+    /**
+     * A read only view of the WorkerThread implementations operating on behalf
+     * of this ElasticConsumer, in the order they were added. Iterating it
+     * never blocks adding or removing workers.
      */
-    protected Set<WorkerThread> workers = null;
+    protected final Set<WorkerThread> workers = registry.getWorkers();
 
     /**
      * The input queue.
@@ -228,6 +287,257 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      */
     private Date lastFlushCallDate = null;
 
+    /**
+     * Should workers track their run cycle times.
+     */
+    private boolean trackWorkerCycles = false;
+
+    /**
+     * The default number of milliseconds between scaling decisions.
+     */
+    private static final long DEFAULT_SCALING_INTERVAL = 1000L;
+
+    /**
+     * The policy that sizes the worker pool, null for a fixed pool.
+     */
+    private ScalingPolicy scalingPolicy = null;
+
+    /**
+     * The number of milliseconds between scaling decisions.
+     */
+    private long scalingInterval = DEFAULT_SCALING_INTERVAL;
+
+    /**
+     * The executor worker run loops are started on, null to start each worker
+     * as its own thread.
+     */
+    private Executor workerExecutor = null;
+
+    /**
+     * Getter for the executor worker run loops are started on.
+     *
+     * @return the workerExecutor or null if workers are started as their own
+     * threads.
+     */
+    public synchronized Executor getWorkerExecutor() {
+        return workerExecutor;
+    }
+
+    /**
+     * Sets the executor worker run loops are started on. Only affects workers
+     * added after the call. The consumer does not shut the executor down.
+     *
+     * @param workerExecutor the workerExecutor to set, null to start each
+     * worker as its own thread.
+     */
+    public synchronized void setWorkerExecutor(final Executor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+    }
+
+    /**
+     * Set once a shutdown has started so the scaling policy can not replace
+     * the workers being stopped.
+     */
+    private volatile boolean shuttingDown = false;
+
+    /**
+     * Admission control for {@link #tryOffer(Object, Priority)} and
+     * {@link #offerAsync(Object, Priority, long, TimeUnit)}, null to admit
+     * until the queue is full.
+     */
+    private volatile AdmissionController admissionController = null;
+
+    /**
+     * The executor {@link #offerAsync(Object, Priority, long, TimeUnit)} waits
+     * for queue space on, null for this consumer's own daemon pool.
+     */
+    private volatile Executor asyncOfferExecutor = null;
+
+    /**
+     * This consumer's own pool for asynchronous offers, created on the first
+     * offer that has to wait when no executor was set. The waits block, so
+     * they are kept off the common fork join pool.
+     */
+    private volatile ExecutorService defaultAsyncOfferExecutor = null;
+
+    /**
+     * Guards the creation of the default async offer executor without taking
+     * the consumer lock scaling and shutdown hold.
+     */
+    private final Object defaultAsyncOfferLock = new Object();
+
+    /**
+     * Getter for the admission controller.
+     *
+     * @return the admissionController or null if objects are admitted until
+     * the queue is full.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Sets the admission controller used by the priority offer methods.
+     *
+     * @param admissionController the admissionController to set, null to
+     * admit until the queue is full.
+     */
+    public void setAdmissionController(final AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Getter for the executor asynchronous offers wait for queue space on.
+     *
+     * @return the asyncOfferExecutor or null for this consumer's own daemon
+     * pool.
+     */
+    public Executor getAsyncOfferExecutor() {
+        return asyncOfferExecutor;
+    }
+
+    /**
+     * Sets the executor asynchronous offers wait for queue space on. Offers
+     * that find space right away complete on the calling thread.
+     *
+     * @param asyncOfferExecutor the asyncOfferExecutor to set, null for this
+     * consumer's own daemon pool. The executor must be able to block one
+     * thread per waiting offer for up to its timeout.
+     */
+    public void setAsyncOfferExecutor(final Executor asyncOfferExecutor) {
+        this.asyncOfferExecutor = asyncOfferExecutor;
+    }
+
+    /**
+     * The executor waiting asynchronous offers run on when none was set. A
+     * cached pool of daemon threads is created on first use and shut down with
+     * the consumer.
+     *
+     * @return this consumer's own async offer pool.
+     */
+    private ExecutorService getDefaultAsyncOfferExecutor() {
+        ExecutorService executor = defaultAsyncOfferExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (defaultAsyncOfferLock) {
+            if (defaultAsyncOfferExecutor == null) {
+                final String name = getName() + " async offer";
+                defaultAsyncOfferExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return defaultAsyncOfferExecutor;
+        }
+    }
+
+    /**
+     * Lets any waiting asynchronous offers on this consumer's own pool finish
+     * and releases its threads.
+     */
+    private void shutdownDefaultAsyncOfferExecutor() {
+        synchronized (defaultAsyncOfferLock) {
+            if (defaultAsyncOfferExecutor != null) {
+                defaultAsyncOfferExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The number of objects successfully offered through this consumer.
+     */
+    private final LongAdder enqueued = new LongAdder();
+
+    /**
+     * The enqueued count at the last scaling decision.
+     */
+    private long lastEnqueued = 0;
+
+    /**
+     * The queue depth at the last scaling decision.
+     */
+    private int lastQueueDepth = 0;
+
+    /**
+     * Each worker's cycle histogram as of the last scaling decision. Scaling
+     * reads the cycles run since then from the difference, so worker
+     * histograms are never reset and stay cumulative for reports and metrics.
+     */
+    private Map<WorkerThread, LatencyHistogram> lastCycleSnapshots = new IdentityHashMap<WorkerThread, LatencyHistogram>();
+
+    /**
+     * The {@link System#nanoTime()} of the last scaling decision.
+     */
+    private long lastScalingNanos = System.nanoTime();
+
+    /**
+     * Getter for the policy that sizes the worker pool.
+     *
+     * @return the scalingPolicy or null if the pool is fixed.
+     */
+    public synchronized ScalingPolicy getScalingPolicy() {
+        return scalingPolicy;
+    }
+
+    /**
+     * Sets the policy that sizes the worker pool. The policy is consulted every
+     * scaling interval from this consumer's own thread once it is started.
+     *
+     * @param scalingPolicy the scalingPolicy to set, null for a fixed pool.
+     */
+    public synchronized void setScalingPolicy(final ScalingPolicy scalingPolicy) {
+        this.scalingPolicy = scalingPolicy;
+    }
+
+    /**
+     * The number of milliseconds between scaling decisions.
+     *
+     * @return the scalingInterval
+     */
+    public synchronized long getScalingInterval() {
+        return scalingInterval;
+    }
+
+    /**
+     * The number of milliseconds between scaling decisions.
+     *
+     * @param scalingInterval the scalingInterval to set.
+     */
+    public synchronized void setScalingInterval(final long scalingInterval) {
+        if (scalingInterval < 1) {
+            throw new IllegalArgumentException("Can not set a scaling interval less than 1.");
+        }
+        this.scalingInterval = scalingInterval;
+    }
+
+    /**
+     * Should workers track their run cycle times.
+     *
+     * @return true if workers track their run cycle times.
+     */
+    public synchronized boolean getTrackWorkerCycles() {
+        return trackWorkerCycles;
+    }
+
+    /**
+     * Turns run cycle tracking on or off for all current workers and any
+     * workers added later.
+     *
+     * @param trackWorkerCycles true if workers should track their run cycle
+     * times.
+     */
+    public synchronized void setTrackWorkerCycles(final boolean trackWorkerCycles) {
+        this.trackWorkerCycles = trackWorkerCycles;
+        for (WorkerThread thread : workers) {
+            thread.setTrackInstanceCycles(trackWorkerCycles);
+        }
+    }
+
     @Override
     public synchronized void start() {
         Logger aLog = this.getLog();
@@ -257,12 +567,20 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
     @Override
     public void doIt() {
         Logger aLog = this.getLog();
+        long nextReport = 0, now;
         while (this.getShouldRun()) {
-            if (aLog.isInfoEnabled()) {
-                this.logWorkerProfileMetricsBrief();
+            if (this.getScalingPolicy() != null) {
+                this.scale();
+            }
+            now = System.currentTimeMillis();
+            if (now >= nextReport) {
+                if (aLog.isInfoEnabled()) {
+                    this.logWorkerProfileMetricsBrief();
+                }
+                nextReport = now + reportInterval;
             }
             try {
-                sleep(reportInterval);
+                sleep(this.getScalingPolicy() == null ? reportInterval : Math.min(reportInterval, this.getScalingInterval()));
             } catch (InterruptedException ex) {
                 if (aLog.isWarnEnabled()) {
                     aLog.warn("{} InterruptedException caught: Attempting soft shutdown.", getLogPrefix());
@@ -273,10 +591,27 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
     }
 
     /**
-     * The default number of milliseconds to wait in between checks to see if
-     * all threads have shutdown during a system shutdown.
+     * The number of milliseconds between progress reports while waiting for
+     * workers to stop.
+     */
+    private static final long DRAIN_PROGRESS_INTERVAL = 1000L;
+
+    /**
+     * The latest drain progress, null if no drain has been started.
      */
-    private static final long DEFAULT_SHUTDOWN_THREAD_SLEEP = 500L;
+    private volatile DrainProgress drainProgress = null;
+
+    /**
+     * The latest progress of a running or finished
+     * {@link #drain(long, TimeUnit, SpillSink)}, or of a
+     * {@link #doShutdown()} that has been waiting for workers for over a
+     * second.
+     *
+     * @return the drain progress or null if no drain has been started.
+     */
+    public DrainProgress getDrainProgress() {
+        return drainProgress;
+    }
 
     @Override
     public synchronized void doShutdown() {
@@ -293,23 +628,162 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
         if (aLog.isInfoEnabled()) {
             aLog.info("{} MSG=Waiting for worker threads to die.", myLogPrefix);
         }
-        int numThreads = 0, deadThreads = 0;
-        if (this.workers != null && !this.workers.isEmpty()) {
-            numThreads = this.workers.size();
-            deadThreads = this.getWorkerProfileMetrics().get(REPORT_KEYS.REPORT_MAP_KEY_DEAD);
-        }
-        aLog.info("{} MSG=Increasing report speed.", myLogPrefix);
-        while (numThreads != deadThreads) {
-            deadThreads = this.getWorkerProfileMetrics().get(REPORT_KEYS.REPORT_MAP_KEY_DEAD);
+        final Collection<WorkerThread> threads = new ArrayList<WorkerThread>(workers);
+        final CountDownLatch terminated = terminationLatch(threads);
+        final long start = System.nanoTime();
+        boolean interrupted = false;
+        while (true) {
             try {
-                sleep(DEFAULT_SHUTDOWN_THREAD_SLEEP);
+                if (awaitWorkers(terminated, threads.size(), start, Long.MAX_VALUE, false)) {
+                    break;
+                }
             } catch (InterruptedException ex) {
-                aLog.info("{} InterruptedException caught while waiting for worker threads to die.", ex);
+                aLog.info("{} InterruptedException caught while waiting for worker threads to die.", myLogPrefix, ex);
+                interrupted = true;
             }
         }
-        aLog.info("{} MSG={} Worker Threads Shutdowm.", getLogPrefix(), deadThreads);
+        aLog.info("{} MSG={} Worker Threads Shutdowm.", getLogPrefix(), threads.size());
         this.logWorkerProfileMetricsBrief();
+        shutdownDefaultAsyncOfferExecutor();
+        setShouldRun(false);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops taking new objects and lets the workers finish what is queued.
+     * Each worker stops the first time it finds the queue empty, and this
+     * method returns as soon as the last one has stopped and the workers have
+     * been flushed. If the deadline passes first, every worker is told to stop
+     * after the object it is on and whatever is still queued is handed to the
+     * spill sink. Objects put on the queue directly after the workers stop are
+     * spilled as well.
+     * <p>
+     * Progress is logged every second and can be read from
+     * {@link #getDrainProgress()} while the drain runs.</p>
+     *
+     * @param timeout the longest to let workers drain the queue.
+     * @param unit the unit of the timeout.
+     * @param spillSink where objects still queued at the end go, null to
+     * leave them in the queue. A {@link SpillingBlockingQueue} left with
+     * objects is persisted to its log instead.
+     * @return the final progress of the drain.
+     * @throws InterruptedException if interrupted while waiting. The workers
+     * have been told to stop when idle and keep draining.
+     */
+    public synchronized DrainProgress drain(final long timeout, final TimeUnit unit, final SpillSink<? super D> spillSink) throws InterruptedException {
+        if (unit == null) {
+            throw new IllegalArgumentException("Can not drain with a null TimeUnit.");
+        }
+        final Logger aLog = this.getLog();
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        this.maintainNumWorkers = false;
+        this.shuttingDown = true;
+        final Collection<WorkerThread> threads = new ArrayList<WorkerThread>(workers);
+        final CountDownLatch terminated = terminationLatch(threads);
+        if (aLog.isInfoEnabled()) {
+            aLog.info("{} MSG='Draining' WORKERS={} QUEUED={} TIMEOUT_MS={}", getLogPrefix(), threads.size(), queueIn == null ? 0 : queueIn.size(),
+                    unit.toMillis(timeout));
+        }
+        for (WorkerThread thread : threads) {
+            thread.stopWhenIdle();
+        }
+        final boolean timedOut = !awaitWorkers(terminated, threads.size(), start, deadline, true);
+        if (timedOut) {
+            aLog.warn("{} MSG='Drain deadline passed, stopping workers after their current object.'", getLogPrefix());
+            for (WorkerThread thread : threads) {
+                thread.setShouldRun(false);
+            }
+        }
+        //Hand the stopped workers' lanes back so the spill below, which does not run on a worker, can reach every object.
+        for (WorkerThread thread : threads) {
+            unregisterLane(thread);
+        }
+        int spilled = 0, lost = 0;
+        if (spillSink != null && queueIn != null) {
+            final List<D> leftovers = new ArrayList<D>();
+            queueIn.drainTo(leftovers);
+            if (!leftovers.isEmpty()) {
+                try {
+                    spillSink.spill(leftovers);
+                    spilled = leftovers.size();
+                } catch (IOException ex) {
+                    lost = leftovers.size();
+                    aLog.error("{} IOException caught while spilling {} objects. They are lost.", getLogPrefix(), lost, ex);
+                }
+            }
+        } else if (timedOut && queueIn instanceof SpillingBlockingQueue) {
+            try {
+                spilled = ((SpillingBlockingQueue<D>) queueIn).persist();
+            } catch (IOException ex) {
+                aLog.error("{} IOException caught while persisting the queue. Objects left on the heap are lost on exit.", getLogPrefix(), ex);
+            }
+        }
+        if (!timedOut) {
+            flush();
+        }
+        shutdownDefaultAsyncOfferExecutor();
         setShouldRun(false);
+        final DrainProgress result = new DrainProgress(threads.size(), threads.size() - (int) terminated.getCount(),
+                queueIn == null ? 0 : queueIn.size(), spilled, lost, System.nanoTime() - start, timedOut, true);
+        drainProgress = result;
+        if (aLog.isInfoEnabled()) {
+            aLog.info("{} MSG='Drain finished' {}", getLogPrefix(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a latch released as each of the workers' run loops returns.
+     *
+     * @param threads the workers.
+     * @return a latch with a count per worker.
+     */
+    private static CountDownLatch terminationLatch(final Collection<WorkerThread> threads) {
+        final CountDownLatch latch = new CountDownLatch(threads.size());
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        for (WorkerThread thread : threads) {
+            thread.addTerminationListener(countDown);
+        }
+        return latch;
+    }
+
+    /**
+     * Waits for a termination latch, waking to report progress every
+     * {@link #DRAIN_PROGRESS_INTERVAL} milliseconds.
+     *
+     * @param terminated the latch.
+     * @param workers the number of workers the latch counts.
+     * @param start when the wait started.
+     * @param deadline the {@link System#nanoTime()} to give up at.
+     * @param timed false to wait without a deadline.
+     * @return true if every worker stopped, false if the deadline passed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private boolean awaitWorkers(final CountDownLatch terminated, final int workers, final long start, final long deadline, final boolean timed) throws InterruptedException {
+        final long interval = TimeUnit.MILLISECONDS.toNanos(DRAIN_PROGRESS_INTERVAL);
+        long remaining;
+        while (true) {
+            remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return terminated.getCount() == 0;
+            }
+            if (terminated.await(Math.min(remaining, interval), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            drainProgress = new DrainProgress(workers, workers - (int) terminated.getCount(), queueIn == null ? 0 : queueIn.size(),
+                    0, 0, System.nanoTime() - start, false, false);
+            if (log.isInfoEnabled()) {
+                log.info("{} MSG='Waiting for workers to stop' {}", getLogPrefix(), drainProgress);
+            }
+        }
     }
 
     /**
@@ -382,7 +856,244 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      * @throws InterruptedException if hard shutdown has been initiated.
      */
     private boolean doOffer(final D theObject, final long theTimeout, final TimeUnit theTimeUnit) throws InterruptedException {
-        return queueIn.offer(theObject, theTimeout, theTimeUnit);
+        if (queueIn.offer(theObject, theTimeout, theTimeUnit)) {
+            onEnqueued();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts an object put on the queue.
+     */
+    private void onEnqueued() {
+        enqueued.increment();
+        final AdmissionController controller = admissionController;
+        if (controller != null) {
+            controller.onEnqueued();
+        }
+    }
+
+    /**
+     * Offers an object without waiting for queue space.
+     *
+     * @param theObject The object to be processed.
+     * @param priority The priority of the object, which decides how early it
+     * is shed under load when an {@link AdmissionController} is set.
+     * @throws OverloadedException with reason {@link RejectionReason#SHED} if
+     * admission control turned the object away or
+     * {@link RejectionReason#QUEUE_FULL} if the queue is full.
+     * @throws UnavailableException with reason
+     * {@link RejectionReason#NOT_STARTED}, {@link RejectionReason#SHUTTING_DOWN}
+     * or {@link RejectionReason#STOPPED} if this consumer is not taking work.
+     * @throws IllegalArgumentException If theObject or priority is null.
+     */
+    public void tryOffer(final D theObject, final Priority priority) throws OverloadedException, UnavailableException {
+        admit(theObject, priority);
+        if (!queueIn.offer(theObject)) {
+            throw queueFull(priority);
+        }
+        onEnqueued();
+    }
+
+    /**
+     * Offers an object, waiting up to a timeout for queue space. Admission is
+     * decided before waiting so a shed object is turned away at once.
+     *
+     * @param theObject The object to be processed.
+     * @param priority The priority of the object.
+     * @param theTimeout The max wait time for queue space.
+     * @param theTimeUnit The TimeUnit the argument theTimeout is in.
+     * @throws OverloadedException with reason {@link RejectionReason#SHED} if
+     * admission control turned the object away or
+     * {@link RejectionReason#QUEUE_FULL} if the queue stayed full.
+     * @throws UnavailableException if this consumer is not taking work.
+     * @throws InterruptedException if this thread is interrupted while
+     * waiting.
+     * @throws IllegalArgumentException If theObject, priority or theTimeUnit
+     * is null.
+     */
+    public void tryOffer(final D theObject, final Priority priority, final long theTimeout, final TimeUnit theTimeUnit) throws OverloadedException, UnavailableException, InterruptedException {
+        if (theTimeUnit == null) {
+            throw new IllegalArgumentException("Can not offer an object with a null TimeUnit.");
+        }
+        admit(theObject, priority);
+        if (!doOffer(theObject, theTimeout, theTimeUnit)) {
+            throw queueFull(priority);
+        }
+    }
+
+    /**
+     * Offers an object without blocking the caller. The returned future
+     * completes once the object is on the queue, or completes exceptionally
+     * with the {@link OverloadedException} or {@link UnavailableException}
+     * {@link #tryOffer(Object, Priority, long, TimeUnit)} would have thrown.
+     * Offers that are rejected or find space right away complete before this
+     * method returns, others wait on the async offer executor, or on a daemon
+     * pool of this consumer's own if none was set.
+     *
+     * @param theObject The object to be processed.
+     * @param priority The priority of the object.
+     * @param theTimeout The max wait time for queue space.
+     * @param theTimeUnit The TimeUnit the argument theTimeout is in.
+     * @return a future that completes when the offer is decided.
+     * @throws IllegalArgumentException If theObject, priority or theTimeUnit
+     * is null.
+     */
+    public CompletableFuture<Void> offerAsync(final D theObject, final Priority priority, final long theTimeout, final TimeUnit theTimeUnit) {
+        if (theTimeUnit == null) {
+            throw new IllegalArgumentException("Can not offer an object with a null TimeUnit.");
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        try {
+            tryOffer(theObject, priority);
+            future.complete(null);
+            return future;
+        } catch (OverloadedException ex) {
+            if (ex.getReason() != RejectionReason.QUEUE_FULL || theTimeout <= 0) {
+                future.completeExceptionally(ex);
+                return future;
+            }
+        } catch (UnavailableException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        final Executor executor = asyncOfferExecutor;
+        final Runnable waiter = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (doOffer(theObject, theTimeout, theTimeUnit)) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(queueFull(priority));
+                    }
+                } catch (InterruptedException ex) {
+                    future.completeExceptionally(ex);
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        };
+        try {
+            (executor == null ? getDefaultAsyncOfferExecutor() : executor).execute(waiter);
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Checks an object can be taken at all and asks the admission controller,
+     * if any, whether to admit it.
+     *
+     * @param theObject The object to be processed.
+     * @param priority The priority of the object.
+     * @throws OverloadedException if admission control turned the object away.
+     * @throws UnavailableException if this consumer is not taking work.
+     */
+    private void admit(final D theObject, final Priority priority) throws OverloadedException, UnavailableException {
+        if (theObject == null) {
+            throw new IllegalArgumentException("Can not offer a null object.");
+        }
+        if (priority == null) {
+            throw new IllegalArgumentException("Can not offer an object with a null Priority.");
+        }
+        if (shuttingDown) {
+            if (isWorkerAlive()) {
+                throw new UnavailableException(getLogPrefix() + " is shutting down.", RejectionReason.SHUTTING_DOWN);
+            }
+            throw new UnavailableException(getLogPrefix() + " has stopped.", RejectionReason.STOPPED);
+        }
+        if (!isWorkerAlive()) {
+            throw new UnavailableException(getLogPrefix() + " has not been started.", RejectionReason.NOT_STARTED);
+        }
+        final AdmissionController controller = admissionController;
+        if (controller != null && !controller.admit(priority, queueIn.size())) {
+            throw new OverloadedException(String.format("%s shed a %s priority object: admission limit=%s %s queue delay nanos=%s target=%s",
+                    getLogPrefix(), priority, controller.getLimit(), priority.getShare() < 1 ? "share=" + priority.getShare() : "",
+                    controller.getDelayNanos(), controller.getTargetDelayNanos()), RejectionReason.SHED);
+        }
+    }
+
+    /**
+     * Creates the exception for an object that found the queue full.
+     *
+     * @param priority The priority of the object.
+     * @return the exception to throw.
+     */
+    private OverloadedException queueFull(final Priority priority) {
+        return new OverloadedException(String.format("%s queue is full, rejected a %s priority object: capacity=%s",
+                getLogPrefix(), priority, queueIn.size() + queueIn.remainingCapacity()), RejectionReason.QUEUE_FULL);
+    }
+
+    /**
+     * Takes a reading of the queue and workers, asks the scaling policy for a
+     * target and adds or removes workers to meet it. The dequeue rate is
+     * derived from the objects offered through {@link #offer(Object, long, TimeUnit)}
+     * and the change in queue depth, so producers that write to the queue
+     * directly make both rates read low.
+     */
+    protected synchronized void scale() {
+        if (scalingPolicy == null || queueIn == null || shuttingDown) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long intervalNanos = Math.max(1, now - lastScalingNanos);
+        final double seconds = intervalNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        final long enqueuedNow = enqueued.sum();
+        final int depth = queueIn.size();
+        final long enqueuedDelta = enqueuedNow - lastEnqueued;
+        final long dequeuedDelta = Math.max(0, enqueuedDelta - (depth - lastQueueDepth));
+        final int running = getRunningWorkerCount();
+        final ScalingMetrics metrics = new ScalingMetrics(running, depth, queueIn.remainingCapacity(),
+                enqueuedDelta / seconds, dequeuedDelta / seconds,
+                trackWorkerCycles ? getWorkerCycleHistogramSinceLastScale().getP99() : 0, intervalNanos);
+        lastScalingNanos = now;
+        lastEnqueued = enqueuedNow;
+        lastQueueDepth = depth;
+
+        final int target = Math.max(0, scalingPolicy.targetWorkers(metrics));
+        if (target == running) {
+            return;
+        }
+        Logger aLog = this.getLog();
+        if (aLog.isInfoEnabled()) {
+            aLog.info("{} MSG='Scaling workers' TARGET={} {}", getLogPrefix(), target, metrics);
+        }
+        pruneDeadWorkers();
+        for (int c = running; c < target; c++) {
+            if (!addWorkerThread()) {
+                break;
+            }
+        }
+        for (int c = running; c > target; c--) {
+            removeWorkerThread(true);
+        }
+    }
+
+    /**
+     * The number of workers that have not been told to stop. Reads a count
+     * kept up to date as workers change state and never blocks.
+     *
+     * @return the number of workers with shouldRun set to true.
+     */
+    public int getRunningWorkerCount() {
+        return WorkerRegistry.running(registry.snapshot());
+    }
+
+    /**
+     * Drops workers that have been told to stop and have died so a consumer
+     * that scales up and down for a long time does not collect dead threads.
+     */
+    private void pruneDeadWorkers() {
+        for (WorkerThread thread : workers) {
+            if (!thread.getShouldRun() && !thread.isWorkerAlive()) {
+                registry.remove(thread);
+                unregisterLane(thread);
+            }
+        }
     }
 
     /**
@@ -409,14 +1120,14 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
     /**
      * Shut down ElasticConsumer workers using interrupt.
      */
-    public synchronized void hardShutdown() {
+    public void hardShutdown() {
         Logger aLog = this.getLog();
         aLog.warn("{} hardShutdown() CALLED: IMMINENT DATA LOSS: This method is for hard unloading in environments where the ElasticConsumer is in a locaked error state and the environment can not be restarted.", getLogPrefix());
         softShutdown();
         aLog.info("{} IMMINENT DATA LOSS: Manually interrupting worker threads.", getLogPrefix());
 
         for (WorkerThread thread : workers) {
-            thread.interrupt();
+            thread.interruptWorker();
         }
         aLog.info("{} IMMINENT DATA LOSS: Manually interrupting ElasticConsumer thread.", getLogPrefix());
         this.interrupt();
@@ -426,11 +1137,12 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      * Shut down ElasticConsumer workers using built in soft shutdown. WARNING!
      * This method does not block and does not stop the super class
      */
-    public synchronized void softShutdown() {
+    public void softShutdown() {
         Logger aLog = this.getLog();
         aLog.info(" softShutdown() CALLED", getLogPrefix());
+        shuttingDown = true;
         //Stop uninitialized ElasticConsumer from throwing null pointer exception.
-        if (workers == null || workers.isEmpty()) {
+        if (workers.isEmpty()) {
             aLog.warn("{} An attempt to call softShutdown() on an un-started instance of ElasticConsumer was made.", getLogPrefix());
             return;
         }
@@ -445,59 +1157,78 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
      * @return true on success, false on error.
      */
     public synchronized boolean addWorkerThread() {
-        if (workers == null) {
-            workers = new LinkedHashSet<WorkerThread>();
-        }
         WorkerThread thread = makeWorkerThread();
         if (thread == null) {
             return false;
         }
         thread.setShouldRun(true);
-        thread.start();
-        workers.add(thread);
+        if (trackWorkerCycles) {
+            thread.setTrackInstanceCycles(true);
+        }
+        registry.add(thread);
+        try {
+            if (workerExecutor == null) {
+                thread.start();
+            } else {
+                thread.start(workerExecutor);
+            }
+        } catch (RuntimeException ex) {
+            registry.remove(thread);
+            throw ex;
+        }
+        if (queueIn instanceof WorkerLaneQueue) {
+            ((WorkerLaneQueue) queueIn).register(thread);
+        }
         this.numWorkers++;
         return true;
     }
 
     /**
-     * Allows a controller to remove worker threads from the consumer pool in
-     * order to conserve resources or regulate throughput.
+     * Hands a stopped worker's lane to the remaining workers when the input
+     * queue is a {@link WorkerLaneQueue}.
+     *
+     * @param thread the stopped worker.
+     */
+    private void unregisterLane(final WorkerThread thread) {
+        if (queueIn instanceof WorkerLaneQueue) {
+            ((WorkerLaneQueue) queueIn).unregister(thread);
+        }
+    }
+
+    /**
+     * Allows a controller to remove a worker thread from the consumer pool in
+     * order to conserve resources or regulate throughput. The most recently
+     * added running worker is stopped. It stays in the worker set until it
+     * has died so shutdown still waits for it.
      *
      * @param soft True if we should wait for a worker to finish before removal.
      * False if we should interrupt working threads.
-     * @return True on success or if there are no workers left, false otherwise
+     * @return True on success, false if there are no running workers left.
      */
     public synchronized Boolean removeWorkerThread(final boolean soft) {
-        if (workers == null || workers.isEmpty()) {
+        final WorkerThread victim = registry.lastRunning();
+        if (victim == null) {
             return Boolean.FALSE;
         }
-        WorkerThread thread;
-        Iterator<WorkerThread> iter;
-        iter = workers.iterator();
-        while (iter.hasNext()) {
-            thread = iter.next();
-            if (thread.getShouldRun()) {
-                thread.setShouldRun(false);
-                if (!soft) {
-                    thread.interrupt();
-                    thread.flush();
-                }
-            }
+        victim.setShouldRun(false);
+        unregisterLane(victim);
+        if (!soft) {
+            victim.interruptWorker();
+            flushWorker(victim);
         }
         return Boolean.TRUE;
     }
 
     /**
-     * Logs the workers profile metrics in brief.
+     * Logs the workers profile metrics in brief. Never blocks scaling or
+     * shutdown.
      */
-    public synchronized void logWorkerProfileMetricsBrief() {
+    public void logWorkerProfileMetricsBrief() {
+        final Logger log = this.log;
         if (log == null || !log.isInfoEnabled()) {
             return;
         }
         Map<REPORT_KEYS, Integer> map = getWorkerProfileMetrics();
-        if (map == null) {
-            return;
-        }
         log.info(
                 "{} ALIVE={} DEAD={} SHOULD_RUN={} SHOULD_NOT_RUN={}",
                 getLogPrefix(),
@@ -506,30 +1237,94 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
                 map.get(REPORT_KEYS.REPORT_MAP_KEY_SHOULD_RUN),
                 map.get(REPORT_KEYS.REPORT_MAP_KEY_SHOULD_NOT_RUN)
         );
+        if (trackWorkerCycles) {
+            final LatencyHistogram cycles = getWorkerCycleHistogram(false);
+            log.info("{} CYCLES={} CYCLE_NANOS_P50={} CYCLE_NANOS_P99={} CYCLE_NANOS_P999={} CYCLE_NANOS_MAX={}",
+                    getLogPrefix(), cycles.getCount(), cycles.getP50(), cycles.getP99(), cycles.getP999(), cycles.getMax());
+        }
+        final AdmissionController controller = admissionController;
+        if (controller != null) {
+            log.info("{} ADMISSION {}", getLogPrefix(), controller);
+        }
+        if (queueIn instanceof WorkStealingBlockingQueue) {
+            final WorkStealingBlockingQueue<D> stealing = (WorkStealingBlockingQueue<D>) queueIn;
+            final StringBuilder utilization = new StringBuilder();
+            for (Map.Entry<WorkerThread, Double> entry : stealing.getUtilization().entrySet()) {
+                utilization.append(utilization.length() == 0 ? "" : ",")
+                        .append(entry.getKey().getName()).append(':')
+                        .append(String.format("%.2f", entry.getValue()));
+            }
+            log.info("{} STEALS={} STOLEN={} STEALS_PER_SECOND={} UTILIZATION={}",
+                    getLogPrefix(), stealing.getStealCount(), stealing.getStolenCount(),
+                    String.format("%.1f", stealing.getStealsPerSecond()), utilization);
+        }
     }
 
     /**
-     * Retrieves the worker profile metrics.
+     * Merges the cycles each worker ran since the last scaling decision and
+     * keeps a snapshot of every worker histogram for the next one. Workers
+     * that have been removed since are dropped from the snapshots.
      *
-     * @return A map of reporting keys and values.
+     * @return a histogram of run cycle times in nanoseconds since the last
+     * scaling decision.
      */
-    public synchronized Map<REPORT_KEYS, Integer> getWorkerProfileMetrics() {
-        int deadSet = 0, aliveSet = 0, shouldRunSet = 0, shouldNotRunSet = 0;
-        if (workers == null) {
-            return null;
-        }
+    private LatencyHistogram getWorkerCycleHistogramSinceLastScale() {
+        final LatencyHistogram merged = new LatencyHistogram();
+        final Map<WorkerThread, LatencyHistogram> snapshots = new IdentityHashMap<WorkerThread, LatencyHistogram>();
+        LatencyHistogram histogram, previous;
         for (WorkerThread thread : workers) {
-            if (thread.isAlive()) {
-                aliveSet++;
-            } else {
-                deadSet++;
+            histogram = thread.getCycleHistogram();
+            if (histogram == null) {
+                continue;
             }
-            if (thread.getShouldRun()) {
-                shouldRunSet++;
-            } else {
-                shouldNotRunSet++;
+            histogram = histogram.snapshot();
+            previous = lastCycleSnapshots.get(thread);
+            merged.add(previous == null ? histogram : histogram.minus(previous));
+            snapshots.put(thread, histogram);
+        }
+        lastCycleSnapshots = snapshots;
+        return merged;
+    }
+
+    /**
+     * Merges the run cycle histograms of all workers, including workers that
+     * have stopped but not been removed.
+     *
+     * @param reset true to empty each worker histogram as it is read so the
+     * next call only sees cycles run after this one. This also empties the
+     * histograms behind any exported <code>worker_cycle_seconds</code>
+     * metric, so prefer snapshots and {@link LatencyHistogram#minus(LatencyHistogram)}
+     * for interval reporting while metrics are registered.
+     * @return a histogram of run cycle times in nanoseconds across all
+     * workers. Empty if no worker tracks its cycles.
+     */
+    public LatencyHistogram getWorkerCycleHistogram(final boolean reset) {
+        final LatencyHistogram merged = new LatencyHistogram();
+        LatencyHistogram histogram;
+        for (WorkerThread thread : workers) {
+            histogram = thread.getCycleHistogram();
+            if (histogram != null) {
+                merged.add(reset ? histogram.snapshotAndReset() : histogram);
             }
         }
+        return merged;
+    }
+
+    /**
+     * Retrieves the worker profile metrics. The counts are kept up to date as
+     * workers start, stop and die, so this is a constant time read that never
+     * blocks scaling or shutdown, and the four values always agree with each
+     * other.
+     *
+     * @return A map of reporting keys and values.
+     */
+    public Map<REPORT_KEYS, Integer> getWorkerProfileMetrics() {
+        final long snapshot = registry.snapshot();
+        final int registered = WorkerRegistry.registered(snapshot);
+        final int aliveSet = WorkerRegistry.alive(snapshot);
+        final int shouldRunSet = WorkerRegistry.running(snapshot);
+        final int deadSet = registered - aliveSet;
+        final int shouldNotRunSet = registered - shouldRunSet;
 
         Map<REPORT_KEYS, Integer> map = new EnumMap<REPORT_KEYS, Integer>(REPORT_KEYS.class);
         map.put(REPORT_KEYS.REPORT_MAP_KEY_DEAD, deadSet);
@@ -540,27 +1335,40 @@ public class ElasticConsumer<D, W extends WorkerThread> extends WorkerThread {
     }
 
     /**
+     * Flushes every worker. Workers that do not implement flush have nothing
+     * to flush, and a worker that fails to flush does not stop the others
+     * from being flushed.
      *
      * @return the accumulation of <code>WorkerThread.flush();</code> for the subjugate {@link WorkerThread} extensions.
      */
     @Override
     public synchronized int flush() {
         int c = 0;
-        if (workers == null) {
-            return c;
-        }
-        //Use try to ensure lock is always released;
-        try {
-            for (WorkerThread thread : workers) {
-                c += thread.flush();
-            }
-        } catch (Exception e) {
-            this.getLog().error("AN Exception was caught while flushing workers.", e);
+        for (WorkerThread thread : workers) {
+            c += flushWorker(thread);
         }
         setLastFlushCallDate(new Date());
         return c;
     }
 
+    /**
+     * Flushes a worker, treating a worker that does not implement flush as
+     * having nothing to flush.
+     *
+     * @param thread the worker.
+     * @return the number of objects flushed, 0 if the flush failed.
+     */
+    private int flushWorker(final WorkerThread thread) {
+        try {
+            return thread.flush();
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        } catch (RuntimeException e) {
+            this.getLog().error("{} An Exception was caught while flushing worker {}.", getLogPrefix(), thread.getName(), e);
+            return 0;
+        }
+    }
+
     /**
      * Getter for the last date a flush call was made.
      *
@@ -0,0 +1,723 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Function;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ * A {@link WorkerLaneQueue} that keeps objects with the same key in order by
+ * giving every key to exactly one worker at a time. Objects are hashed by a
+ * key function into a fixed number of partitions, and each partition is owned
+ * by one worker's lane. A worker only ever takes from partitions its lane
+ * owns, so two objects with the same key are never worked on at once or out
+ * of offer order. A worker that takes a batch with
+ * {@link #drainTo(Collection, int)} drains one partition before moving on, so
+ * its batch tends to hold neighbouring work for the same keys.
+ * <p>
+ * The queue routes consumer calls by {@link WorkerThread#currentWorker()}, so
+ * existing {@link org.bml.util.threads.BlockingQueueWorkerThread} and
+ * {@link org.bml.util.threads.BatchingBlockingQueueWorkerThread}
+ * implementations work unchanged. Hand the same instance to the worker
+ * factory and to {@link ElasticConsumer}, which registers and unregisters
+ * workers as it adds and removes them. A worker that polls before it has been
+ * registered is registered on the spot.</p>
+ * <p>
+ * Every registration change rebalances the partitions, moving as few as
+ * possible. A partition taken from a worker is not handed to its new owner
+ * until the old owner calls back into the queue, which it only does once it is
+ * done with the object it took last, or until the old owner has died. Threads
+ * that are not workers, such as a shutdown drain, can only take objects from
+ * partitions that no worker owns, which happens once every worker has been
+ * unregistered.</p>
+ * <p>
+ * All state is guarded by one lock. Producers signal only the lane that owns
+ * the partition they wrote to.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ */
+public class PartitionedBlockingQueue<E> extends AbstractQueue<E> implements WorkerLaneQueue<E> {
+
+    /**
+     * The default number of partitions.
+     */
+    public static final int DEFAULT_PARTITIONS = 256;
+    /**
+     * The longest a waiting consumer sleeps before checking for partitions
+     * freed by a worker that has died.
+     */
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Maps an object to the key it must be kept in order with.
+     */
+    private final Function<? super E, ?> keyFunction;
+    /**
+     * The partitions.
+     */
+    private final List<Partition> partitions;
+    /**
+     * partitions - 1, to map a hash to a partition.
+     */
+    private final int mask;
+    /**
+     * The most objects the queue holds.
+     */
+    private final int capacity;
+    /**
+     * Guards all state.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when an object is taken.
+     */
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Signalled when a partition no worker owns gets an object.
+     */
+    private final Condition unownedNotEmpty = lock.newCondition();
+    /**
+     * The registered lanes in registration order.
+     */
+    private final Map<WorkerThread, Lane> lanes = new LinkedHashMap<WorkerThread, Lane>();
+    /**
+     * Unregistered lanes that may still hold partitions.
+     */
+    private final Map<WorkerThread, Lane> retired = new IdentityHashMap<WorkerThread, Lane>();
+    /**
+     * The number of objects in the queue.
+     */
+    private int count = 0;
+
+    /**
+     * Creates a new unbounded PartitionedBlockingQueue with the default
+     * number of partitions.
+     *
+     * @param keyFunction maps an object to the key it must be kept in order with.
+     */
+    public PartitionedBlockingQueue(final Function<? super E, ?> keyFunction) {
+        this(keyFunction, DEFAULT_PARTITIONS, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new PartitionedBlockingQueue.
+     *
+     * @param keyFunction maps an object to the key it must be kept in order
+     * with. Objects with a null key share a partition.
+     * @param partitions the number of partitions, rounded up to a power of
+     * two. More partitions spread keys more evenly across workers.
+     * @param capacity the most objects the queue holds.
+     * @pre keyFunction!=null
+     * @pre 1 &lt;= partitions &lt;= 2^16
+     * @pre capacity&gt;0
+     */
+    public PartitionedBlockingQueue(final Function<? super E, ?> keyFunction, final int partitions, final int capacity) {
+        checkNotNull(keyFunction, "Can not create a PartitionedBlockingQueue with a null keyFunction parameter.");
+        checkArgument(partitions >= 1 && partitions <= 1 << 16, "Can not create a PartitionedBlockingQueue with a partitions parameter that does not meet (1 <= partitions <= 2^16).");
+        checkArgument(capacity > 0, "Can not create a PartitionedBlockingQueue with a capacity parameter that does not meet (capacity > 0).");
+        this.keyFunction = keyFunction;
+        final int size = partitions == 1 ? 1 : Integer.highestOneBit(partitions - 1) << 1;
+        this.partitions = new ArrayList<Partition>(size);
+        for (int c = 0; c < size; c++) {
+            this.partitions.add(new Partition());
+        }
+        this.mask = size - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * The partition an object belongs in.
+     *
+     * @param e an object.
+     * @return the partition for the object's key.
+     */
+    private Partition partitionFor(final E e) {
+        final Object key = keyFunction.apply(e);
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return partitions.get(h & mask);
+    }
+
+    /**
+     * Registers a worker, giving it a lane and a share of the partitions.
+     * Does nothing if the worker is already registered.
+     *
+     * @param worker the worker to register.
+     */
+    @Override
+    public void register(final WorkerThread worker) {
+        checkNotNull(worker, "Can not register a null worker.");
+        lock.lock();
+        try {
+            registerLocked(worker);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a worker. Caller must hold the lock.
+     *
+     * @param worker the worker to register.
+     * @return the worker's lane.
+     */
+    private Lane registerLocked(final WorkerThread worker) {
+        Lane lane = lanes.get(worker);
+        if (lane == null) {
+            lane = retired.remove(worker);
+            if (lane != null) {
+                release(lane, true);
+            }
+            lane = new Lane(worker);
+            lanes.put(worker, lane);
+            rebalance();
+        }
+        return lane;
+    }
+
+    /**
+     * Unregisters a worker and hands its partitions to the remaining workers.
+     * The partitions move once the worker next calls into the queue or dies.
+     * Does nothing if the worker is not registered.
+     *
+     * @param worker the worker to unregister.
+     */
+    @Override
+    public void unregister(final WorkerThread worker) {
+        checkNotNull(worker, "Can not unregister a null worker.");
+        lock.lock();
+        try {
+            final Lane lane = lanes.remove(worker);
+            if (lane == null) {
+                return;
+            }
+            for (Partition p : lane.owned) {
+                p.owner = null;
+            }
+            lane.owned.clear();
+            retired.put(worker, lane);
+            rebalance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of registered workers.
+     *
+     * @return the number of lanes.
+     */
+    @Override
+    public int getLaneCount() {
+        lock.lock();
+        try {
+            return lanes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of partitions.
+     *
+     * @return the number of partitions.
+     */
+    public int getPartitionCount() {
+        return mask + 1;
+    }
+
+    /**
+     * Spreads the partitions over the lanes as evenly as possible while moving
+     * as few as possible. Caller must hold the lock.
+     */
+    private void rebalance() {
+        final ArrayDeque<Partition> pool = new ArrayDeque<Partition>();
+        for (Partition p : partitions) {
+            if (p.owner == null) {
+                pool.add(p);
+            }
+        }
+        if (lanes.isEmpty()) {
+            if (count > 0) {
+                unownedNotEmpty.signalAll();
+            }
+            return;
+        }
+        final List<Lane> ordered = new ArrayList<Lane>(lanes.values());
+        Collections.sort(ordered, new Comparator<Lane>() {
+            @Override
+            public int compare(final Lane a, final Lane b) {
+                return b.owned.size() - a.owned.size();
+            }
+        });
+        final int base = partitions.size() / ordered.size();
+        final int extra = partitions.size() % ordered.size();
+        Lane lane;
+        Partition p;
+        for (int c = 0; c < ordered.size(); c++) {
+            lane = ordered.get(c);
+            lane.target = base + (c < extra ? 1 : 0);
+            while (lane.owned.size() > lane.target) {
+                p = lane.owned.remove(lane.owned.size() - 1);
+                p.owner = null;
+                if (p.holder == lane) {
+                    lane.pendingRelease = true;
+                }
+                pool.add(p);
+            }
+        }
+        for (Lane l : ordered) {
+            while (l.owned.size() < l.target) {
+                p = pool.poll();
+                p.owner = l;
+                l.owned.add(p);
+            }
+            if (l.cursor >= l.owned.size()) {
+                l.cursor = 0;
+            }
+            l.notEmpty.signal();
+        }
+    }
+
+    /**
+     * Frees partitions a lane holds but no longer owns. Caller must hold the
+     * lock.
+     *
+     * @param lane the lane at a poll boundary.
+     * @param all true to free every partition the lane holds.
+     */
+    private void release(final Lane lane, final boolean all) {
+        if (!all && !lane.pendingRelease) {
+            return;
+        }
+        lane.pendingRelease = false;
+        for (Partition p : partitions) {
+            if (p.holder == lane && (all || p.owner != lane)) {
+                p.holder = null;
+                if (!p.items.isEmpty()) {
+                    if (p.owner == null) {
+                        unownedNotEmpty.signal();
+                    } else {
+                        p.owner.notEmpty.signal();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The lane for the calling thread, releasing anything a retired lane of the
+     * calling worker still holds. Caller must hold the lock.
+     *
+     * @return the lane or null if the calling thread is not a running worker.
+     */
+    private Lane currentLane() {
+        final WorkerThread worker = WorkerThread.currentWorker();
+        if (worker == null) {
+            return null;
+        }
+        final Lane lane = lanes.get(worker);
+        if (lane != null) {
+            release(lane, false);
+            return lane;
+        }
+        final Lane old = retired.remove(worker);
+        if (old != null) {
+            release(old, true);
+        }
+        return worker.getShouldRun() ? registerLocked(worker) : null;
+    }
+
+    /**
+     * Unregisters workers that have stopped and died without being
+     * unregistered, such as a worker that shut itself down on an exception,
+     * and drops retired lanes whose worker has died, freeing what they hold.
+     * Caller must hold the lock.
+     */
+    private void reap() {
+        boolean changed = false;
+        Lane lane;
+        final Iterator<Lane> lanesIter = lanes.values().iterator();
+        while (lanesIter.hasNext()) {
+            lane = lanesIter.next();
+            if (!lane.worker.getShouldRun() && !lane.worker.isWorkerAlive()) {
+                lanesIter.remove();
+                for (Partition p : lane.owned) {
+                    p.owner = null;
+                }
+                lane.owned.clear();
+                release(lane, true);
+                changed = true;
+            }
+        }
+        final Iterator<Map.Entry<WorkerThread, Lane>> iter = retired.entrySet().iterator();
+        Map.Entry<WorkerThread, Lane> entry;
+        while (iter.hasNext()) {
+            entry = iter.next();
+            if (!entry.getKey().isWorkerAlive()) {
+                lane = entry.getValue();
+                iter.remove();
+                release(lane, true);
+            }
+        }
+        if (changed) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Tests if a lane may take from a partition.
+     *
+     * @param p the partition.
+     * @param lane the lane, null for a thread that is not a worker.
+     * @return true if the partition is free for the lane.
+     */
+    private boolean mayTake(final Partition p, final Lane lane) {
+        if (p.owner != lane) {
+            return false;
+        }
+        if (p.holder == null || p.holder == lane) {
+            return true;
+        }
+        return !p.holder.worker.isWorkerAlive() && !lanes.containsKey(p.holder.worker);
+    }
+
+    /**
+     * Takes the next object for a lane. Caller must hold the lock.
+     *
+     * @param lane the lane, null for a thread that is not a worker.
+     * @param stay true to keep taking from the same partition, false to move
+     * round robin to the next partition after each take.
+     * @return the object or null if none is free for the lane.
+     */
+    private E dequeue(final Lane lane, final boolean stay) {
+        final List<Partition> candidates = lane == null ? partitions : lane.owned;
+        final int size = candidates.size();
+        final int start = lane == null ? 0 : lane.cursor;
+        Partition p;
+        int index;
+        for (int c = 0; c < size; c++) {
+            index = (start + c) % size;
+            p = candidates.get(index);
+            if (!p.items.isEmpty() && mayTake(p, lane)) {
+                p.holder = lane;
+                if (lane != null) {
+                    lane.cursor = stay ? index : (index + 1) % size;
+                }
+                count--;
+                notFull.signal();
+                return p.items.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an object. Caller must hold the lock and have checked capacity.
+     *
+     * @param e the object.
+     */
+    private void enqueue(final E e) {
+        final Partition p = partitionFor(e);
+        p.items.addLast(e);
+        count++;
+        if (p.owner == null) {
+            unownedNotEmpty.signal();
+        } else {
+            p.owner.notEmpty.signal();
+        }
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        checkNotNull(e, "Can not offer a null element.");
+        lock.lock();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(e, "Can not offer a null element.");
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        checkNotNull(e, "Can not put a null element.");
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return dequeue(currentLane(), false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        Lane lane;
+        E e;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                lane = currentLane();
+                e = dequeue(lane, false);
+                if (e != null) {
+                    return e;
+                }
+                remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                reap();
+                (lane == null ? unownedNotEmpty : lane.notEmpty).awaitNanos(Math.min(remaining, RECHECK_NANOS));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        Lane lane;
+        E e;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                lane = currentLane();
+                e = dequeue(lane, false);
+                if (e != null) {
+                    return e;
+                }
+                reap();
+                (lane == null ? unownedNotEmpty : lane.notEmpty).awaitNanos(RECHECK_NANOS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        checkNotNull(c, "Can not drain to a null collection.");
+        checkArgument(c != this, "Can not drain a queue to itself.");
+        lock.lock();
+        try {
+            final Lane lane = currentLane();
+            int drained = 0;
+            E e;
+            while (drained < maxElements && (e = dequeue(lane, true)) != null) {
+                c.add(e);
+                drained++;
+            }
+            if (lane != null && drained > 0) {
+                lane.cursor = (lane.cursor + 1) % Math.max(1, lane.owned.size());
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The head of the first non empty partition. This is not necessarily the
+     * object the calling thread would take next.
+     *
+     * @return an object in the queue or null if it is empty.
+     */
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            for (Partition p : partitions) {
+                if (!p.items.isEmpty()) {
+                    return p.items.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A snapshot of the objects in the queue, partition by partition. Removal
+     * is not supported.
+     *
+     * @return an iterator over a snapshot of this queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            final List<E> snapshot = new ArrayList<E>(count);
+            for (Partition p : partitions) {
+                snapshot.addAll(p.items);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The objects for a slice of the key space.
+     */
+    private final class Partition {
+
+        /**
+         * The objects in offer order.
+         */
+        private final ArrayDeque<E> items = new ArrayDeque<E>();
+        /**
+         * The lane that owns this partition, null if no worker does.
+         */
+        private Lane owner = null;
+        /**
+         * The lane that took from this partition last and may still be working
+         * on what it took, null once released.
+         */
+        private Lane holder = null;
+    }
+
+    /**
+     * A registered worker and the partitions it owns.
+     */
+    private final class Lane {
+
+        /**
+         * The worker.
+         */
+        private final WorkerThread worker;
+        /**
+         * Signalled when a partition this lane owns gets an object or is
+         * freed.
+         */
+        private final Condition notEmpty = lock.newCondition();
+        /**
+         * The partitions this lane owns.
+         */
+        private final List<Partition> owned = new ArrayList<Partition>();
+        /**
+         * The index in owned to take from next.
+         */
+        private int cursor = 0;
+        /**
+         * The number of partitions this lane should own, used while
+         * rebalancing.
+         */
+        private int target = 0;
+        /**
+         * True when this lane holds a partition it no longer owns.
+         */
+        private boolean pendingRelease = false;
+
+        /**
+         * Creates a new Lane.
+         *
+         * @param worker the worker.
+         */
+        Lane(final WorkerThread worker) {
+            this.worker = worker;
+        }
+    }
+}
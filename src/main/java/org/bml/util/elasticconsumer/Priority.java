@@ -0,0 +1,76 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * The priority of an object offered through
+ * {@link ElasticConsumer#tryOffer(Object, Priority)}. When an
+ * {@link AdmissionController} is set, each priority may only fill the queue up
+ * to its share of the current admission limit, so as the limit comes down
+ * under load the lowest priorities are shed first.
+ *
+ * @author Brian M. Lima
+ */
+public enum Priority {
+
+    /**
+     * Never shed. Only turned away when the queue itself is full.
+     */
+    CRITICAL(Double.POSITIVE_INFINITY),
+    /**
+     * Admitted up to the full admission limit.
+     */
+    HIGH(1.0),
+    /**
+     * Admitted up to three quarters of the admission limit.
+     */
+    NORMAL(0.75),
+    /**
+     * Admitted up to half of the admission limit.
+     */
+    LOW(0.5);
+
+    /**
+     * The share of the admission limit this priority may fill.
+     */
+    private final double share;
+
+    /**
+     * Creates a Priority.
+     *
+     * @param share the share of the admission limit this priority may fill.
+     */
+    Priority(final double share) {
+        this.share = share;
+    }
+
+    /**
+     * The share of the admission limit this priority may fill.
+     *
+     * @return the share, infinite for {@link #CRITICAL}.
+     */
+    public double getShare() {
+        return share;
+    }
+}
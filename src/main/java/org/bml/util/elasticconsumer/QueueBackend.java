@@ -0,0 +1,105 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.bml.util.threads.MpmcArrayBlockingQueue;
+import org.bml.util.threads.WaitStrategies;
+
+/**
+ * The input queue implementations an {@link ElasticConsumer} can be built on.
+ * Create the queue with {@link #newQueue(int)} and hand the same instance to
+ * the consumer and to the worker factory. Any other {@link BlockingQueue} works
+ * as well; these are the ones that have been benchmarked against each other in
+ * <code>QueueBackendBenchmark</code>.
+ * <p>
+ * The lock based queues block waiting threads on a condition and cost nothing
+ * while idle. The ring buffer backends are lock free and scale better with
+ * many producers, but their waiting threads spin, yield or park in short
+ * intervals instead of being signalled.</p>
+ *
+ * @author Brian M. Lima
+ */
+public enum QueueBackend {
+
+    /**
+     * {@link LinkedBlockingQueue}, separate put and take locks and a node
+     * allocated per element. The original ElasticConsumer queue.
+     */
+    LINKED {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new LinkedBlockingQueue<E>(capacity);
+        }
+    },
+    /**
+     * {@link ArrayBlockingQueue}, one lock shared by producers and consumers
+     * and no per element allocation.
+     */
+    ARRAY {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new ArrayBlockingQueue<E>(capacity);
+        }
+    },
+    /**
+     * {@link MpmcArrayBlockingQueue} with waiting threads that busy spin. Only
+     * for dedicated cores.
+     */
+    RING_BUSY_SPIN {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new MpmcArrayBlockingQueue<E>(capacity, WaitStrategies.BUSY_SPIN);
+        }
+    },
+    /**
+     * {@link MpmcArrayBlockingQueue} with waiting threads that yield.
+     */
+    RING_YIELD {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new MpmcArrayBlockingQueue<E>(capacity, WaitStrategies.YIELD);
+        }
+    },
+    /**
+     * {@link MpmcArrayBlockingQueue} with waiting threads that park.
+     */
+    RING_PARK {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new MpmcArrayBlockingQueue<E>(capacity, WaitStrategies.PARK);
+        }
+    };
+
+    /**
+     * Creates a new, empty queue.
+     *
+     * @param <E> the type of elements held in the queue.
+     * @param capacity the capacity of the queue. The ring buffer backends round
+     * this up to a power of two.
+     * @return a new queue.
+     */
+    public abstract <E> BlockingQueue<E> newQueue(int capacity);
+}
@@ -0,0 +1,258 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link ScalingPolicy} that grows the pool while the input queue is backing
+ * up and shrinks it while the queue stays close to empty, always between a
+ * minimum and maximum number of workers.
+ * <p>
+ * An interval counts toward growing when any of these hold:</p>
+ * <ul>
+ * <li>the queue holds more than <code>highWaterPerWorker</code> objects per
+ * running worker.</li>
+ * <li>objects are arriving faster than they are being taken and the queue is
+ * above the low water mark.</li>
+ * <li>the worker cycle p99 is over <code>maxCycleNanos</code> and the queue is
+ * above the low water mark.</li>
+ * </ul>
+ * <p>
+ * An interval counts toward shrinking when the queue is at or below
+ * <code>lowWaterPerWorker</code> objects per worker and objects are not
+ * arriving faster than they are taken. The gap between the high and low water
+ * marks, together with requiring <code>growAfter</code> and
+ * <code>shrinkAfter</code> consecutive intervals, keeps the pool from
+ * flapping under bursty load. By default it grows after one interval and
+ * shrinks only after five quiet ones.</p>
+ * <p>
+ * This policy is stateful and should only be used by one consumer.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class QueueDepthScalingPolicy implements ScalingPolicy {
+
+    /**
+     * The default number of queued objects per worker above which the pool
+     * grows.
+     */
+    public static final int DEFAULT_HIGH_WATER_PER_WORKER = 100;
+    /**
+     * The default number of queued objects per worker at or below which the
+     * pool may shrink.
+     */
+    public static final int DEFAULT_LOW_WATER_PER_WORKER = 1;
+    /**
+     * The default number of consecutive busy intervals before growing.
+     */
+    public static final int DEFAULT_GROW_AFTER = 1;
+    /**
+     * The default number of consecutive quiet intervals before shrinking.
+     */
+    public static final int DEFAULT_SHRINK_AFTER = 5;
+
+    /**
+     * The fewest workers to run.
+     */
+    private final int minWorkers;
+    /**
+     * The most workers to run.
+     */
+    private final int maxWorkers;
+    /**
+     * Queued objects per worker above which the pool grows.
+     */
+    private int highWaterPerWorker = DEFAULT_HIGH_WATER_PER_WORKER;
+    /**
+     * Queued objects per worker at or below which the pool may shrink.
+     */
+    private int lowWaterPerWorker = DEFAULT_LOW_WATER_PER_WORKER;
+    /**
+     * Worker cycle p99 in nanoseconds above which the pool grows. 0 turns the
+     * latency check off.
+     */
+    private long maxCycleNanos = 0;
+    /**
+     * Consecutive busy intervals before growing.
+     */
+    private int growAfter = DEFAULT_GROW_AFTER;
+    /**
+     * Consecutive quiet intervals before shrinking.
+     */
+    private int shrinkAfter = DEFAULT_SHRINK_AFTER;
+    /**
+     * Workers added in one step.
+     */
+    private int growStep = 1;
+    /**
+     * Workers removed in one step.
+     */
+    private int shrinkStep = 1;
+    /**
+     * The number of consecutive busy intervals seen.
+     */
+    private int busyIntervals = 0;
+    /**
+     * The number of consecutive quiet intervals seen.
+     */
+    private int quietIntervals = 0;
+
+    /**
+     * Creates a new QueueDepthScalingPolicy with the default water marks and
+     * hysteresis.
+     *
+     * @param minWorkers the fewest workers to run.
+     * @param maxWorkers the most workers to run.
+     * @pre minWorkers&gt;=0
+     * @pre maxWorkers&gt;=minWorkers &amp;&amp; maxWorkers&gt;0
+     */
+    public QueueDepthScalingPolicy(final int minWorkers, final int maxWorkers) {
+        checkArgument(minWorkers >= 0, "Can not create a QueueDepthScalingPolicy with a minWorkers parameter that does not meet (minWorkers >= 0).");
+        checkArgument(maxWorkers >= minWorkers && maxWorkers > 0, "Can not create a QueueDepthScalingPolicy with a maxWorkers parameter that does not meet (maxWorkers >= minWorkers && maxWorkers > 0).");
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+    }
+
+    @Override
+    public synchronized int targetWorkers(final ScalingMetrics metrics) {
+        final int workers = metrics.getWorkers();
+        if (workers < minWorkers) {
+            busyIntervals = quietIntervals = 0;
+            return minWorkers;
+        }
+        if (workers > maxWorkers) {
+            busyIntervals = quietIntervals = 0;
+            return maxWorkers;
+        }
+        final long depth = metrics.getQueueDepth();
+        final boolean aboveLowWater = depth > (long) lowWaterPerWorker * workers;
+        final boolean fallingBehind = metrics.getEnqueueRate() > metrics.getDequeueRate();
+        final boolean busy = depth > (long) highWaterPerWorker * Math.max(workers, 1)
+                || (aboveLowWater && fallingBehind)
+                || (aboveLowWater && maxCycleNanos > 0 && metrics.getCycleP99Nanos() > maxCycleNanos);
+        final boolean quiet = !aboveLowWater && !fallingBehind;
+        busyIntervals = busy ? busyIntervals + 1 : 0;
+        quietIntervals = quiet ? quietIntervals + 1 : 0;
+        if (busyIntervals >= growAfter && workers < maxWorkers) {
+            busyIntervals = 0;
+            return Math.min(maxWorkers, workers + growStep);
+        }
+        if (quietIntervals >= shrinkAfter && workers > minWorkers) {
+            quietIntervals = 0;
+            return Math.max(minWorkers, workers - shrinkStep);
+        }
+        return workers;
+    }
+
+    /**
+     * Getter for the fewest workers to run.
+     *
+     * @return the minWorkers
+     */
+    public int getMinWorkers() {
+        return minWorkers;
+    }
+
+    /**
+     * Getter for the most workers to run.
+     *
+     * @return the maxWorkers
+     */
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Sets the queued objects per worker above which the pool grows.
+     *
+     * @param highWaterPerWorker the highWaterPerWorker to set.
+     * @return this policy for chaining.
+     * @pre highWaterPerWorker&gt;lowWaterPerWorker
+     */
+    public synchronized QueueDepthScalingPolicy setHighWaterPerWorker(final int highWaterPerWorker) {
+        checkArgument(highWaterPerWorker > lowWaterPerWorker, "Can not set a highWaterPerWorker that does not meet (highWaterPerWorker > lowWaterPerWorker).");
+        this.highWaterPerWorker = highWaterPerWorker;
+        return this;
+    }
+
+    /**
+     * Sets the queued objects per worker at or below which the pool may
+     * shrink.
+     *
+     * @param lowWaterPerWorker the lowWaterPerWorker to set.
+     * @return this policy for chaining.
+     * @pre 0 &lt;= lowWaterPerWorker &lt; highWaterPerWorker
+     */
+    public synchronized QueueDepthScalingPolicy setLowWaterPerWorker(final int lowWaterPerWorker) {
+        checkArgument(lowWaterPerWorker >= 0 && lowWaterPerWorker < highWaterPerWorker, "Can not set a lowWaterPerWorker that does not meet (0 <= lowWaterPerWorker < highWaterPerWorker).");
+        this.lowWaterPerWorker = lowWaterPerWorker;
+        return this;
+    }
+
+    /**
+     * Sets the worker cycle p99 above which the pool grows. Only has an effect
+     * when the consumer tracks worker cycles.
+     *
+     * @param maxCycleNanos the cycle p99 limit in nanoseconds, 0 to turn the
+     * latency check off.
+     * @return this policy for chaining.
+     * @pre maxCycleNanos&gt;=0
+     */
+    public synchronized QueueDepthScalingPolicy setMaxCycleNanos(final long maxCycleNanos) {
+        checkArgument(maxCycleNanos >= 0, "Can not set a maxCycleNanos that does not meet (maxCycleNanos >= 0).");
+        this.maxCycleNanos = maxCycleNanos;
+        return this;
+    }
+
+    /**
+     * Sets the hysteresis, the number of consecutive intervals that must agree
+     * before the pool changes size.
+     *
+     * @param growAfter consecutive busy intervals before growing.
+     * @param shrinkAfter consecutive quiet intervals before shrinking.
+     * @return this policy for chaining.
+     * @pre growAfter&gt;0 &amp;&amp; shrinkAfter&gt;0
+     */
+    public synchronized QueueDepthScalingPolicy setHysteresis(final int growAfter, final int shrinkAfter) {
+        checkArgument(growAfter > 0 && shrinkAfter > 0, "Can not set hysteresis that does not meet (growAfter > 0 && shrinkAfter > 0).");
+        this.growAfter = growAfter;
+        this.shrinkAfter = shrinkAfter;
+        return this;
+    }
+
+    /**
+     * Sets the number of workers added or removed in one step.
+     *
+     * @param growStep workers added in one step.
+     * @param shrinkStep workers removed in one step.
+     * @return this policy for chaining.
+     * @pre growStep&gt;0 &amp;&amp; shrinkStep&gt;0
+     */
+    public synchronized QueueDepthScalingPolicy setSteps(final int growStep, final int shrinkStep) {
+        checkArgument(growStep > 0 && shrinkStep > 0, "Can not set steps that do not meet (growStep > 0 && shrinkStep > 0).");
+        this.growStep = growStep;
+        this.shrinkStep = shrinkStep;
+        return this;
+    }
+}
@@ -0,0 +1,156 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * A point in time reading of an {@link ElasticConsumer} handed to a
+ * {@link ScalingPolicy}. Rates are averaged over the interval since the
+ * previous reading.
+ *
+ * @author Brian M. Lima
+ */
+public final class ScalingMetrics {
+
+    /**
+     * The number of workers that are running.
+     */
+    private final int workers;
+    /**
+     * The number of objects waiting in the input queue.
+     */
+    private final int queueDepth;
+    /**
+     * The number of objects the input queue can still accept.
+     */
+    private final int remainingCapacity;
+    /**
+     * Objects offered per second.
+     */
+    private final double enqueueRate;
+    /**
+     * Objects taken off the queue per second.
+     */
+    private final double dequeueRate;
+    /**
+     * The 99th percentile worker cycle time in nanoseconds.
+     */
+    private final long cycleP99Nanos;
+    /**
+     * The length of the interval the rates cover in nanoseconds.
+     */
+    private final long intervalNanos;
+
+    /**
+     * Creates a new ScalingMetrics.
+     *
+     * @param workers the number of workers that are running.
+     * @param queueDepth the number of objects waiting in the input queue.
+     * @param remainingCapacity the number of objects the input queue can still accept.
+     * @param enqueueRate objects offered per second.
+     * @param dequeueRate objects taken off the queue per second.
+     * @param cycleP99Nanos the 99th percentile worker cycle time in
+     * nanoseconds, 0 if workers do not track their cycles.
+     * @param intervalNanos the length of the interval the rates cover in nanoseconds.
+     */
+    public ScalingMetrics(final int workers, final int queueDepth, final int remainingCapacity, final double enqueueRate,
+            final double dequeueRate, final long cycleP99Nanos, final long intervalNanos) {
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+        this.remainingCapacity = remainingCapacity;
+        this.enqueueRate = enqueueRate;
+        this.dequeueRate = dequeueRate;
+        this.cycleP99Nanos = cycleP99Nanos;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Getter for the number of workers that are running.
+     *
+     * @return the number of workers that are running.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Getter for the number of objects waiting in the input queue.
+     *
+     * @return the number of objects waiting in the input queue.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Getter for the number of objects the input queue can still accept.
+     *
+     * @return the number of objects the input queue can still accept.
+     */
+    public int getRemainingCapacity() {
+        return remainingCapacity;
+    }
+
+    /**
+     * Getter for objects offered per second.
+     *
+     * @return objects offered per second.
+     */
+    public double getEnqueueRate() {
+        return enqueueRate;
+    }
+
+    /**
+     * Getter for objects taken off the queue per second.
+     *
+     * @return objects taken off the queue per second.
+     */
+    public double getDequeueRate() {
+        return dequeueRate;
+    }
+
+    /**
+     * Getter for the 99th percentile worker cycle time in nanoseconds.
+     *
+     * @return the 99th percentile worker cycle time in nanoseconds, 0 if
+     * workers do not track their cycles.
+     */
+    public long getCycleP99Nanos() {
+        return cycleP99Nanos;
+    }
+
+    /**
+     * Getter for the length of the interval the rates cover in nanoseconds.
+     *
+     * @return the length of the interval the rates cover in nanoseconds.
+     */
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WORKERS=%s QUEUE_DEPTH=%s REMAINING_CAPACITY=%s ENQUEUE_RATE=%.1f DEQUEUE_RATE=%.1f CYCLE_NANOS_P99=%s",
+                workers, queueDepth, remainingCapacity, enqueueRate, dequeueRate, cycleP99Nanos);
+    }
+}
@@ -0,0 +1,46 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * Decides how many workers an {@link ElasticConsumer} should run. The
+ * consumer calls {@link #targetWorkers(ScalingMetrics)} once every scaling
+ * interval from its own thread and then adds or removes workers to match.
+ * Implementations may keep state between calls, for hysteresis, so an
+ * instance should only be given to one consumer.
+ *
+ * @author Brian M. Lima
+ * @see QueueDepthScalingPolicy
+ */
+public interface ScalingPolicy {
+
+    /**
+     * The number of workers the consumer should be running.
+     *
+     * @param metrics the current reading of the consumer.
+     * @return the number of workers to run. Returning
+     * <code>metrics.getWorkers()</code> leaves the pool as it is.
+     */
+    int targetWorkers(ScalingMetrics metrics);
+}
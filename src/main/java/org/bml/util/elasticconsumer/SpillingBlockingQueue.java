@@ -0,0 +1,502 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bml.util.io.ByteCodec;
+import org.bml.util.io.SegmentLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BlockingQueue} that holds up to a high water mark of objects on the
+ * heap and spills everything offered past it to a {@link SegmentLog} on local
+ * disk. Once anything has been spilled, later offers go to the log as well so
+ * objects still come out in offer order, and consumers move objects back from
+ * the log onto the heap whenever the heap part falls below half the high water
+ * mark. When the log empties the queue goes back to holding everything on the
+ * heap. Consumers never see the log; they poll and take as from any other
+ * queue.
+ * <p>
+ * The heap used is bounded by the high water mark no matter how far behind
+ * the consumers fall, and the disk used by the log's size limit. An offer is
+ * only refused once the log is full, which makes this queue a fit for
+ * {@link ElasticConsumer}s whose downstream can go away for a while: objects
+ * pile up on disk instead of being dropped or blocking producers.
+ * {@link #persist()} moves what is on the heap to the head of the log, which
+ * {@link ElasticConsumer#drain(long, TimeUnit, org.bml.util.threads.SpillSink)}
+ * does when it times out without a spill sink, so a queue reopened on the same
+ * directory picks up where the last one left off.</p>
+ * <p>
+ * {@link #remainingCapacity()} is always {@link Integer#MAX_VALUE} as the log
+ * is bounded in bytes, not objects, and {@link #iterator()} only covers the
+ * objects on the heap.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ */
+public class SpillingBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillingBlockingQueue.class);
+
+    /**
+     * The objects on the heap, in offer order and ahead of everything in the
+     * log.
+     */
+    private final LinkedBlockingQueue<E> memory = new LinkedBlockingQueue<E>();
+    /**
+     * The spilled objects.
+     */
+    private final SegmentLog log;
+    /**
+     * Turns objects into log records and back.
+     */
+    private final ByteCodec<E> codec;
+    /**
+     * The most objects held on the heap.
+     */
+    private final int highWater;
+    /**
+     * Consumers refill the heap from the log once it holds fewer objects than
+     * this.
+     */
+    private final int lowWater;
+    /**
+     * Guards moving objects in and out of the log.
+     */
+    private final ReentrantLock spillLock = new ReentrantLock();
+    /**
+     * Signalled when records are taken from the log.
+     */
+    private final Condition logNotFull = spillLock.newCondition();
+    /**
+     * True while the log holds objects. Offers go to the log while set.
+     */
+    private volatile boolean spilling;
+    /**
+     * True once closed.
+     */
+    private volatile boolean closed = false;
+    /**
+     * The number of objects written to the log.
+     */
+    private final AtomicLong spilledCount = new AtomicLong();
+    /**
+     * The number of log records that could not be decoded and were dropped.
+     */
+    private final AtomicLong corruptCount = new AtomicLong();
+
+    /**
+     * Creates a SpillingBlockingQueue on a log with the default segment size
+     * and no limit on disk use. Objects already in the log are queued first.
+     *
+     * @param highWater the most objects held on the heap.
+     * @param directory the directory for the log.
+     * @param codec turns objects into log records and back.
+     * @throws IOException if the log can not be opened.
+     */
+    public SpillingBlockingQueue(final int highWater, final File directory, final ByteCodec<E> codec) throws IOException {
+        this(highWater, new SegmentLog(directory), codec);
+    }
+
+    /**
+     * Creates a SpillingBlockingQueue. Objects already in the log are queued
+     * first. The queue takes ownership of the log and closes it on
+     * {@link #close()}.
+     *
+     * @param highWater the most objects held on the heap.
+     * @param log the log spilled objects go to.
+     * @param codec turns objects into log records and back.
+     * @pre highWater&gt;0
+     * @pre log!=null
+     * @pre codec!=null
+     */
+    public SpillingBlockingQueue(final int highWater, final SegmentLog log, final ByteCodec<E> codec) {
+        checkArgument(highWater > 0, "Can not create a SpillingBlockingQueue with a highWater parameter that does not meet (highWater > 0).");
+        checkNotNull(log, "Can not create a SpillingBlockingQueue with a null log parameter.");
+        checkNotNull(codec, "Can not create a SpillingBlockingQueue with a null codec parameter.");
+        this.highWater = highWater;
+        this.lowWater = Math.max(1, highWater / 2);
+        this.log = log;
+        this.codec = codec;
+        this.spilling = !log.isEmpty();
+        if (spilling) {
+            refill();
+        }
+    }
+
+    /**
+     * Queues an object, on the heap if nothing is spilled and there is room,
+     * otherwise in the log.
+     *
+     * @param e the object.
+     * @return false if the log is full.
+     * @throws IOException if the object can not be encoded or written.
+     */
+    private boolean enqueue(final E e) throws IOException {
+        checkNotNull(e, "Can not offer a null object.");
+        if (closed) {
+            throw new IOException("Can not offer to a closed SpillingBlockingQueue.");
+        }
+        if (!spilling && memory.size() < highWater) {
+            memory.offer(e);
+            return true;
+        }
+        final byte[] record = codec.encode(e);
+        spillLock.lock();
+        try {
+            if (!spilling && memory.size() < highWater) {
+                memory.offer(e);
+                return true;
+            }
+            if (!log.append(record)) {
+                return false;
+            }
+            spilling = true;
+            spilledCount.incrementAndGet();
+        } finally {
+            spillLock.unlock();
+        }
+        //Consumers refill as they take, but may all be waiting on an empty heap.
+        if (memory.size() < lowWater) {
+            refill();
+        }
+        return true;
+    }
+
+    /**
+     * Moves objects from the log onto the heap until the heap is at the high
+     * water mark or the log is empty.
+     */
+    private void refill() {
+        spillLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            byte[] record;
+            int moved = 0;
+            while (memory.size() < highWater && (record = log.poll()) != null) {
+                moved++;
+                try {
+                    memory.offer(codec.decode(record));
+                } catch (IOException ex) {
+                    corruptCount.incrementAndGet();
+                    LOG.error("IOException caught while decoding a spilled object from {}. It is dropped.", log, ex);
+                }
+            }
+            if (log.isEmpty()) {
+                spilling = false;
+            }
+            if (moved > 0) {
+                logNotFull.signalAll();
+            }
+        } catch (IOException ex) {
+            LOG.error("IOException caught while reading {}.", log, ex);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Refills the heap from the log if anything is spilled and the heap has
+     * fallen below the low water mark.
+     */
+    private void maybeRefill() {
+        if (spilling && memory.size() < lowWater) {
+            refill();
+        }
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        if (closed) {
+            return false;
+        }
+        try {
+            return enqueue(e);
+        } catch (IOException ex) {
+            LOG.error("IOException caught while spilling to {}.", log, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        if (!offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+            throw new IllegalStateException("Can not spill to " + log);
+        }
+    }
+
+    /**
+     * Queues an object, waiting up to the timeout for room in the log if it
+     * is full of spilled objects. Returns false straight away if the object
+     * can not be written, or if the log is full with nothing spilled.
+     *
+     * @param e the object.
+     * @param timeout the longest to wait.
+     * @param unit the unit of the timeout.
+     * @return true if queued.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        try {
+            while (!enqueue(e)) {
+                spillLock.lockInterruptibly();
+                try {
+                    //Only consumers taking from the log make room in it, so with nothing spilled there is nothing to wait for.
+                    if (nanos <= 0 || !spilling) {
+                        return false;
+                    }
+                    nanos = logNotFull.awaitNanos(nanos);
+                } finally {
+                    spillLock.unlock();
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            LOG.error("IOException caught while spilling to {}.", log, ex);
+            return false;
+        }
+    }
+
+    @Override
+    public E poll() {
+        if (memory.isEmpty()) {
+            maybeRefill();
+        }
+        final E e = memory.poll();
+        maybeRefill();
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        if (memory.isEmpty()) {
+            maybeRefill();
+        }
+        final E e = memory.take();
+        maybeRefill();
+        return e;
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (memory.isEmpty()) {
+            maybeRefill();
+        }
+        final E e = memory.poll(timeout, unit);
+        maybeRefill();
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        if (memory.isEmpty()) {
+            maybeRefill();
+        }
+        return memory.peek();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        int drained = 0, moved;
+        do {
+            if (memory.isEmpty()) {
+                maybeRefill();
+            }
+            moved = memory.drainTo(c, maxElements - drained);
+            drained += moved;
+        } while (moved > 0 && drained < maxElements);
+        maybeRefill();
+        return drained;
+    }
+
+    /**
+     * The number of objects queued, on the heap and in the log.
+     *
+     * @return the number of objects queued.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, memory.size() + log.size());
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * An iterator over the objects on the heap. Spilled objects are not
+     * included.
+     *
+     * @return an iterator over the objects on the heap.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return memory.iterator();
+    }
+
+    /**
+     * Moves every object on the heap to the head of the log, ahead of what is
+     * already spilled, and forces the log to disk. Consumers that keep taking
+     * will read them back, so call this once they have stopped.
+     *
+     * @return the number of objects moved.
+     * @throws IOException if the objects can not be written. They are put
+     * back on the heap.
+     */
+    public int persist() throws IOException {
+        spillLock.lock();
+        try {
+            final List<E> objects = new ArrayList<E>();
+            memory.drainTo(objects);
+            if (objects.isEmpty()) {
+                log.force();
+                return 0;
+            }
+            final List<byte[]> records = new ArrayList<byte[]>(objects.size());
+            try {
+                for (E e : objects) {
+                    records.add(codec.encode(e));
+                }
+                log.prepend(records);
+            } catch (IOException ex) {
+                memory.addAll(objects);
+                throw ex;
+            }
+            spilling = true;
+            spilledCount.addAndGet(objects.size());
+            log.force();
+            return objects.size();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Persists the objects on the heap and closes the log. Offers fail once
+     * closed.
+     *
+     * @throws IOException if the objects on the heap can not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        spillLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                persist();
+            } finally {
+                log.close();
+            }
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * The number of objects on the heap.
+     *
+     * @return the number of objects on the heap.
+     */
+    public int getMemorySize() {
+        return memory.size();
+    }
+
+    /**
+     * The number of objects in the log.
+     *
+     * @return the number of spilled objects not yet read back.
+     */
+    public long getSpilledSize() {
+        return log.size();
+    }
+
+    /**
+     * The number of objects written to the log since creation.
+     *
+     * @return the number of objects spilled.
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * The number of log records that could not be decoded and were dropped.
+     *
+     * @return the number of corrupt records.
+     */
+    public long getCorruptCount() {
+        return corruptCount.get();
+    }
+
+    /**
+     * The most objects held on the heap.
+     *
+     * @return the high water mark.
+     */
+    public int getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * True while objects are being spilled to the log.
+     *
+     * @return true if the log holds objects.
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    @Override
+    public String toString() {
+        return "SpillingBlockingQueue[memory=" + memory.size() + " highWater=" + highWater + " " + log + "]";
+    }
+}
@@ -0,0 +1,789 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bml.util.rt.telemetry.SecondBasedCounter;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ * A {@link WorkerLaneQueue} that gives every worker a local deque and lets
+ * idle workers steal from busy ones, in the style of a fork/join pool. A
+ * worker takes from the head of its own deque. When that is empty it steals
+ * half of the deque of a worker that has work waiting behind its current
+ * object, taking from the tail so owner and thief rarely meet. One slow object
+ * then only delays the worker processing it, not everything queued behind it.
+ * <p>
+ * Producers that are not workers put each object on the shorter of two
+ * randomly picked deques. Objects offered by a worker go on its own deque, as
+ * fork/join tasks do. There is no ordering between objects; use
+ * {@link PartitionedBlockingQueue} when objects with the same key must stay in
+ * order.</p>
+ * <p>
+ * Consumer calls are routed by {@link WorkerThread#currentWorker()}, so
+ * existing workers work unchanged, and a worker that polls before it has been
+ * registered is registered on the spot. Threads that are not workers steal
+ * single objects from any deque when they poll, and empty every deque when
+ * they call {@link #drainTo(Collection, int)}, as a shutdown drain does. A worker that is
+ * unregistered, or found dead, has its deque moved to a shared overflow deque
+ * that every lane steals from first.</p>
+ * <p>
+ * Each deque has its own lock, so producers and consumers on different lanes
+ * do not contend. The steal rate and each worker's utilization, the share of
+ * time it spent working on objects it took rather than waiting in the queue,
+ * are tracked for reporting.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ */
+public class WorkStealingBlockingQueue<E> extends AbstractQueue<E> implements WorkerLaneQueue<E> {
+
+    /**
+     * The longest an idle worker waits on its own deque before looking for
+     * work to steal again.
+     */
+    private static final long STEAL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * The number of seconds of steal counts kept.
+     */
+    private static final int STEAL_WINDOW = 10;
+
+    /**
+     * The most objects the queue holds.
+     */
+    private final int capacity;
+    /**
+     * A permit per free slot.
+     */
+    private final Semaphore free;
+    /**
+     * The registered lanes.
+     */
+    private final Map<WorkerThread, Lane> lanes = new ConcurrentHashMap<WorkerThread, Lane>();
+    /**
+     * The registered lanes, for producers and thieves to pick from.
+     */
+    private final List<Lane> laneList = new CopyOnWriteArrayList<Lane>();
+    /**
+     * Objects from lanes that have gone away, and objects offered while no
+     * worker is registered.
+     */
+    private final Lane overflow = new Lane(null);
+    /**
+     * Steals per second.
+     */
+    private final SecondBasedCounter steals = new SecondBasedCounter(STEAL_WINDOW, "WorkStealingBlockingQueue.steals");
+    /**
+     * The number of objects moved by steals.
+     */
+    private final LongAdder stolen = new LongAdder();
+    /**
+     * Busy time per worker at the last utilization snapshot.
+     */
+    private final Map<WorkerThread, long[]> lastUtilization = new LinkedHashMap<WorkerThread, long[]>();
+
+    /**
+     * Creates a new unbounded WorkStealingBlockingQueue.
+     */
+    public WorkStealingBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new WorkStealingBlockingQueue.
+     *
+     * @param capacity the most objects the queue holds.
+     * @pre capacity&gt;0
+     */
+    public WorkStealingBlockingQueue(final int capacity) {
+        checkArgument(capacity > 0, "Can not create a WorkStealingBlockingQueue with a capacity parameter that does not meet (capacity > 0).");
+        this.capacity = capacity;
+        this.free = new Semaphore(capacity);
+    }
+
+    @Override
+    public void register(final WorkerThread worker) {
+        checkNotNull(worker, "Can not register a null worker.");
+        registerLane(worker);
+    }
+
+    /**
+     * Registers a worker.
+     *
+     * @param worker the worker to register.
+     * @return the worker's lane.
+     */
+    private synchronized Lane registerLane(final WorkerThread worker) {
+        Lane lane = lanes.get(worker);
+        if (lane == null) {
+            lane = new Lane(worker);
+            lanes.put(worker, lane);
+            laneList.add(lane);
+        }
+        return lane;
+    }
+
+    @Override
+    public synchronized void unregister(final WorkerThread worker) {
+        checkNotNull(worker, "Can not unregister a null worker.");
+        final Lane lane = lanes.remove(worker);
+        if (lane == null) {
+            return;
+        }
+        laneList.remove(lane);
+        lastUtilization.remove(worker);
+        final List<E> orphans = new ArrayList<E>();
+        lane.lock.lock();
+        try {
+            lane.retired = true;
+            orphans.addAll(lane.deque);
+            lane.deque.clear();
+            lane.size = 0;
+        } finally {
+            lane.lock.unlock();
+        }
+        if (!orphans.isEmpty()) {
+            overflow.pushAll(orphans);
+            signalLanes();
+        }
+    }
+
+    /**
+     * Wakes every registered worker, so objects put on the overflow deque are
+     * stolen promptly.
+     */
+    private void signalLanes() {
+        for (Lane l : laneList) {
+            l.signal();
+        }
+    }
+
+    /**
+     * A snapshot of the registered lanes. The list is copy on write, so a
+     * lane unregistered while the snapshot is in use is still in it; pushes
+     * to such a lane are forwarded to the overflow deque.
+     *
+     * @return the registered lanes.
+     */
+    private Object[] lanesSnapshot() {
+        return laneList.toArray();
+    }
+
+    /**
+     * A lane from a snapshot.
+     *
+     * @param snapshot a snapshot from {@link #lanesSnapshot()}.
+     * @param index the index of the lane.
+     * @return the lane.
+     */
+    @SuppressWarnings("unchecked")
+    private Lane laneAt(final Object[] snapshot, final int index) {
+        return (Lane) snapshot[index];
+    }
+
+    @Override
+    public int getLaneCount() {
+        return laneList.size();
+    }
+
+    /**
+     * The lane for the calling thread. Calling back into the queue ends the
+     * worker's busy period.
+     *
+     * @return the lane or null if the calling thread is not a running worker.
+     */
+    private Lane currentLane() {
+        final WorkerThread worker = WorkerThread.currentWorker();
+        if (worker == null) {
+            return null;
+        }
+        Lane lane = lanes.get(worker);
+        if (lane == null) {
+            if (!worker.getShouldRun()) {
+                return null;
+            }
+            lane = registerLane(worker);
+        }
+        lane.endBusy();
+        return lane;
+    }
+
+    /**
+     * Picks the lane a producer that is not a worker puts an object on, the
+     * shorter of two random lanes.
+     *
+     * @return a lane, the overflow lane if no worker is registered.
+     */
+    private Lane pickLane() {
+        final Object[] snapshot = lanesSnapshot();
+        if (snapshot.length == 0) {
+            return overflow;
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Lane a = laneAt(snapshot, random.nextInt(snapshot.length));
+        final Lane b = laneAt(snapshot, random.nextInt(snapshot.length));
+        return a.size <= b.size ? a : b;
+    }
+
+    /**
+     * Adds an object once a slot has been acquired.
+     *
+     * @param e the object.
+     */
+    private void enqueue(final E e) {
+        final WorkerThread worker = WorkerThread.currentWorker();
+        final Lane own = worker == null ? null : lanes.get(worker);
+        final Lane lane = own == null ? pickLane() : own;
+        lane.push(e);
+        if (lane == overflow) {
+            signalLanes();
+        }
+    }
+
+    /**
+     * Steals for a lane. The overflow lane is tried first, then the other
+     * lanes from a random start. A lane is only robbed if it has an object
+     * waiting behind the one its worker is on.
+     *
+     * @param thief the stealing lane, null for a thread that is not a worker.
+     * @return an object or null if there was nothing to steal.
+     */
+    private E steal(final Lane thief) {
+        E e = steal(thief, overflow, 0);
+        if (e != null) {
+            return e;
+        }
+        final Object[] snapshot = lanesSnapshot();
+        final int size = snapshot.length;
+        if (size == 0) {
+            return null;
+        }
+        final int start = ThreadLocalRandom.current().nextInt(size);
+        Lane victim;
+        for (int c = 0; c < size; c++) {
+            victim = laneAt(snapshot, (start + c) % size);
+            if (victim == thief) {
+                continue;
+            }
+            if (!victim.worker.getShouldRun() && !victim.worker.isWorkerAlive()) {
+                unregister(victim.worker);
+                return steal(thief, overflow, 0);
+            }
+            e = steal(thief, victim, victim.waiting ? 1 : 0);
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Steals half of a lane's deque from the tail, or from the head of the
+     * overflow deque, which nobody owns. The first object taken is returned
+     * and the rest go on the thief's deque, in their original order.
+     *
+     * @param thief the stealing lane, null to take a single object.
+     * @param victim the lane to steal from.
+     * @param leave the number of objects to leave behind.
+     * @return an object or null if the victim had nothing to spare.
+     */
+    private E steal(final Lane thief, final Lane victim, final int leave) {
+        if (victim.size <= leave) {
+            return null;
+        }
+        final ArrayDeque<E> taken = new ArrayDeque<E>();
+        victim.lock.lock();
+        try {
+            final int available = victim.deque.size() - leave;
+            if (available <= 0) {
+                return null;
+            }
+            final int n = thief == null ? 1 : (available + 1) / 2;
+            for (int c = 0; c < n; c++) {
+                if (victim == overflow) {
+                    taken.addLast(victim.deque.pollFirst());
+                } else {
+                    taken.addFirst(victim.deque.pollLast());
+                }
+            }
+            victim.size = victim.deque.size();
+        } finally {
+            victim.lock.unlock();
+        }
+        if (victim != overflow) {
+            steals.increment();
+            stolen.add(taken.size());
+        }
+        final E first = taken.pollFirst();
+        if (!taken.isEmpty()) {
+            thief.pushAll(taken);
+        }
+        return first;
+    }
+
+    /**
+     * Takes an object for a lane without waiting.
+     *
+     * @param lane the lane, null for a thread that is not a worker.
+     * @return an object or null if none was found.
+     */
+    private E dequeue(final Lane lane) {
+        E e = lane == null ? null : lane.pollFirst();
+        if (e == null) {
+            e = steal(lane);
+        }
+        if (e != null) {
+            free.release();
+            if (lane != null) {
+                lane.busySince = System.nanoTime();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        checkNotNull(e, "Can not offer a null element.");
+        if (!free.tryAcquire()) {
+            return false;
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(e, "Can not offer a null element.");
+        if (!free.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        enqueue(e);
+        return true;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        checkNotNull(e, "Can not put a null element.");
+        free.acquire();
+        enqueue(e);
+    }
+
+    @Override
+    public E poll() {
+        return dequeue(currentLane());
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return poll(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(0, false);
+    }
+
+    /**
+     * Takes an object, waiting on the lane's deque and looking for work to
+     * steal every {@link #STEAL_INTERVAL_NANOS}.
+     *
+     * @param deadline the {@link System#nanoTime()} to give up at.
+     * @param timed false to wait without a deadline.
+     * @return an object or null if the deadline passed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private E poll(final long deadline, final boolean timed) throws InterruptedException {
+        Lane lane = currentLane();
+        E e = dequeue(lane);
+        if (e != null) {
+            return e;
+        }
+        long remaining;
+        while (true) {
+            remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return null;
+            }
+            (lane == null ? overflow : lane).await(Math.min(remaining, STEAL_INTERVAL_NANOS));
+            lane = currentLane();
+            e = dequeue(lane);
+            if (e != null) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        checkNotNull(c, "Can not drain to a null collection.");
+        checkArgument(c != this, "Can not drain a queue to itself.");
+        final Lane lane = currentLane();
+        int drained = 0;
+        if (lane == null) {
+            //Not a worker, such as a shutdown drain. Empty the overflow deque and then every lane.
+            drained = overflow.drainTo(c, maxElements);
+            final Object[] snapshot = lanesSnapshot();
+            for (int i = 0; i < snapshot.length && drained < maxElements; i++) {
+                drained += laneAt(snapshot, i).drainTo(c, maxElements - drained);
+            }
+            if (drained > 0) {
+                free.release(drained);
+            }
+            return drained;
+        }
+        drained = lane.drainTo(c, maxElements);
+        if (drained == 0 && maxElements > 0) {
+            final E e = steal(lane);
+            if (e != null) {
+                c.add(e);
+                drained = 1 + lane.drainTo(c, maxElements - 1);
+            }
+        }
+        if (drained > 0) {
+            free.release(drained);
+            lane.busySince = System.nanoTime();
+        }
+        return drained;
+    }
+
+    /**
+     * The head of the first non empty deque. This is not necessarily the
+     * object the calling thread would take next.
+     *
+     * @return an object in the queue or null if it is empty.
+     */
+    @Override
+    public E peek() {
+        E e = overflow.peekFirst();
+        if (e != null) {
+            return e;
+        }
+        for (Lane lane : laneList) {
+            e = lane.peekFirst();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return capacity - free.availablePermits();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return free.availablePermits();
+    }
+
+    /**
+     * A snapshot of the objects in the queue, deque by deque. Removal is not
+     * supported.
+     *
+     * @return an iterator over a snapshot of this queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<E>();
+        overflow.copyTo(snapshot);
+        for (Lane lane : laneList) {
+            lane.copyTo(snapshot);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * The average number of steals per second over the last
+     * {@value #STEAL_WINDOW} whole seconds.
+     *
+     * @return steals per second.
+     */
+    public double getStealsPerSecond() {
+        final long[] counts = steals.getWindowCounts();
+        long sum = 0;
+        for (int c = 0; c < counts.length - 1; c++) {
+            sum += counts[c];
+        }
+        return sum / (double) (counts.length - 1);
+    }
+
+    /**
+     * The number of steals since the queue was created.
+     *
+     * @return the number of steals.
+     */
+    public long getStealCount() {
+        return steals.getNumOperations();
+    }
+
+    /**
+     * The number of objects moved by steals since the queue was created.
+     *
+     * @return the number of stolen objects.
+     */
+    public long getStolenCount() {
+        return stolen.sum();
+    }
+
+    /**
+     * The share of time each registered worker spent working on objects it
+     * took from this queue, since the previous call or since it was
+     * registered. Time from taking an object until next calling back into the
+     * queue counts as busy. Time waiting in the queue, or away from it after
+     * finding it empty, counts as idle.
+     *
+     * @return a map of worker to utilization between 0 and 1.
+     */
+    public synchronized Map<WorkerThread, Double> getUtilization() {
+        final long now = System.nanoTime();
+        final Map<WorkerThread, Double> result = new LinkedHashMap<WorkerThread, Double>();
+        long[] last;
+        long busy, since, elapsed;
+        for (Lane lane : laneList) {
+            since = lane.busySince;
+            busy = lane.busyNanos + (since == 0 ? 0 : Math.max(0, now - since));
+            last = lastUtilization.get(lane.worker);
+            if (last == null) {
+                last = new long[]{lane.registered, 0};
+                lastUtilization.put(lane.worker, last);
+            }
+            elapsed = now - last[0];
+            result.put(lane.worker, elapsed <= 0 ? 0 : Math.max(0, Math.min(1, (busy - last[1]) / (double) elapsed)));
+            last[0] = now;
+            last[1] = busy;
+        }
+        return result;
+    }
+
+    /**
+     * A worker's local deque.
+     */
+    private final class Lane {
+
+        /**
+         * The worker, null for the overflow lane.
+         */
+        private final WorkerThread worker;
+        /**
+         * Guards the deque.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Signalled when an object is pushed.
+         */
+        private final Condition notEmpty = lock.newCondition();
+        /**
+         * The objects.
+         */
+        private final ArrayDeque<E> deque = new ArrayDeque<E>();
+        /**
+         * The deque size, readable without the lock.
+         */
+        private volatile int size = 0;
+        /**
+         * True once the lane has been unregistered. Nobody polls a retired
+         * lane, so pushes to it go to the overflow deque instead. Guarded by
+         * the lock.
+         */
+        private boolean retired = false;
+        /**
+         * True while the worker is waiting for work.
+         */
+        private volatile boolean waiting = false;
+        /**
+         * When the lane was registered.
+         */
+        private final long registered = System.nanoTime();
+        /**
+         * When the worker last took an object, 0 once it has called back in.
+         * Only written by the worker.
+         */
+        private volatile long busySince = 0;
+        /**
+         * Time the worker spent on objects it took, up to its last call back
+         * in. Only written by the worker.
+         */
+        private volatile long busyNanos = 0;
+
+        /**
+         * Creates a new Lane.
+         *
+         * @param worker the worker, null for the overflow lane.
+         */
+        Lane(final WorkerThread worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * Ends the worker's busy period, if any, when it calls back into the
+         * queue.
+         */
+        void endBusy() {
+            final long since = busySince;
+            if (since != 0) {
+                busyNanos += System.nanoTime() - since;
+                busySince = 0;
+            }
+        }
+
+        /**
+         * Adds an object to the tail, or to the overflow deque if this lane
+         * has been retired.
+         *
+         * @param e the object.
+         */
+        void push(final E e) {
+            lock.lock();
+            try {
+                if (!retired) {
+                    deque.addLast(e);
+                    size = deque.size();
+                    notEmpty.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            overflow.push(e);
+            signalLanes();
+        }
+
+        /**
+         * Adds objects to the tail, or to the overflow deque if this lane has
+         * been retired.
+         *
+         * @param items the objects.
+         */
+        void pushAll(final Collection<E> items) {
+            lock.lock();
+            try {
+                if (!retired) {
+                    deque.addAll(items);
+                    size = deque.size();
+                    notEmpty.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            overflow.pushAll(items);
+            signalLanes();
+        }
+
+        E pollFirst() {
+            if (size == 0) {
+                return null;
+            }
+            lock.lock();
+            try {
+                final E e = deque.pollFirst();
+                size = deque.size();
+                return e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        E peekFirst() {
+            lock.lock();
+            try {
+                return deque.peekFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int drainTo(final Collection<? super E> c, final int max) {
+            if (size == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                int n = 0;
+                while (n < max && !deque.isEmpty()) {
+                    c.add(deque.pollFirst());
+                    n++;
+                }
+                size = deque.size();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void copyTo(final Collection<E> c) {
+            lock.lock();
+            try {
+                c.addAll(deque);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void signal() {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void await(final long nanos) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                if (deque.isEmpty()) {
+                    waiting = true;
+                    notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waiting = false;
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.BlockingQueue;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ * A {@link BlockingQueue} that gives each consuming worker a lane of its own
+ * and routes consumer calls by {@link WorkerThread#currentWorker()}.
+ * {@link ElasticConsumer} registers every worker it adds with a queue of this
+ * type and unregisters every worker it removes, so lanes follow the pool as it
+ * grows and shrinks.
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ * @see PartitionedBlockingQueue
+ * @see WorkStealingBlockingQueue
+ */
+public interface WorkerLaneQueue<E> extends BlockingQueue<E> {
+
+    /**
+     * Gives a worker a lane. Does nothing if the worker already has one.
+     *
+     * @param worker the worker to register.
+     */
+    void register(WorkerThread worker);
+
+    /**
+     * Takes a worker's lane away and hands its work to the remaining lanes.
+     * Does nothing if the worker does not have a lane.
+     *
+     * @param worker the worker to unregister.
+     */
+    void unregister(WorkerThread worker);
+
+    /**
+     * The number of registered workers.
+     *
+     * @return the number of lanes.
+     */
+    int getLaneCount();
+}
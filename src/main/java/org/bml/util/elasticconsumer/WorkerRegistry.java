@@ -0,0 +1,258 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bml.util.threads.ShouldRunListener;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ * The workers of an {@link ElasticConsumer}, with counts of how many are
+ * registered, alive and running kept up to date as workers change state.
+ * Workers are held in a copy on write set so iterating never blocks adding or
+ * removing them, and each worker reports its own changes through a
+ * {@link ShouldRunListener} and a termination listener, so reading the counts
+ * costs one volatile read however many workers there are.
+ * <p>
+ * The three counts are packed into one long so a reading is always a
+ * consistent snapshot of all three.</p>
+ *
+ * @author Brian M. Lima
+ */
+final class WorkerRegistry {
+
+    /**
+     * The bits given to each count.
+     */
+    private static final int BITS = 21;
+    /**
+     * Masks one count.
+     */
+    private static final long MASK = (1L << BITS) - 1;
+    /**
+     * One running worker.
+     */
+    private static final long RUNNING = 1L;
+    /**
+     * One alive worker.
+     */
+    private static final long ALIVE = 1L << BITS;
+    /**
+     * One registered worker.
+     */
+    private static final long REGISTERED = 1L << (2 * BITS);
+
+    /**
+     * The workers in the order they were added.
+     */
+    private final Set<WorkerThread> workers = new CopyOnWriteArraySet<WorkerThread>();
+    /**
+     * A read only view of the workers.
+     */
+    private final Set<WorkerThread> view = Collections.unmodifiableSet(workers);
+    /**
+     * The tracker for each worker.
+     */
+    private final ConcurrentMap<WorkerThread, Tracker> trackers = new ConcurrentHashMap<WorkerThread, Tracker>();
+    /**
+     * The registered, alive and running counts.
+     */
+    private final AtomicLong counts = new AtomicLong();
+
+    /**
+     * Adds a worker that is about to be started. It is counted as alive until
+     * its run loop returns.
+     *
+     * @param worker the worker.
+     */
+    void add(final WorkerThread worker) {
+        final Tracker tracker = new Tracker(worker);
+        if (trackers.putIfAbsent(worker, tracker) != null) {
+            return;
+        }
+        counts.addAndGet(REGISTERED + ALIVE);
+        workers.add(worker);
+        worker.addShouldRunListener(tracker);
+        worker.addTerminationListener(tracker);
+        tracker.shouldRunChanged(worker, worker.getShouldRun());
+    }
+
+    /**
+     * Removes a worker and drops it from the counts.
+     *
+     * @param worker the worker.
+     * @return true if the worker was registered.
+     */
+    boolean remove(final WorkerThread worker) {
+        final Tracker tracker = trackers.remove(worker);
+        if (tracker == null) {
+            return false;
+        }
+        worker.removeShouldRunListener(tracker);
+        tracker.unregister();
+        workers.remove(worker);
+        return true;
+    }
+
+    /**
+     * The workers in the order they were added. Iterating the set works on a
+     * snapshot and never blocks.
+     *
+     * @return a read only view of the workers.
+     */
+    Set<WorkerThread> getWorkers() {
+        return view;
+    }
+
+    /**
+     * The most recently added worker that is still running.
+     *
+     * @return the worker or null if none is running.
+     */
+    WorkerThread lastRunning() {
+        WorkerThread last = null;
+        for (WorkerThread worker : workers) {
+            if (worker.getShouldRun()) {
+                last = worker;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * A consistent reading of all three counts, to be picked apart with
+     * {@link #registered(long)}, {@link #alive(long)} and
+     * {@link #running(long)}.
+     *
+     * @return the packed counts.
+     */
+    long snapshot() {
+        return counts.get();
+    }
+
+    /**
+     * The number of registered workers in a snapshot.
+     *
+     * @param snapshot a reading from {@link #snapshot()}.
+     * @return the number of registered workers.
+     */
+    static int registered(final long snapshot) {
+        return (int) ((snapshot >>> (2 * BITS)) & MASK);
+    }
+
+    /**
+     * The number of workers whose run loop has not returned in a snapshot.
+     *
+     * @param snapshot a reading from {@link #snapshot()}.
+     * @return the number of alive workers.
+     */
+    static int alive(final long snapshot) {
+        return (int) ((snapshot >>> BITS) & MASK);
+    }
+
+    /**
+     * The number of workers with shouldRun set in a snapshot.
+     *
+     * @param snapshot a reading from {@link #snapshot()}.
+     * @return the number of running workers.
+     */
+    static int running(final long snapshot) {
+        return (int) (snapshot & MASK);
+    }
+
+    /**
+     * Keeps the counts for one worker. Remembers what it has counted so
+     * repeated or late callbacks never count a worker twice.
+     */
+    private final class Tracker implements ShouldRunListener, Runnable {
+
+        /**
+         * The worker.
+         */
+        private final WorkerThread worker;
+        /**
+         * True while the worker is counted as running.
+         */
+        private boolean running = false;
+        /**
+         * True while the worker is counted as alive.
+         */
+        private boolean alive = true;
+        /**
+         * False once the worker has been removed.
+         */
+        private boolean registered = true;
+
+        /**
+         * Creates a Tracker.
+         *
+         * @param worker the worker.
+         */
+        Tracker(final WorkerThread worker) {
+            this.worker = worker;
+        }
+
+        /**
+         * Rereads the control rather than trusting the value passed, so
+         * callbacks that arrive out of order still leave the right count.
+         *
+         * @param changed the worker whose control changed.
+         * @param shouldRun the new value.
+         */
+        @Override
+        public synchronized void shouldRunChanged(final WorkerThread changed, final boolean shouldRun) {
+            final boolean now = worker.getShouldRun();
+            if (registered && now != running) {
+                running = now;
+                counts.addAndGet(now ? RUNNING : -RUNNING);
+            }
+        }
+
+        /**
+         * Called once the worker's run loop has returned.
+         */
+        @Override
+        public synchronized void run() {
+            if (registered && alive) {
+                alive = false;
+                counts.addAndGet(-ALIVE);
+            }
+        }
+
+        /**
+         * Drops the worker from the counts.
+         */
+        synchronized void unregister() {
+            if (!registered) {
+                return;
+            }
+            registered = false;
+            counts.addAndGet(-REGISTERED - (alive ? ALIVE : 0) - (running ? RUNNING : 0));
+        }
+    }
+}
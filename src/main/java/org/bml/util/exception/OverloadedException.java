@@ -31,12 +31,18 @@ package org.bml.util.exception;
  */
 public class OverloadedException extends Exception {
 
+    /**
+     * Why the request was turned away, null if not given.
+     */
+    private final RejectionReason reason;
+
     /**
      * Creates a new instance of <code>OverloadedException</code> without detail
      * message.
      */
     public OverloadedException() {
         super();
+        this.reason = null;
     }
 
     /**
@@ -47,5 +53,27 @@ public class OverloadedException extends Exception {
      */
     public OverloadedException(final String msg) {
         super(msg);
+        this.reason = null;
+    }
+
+    /**
+     * Constructs an instance of <code>OverloadedException</code> with the
+     * specified detail message and the reason the request was turned away.
+     *
+     * @param msg the detail message.
+     * @param reason why the request was turned away.
+     */
+    public OverloadedException(final String msg, final RejectionReason reason) {
+        super(msg);
+        this.reason = reason;
+    }
+
+    /**
+     * Why the request was turned away.
+     *
+     * @return the reason or null if none was given.
+     */
+    public RejectionReason getReason() {
+        return reason;
     }
 }
@@ -0,0 +1,62 @@
+package org.bml.util.exception;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * Why an object or request was turned away, carried by
+ * {@link OverloadedException} and {@link UnavailableException} so callers can
+ * tell a component that is saturated from one that is going away, and decide
+ * whether to retry, back off or route elsewhere.
+ *
+ * @author Brian M. Lima
+ */
+public enum RejectionReason {
+
+    /**
+     * Turned away early by admission control to keep queueing delay down.
+     * Retrying after a short back off, or at a higher priority, may succeed.
+     */
+    SHED,
+    /**
+     * The queue stayed full for the whole offer timeout.
+     */
+    QUEUE_FULL,
+    /**
+     * A rate limit was reached.
+     */
+    RATE_LIMITED,
+    /**
+     * The component has not been started.
+     */
+    NOT_STARTED,
+    /**
+     * The component is shutting down and is no longer taking new work.
+     * Retrying will not succeed.
+     */
+    SHUTTING_DOWN,
+    /**
+     * The component has stopped.
+     */
+    STOPPED
+}
@@ -27,12 +27,18 @@ package org.bml.util.exception;
  */
 public class UnavailableException extends Exception {
 
+    /**
+     * Why the request was turned away, null if not given.
+     */
+    private final RejectionReason reason;
+
     /**
      * Creates a new instance of
      * <code>UnavailableException</code> without detail message.
      */
     public UnavailableException() {
         super();
+        this.reason = null;
     }
 
     /**
@@ -43,6 +49,7 @@ public class UnavailableException extends Exception {
      */
     public UnavailableException(final String message) {
         super(message);
+        this.reason = null;
     }
 
     /**
@@ -54,5 +61,27 @@ public class UnavailableException extends Exception {
      */
     public UnavailableException(final String message, final Throwable thrwbl) {
         super(message, thrwbl);
+        this.reason = null;
+    }
+
+    /**
+     * Constructs an instance of <code>UnavailableException</code> with the
+     * specified detail message and the reason the request was turned away.
+     *
+     * @param message the detail message.
+     * @param reason why the request was turned away.
+     */
+    public UnavailableException(final String message, final RejectionReason reason) {
+        super(message);
+        this.reason = reason;
+    }
+
+    /**
+     * Why the request was turned away.
+     *
+     * @return the reason or null if none was given.
+     */
+    public RejectionReason getReason() {
+        return reason;
     }
 }
@@ -0,0 +1,54 @@
+package org.bml.util.io;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.IOException;
+
+/**
+ * Turns objects into bytes and back, for storing them outside the heap in
+ * structures such as {@link SegmentLog}. Implementations must be thread safe.
+ *
+ * @see ByteCodecs
+ * @author Brian M. Lima
+ * @param <T> the type of the objects encoded.
+ */
+public interface ByteCodec<T> {
+
+    /**
+     * Encodes an object.
+     *
+     * @param object the object to encode.
+     * @return the encoded bytes.
+     * @throws IOException if the object can not be encoded.
+     */
+    byte[] encode(T object) throws IOException;
+
+    /**
+     * Decodes an object.
+     *
+     * @param bytes bytes produced by {@link #encode(Object)}.
+     * @return the decoded object.
+     * @throws IOException if the bytes can not be decoded.
+     */
+    T decode(byte[] bytes) throws IOException;
+}
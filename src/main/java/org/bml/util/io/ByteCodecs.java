@@ -0,0 +1,107 @@
+package org.bml.util.io;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Common {@link ByteCodec}s.
+ *
+ * @author Brian M. Lima
+ */
+public final class ByteCodecs {
+
+    /**
+     * Encodes strings as UTF-8.
+     */
+    private static final ByteCodec<String> UTF8 = new ByteCodec<String>() {
+        @Override
+        public byte[] encode(final String object) {
+            return object.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(final byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Encodes objects with Java serialization.
+     */
+    private static final ByteCodec<Serializable> SERIALIZATION = new ByteCodec<Serializable>() {
+        @Override
+        public byte[] encode(final Serializable object) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(object);
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public Serializable decode(final byte[] bytes) throws IOException {
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (Serializable) in.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("Can not decode an object of a class that is not on the class path.", ex);
+            } finally {
+                in.close();
+            }
+        }
+    };
+
+    /**
+     * Utility class. Do not instantiate.
+     */
+    private ByteCodecs() {
+    }
+
+    /**
+     * A codec for strings as UTF-8.
+     *
+     * @return the UTF-8 codec.
+     */
+    public static ByteCodec<String> utf8() {
+        return UTF8;
+    }
+
+    /**
+     * A codec that uses Java serialization. Compact it is not, so prefer a
+     * purpose built codec for high volumes.
+     *
+     * @param <T> the type of the objects encoded.
+     * @return the serialization codec.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Serializable> ByteCodec<T> serialization() {
+        return (ByteCodec<T>) SERIALIZATION;
+    }
+}
@@ -0,0 +1,622 @@
+package org.bml.util.io;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append only log of byte records kept in memory mapped segment files in a
+ * directory. Records are read back in the order they were appended and each
+ * segment file is deleted as soon as its last record has been read, so the
+ * disk used tracks the backlog.
+ * <p>
+ * Each segment starts with a {@value #HEADER_SIZE} byte header holding a
+ * magic number, the format version and the offset of the next unread record,
+ * which is updated on every read. Each record is its length plus one, a CRC32
+ * of its bytes and the bytes, so empty records are kept and a stored length
+ * of 0 still marks the end of a segment. Appends and
+ * reads go through the page cache, so the log survives the process dying at
+ * any point; {@link #force()} makes it survive the machine going down as well.
+ * Reopening a directory resumes from the first unread record. A record whose
+ * checksum does not match, left by a write that was cut short, ends its
+ * segment.</p>
+ * <p>
+ * {@link #prepend(List)} puts records ahead of everything else in the log by
+ * writing them to new segments numbered below the current head, for handing
+ * back records that were taken out of the log but not used.</p>
+ * <p>
+ * All methods are synchronized.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class SegmentLog implements Closeable {
+
+    /**
+     * Identifies a file as a SegmentLog segment. ASCII "SEGL".
+     */
+    private static final int MAGIC = 0x5345474c;
+    /**
+     * The file format version.
+     */
+    private static final int VERSION = 2;
+    /**
+     * The number of bytes reserved for the segment header.
+     */
+    public static final int HEADER_SIZE = 16;
+    /**
+     * Header offset of the next unread record.
+     */
+    private static final int READ_OFFSET = 8;
+    /**
+     * The number of bytes in front of each record.
+     */
+    private static final int RECORD_OVERHEAD = 8;
+    /**
+     * The default segment size, 64MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /**
+     * The id of the first segment of a new log. Leaves room below for
+     * prepended segments.
+     */
+    private static final long FIRST_ID = 1L << 40;
+    /**
+     * The segment file name suffix.
+     */
+    private static final String SUFFIX = ".seg";
+
+    /**
+     * The directory holding the segments.
+     */
+    private final File directory;
+    /**
+     * The size of each segment file.
+     */
+    private final int segmentSize;
+    /**
+     * The most bytes the segments may take on disk.
+     */
+    private final long maxBytes;
+    /**
+     * The segments, oldest first.
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    /**
+     * The number of unread records.
+     */
+    private long size = 0;
+    /**
+     * True once closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Opens or creates a log with the default segment size and no limit on
+     * disk use.
+     *
+     * @param directory the directory holding the segments. Created if it does
+     * not exist.
+     * @throws IOException if the directory or its segments can not be opened.
+     */
+    public SegmentLog(final File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens or creates a log.
+     *
+     * @param directory the directory holding the segments. Created if it does
+     * not exist.
+     * @param segmentSize the size of each segment file. Records larger than a
+     * segment can not be stored.
+     * @param maxBytes the most bytes the segments may take on disk. Appends
+     * that would need a segment past this fail.
+     * @throws IOException if the directory or its segments can not be opened.
+     * @pre directory!=null
+     * @pre segmentSize&gt;HEADER_SIZE+RECORD_OVERHEAD
+     * @pre maxBytes&gt;=segmentSize
+     */
+    public SegmentLog(final File directory, final int segmentSize, final long maxBytes) throws IOException {
+        checkNotNull(directory, "Can not create a SegmentLog with a null directory parameter.");
+        checkArgument(segmentSize > HEADER_SIZE + RECORD_OVERHEAD, "Can not create a SegmentLog with a segmentSize parameter that does not meet (segmentSize > %s).", HEADER_SIZE + RECORD_OVERHEAD);
+        checkArgument(maxBytes >= segmentSize, "Can not create a SegmentLog with a maxBytes parameter that does not meet (maxBytes >= segmentSize).");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the SegmentLog directory " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can not list the SegmentLog directory " + directory.getAbsolutePath());
+        }
+        Arrays.sort(files);
+        Segment segment;
+        for (File file : files) {
+            segment = Segment.open(file, idOf(file));
+            if (segment.unread == 0 && segment.isFull(0)) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            size += segment.unread;
+        }
+    }
+
+    /**
+     * The segment id encoded in a file name.
+     *
+     * @param file a segment file.
+     * @return the segment id.
+     * @throws IOException if the name is not a segment id.
+     */
+    private static long idOf(final File file) throws IOException {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a SegmentLog segment " + file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * The file for a segment id.
+     *
+     * @param id a segment id.
+     * @return the segment file.
+     */
+    private File fileOf(final long id) {
+        return new File(directory, String.format("%019d%s", id, SUFFIX));
+    }
+
+    /**
+     * Checks a record fits a segment.
+     *
+     * @param record the record.
+     */
+    private void checkRecord(final byte[] record) {
+        checkNotNull(record, "Can not append a null record.");
+        checkArgument(record.length <= segmentSize - HEADER_SIZE - RECORD_OVERHEAD,
+                "Can not append a record larger than a segment. length=%s", record.length);
+    }
+
+    /**
+     * Checks the log is open.
+     *
+     * @throws IOException if the log has been closed.
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The SegmentLog at " + directory.getAbsolutePath() + " is closed.");
+        }
+    }
+
+    /**
+     * Appends a record to the end of the log.
+     *
+     * @param record the record.
+     * @return true if the record was appended, false if the log is at its
+     * disk limit.
+     * @throws IOException if a new segment can not be created.
+     * @throws IllegalArgumentException if the record is larger than a segment.
+     */
+    public synchronized boolean append(final byte[] record) throws IOException {
+        checkOpen();
+        checkRecord(record);
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.isFull(record.length)) {
+            final long id = tail == null ? FIRST_ID : tail.id + 1;
+            //Poll keeps the last segment once it is used up. Replace it rather than count it against the limit.
+            if (tail != null && tail.unread == 0 && segments.size() == 1) {
+                segments.pollLast().delete();
+            }
+            if ((long) (segments.size() + 1) * segmentSize > maxBytes) {
+                return false;
+            }
+            tail = Segment.create(fileOf(id), id, segmentSize);
+            segments.addLast(tail);
+        }
+        tail.write(record);
+        size++;
+        return true;
+    }
+
+    /**
+     * Puts records at the head of the log, ahead of everything already in
+     * it, in the order given. Ignores the disk limit.
+     *
+     * @param records the records.
+     * @throws IOException if a new segment can not be created.
+     * @throws IllegalArgumentException if a record is larger than a segment.
+     */
+    public synchronized void prepend(final List<byte[]> records) throws IOException {
+        checkOpen();
+        if (records.isEmpty()) {
+            return;
+        }
+        for (byte[] record : records) {
+            checkRecord(record);
+        }
+        //Fill segments front to back, then number them down from the current head.
+        final List<Segment> created = new ArrayList<Segment>();
+        final Segment head = segments.peekFirst();
+        long id = (head == null ? FIRST_ID : head.id) - 1;
+        Segment segment = null;
+        try {
+            for (byte[] record : records) {
+                if (segment == null || segment.isFull(record.length)) {
+                    segment = Segment.create(new File(directory, "prepend-" + created.size() + ".tmp"), 0, segmentSize);
+                    created.add(segment);
+                }
+                segment.write(record);
+            }
+            final List<Segment> renamed = new ArrayList<Segment>(created.size());
+            for (int c = created.size() - 1; c >= 0; c--) {
+                renamed.add(0, created.get(c).renameTo(fileOf(id), id));
+                id--;
+            }
+            for (int c = renamed.size() - 1; c >= 0; c--) {
+                segments.addFirst(renamed.get(c));
+            }
+            size += records.size();
+        } catch (IOException ex) {
+            for (Segment s : created) {
+                s.delete();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes the record at the head of the log.
+     *
+     * @return the record or null if the log is empty.
+     * @throws IOException if the log has been closed.
+     */
+    public synchronized byte[] poll() throws IOException {
+        checkOpen();
+        Segment head;
+        byte[] record;
+        while ((head = segments.peekFirst()) != null) {
+            record = head.read();
+            if (record != null) {
+                size--;
+                if (head.unread == 0 && segments.size() > 1) {
+                    segments.pollFirst().delete();
+                }
+                return record;
+            }
+            if (segments.size() == 1) {
+                return null;
+            }
+            segments.pollFirst().delete();
+        }
+        return null;
+    }
+
+    /**
+     * The number of unread records.
+     *
+     * @return the number of records in the log.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * True if the log holds no unread records.
+     *
+     * @return true if the log is empty.
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The bytes the segment files take on disk.
+     *
+     * @return the size of the segment files.
+     */
+    public synchronized long getDiskBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * The directory holding the segments.
+     *
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Forces every segment out to the storage device.
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Forces every segment out to the storage device and closes the log. The
+     * mappings themselves are released when garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        force();
+        closed = true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("SegmentLog[").append(directory.getAbsolutePath())
+                .append(" size=").append(size).append(" segments=");
+        final Iterator<Segment> iter = segments.iterator();
+        while (iter.hasNext()) {
+            builder.append(iter.next().id).append(iter.hasNext() ? "," : "");
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+
+        /**
+         * The segment id, which orders segments.
+         */
+        private final long id;
+        /**
+         * The segment file.
+         */
+        private final File file;
+        /**
+         * The mapped file.
+         */
+        private final MappedByteBuffer buffer;
+        /**
+         * The offset of the next unread record.
+         */
+        private int readOffset;
+        /**
+         * The offset the next record is written at.
+         */
+        private int writeOffset;
+        /**
+         * The number of unread records.
+         */
+        private int unread;
+
+        /**
+         * Creates a Segment.
+         *
+         * @param id the segment id.
+         * @param file the segment file.
+         * @param buffer the mapped file.
+         * @param readOffset the offset of the next unread record.
+         * @param writeOffset the offset the next record is written at.
+         * @param unread the number of unread records.
+         */
+        private Segment(final long id, final File file, final MappedByteBuffer buffer, final int readOffset, final int writeOffset, final int unread) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.readOffset = readOffset;
+            this.writeOffset = writeOffset;
+            this.unread = unread;
+        }
+
+        /**
+         * Maps a file.
+         *
+         * @param file the file.
+         * @param size the size to map, and to extend the file to.
+         * @return the mapped file.
+         * @throws IOException if the file can not be mapped.
+         */
+        private static MappedByteBuffer map(final File file, final long size) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                final FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Creates a new, empty segment.
+         *
+         * @param file the segment file, which must not exist.
+         * @param id the segment id.
+         * @param segmentSize the size of the segment file.
+         * @return the segment.
+         * @throws IOException if the file exists or can not be mapped.
+         */
+        static Segment create(final File file, final long id, final int segmentSize) throws IOException {
+            if (!file.createNewFile()) {
+                throw new IOException("SegmentLog segment already exists " + file.getAbsolutePath());
+            }
+            final MappedByteBuffer buffer = map(file, segmentSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(READ_OFFSET, HEADER_SIZE);
+            return new Segment(id, file, buffer, HEADER_SIZE, HEADER_SIZE, 0);
+        }
+
+        /**
+         * Opens an existing segment, scanning it for the end of its records.
+         *
+         * @param file the segment file.
+         * @param id the segment id.
+         * @return the segment.
+         * @throws IOException if the file is not a segment or can not be
+         * mapped.
+         */
+        static Segment open(final File file, final long id) throws IOException {
+            final MappedByteBuffer buffer = map(file, file.length());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a SegmentLog segment " + file.getAbsolutePath());
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported SegmentLog segment version " + buffer.getInt(4) + " in " + file.getAbsolutePath());
+            }
+            final int readOffset = (int) buffer.getLong(READ_OFFSET);
+            int offset = HEADER_SIZE, unread = 0, length;
+            while ((length = recordLength(buffer, offset)) >= 0) {
+                if (offset >= readOffset) {
+                    unread++;
+                }
+                offset += RECORD_OVERHEAD + length;
+            }
+            return new Segment(id, file, buffer, Math.min(Math.max(readOffset, HEADER_SIZE), offset), offset, unread);
+        }
+
+        /**
+         * The length of the valid record at an offset.
+         *
+         * @param buffer the mapped segment.
+         * @param offset the offset of the record.
+         * @return the record length or -1 if there is no valid record at the
+         * offset.
+         */
+        private static int recordLength(final MappedByteBuffer buffer, final int offset) {
+            if (offset + RECORD_OVERHEAD > buffer.capacity()) {
+                return -1;
+            }
+            final int length = buffer.getInt(offset) - 1;
+            if (length < 0 || length > buffer.capacity() - offset - RECORD_OVERHEAD) {
+                return -1;
+            }
+            final byte[] bytes = new byte[length];
+            final MappedByteBuffer view = (MappedByteBuffer) buffer.duplicate();
+            view.position(offset + RECORD_OVERHEAD);
+            view.get(bytes);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            return (int) crc.getValue() == buffer.getInt(offset + 4) ? length : -1;
+        }
+
+        /**
+         * True if a record of a length does not fit. Records are length
+         * prefixed, so an empty record needs no room but its header.
+         *
+         * @param length the record length.
+         * @return true if the record does not fit.
+         */
+        boolean isFull(final int length) {
+            return writeOffset + RECORD_OVERHEAD + length > buffer.capacity();
+        }
+
+        /**
+         * Writes a record. The length, stored plus one so an empty record is
+         * not taken for the end of the segment, goes in last so a record cut
+         * short is never mistaken for a whole one.
+         *
+         * @param record the record.
+         */
+        void write(final byte[] record) {
+            final CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            final MappedByteBuffer view = (MappedByteBuffer) buffer.duplicate();
+            view.position(writeOffset + RECORD_OVERHEAD);
+            view.put(record);
+            buffer.putInt(writeOffset + 4, (int) crc.getValue());
+            buffer.putInt(writeOffset, record.length + 1);
+            writeOffset += RECORD_OVERHEAD + record.length;
+            unread++;
+        }
+
+        /**
+         * Reads the next unread record and records the new read offset in the
+         * header.
+         *
+         * @return the record or null if every record has been read.
+         */
+        byte[] read() {
+            if (unread == 0) {
+                return null;
+            }
+            final int length = buffer.getInt(readOffset) - 1;
+            final byte[] record = new byte[length];
+            final MappedByteBuffer view = (MappedByteBuffer) buffer.duplicate();
+            view.position(readOffset + RECORD_OVERHEAD);
+            view.get(record);
+            readOffset += RECORD_OVERHEAD + length;
+            buffer.putLong(READ_OFFSET, readOffset);
+            unread--;
+            return record;
+        }
+
+        /**
+         * Moves the segment file and returns the segment under its new id.
+         *
+         * @param target the new file.
+         * @param newId the new id.
+         * @return the renamed segment.
+         * @throws IOException if the file can not be moved.
+         */
+        Segment renameTo(final File target, final long newId) throws IOException {
+            buffer.force();
+            if (!file.renameTo(target)) {
+                throw new IOException("Can not rename SegmentLog segment " + file.getAbsolutePath() + " to " + target.getAbsolutePath());
+            }
+            return new Segment(newId, target, buffer, readOffset, writeOffset, unread);
+        }
+
+        /**
+         * Deletes the segment file.
+         */
+        void delete() {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package org.bml.util.rt.telemetry;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory, log bucketed histogram for latencies in nanoseconds, in the
+ * style of Gil Tene's HdrHistogram. Values are bucketed by their highest set
+ * bit and then split linearly by the next <code>precisionBits - 1</code> bits,
+ * so every recorded value is kept to within a relative error of
+ * <code>2^-(precisionBits - 1)</code>, about 0.8% with the default of 8 bits.
+ * Memory is fixed at construction and does not grow with the number of
+ * samples. The defaults cover 1 nanosecond to 1 hour in under 40KB.
+ * <p>
+ * Recording is lock free and safe from any number of threads. A snapshot is a
+ * copy that can be queried at leisure. {@link #snapshotAndReset()} moves every
+ * count into the snapshot with an atomic exchange so no sample is counted
+ * twice or lost between interval snapshots.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class LatencyHistogram {
+
+    /**
+     * The default number of bits of precision kept for each value.
+     */
+    public static final int DEFAULT_PRECISION_BITS = 8;
+    /**
+     * The default highest value tracked, one hour in nanoseconds.
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * The number of bits of precision kept for each value.
+     */
+    private final int precisionBits;
+    /**
+     * The highest value tracked. Larger values are recorded as this value.
+     */
+    private final long highestTrackableValue;
+    /**
+     * The number of linear sub buckets in each power of two bucket.
+     */
+    private final int subBucketCount;
+    /**
+     * The counts for each bucket.
+     */
+    private final AtomicLongArray counts;
+    /**
+     * The sum of all recorded values.
+     */
+    private final AtomicLong totalValue = new AtomicLong();
+    /**
+     * The largest recorded value.
+     */
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Creates a histogram covering 1 nanosecond to 1 hour with about 0.8%
+     * precision.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param highestTrackableValue the highest value tracked. Larger values are recorded as this value.
+     * @param precisionBits the number of bits of precision kept for each value.
+     * @pre highestTrackableValue&gt;0
+     * @pre 2 &lt;= precisionBits &lt;= 16
+     */
+    public LatencyHistogram(final long highestTrackableValue, final int precisionBits) {
+        checkArgument(highestTrackableValue > 0, "Can not create a LatencyHistogram with a highestTrackableValue parameter that does not meet (highestTrackableValue > 0).");
+        checkArgument(precisionBits >= 2 && precisionBits <= 16, "Can not create a LatencyHistogram with a precisionBits parameter that does not meet (2 <= precisionBits <= 16).");
+        this.highestTrackableValue = highestTrackableValue;
+        this.precisionBits = precisionBits;
+        this.subBucketCount = 1 << (precisionBits - 1);
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    /**
+     * The bucket index for a value. Values below <code>2^precisionBits</code>
+     * get a bucket each, larger values share a bucket with the values that
+     * agree in their top <code>precisionBits</code> bits.
+     *
+     * @param value a value in [0, highestTrackableValue].
+     * @return the index of the bucket for the value.
+     */
+    private int indexOf(final long value) {
+        final int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - precisionBits);
+        return shift * subBucketCount + (int) (value >>> shift);
+    }
+
+    /**
+     * The lowest value that maps to a bucket.
+     *
+     * @param index the index of a bucket.
+     * @return the lowest value in the bucket.
+     */
+    private long lowestValueAt(final int index) {
+        final int shift = Math.max(0, index / subBucketCount - 1);
+        return (long) (index - shift * subBucketCount) << shift;
+    }
+
+    /**
+     * The highest value that maps to a bucket.
+     *
+     * @param index the index of a bucket.
+     * @return the highest value in the bucket.
+     */
+    private long highestValueAt(final int index) {
+        final int shift = Math.max(0, index / subBucketCount - 1);
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value to record, usually nanoseconds. Negative values
+     * are recorded as 0 and values over the highest trackable value as the
+     * highest trackable value.
+     */
+    public void record(final long value) {
+        final long clamped = Math.min(Math.max(value, 0L), highestTrackableValue);
+        counts.incrementAndGet(indexOf(clamped));
+        totalValue.addAndGet(clamped);
+        long max;
+        while (clamped > (max = maxValue.get()) && !maxValue.compareAndSet(max, clamped)) {
+        }
+    }
+
+    /**
+     * Adds all counts from another histogram with the same configuration.
+     *
+     * @param other the histogram to add.
+     * @pre other has the same highestTrackableValue and precisionBits.
+     */
+    public void add(final LatencyHistogram other) {
+        checkArgument(other.precisionBits == precisionBits && other.highestTrackableValue == highestTrackableValue,
+                "Can not add a LatencyHistogram with a different configuration.");
+        for (int c = 0; c < counts.length(); c++) {
+            final long count = other.counts.get(c);
+            if (count != 0) {
+                counts.addAndGet(c, count);
+            }
+        }
+        totalValue.addAndGet(other.totalValue.get());
+        final long otherMax = other.maxValue.get();
+        long max;
+        while (otherMax > (max = maxValue.get()) && !maxValue.compareAndSet(max, otherMax)) {
+        }
+    }
+
+    /**
+     * Copies the histogram. Recording can continue while the copy is taken so
+     * the copy may include some, but not all, of the values recorded during
+     * the copy.
+     *
+     * @return a copy of this histogram.
+     */
+    public LatencyHistogram snapshot() {
+        final LatencyHistogram copy = new LatencyHistogram(highestTrackableValue, precisionBits);
+        for (int c = 0; c < counts.length(); c++) {
+            copy.counts.lazySet(c, counts.get(c));
+        }
+        copy.totalValue.set(totalValue.get());
+        copy.maxValue.set(maxValue.get());
+        return copy;
+    }
+
+    /**
+     * The values recorded since an earlier snapshot of this histogram. This
+     * gives interval readings without resetting the histogram, so other
+     * readers keep seeing cumulative counts. The maximum of the result is the
+     * top of its highest non empty bucket, capped at this histogram's maximum.
+     *
+     * @param previous an earlier snapshot of this histogram.
+     * @return a histogram holding the counts recorded after the snapshot.
+     * Counts that went down, because this histogram was reset after the
+     * snapshot, are treated as zero.
+     * @pre previous has the same highestTrackableValue and precisionBits.
+     */
+    public LatencyHistogram minus(final LatencyHistogram previous) {
+        checkArgument(previous.precisionBits == precisionBits && previous.highestTrackableValue == highestTrackableValue,
+                "Can not subtract a LatencyHistogram with a different configuration.");
+        final LatencyHistogram delta = new LatencyHistogram(highestTrackableValue, precisionBits);
+        int highest = -1;
+        for (int c = 0; c < counts.length(); c++) {
+            final long count = counts.get(c) - previous.counts.get(c);
+            if (count > 0) {
+                delta.counts.lazySet(c, count);
+                highest = c;
+            }
+        }
+        delta.totalValue.set(Math.max(0L, totalValue.get() - previous.totalValue.get()));
+        delta.maxValue.set(highest < 0 ? 0L : Math.min(highestValueAt(highest), maxValue.get()));
+        return delta;
+    }
+
+    /**
+     * Moves all counts into a new histogram and leaves this one empty. Each
+     * recorded value ends up in exactly one snapshot, which makes this the
+     * method to use for interval reporting.
+     *
+     * @return a histogram holding everything recorded since the last reset.
+     */
+    public LatencyHistogram snapshotAndReset() {
+        final LatencyHistogram copy = new LatencyHistogram(highestTrackableValue, precisionBits);
+        for (int c = 0; c < counts.length(); c++) {
+            copy.counts.lazySet(c, counts.getAndSet(c, 0L));
+        }
+        copy.totalValue.set(totalValue.getAndSet(0L));
+        copy.maxValue.set(maxValue.getAndSet(0L));
+        return copy;
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void reset() {
+        snapshotAndReset();
+    }
+
+    /**
+     * The number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        long total = 0;
+        for (int c = 0; c < counts.length(); c++) {
+            total += counts.get(c);
+        }
+        return total;
+    }
+
+    /**
+     * The largest recorded value.
+     *
+     * @return the largest recorded value, 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * The mean of the recorded values.
+     *
+     * @return the mean, 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : totalValue.get() / (double) count;
+    }
+
+    /**
+     * The value at or below which the passed percentage of recorded values
+     * fall, to within the precision of the histogram.
+     *
+     * @param percentile the percentile to look up, 0 to 100.
+     * @return the value at the percentile, 0 if nothing has been recorded.
+     * @pre 0 &lt;= percentile &lt;= 100
+     */
+    public long getValueAtPercentile(final double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "Can not look up a percentile that does not meet (0 <= percentile <= 100).");
+        final long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int c = 0; c < snapshot.length; c++) {
+            snapshot[c] = counts.get(c);
+            total += snapshot[c];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int c = 0; c < snapshot.length; c++) {
+            seen += snapshot[c];
+            if (seen >= target) {
+                return Math.min(highestValueAt(c), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * The median.
+     *
+     * @return the 50th percentile.
+     */
+    public long getP50() {
+        return getValueAtPercentile(50);
+    }
+
+    /**
+     * The 99th percentile.
+     *
+     * @return the 99th percentile.
+     */
+    public long getP99() {
+        return getValueAtPercentile(99);
+    }
+
+    /**
+     * The 99.9th percentile.
+     *
+     * @return the 99.9th percentile.
+     */
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * The highest value tracked.
+     *
+     * @return the highest trackable value.
+     */
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    /**
+     * The number of bits of precision kept for each value.
+     *
+     * @return the precision in bits.
+     */
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%s mean=%.0f p50=%s p99=%s p999=%s max=%s", getCount(), getMean(), getP50(), getP99(), getP999(), getMax());
+    }
+}
@@ -23,19 +23,25 @@
 package org.bml.util.rt.telemetry;
 
 import com.google.common.util.concurrent.RateLimiter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bml.util.exception.OverloadedException;
 import org.bml.util.exception.UnavailableException;
+import org.bml.util.threads.SpillSink;
 import org.bml.util.threads.WorkerThread;
 
 /**
@@ -48,7 +54,12 @@ import org.bml.util.threads.WorkerThread;
  * The class uses a LinkedBlockingQueue for managing buffer capacity and an
  * attempt at order preservation however order is not absolute as worker
  * threads pulling from the queue and writing to whatever the telemetry consumer
- * is may bulk write out of order.
+ * is may bulk write out of order. Pass a
+ * {@link org.bml.util.threads.MpscArrayBlockingQueue} to the buffer taking
+ * constructor instead to take offers through a preallocated lock free ring;
+ * with rate limiting off an offer is then a CAS on the ring plus two striped
+ * counter increments and two reads of the enabled flag that track it for
+ * shutdown, and allocates nothing once the counters have settled.
  *
  * NOTE: Because this class extends WorkerThread it is necessary to distinguish
  * between enabled and should run. Enabled controls whether this sink will take
@@ -77,7 +88,7 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
     private final boolean useRateLimiter;
     /**
      */
-    protected final LinkedBlockingQueue<T> telemetryBuffer;
+    protected final BlockingQueue<T> telemetryBuffer;
     /**
      */
     private final AtomicBoolean isEnabled;
@@ -91,6 +102,31 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
      * longer be used
      */
     private UnavailableException theUnavailableException = null;
+    /**
+     * The number of offers started. Together with {@link #exitedOffers} this
+     * tracks offers in progress so a shutdown can wait for exactly those to
+     * finish. Both are striped so concurrent offers do not contend on a
+     * single counter.
+     */
+    private final LongAdder enteredOffers = new LongAdder();
+    /**
+     * The number of offers finished, including offers turned away because
+     * this sink was disabled.
+     */
+    private final LongAdder exitedOffers = new LongAdder();
+
+    /**
+     * Released by the last offer to finish once this sink is disabled, so a
+     * shutdown wakes as soon as no offer is in progress. Null until a
+     * shutdown starts waiting.
+     */
+    private volatile CountDownLatch offersDrained = null;
+
+    /**
+     * The number of milliseconds between progress reports while a shutdown
+     * waits.
+     */
+    private static final long SHUTDOWN_PROGRESS_INTERVAL = 1000L;
 
     /**
      * Creates a new RTTelemetrySink.
@@ -111,6 +147,31 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
             final Double permitsPerSecond,
             final int bufferCapacity,
             final boolean isEnabled
+    ) {
+        this(theThreadGroup, theThreadName, permitsPerSecond, new LinkedBlockingQueue<T>(bufferCapacity), isEnabled);
+    }
+
+    /**
+     * Creates a new RTTelemetrySink on a buffer of the caller's choosing. Only
+     * the sink thread takes from the buffer, so a single consumer queue such
+     * as {@link org.bml.util.threads.MpscArrayBlockingQueue} is safe.
+     *
+     * @param permitsPerSecond number of offers per second this sink will take
+     * before throwing OverloadedException. Set to 0 to disable rate limiting.
+     * @param theThreadGroup The thread group to add this thread to.
+     * @param theThreadName the name of the thread.
+     * @param telemetryBuffer the empty telemetry object buffer. Its remaining
+     * capacity is taken as the buffer capacity.
+     * @param isEnabled If passed as True. This sink will be enabled but not
+     * started available on construction. If passed False this sink will be
+     * disabled by default.
+     */
+    public RTTelemetrySink(
+            final ThreadGroup theThreadGroup,
+            final String theThreadName,
+            final Double permitsPerSecond,
+            final BlockingQueue<T> telemetryBuffer,
+            final boolean isEnabled
     ) {
         super(theThreadGroup, theThreadName);
         this.LOG = LogFactory.getLog(getClass());
@@ -122,8 +183,8 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
             useRateLimiter = true;
             this.theRateLimiter = RateLimiter.create(permitsPerSecond);
         }
-        this.bufferCapacity = bufferCapacity;
-        this.telemetryBuffer = new LinkedBlockingQueue<T>(bufferCapacity);
+        this.bufferCapacity = telemetryBuffer.remainingCapacity();
+        this.telemetryBuffer = telemetryBuffer;
         this.isEnabled = new AtomicBoolean(isEnabled);
         this.setShouldRun(isEnabled);
     }
@@ -219,18 +280,61 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
      * permit is not available within the passed permitTimeout period.
      */
     public boolean offerTelemetry(final T telemetry, final long permitTimeout, final long offerTimeout, final boolean additiveTimeouts) throws UnavailableException, OverloadedException {
-        //check enabled
+        enterOffer();
+        try {
+            //Broker to apropriate offer
+            if (additiveTimeouts) {
+                return offerTelemetryAdditive(telemetry, permitTimeout, offerTimeout);
+            } else {
+                return offerTelemetrySTD(telemetry, permitTimeout, offerTimeout);
+            }
+        } finally {
+            exitOffer();
+        }
+    }
+
+    /**
+     * Starts an offer. Every call that returns must be matched by a call to
+     * {@link #exitOffer()}, so a shutdown can wait for offers in progress.
+     * Subclasses that take offers of their own use this pair around them.
+     *
+     * @throws UnavailableException if this sink is disabled.
+     */
+    protected final void enterOffer() throws UnavailableException {
+        //Count before the enabled check so a shutdown either sees this offer or the offer sees the shutdown.
+        enteredOffers.increment();
         if (!this.isEnabled.get()) {
+            exitOffer();
             throw new UnavailableException();
         }
-        //Broker to apropriate offer
-        if (additiveTimeouts) {
-            return offerTelemetryAdditive(telemetry, permitTimeout, offerTimeout);
-        } else {
-            return offerTelemetrySTD(telemetry, permitTimeout, offerTimeout);
+    }
+
+    /**
+     * Ends an offer started with {@link #enterOffer()}.
+     */
+    protected final void exitOffer() {
+        exitedOffers.increment();
+        //Only a disabled sink has a shutdown waiting, so enabled offers pay for one more read and nothing else.
+        if (!this.isEnabled.get()) {
+            final CountDownLatch drained = offersDrained;
+            if (drained != null && getInFlightOffers() == 0) {
+                drained.countDown();
+            }
         }
     }
 
+    /**
+     * The number of offers in progress. The exits are read first and both
+     * counts only grow, so 0 means no offer was in progress at some point
+     * between the two reads.
+     *
+     * @return the number of offers started and not yet finished.
+     */
+    private long getInFlightOffers() {
+        final long exited = exitedOffers.sum();
+        return enteredOffers.sum() - exited;
+    }
+
     /*
      * Updates the stable rate of this RTTelemetrySink, that is, the
      * maxOffersPerSecond argument provided in the method that
@@ -265,9 +369,9 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
 
     /**
      * 1. Disables this sink so no further offers can be made.
-     * 2. Waits 2 seconds for the sink to clear any buffered data.
+     * 2. Waits for offers already in progress to finish.
      * 3. Stops the WorkerThread extension of this class from writing buffered
-     * data
+     * data and waits for it to stop.
      * 4. flushes any left over buffered data.
      * 5. Closes any IO streams used to write data.
      *
@@ -281,25 +385,128 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
         shutDown();
     }
 
+    /**
+     * Shuts this sink down, waiting as long as it takes. See
+     * {@link #shutDown(long, TimeUnit, SpillSink)}.
+     */
     public void shutDown() {
-        disable();
         try {
-            Thread.sleep(200);
+            shutDown(Long.MAX_VALUE, TimeUnit.NANOSECONDS, null);
         } catch (InterruptedException ex) {
-            ex.printStackTrace();
+            LOG.warn("InterruptedException caught while shutting down.", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shuts this sink down with a deadline. Disables new offers, waits for
+     * offers in progress, stops the sink thread and waits for it, then writes
+     * out whatever is left in the buffer and calls {@link #closeData()}. Each
+     * wait returns as soon as what it waits for happens, and progress is
+     * logged every second. If the deadline passes first, or the final write
+     * fails, the buffered telemetry is handed to the spill sink.
+     * <p>
+     * Called from the sink's own thread, as {@link #flushData()}
+     * implementations do when their output goes away, this stops the sink
+     * without waiting for itself.</p>
+     *
+     * @param timeout the longest to wait.
+     * @param unit the unit of the timeout.
+     * @param spillSink where buffered telemetry goes if it can not be written,
+     * null to leave it in the buffer.
+     * @return true if the buffer was written out, false if anything was left
+     * for the spill sink or in the buffer.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean shutDown(final long timeout, final TimeUnit unit, final SpillSink<? super T> spillSink) throws InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        disable();
+        if (!awaitInFlightOffers(start, deadline)) {
+            LOG.warn("Shutdown deadline passed while offers were still in progress.");
         }
         setShouldRun(false);
-        while (isAlive()) {
+        if (WorkerThread.currentWorker() == this || Thread.currentThread() == this) {
+            return telemetryBuffer.isEmpty();
+        }
+        boolean stopped = !isWorkerAlive() || awaitSinkThread(start, deadline);
+        if (stopped) {
             try {
-                Thread.sleep(200);
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
+                flushData();
+            } catch (UnavailableException ex) {
+                LOG.error("UnavailableException caught while flushing buffered telemetry on shutdown.", ex);
             }
+        } else {
+            LOG.warn("Shutdown deadline passed before the sink thread stopped.");
         }
-        try {
-            flushData();
-        } catch (UnavailableException ex) {
-            ex.printStackTrace();
+        final boolean flushed = telemetryBuffer.isEmpty();
+        if (!flushed && spillSink != null) {
+            final List<T> leftovers = new ArrayList<T>();
+            telemetryBuffer.drainTo(leftovers);
+            try {
+                spillSink.spill(leftovers);
+                LOG.info("Spilled " + leftovers.size() + " buffered telemetry objects on shutdown.");
+            } catch (IOException ex) {
+                LOG.error("IOException caught while spilling " + leftovers.size() + " buffered telemetry objects. They are lost.", ex);
+            }
+        }
+        if (stopped) {
+            closeData();
+        }
+        return flushed;
+    }
+
+    /**
+     * Waits for the offers in progress when this sink was disabled.
+     *
+     * @param start when the shutdown started.
+     * @param deadline the {@link System#nanoTime()} to give up at.
+     * @return true if every offer finished.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private boolean awaitInFlightOffers(final long start, final long deadline) throws InterruptedException {
+        //Publish the latch before counting, so either this sees the last offer's exit or that offer sees the latch.
+        final CountDownLatch drained = new CountDownLatch(1);
+        offersDrained = drained;
+        if (getInFlightOffers() <= 0) {
+            return true;
+        }
+        final long interval = TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_PROGRESS_INTERVAL);
+        long remaining;
+        while (true) {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (drained.await(Math.min(remaining, interval), TimeUnit.NANOSECONDS) || getInFlightOffers() <= 0) {
+                return true;
+            }
+            LOG.info("Waiting for " + getInFlightOffers() + " offers in progress. ELAPSED_MS="
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Waits for the sink thread's run loop to return.
+     *
+     * @param start when the shutdown started.
+     * @param deadline the {@link System#nanoTime()} to give up at.
+     * @return true if the sink thread stopped.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private boolean awaitSinkThread(final long start, final long deadline) throws InterruptedException {
+        final long interval = TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_PROGRESS_INTERVAL);
+        long remaining;
+        while (true) {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (awaitTermination(Math.min(remaining, interval), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            LOG.info("Waiting for the sink thread to stop. BUFFERED=" + telemetryBuffer.size() + " ELAPSED_MS="
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         }
     }
 
@@ -318,4 +525,13 @@ public abstract class RTTelemetrySink<T> extends WorkerThread {
      */
     protected abstract void flushData() throws UnavailableException;
 
+    /**
+     * Releases whatever the sink writes to, once the sink thread has stopped
+     * and the final {@link #flushData()} has run. Does nothing by default.
+     * Sinks that hold files or channels open override this to close them and
+     * must log rather than throw.
+     */
+    protected void closeData() {
+    }
+
 }
@@ -22,69 +22,147 @@ package org.bml.util.rt.telemetry;
  *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
  * #L%
  */
-import java.util.Calendar;
-import java.util.TimeZone;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.bml.util.rt.telemetry.metrics.Gauge;
+import org.bml.util.rt.telemetry.metrics.Labels;
+import org.bml.util.rt.telemetry.metrics.MetricRegistry;
+import org.bml.util.time.CachedClock;
 
 /**
  * This utility came out of an interview question. After some thought I figured
  * this would be a very handy utility for keeping cumulative time based
- * telemetry. NOTE there are a few places where I think there can be speed
- * improvements such as in the current second calculations. I chose to go with a
- * Calendar as it handles leap seconds and should keep telemetry tracking in
- * line with UTC. There are some drawbacks though as this could result in
- * seconds that have 0 during the leap second. This is where the trade off comes
- * as a real time system may be dependant on the last 60 seconds and not care
- * about keeping in sync with the actual calendar second. It is because of this
- * I plan on implementing an option to use a rolling secondID method that
- * ignores the Calendar adjustments although I am not sure what the exact
- * behavior this would cause at a high level in a hard real time system.
- *
- * Only testing and analysis will tell what if any modifications are necessary.
- *
- * NOTE : a method of zeroing out seconds that happen after the first rotation
- * without blocking is necessary otherwise this class serves no purpose
- *
- *
+ * telemetry.
+ * <p>
+ * The counter is a ring of <code>windowSize</code> one second slots. Each slot
+ * is a {@link LongAdder}, which stripes increments across cells so threads
+ * incrementing the same second do not fight over one cache line, and is
+ * tagged with the second it is counting. The first increment to land on a slot
+ * tagged with an older second claims it with a compare and swap and zeroes
+ * it, so slots are cleared as the window wraps instead of accumulating
+ * forever. Readers treat any slot tagged with a second that has left the
+ * window as zero, so a quiet counter reads as quiet.</p>
+ * <p>
+ * Seconds are counted from a {@link CachedClock} by default, a monotonic clock
+ * read from a volatile field, rather than building a Calendar per increment.
+ * Seconds are therefore elapsed seconds, not calendar seconds, and are not
+ * affected by wall clock adjustments. An increment that races the rollover of
+ * its own slot can be lost to the reset, at most one per thread per slot per
+ * window.</p>
  *
  * @author Brian M Lima
  */
 public class SecondBasedCounter {
 
+    /**
+     * The number of one second slots in the window.
+     */
     private final int windowSize;
-    private AtomicLong numOperations;
-    private final AtomicInteger[] counterArray;
+    /**
+     * The number of increments for the life of this counter.
+     */
+    private final LongAdder numOperations = new LongAdder();
+    /**
+     * The ring of one second slots.
+     */
+    private final Slot[] slots;
+    /**
+     * The name of the telemetry stream this counter feeds.
+     */
     private final String telemetryStreamId;
-    private int currentSecondId = -1, lastSecondId = -1;
+    /**
+     * The time source seconds are counted from.
+     */
+    private final Ticker ticker;
 
+    /**
+     * Creates a new SecondBasedCounter that keeps time with the {@link CachedClock}.
+     *
+     * @param windowSize the number of seconds of history to keep.
+     * @param telemetryStreamId the name of the telemetry stream this counter feeds.
+     */
     public SecondBasedCounter(final int windowSize, final String telemetryStreamId) {
+        this(windowSize, telemetryStreamId, CachedClock.ticker());
+    }
+
+    /**
+     * Creates a new SecondBasedCounter.
+     *
+     * @param windowSize the number of seconds of history to keep.
+     * @param telemetryStreamId the name of the telemetry stream this counter feeds.
+     * @param ticker the time source seconds are counted from.
+     * @pre windowSize&gt;0
+     * @pre ticker!=null
+     */
+    public SecondBasedCounter(final int windowSize, final String telemetryStreamId, final Ticker ticker) {
+        checkArgument(windowSize > 0, "Can not create a SecondBasedCounter with a windowSize parameter that does not meet (windowSize > 0).");
+        checkNotNull(ticker, "Can not create a SecondBasedCounter with a null ticker parameter.");
         this.telemetryStreamId = telemetryStreamId;
         this.windowSize = windowSize;
-        this.counterArray = new AtomicInteger[this.windowSize];
-
-        for (int c = 0; c < counterArray.length; c++) {
-            counterArray[c] = new AtomicInteger(0);
+        this.ticker = ticker;
+        this.slots = new Slot[windowSize];
+        for (int c = 0; c < slots.length; c++) {
+            slots[c] = new Slot();
         }
-        numOperations = new AtomicLong(0);
     }
 
-    private void setSecond() {
-        this.currentSecondId = getCurrentSecondID();
-        if (this.lastSecondId != this.currentSecondId) {
+    /**
+     * The current second according to the ticker.
+     *
+     * @return the number of whole seconds on the ticker.
+     */
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
 
-        }
+    /**
+     * The slot a second maps to.
+     *
+     * @param second a second from {@link #currentSecond()}.
+     * @return the slot for the second.
+     */
+    private Slot slotFor(final long second) {
+        return slots[(int) Math.floorMod(second, (long) windowSize)];
     }
 
     /**
+     * Snapshot of the counts by slot index, with slots whose second has left
+     * the window reported as zero. The array is a copy, changing it has no
+     * effect on the counter.
      *
      * @return An array of AtomicInteger representing the second counters
      */
     public AtomicInteger[] getCounterArray() {
+        final long now = currentSecond();
+        final AtomicInteger[] counterArray = new AtomicInteger[windowSize];
+        for (int c = 0; c < windowSize; c++) {
+            counterArray[c] = new AtomicInteger((int) Math.min(Integer.MAX_VALUE, slots[c].countIfLive(now, windowSize)));
+        }
         return counterArray;
     }
 
+    /**
+     * The counts for the seconds in the window, oldest first. The last element
+     * is the current, partial, second.
+     *
+     * @return the per second counts.
+     */
+    public long[] getWindowCounts() {
+        final long now = currentSecond();
+        final long[] counts = new long[windowSize];
+        for (int c = 0; c < windowSize; c++) {
+            counts[c] = slotFor(now - windowSize + 1 + c).countIfLive(now, windowSize);
+        }
+        return counts;
+    }
+
     /**
      * Telemetry for accessing usage.. Use full for usage telemetry, debugging,
      * and component use trending.
@@ -93,20 +171,23 @@ public class SecondBasedCounter {
      * object
      */
     public long getNumOperations() {
-        return this.numOperations.get();
+        return this.numOperations.sum();
     }
 
     /**
-     * Increments the counter for the current second. If it becomes necessary I
-     * may store the current second id in the class for telemetry however at this
-     * point it looks like there is no reason for it and it will introduce more
-     * complexity to ensure the id is accurate without manual locking.
+     * Increments the counter for the current second. Lock free, and on the
+     * common path a volatile read of the clock, a volatile read of the slot
+     * tag and two striped adds.
      */
     public void increment() {
-        //increment total operations
-        numOperations.incrementAndGet();
-        //Handle the increment
-        this.counterArray[getCurrentSecondID()].incrementAndGet();
+        final long second = currentSecond();
+        final Slot slot = slotFor(second);
+        final long tag = slot.second.get();
+        if (tag < second && slot.second.compareAndSet(tag, second)) {
+            slot.count.reset();
+        }
+        slot.count.increment();
+        numOperations.increment();
     }
 
     /**
@@ -114,29 +195,98 @@ public class SecondBasedCounter {
      * DescriptiveStatistics object to allow the caller to encapsulate more
      * operations than just a simple sum.
      *
-     * @return DescriptiveStatistics containing the last 60 seconds of telemetry
-     * data. because of the use of atomics this should be as up to date as
-     * possible without getting into manual locking which this method and all
-     * methods in this class are contracted to avoid at all costs.
+     * @return DescriptiveStatistics containing the per second counts for the
+     * window, oldest first. because of the use of atomics this should be as up
+     * to date as possible without getting into manual locking which this
+     * method and all methods in this class are contracted to avoid at all
+     * costs.
      */
     public DescriptiveStatistics getLastMinutesTelemetry() {
-        DescriptiveStatistics stats = new DescriptiveStatistics(60);
-        for (int c = 0; c < 60; c++) {
-            stats.addValue(counterArray[c].doubleValue());
+        final long[] counts = getWindowCounts();
+        final DescriptiveStatistics stats = new DescriptiveStatistics(counts.length);
+        for (long count : counts) {
+            stats.addValue(count);
         }
         return stats;
     }
 
     /**
-     * This method should be studied carefully to see if there is a faster way to
-     * get the current second without creating a Calendar instance.
-     * Either way this method an be overridden if a faster or more appropriate
-     * calculation is found.
+     * The name of the telemetry stream this counter feeds.
+     *
+     * @return the telemetryStreamId.
+     */
+    public String getTelemetryStreamId() {
+        return telemetryStreamId;
+    }
+
+    /**
+     * Exposes this counter in a registry under its sanitized telemetry stream
+     * id: the lifetime count as a counter, and the count over the window as a
+     * gauge with a <code>_window</code> suffix. Both are read when the
+     * registry is scraped, so increments cost nothing extra.
+     *
+     * @param registry the registry to register into.
+     * @param labels the labels of the series.
+     * @return this counter.
+     * @pre telemetryStreamId!=null
+     */
+    public SecondBasedCounter register(final MetricRegistry registry, final Labels labels) {
+        checkNotNull(registry, "Can not register a SecondBasedCounter with a null registry.");
+        checkState(telemetryStreamId != null, "Can not register a SecondBasedCounter without a telemetryStreamId.");
+        final String name = MetricRegistry.sanitize(telemetryStreamId);
+        registry.counter(name, "Increments of " + telemetryStreamId + ".", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return numOperations.sum();
+            }
+        });
+        registry.gauge(name + "_window", "Increments of " + telemetryStreamId + " in the last " + windowSize + " seconds.", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                long sum = 0;
+                for (long count : getWindowCounts()) {
+                    sum += count;
+                }
+                return sum;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * The current second of the minute in UTC. Computed from
+     * {@link System#currentTimeMillis()} without creating a Calendar.
      *
      * @return an int between 0 and 59 denoting the current second
      */
     public static int getCurrentSecondID() {
-        return Calendar.getInstance(TimeZone.getTimeZone("UTC".intern())).get(Calendar.SECOND);
+        return (int) ((System.currentTimeMillis() / 1000L) % 60L);
     }
 
+    /**
+     * A one second slot in the ring.
+     */
+    private static final class Slot {
+
+        /**
+         * The second this slot is counting.
+         */
+        private final AtomicLong second = new AtomicLong(Long.MIN_VALUE);
+        /**
+         * The striped count for the second.
+         */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * The count, or zero if the second this slot holds has left the
+         * window.
+         *
+         * @param now the current second.
+         * @param windowSize the number of seconds in the window.
+         * @return the count for the slot.
+         */
+        long countIfLive(final long now, final int windowSize) {
+            return now - second.get() < windowSize ? count.sum() : 0L;
+        }
+    }
 }
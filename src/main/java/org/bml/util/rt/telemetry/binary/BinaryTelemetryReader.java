@@ -0,0 +1,384 @@
+package org.bml.util.rt.telemetry.binary;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads telemetry points written by a {@link BinaryTelemetryWriter}. A block
+ * is read, checked and decoded into primitive columns, then stepped through
+ * with {@link #next()} and the getters without allocating anything per
+ * point. {@link #read()} is there for callers who want objects.
+ * <p>
+ * A block whose checksum does not match, or that does not decode, fails the
+ * read with an {@link IOException}; the dictionary spans blocks, so nothing
+ * after a bad block can be trusted. A file that ends inside a block fails
+ * with a {@link java.io.EOFException}. A reader is not thread safe.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class BinaryTelemetryReader implements Closeable {
+
+    /**
+     * The stream read from.
+     */
+    private final DataInputStream in;
+    /**
+     * Counts the bytes read from the stream.
+     */
+    private final CountingInputStream counter;
+    /**
+     * The number of bytes up to the end of the last whole header or block
+     * read.
+     */
+    private long validBytes = 0;
+    /**
+     * The inflater, reused from block to block.
+     */
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    /**
+     * Dictionary id to stream name.
+     */
+    private final List<String> dictionary = new ArrayList<String>();
+    /**
+     * Reused buffers for the stored and decoded block.
+     */
+    private byte[] stored = new byte[0];
+    private byte[] payload = new byte[0];
+    private final TelemetryBlocks.In cursor = new TelemetryBlocks.In();
+    /**
+     * The decoded columns of the current block.
+     */
+    private long[] timestamps = new long[0];
+    private int[] streamIds = new int[0];
+    private long[] values = new long[0];
+    private long[] lastValues = new long[16];
+    private long[] lastValueBlock = new long[16];
+    /**
+     * The number of points in the current block.
+     */
+    private int blockSize = 0;
+    /**
+     * The index of the current point in the current block.
+     */
+    private int position = -1;
+    private long recordCount = 0;
+    private long blockCount = 0;
+
+    /**
+     * Creates a new BinaryTelemetryReader and reads the header.
+     *
+     * @param in the stream to read from. Unbuffered streams should be wrapped
+     * in a {@link java.io.BufferedInputStream}.
+     * @throws IOException if the stream does not start with a header.
+     * @pre in!=null
+     */
+    public BinaryTelemetryReader(final InputStream in) throws IOException {
+        checkNotNull(in, "Can not create a BinaryTelemetryReader with a null in parameter.");
+        this.counter = new CountingInputStream(in);
+        this.in = new DataInputStream(counter);
+        readHeader(this.in.readInt());
+    }
+
+    /**
+     * The length of the readable part of a file: everything up to the end of
+     * the last whole header or block that checks out. A file cut short by a
+     * crash ends in a partial block, and anything appended after it could
+     * never be read, so a writer appending to a file truncates it to this
+     * length first.
+     *
+     * @param file a binary telemetry file.
+     * @return the number of readable bytes, 0 if not even the header is
+     * whole.
+     * @throws IOException if the file can not be read or does not start with
+     * a header.
+     */
+    public static long validLength(final File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        final BinaryTelemetryReader reader;
+        try {
+            reader = new BinaryTelemetryReader(in);
+        } catch (EOFException ex) {
+            in.close();
+            return 0;
+        }
+        try {
+            while (reader.readBlock()) {
+            }
+        } catch (IOException ex) {
+            //A torn or corrupt block. Everything before it is readable.
+        } finally {
+            reader.close();
+        }
+        return reader.validBytes;
+    }
+
+    /**
+     * Checks a header and starts a new dictionary.
+     *
+     * @param magic the first four bytes of the header.
+     * @throws IOException if this is not a header or the version is unknown.
+     */
+    private void readHeader(final int magic) throws IOException {
+        if (magic != TelemetryBlocks.MAGIC) {
+            throw new IOException("Not a binary telemetry stream, found magic 0x" + Integer.toHexString(magic) + ".");
+        }
+        final byte version = in.readByte();
+        if (version != TelemetryBlocks.VERSION) {
+            throw new IOException("Unsupported binary telemetry version " + version + ".");
+        }
+        dictionary.clear();
+        validBytes = counter.getCount();
+    }
+
+    /**
+     * Moves to the next point.
+     *
+     * @return true if there is a next point, false at the end of the stream.
+     * @throws IOException if the stream can not be read or is corrupt.
+     */
+    public boolean next() throws IOException {
+        if (++position < blockSize) {
+            recordCount++;
+            return true;
+        }
+        while (readBlock()) {
+            if (blockSize > 0) {
+                position = 0;
+                recordCount++;
+                return true;
+            }
+        }
+        position = blockSize = 0;
+        return false;
+    }
+
+    /**
+     * Reads the next point as an object.
+     *
+     * @return the next point, null at the end of the stream.
+     * @throws IOException if the stream can not be read or is corrupt.
+     */
+    public TelemetryPoint read() throws IOException {
+        return next() ? new TelemetryPoint(getTimestamp(), getStream(), getValue()) : null;
+    }
+
+    /**
+     * Reads, checks and decodes the next block, skipping over any headers.
+     *
+     * @return false at the end of the stream.
+     * @throws IOException if the stream can not be read or is corrupt.
+     */
+    private boolean readBlock() throws IOException {
+        int codec = in.read();
+        while (codec == TelemetryBlocks.HEADER_START) {
+            readHeader(codec << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort());
+            codec = in.read();
+        }
+        if (codec < 0) {
+            return false;
+        }
+        if (codec != TelemetryBlocks.CODEC_RAW && codec != TelemetryBlocks.CODEC_DEFLATE) {
+            throw new IOException("Unknown telemetry block codec " + codec + ".");
+        }
+        final int payloadLength = in.readInt();
+        final int storedLength = in.readInt();
+        final int checksum = in.readInt();
+        if (payloadLength < 0 || payloadLength > TelemetryBlocks.MAX_PAYLOAD || storedLength < 0 || storedLength > TelemetryBlocks.MAX_PAYLOAD) {
+            throw new IOException("Telemetry block lengths " + payloadLength + " and " + storedLength + " are out of range.");
+        }
+        if (stored.length < storedLength) {
+            stored = new byte[storedLength];
+        }
+        in.readFully(stored, 0, storedLength);
+        crc.reset();
+        crc.update(stored, 0, storedLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Telemetry block " + (blockCount + 1) + " fails its checksum.");
+        }
+        if (codec == TelemetryBlocks.CODEC_DEFLATE) {
+            if (payload.length < payloadLength) {
+                payload = new byte[payloadLength];
+            }
+            inflate(storedLength, payloadLength);
+            cursor.reset(payload, payloadLength);
+        } else {
+            cursor.reset(stored, storedLength);
+        }
+        decode();
+        validBytes = counter.getCount();
+        return true;
+    }
+
+    /**
+     * Inflates the stored block into the payload buffer.
+     *
+     * @param storedLength the length of the stored block.
+     * @param payloadLength the length the block should inflate to.
+     * @throws IOException if the block does not inflate to its length.
+     */
+    private void inflate(final int storedLength, final int payloadLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLength);
+        int length = 0;
+        try {
+            while (length < payloadLength && !inflater.finished()) {
+                final int inflated = inflater.inflate(payload, length, payloadLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Telemetry block " + (blockCount + 1) + " does not inflate.", ex);
+        }
+        if (length != payloadLength || !inflater.finished()) {
+            throw new IOException("Telemetry block " + (blockCount + 1) + " inflates to the wrong length.");
+        }
+    }
+
+    /**
+     * Decodes the columns of the block under the cursor.
+     *
+     * @throws IOException if the block is malformed.
+     */
+    private void decode() throws IOException {
+        final long block = ++blockCount;
+        final int count = cursor.readCount(TelemetryBlocks.MAX_PAYLOAD);
+        final int added = cursor.readCount(count);
+        for (int c = 0; c < added; c++) {
+            dictionary.add(new String(cursor.readBytes(cursor.readCount(TelemetryBlocks.MAX_PAYLOAD)), StandardCharsets.UTF_8));
+        }
+        if (lastValues.length < dictionary.size()) {
+            lastValues = new long[dictionary.size() << 1];
+            lastValueBlock = new long[lastValues.length];
+        }
+        if (timestamps.length < count) {
+            timestamps = new long[count];
+            streamIds = new int[count];
+            values = new long[count];
+        }
+        long previous = 0;
+        long delta = 0;
+        for (int c = 0; c < count; c++) {
+            final long read = TelemetryBlocks.unZigZag(cursor.readVarLong());
+            if (c == 0) {
+                previous = read;
+            } else {
+                delta = c == 1 ? read : delta + read;
+                previous += delta;
+            }
+            timestamps[c] = previous;
+        }
+        for (int c = 0; c < count; c++) {
+            streamIds[c] = cursor.readCount(dictionary.size() - 1);
+        }
+        for (int c = 0; c < count; c++) {
+            final int id = streamIds[c];
+            final long base = lastValueBlock[id] == block ? lastValues[id] : 0L;
+            values[c] = base + TelemetryBlocks.unZigZag(cursor.readVarLong());
+            lastValues[id] = values[c];
+            lastValueBlock[id] = block;
+        }
+        blockSize = count;
+        position = -1;
+    }
+
+    /**
+     * The timestamp of the current point.
+     *
+     * @return the timestamp in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        checkPosition();
+        return timestamps[position];
+    }
+
+    /**
+     * The stream name of the current point.
+     *
+     * @return the stream name.
+     */
+    public String getStream() {
+        checkPosition();
+        return dictionary.get(streamIds[position]);
+    }
+
+    /**
+     * The value of the current point.
+     *
+     * @return the value.
+     */
+    public long getValue() {
+        checkPosition();
+        return values[position];
+    }
+
+    /**
+     * Fails unless {@link #next()} has moved to a point.
+     */
+    private void checkPosition() {
+        checkState(position >= 0 && position < blockSize, "There is no current telemetry point. Call next() first.");
+    }
+
+    /**
+     * The number of points read.
+     *
+     * @return the record count.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The number of blocks read.
+     *
+     * @return the block count.
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
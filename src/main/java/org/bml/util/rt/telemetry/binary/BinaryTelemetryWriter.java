@@ -0,0 +1,393 @@
+package org.bml.util.rt.telemetry.binary;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes telemetry points in the compact columnar format described in
+ * {@link TelemetryBlocks}. Points are buffered column by column in primitive
+ * arrays and written as a block once a block's worth has arrived or on
+ * {@link #flush()}. Nothing is formatted as text and nothing is allocated per
+ * point beyond the first sighting of a stream name.
+ * <p>
+ * Regular telemetry, a few streams sampled on an interval with slowly moving
+ * values, comes to one to three bytes a point before compression, and
+ * deflating the block takes off much of the rest. Larger blocks compress
+ * better; smaller ones lose less if the process dies.</p>
+ * <p>
+ * A writer is not thread safe. Read the output back with a
+ * {@link BinaryTelemetryReader}.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class BinaryTelemetryWriter implements Closeable, Flushable {
+
+    /**
+     * How blocks are stored.
+     */
+    public enum Compression {
+
+        /**
+         * Blocks are stored as encoded.
+         */
+        NONE,
+        /**
+         * Blocks are deflated, unless that would make them larger.
+         */
+        DEFLATE
+    }
+
+    /**
+     * The default number of points in a block.
+     */
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+    /**
+     * The stream written to.
+     */
+    private final DataOutputStream out;
+    /**
+     * How blocks are stored.
+     */
+    private final Compression compression;
+    /**
+     * The deflater, reused from block to block. Null when not compressing.
+     */
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    /**
+     * The number of points in a full block.
+     */
+    private final int blockRecords;
+    /**
+     * The buffered timestamps.
+     */
+    private final long[] timestamps;
+    /**
+     * The dictionary id of each buffered point's stream.
+     */
+    private final int[] streamIds;
+    /**
+     * The buffered values.
+     */
+    private final long[] values;
+    /**
+     * The number of buffered points.
+     */
+    private int count = 0;
+    /**
+     * Stream name to dictionary id for the whole file.
+     */
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    /**
+     * Names added to the dictionary since the last block.
+     */
+    private final List<String> newStreams = new ArrayList<String>();
+    /**
+     * The last value of each stream in the block being encoded.
+     */
+    private long[] lastValues = new long[16];
+    /**
+     * The encoding pass each entry of lastValues was set in.
+     */
+    private long[] lastValueBlock = new long[16];
+    /**
+     * The number of encoding passes, counting passes whose block failed to
+     * write, so a retried block never sees the values of its failed pass.
+     */
+    private long encodings = 0;
+    /**
+     * The encoded payload, reused from block to block.
+     */
+    private final TelemetryBlocks.Out payload;
+    /**
+     * The deflated payload, reused from block to block.
+     */
+    private byte[] deflated = new byte[0];
+    private long recordCount = 0;
+    private long blockCount = 0;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new BinaryTelemetryWriter that deflates blocks of
+     * {@link #DEFAULT_BLOCK_RECORDS} points, and writes the header.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the header can not be written.
+     */
+    public BinaryTelemetryWriter(final OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_RECORDS, Compression.DEFLATE);
+    }
+
+    /**
+     * Creates a new BinaryTelemetryWriter and writes the header.
+     *
+     * @param out the stream to write to. Unbuffered streams should be wrapped
+     * in a {@link java.io.BufferedOutputStream}.
+     * @param blockRecords the number of points in a full block.
+     * @param compression how blocks are stored.
+     * @throws IOException if the header can not be written.
+     * @pre out!=null
+     * @pre blockRecords&gt;0
+     * @pre compression!=null
+     */
+    public BinaryTelemetryWriter(final OutputStream out, final int blockRecords, final Compression compression) throws IOException {
+        checkNotNull(out, "Can not create a BinaryTelemetryWriter with a null out parameter.");
+        checkArgument(blockRecords > 0, "Can not create a BinaryTelemetryWriter with a blockRecords parameter that does not meet (blockRecords > 0).");
+        checkNotNull(compression, "Can not create a BinaryTelemetryWriter with a null compression parameter.");
+        this.out = new DataOutputStream(out);
+        this.blockRecords = blockRecords;
+        this.compression = compression;
+        this.deflater = compression == Compression.DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.timestamps = new long[blockRecords];
+        this.streamIds = new int[blockRecords];
+        this.values = new long[blockRecords];
+        this.payload = new TelemetryBlocks.Out(Math.min(blockRecords, 1 << 16) * 4);
+        this.out.writeInt(TelemetryBlocks.MAGIC);
+        this.out.writeByte(TelemetryBlocks.VERSION);
+        bytesWritten = 5;
+    }
+
+    /**
+     * Buffers a point, writing a block if it fills one.
+     *
+     * @param timestamp when the reading was taken, in milliseconds since the epoch.
+     * @param stream the name of the stream the reading belongs to.
+     * @param value the reading.
+     * @throws IOException if a block can not be written.
+     * @pre stream!=null
+     */
+    public void write(final long timestamp, final String stream, final long value) throws IOException {
+        checkNotNull(stream, "Can not write a telemetry point with a null stream.");
+        if (closed) {
+            throw new IOException("The BinaryTelemetryWriter is closed.");
+        }
+        Integer id = dictionary.get(stream);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(stream, id);
+            newStreams.add(stream);
+            if (id == lastValues.length) {
+                lastValues = Arrays.copyOf(lastValues, id << 1);
+                lastValueBlock = Arrays.copyOf(lastValueBlock, id << 1);
+            }
+        }
+        timestamps[count] = timestamp;
+        streamIds[count] = id;
+        values[count] = value;
+        if (++count == blockRecords) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Buffers a point, writing a block if it fills one.
+     *
+     * @param point the point.
+     * @throws IOException if a block can not be written.
+     * @pre point!=null
+     */
+    public void write(final TelemetryPoint point) throws IOException {
+        write(point.getTimestamp(), point.getStream(), point.getValue());
+    }
+
+    /**
+     * Encodes the buffered points and writes them as one block.
+     *
+     * @throws IOException if the block can not be written.
+     */
+    private void writeBlock() throws IOException {
+        final long block = ++encodings;
+        payload.reset();
+        payload.writeVarLong(count);
+        payload.writeVarLong(newStreams.size());
+        for (String stream : newStreams) {
+            final byte[] name = stream.getBytes(StandardCharsets.UTF_8);
+            payload.writeVarLong(name.length);
+            payload.writeBytes(name);
+        }
+
+        long previous = timestamps[0];
+        long previousDelta = 0;
+        payload.writeVarLong(TelemetryBlocks.zigZag(previous));
+        for (int c = 1; c < count; c++) {
+            final long delta = timestamps[c] - previous;
+            payload.writeVarLong(TelemetryBlocks.zigZag(delta - previousDelta));
+            previousDelta = delta;
+            previous = timestamps[c];
+        }
+        for (int c = 0; c < count; c++) {
+            payload.writeVarLong(streamIds[c]);
+        }
+        for (int c = 0; c < count; c++) {
+            final int id = streamIds[c];
+            final long base = lastValueBlock[id] == block ? lastValues[id] : 0L;
+            payload.writeVarLong(TelemetryBlocks.zigZag(values[c] - base));
+            lastValues[id] = values[c];
+            lastValueBlock[id] = block;
+        }
+
+        int codec = TelemetryBlocks.CODEC_RAW;
+        byte[] stored = payload.bytes;
+        int storedLength = payload.length;
+        if (deflater != null) {
+            final int deflatedLength = deflate();
+            if (deflatedLength < payload.length) {
+                codec = TelemetryBlocks.CODEC_DEFLATE;
+                stored = deflated;
+                storedLength = deflatedLength;
+            }
+        }
+        crc.reset();
+        crc.update(stored, 0, storedLength);
+        out.writeByte(codec);
+        out.writeInt(payload.length);
+        out.writeInt(storedLength);
+        out.writeInt((int) crc.getValue());
+        out.write(stored, 0, storedLength);
+        //Only now are the new names written. A block that fails to write is
+        //encoded again, names included, on the next try.
+        newStreams.clear();
+        blockCount++;
+        bytesWritten += 13 + storedLength;
+        recordCount += count;
+        count = 0;
+    }
+
+    /**
+     * Deflates the payload into the reused deflate buffer.
+     *
+     * @return the deflated length.
+     */
+    private int deflate() {
+        deflater.reset();
+        deflater.setInput(payload.bytes, 0, payload.length);
+        deflater.finish();
+        if (deflated.length < payload.length + 64) {
+            deflated = new byte[payload.length + 64];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length << 1);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return length;
+    }
+
+    /**
+     * Writes any buffered points as a short block and flushes the stream.
+     *
+     * @throws IOException if the block can not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes any buffered points and closes the stream.
+     *
+     * @throws IOException if the block can not be written or the stream closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            if (deflater != null) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * The number of points buffered but not yet written.
+     *
+     * @return the buffered count.
+     */
+    public int getBufferedCount() {
+        return count;
+    }
+
+    /**
+     * The number of points written in blocks.
+     *
+     * @return the record count.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The number of blocks written.
+     *
+     * @return the block count.
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * The number of bytes written, header included.
+     *
+     * @return the byte count.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * The number of distinct stream names seen.
+     *
+     * @return the dictionary size.
+     */
+    public int getStreamCount() {
+        return dictionary.size();
+    }
+}
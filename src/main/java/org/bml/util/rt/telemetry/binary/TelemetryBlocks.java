@@ -0,0 +1,198 @@
+package org.bml.util.rt.telemetry.binary;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The constants of the binary telemetry format and the varint primitives the
+ * writer and reader share.
+ * <p>
+ * A file is a header followed by blocks. The header is the four bytes
+ * <code>BMLT</code> and a version byte. Each block is a codec byte, the
+ * length of its payload, the length stored, the CRC32 of the stored bytes and
+ * then the stored bytes, which are the payload as is or deflated. The
+ * payload is columnar:</p>
+ * <ol>
+ * <li>the number of records,</li>
+ * <li>the stream names first seen in the block, numbered in order from the
+ * size of the dictionary so far,</li>
+ * <li>the timestamps: the first as is, the second as a delta and the rest as
+ * deltas of the delta, so a stream sampled on a steady interval costs a
+ * byte of zeros per record,</li>
+ * <li>the dictionary id of each record's stream,</li>
+ * <li>the values as deltas from the previous value of the same stream in the
+ * block.</li>
+ * </ol>
+ * <p>
+ * Every number is a base 128 varint, signed ones zig zag encoded first. The
+ * dictionary runs for the rest of the file, so blocks must be read in order.
+ * A header may also appear where a block is expected; it starts a new
+ * dictionary, which lets a writer append to an existing file.</p>
+ *
+ * @author Brian M. Lima
+ */
+final class TelemetryBlocks {
+
+    /**
+     * The first four bytes of the header, <code>BMLT</code>.
+     */
+    static final int MAGIC = 0x424d4c54;
+    /**
+     * The format version.
+     */
+    static final byte VERSION = 1;
+    /**
+     * The first byte of the header, which no block codec may use.
+     */
+    static final int HEADER_START = MAGIC >>> 24;
+    /**
+     * Codec byte of a block stored as is.
+     */
+    static final int CODEC_RAW = 0;
+    /**
+     * Codec byte of a deflated block.
+     */
+    static final int CODEC_DEFLATE = 1;
+    /**
+     * The largest payload a reader will accept, so a corrupt length can not
+     * make it allocate without limit.
+     */
+    static final int MAX_PAYLOAD = 64 << 20;
+
+    /**
+     * Utility class. Do not instantiate.
+     */
+    private TelemetryBlocks() {
+    }
+
+    /**
+     * Maps signed values onto unsigned ones so small magnitudes of either sign
+     * encode to few bytes.
+     *
+     * @param value a signed value.
+     * @return the zig zag encoding of the value.
+     */
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses {@link #zigZag(long)}.
+     *
+     * @param value a zig zag encoded value.
+     * @return the signed value.
+     */
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A growable byte array that varints are appended to. Reused from block
+     * to block.
+     */
+    static final class Out {
+
+        byte[] bytes;
+        int length;
+
+        Out(final int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void ensure(final int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + more));
+            }
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeBytes(final byte[] src) {
+            ensure(src.length);
+            System.arraycopy(src, 0, bytes, length, src.length);
+            length += src.length;
+        }
+    }
+
+    /**
+     * Reads varints back out of a byte array, failing on a read past the end
+     * instead of returning garbage.
+     */
+    static final class In {
+
+        byte[] bytes;
+        int position;
+        int limit;
+
+        void reset(final byte[] bytes, final int limit) {
+            this.bytes = bytes;
+            this.position = 0;
+            this.limit = limit;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Telemetry block ends inside a varint.");
+                }
+                final byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Telemetry block holds a varint longer than 64 bits.");
+        }
+
+        int readCount(final int max) throws IOException {
+            final long value = readVarLong();
+            if (value < 0 || value > max) {
+                throw new IOException("Telemetry block holds a count of " + value + " that does not meet (0 <= count <= " + max + ").");
+            }
+            return (int) value;
+        }
+
+        byte[] readBytes(final int count) throws IOException {
+            if (count > limit - position) {
+                throw new IOException("Telemetry block ends inside a stream name.");
+            }
+            final byte[] out = Arrays.copyOfRange(bytes, position, position + count);
+            position += count;
+            return out;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.bml.util.rt.telemetry.binary;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One reading of a named telemetry stream: when it was taken, which stream it
+ * belongs to and its value. Values are whole numbers; record fractional
+ * readings in a scaled unit such as microseconds or basis points.
+ *
+ * @author Brian M. Lima
+ */
+public final class TelemetryPoint {
+
+    /**
+     * When the reading was taken, in milliseconds since the epoch.
+     */
+    private final long timestamp;
+    /**
+     * The name of the stream the reading belongs to.
+     */
+    private final String stream;
+    /**
+     * The reading.
+     */
+    private final long value;
+
+    /**
+     * Creates a new TelemetryPoint.
+     *
+     * @param timestamp when the reading was taken, in milliseconds since the epoch.
+     * @param stream the name of the stream the reading belongs to.
+     * @param value the reading.
+     * @pre stream!=null
+     */
+    public TelemetryPoint(final long timestamp, final String stream, final long value) {
+        checkNotNull(stream, "Can not create a TelemetryPoint with a null stream parameter.");
+        this.timestamp = timestamp;
+        this.stream = stream;
+        this.value = value;
+    }
+
+    /**
+     * When the reading was taken.
+     *
+     * @return the timestamp in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The stream the reading belongs to.
+     *
+     * @return the stream name.
+     */
+    public String getStream() {
+        return stream;
+    }
+
+    /**
+     * The reading.
+     *
+     * @return the value.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TelemetryPoint)) {
+            return false;
+        }
+        final TelemetryPoint other = (TelemetryPoint) obj;
+        return timestamp == other.timestamp && value == other.value && stream.equals(other.stream);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = stream.hashCode();
+        hash = 31 * hash + (int) (timestamp ^ (timestamp >>> 32));
+        return 31 * hash + (int) (value ^ (value >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + "\t" + stream + "\t" + value;
+    }
+}
@@ -0,0 +1,312 @@
+package org.bml.util.rt.telemetry.impl;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.rt.telemetry.RTTelemetrySink;
+import org.bml.util.rt.telemetry.binary.BinaryTelemetryReader;
+import org.bml.util.rt.telemetry.binary.BinaryTelemetryWriter;
+import org.bml.util.rt.telemetry.binary.TelemetryPoint;
+
+/**
+ * A telemetry sink that writes {@link TelemetryPoint}s to a file in the
+ * compact binary format of {@link BinaryTelemetryWriter} instead of as lines
+ * of text. Producers hand over a small object holding a timestamp, a stream
+ * name and a value; nothing is formatted on their thread. The sink thread
+ * packs the points into columnar, deflated blocks, which for regular
+ * telemetry are a small fraction of the size of the same points as text.
+ * Read the file back with a {@link BinaryTelemetryReader}.
+ * <p>
+ * A block is written once it is full or once points have waited in it for
+ * the block delay, one second by default, so a quiet sink still gets its
+ * data to disk. The file is appended to; each time the sink opens it a new
+ * header starts a new dictionary, which the reader follows. A process that
+ * dies can leave a partial block at the end of the file, which would make
+ * everything appended after it unreadable, so on open the file is first cut
+ * back to the end of its last whole block.</p>
+ * <p>
+ * Like the other sinks this one starts disabled; call {@link #enable()} and
+ * start it once configured.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class BinaryFileRTTelemetrySink extends RTTelemetrySink<TelemetryPoint> {
+
+    /**
+     * The standard Log.
+     */
+    private static final Log LOG = LogFactory.getLog(BinaryFileRTTelemetrySink.class);
+    /**
+     * The default longest time a point waits in a partial block, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_BLOCK_DELAY = 1000L;
+    /**
+     * The largest number of points taken from the buffer at once.
+     */
+    private static final int MAX_BATCH = 4096;
+    /**
+     * How long the sink thread waits for telemetry before checking whether a
+     * partial block is due, in milliseconds.
+     */
+    private static final long IDLE_WAIT_MILLIS = 100L;
+
+    /**
+     * The file appended to.
+     */
+    private final File outFile;
+    /**
+     * The writer on the file. Null once closed.
+     */
+    private BinaryTelemetryWriter writer;
+    /**
+     * The longest time a point waits in a partial block.
+     */
+    private volatile long blockDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BLOCK_DELAY);
+    /**
+     * When the oldest point in the current partial block was written to the
+     * writer.
+     */
+    private long blockStartedNanos;
+    /**
+     * The points taken from the buffer in the current pass.
+     */
+    private final List<TelemetryPoint> batch = new ArrayList<TelemetryPoint>(MAX_BATCH);
+
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+
+    /**
+     * Creates a new BinaryFileRTTelemetrySink and opens its file for
+     * appending.
+     *
+     * @param outputToFile the file to append to.
+     * @param theThreadGroup The thread group to add this thread to.
+     * @param theThreadName the name of the thread.
+     * @param maxOffersPerSecond number of offers per second this sink will
+     * take before throwing OverloadedException. Set to 0 to disable rate
+     * limiting.
+     * @param bufferCapacity sets the capacity of the telemetry object buffer.
+     * @throws IOException if the file can not be opened.
+     */
+    public BinaryFileRTTelemetrySink(
+            final File outputToFile,
+            final ThreadGroup theThreadGroup,
+            final String theThreadName,
+            final Double maxOffersPerSecond,
+            final int bufferCapacity
+    ) throws IOException {
+        this(outputToFile, theThreadGroup, theThreadName, maxOffersPerSecond, new LinkedBlockingQueue<TelemetryPoint>(bufferCapacity));
+    }
+
+    /**
+     * Creates a new BinaryFileRTTelemetrySink on a buffer of the caller's
+     * choosing and opens its file for appending.
+     *
+     * @param outputToFile the file to append to.
+     * @param theThreadGroup The thread group to add this thread to.
+     * @param theThreadName the name of the thread.
+     * @param maxOffersPerSecond number of offers per second this sink will
+     * take before throwing OverloadedException. Set to 0 to disable rate
+     * limiting.
+     * @param telemetryBuffer the empty telemetry object buffer, for example a
+     * {@link org.bml.util.threads.MpscArrayBlockingQueue}.
+     * @throws IOException if the file can not be opened.
+     */
+    public BinaryFileRTTelemetrySink(
+            final File outputToFile,
+            final ThreadGroup theThreadGroup,
+            final String theThreadName,
+            final Double maxOffersPerSecond,
+            final BlockingQueue<TelemetryPoint> telemetryBuffer
+    ) throws IOException {
+        super(
+                theThreadGroup,
+                theThreadName,
+                maxOffersPerSecond,
+                telemetryBuffer,
+                false
+        );
+        checkNotNull(outputToFile, "Can not create a BinaryFileRTTelemetrySink with a null outputToFile parameter.");
+        this.outFile = outputToFile;
+        super.setLogName("BinaryFileRTTelemetrySink " + theThreadName);
+        truncateTornTail(outputToFile);
+        this.writer = new BinaryTelemetryWriter(new BufferedOutputStream(new FileOutputStream(outputToFile, true), 1 << 16));
+        byteCount.set(writer.getBytesWritten());
+    }
+
+    /**
+     * Cuts an existing file back to the end of its last whole block.
+     *
+     * @param file the file.
+     * @throws IOException if the file can not be read or truncated, or is not
+     * a binary telemetry file.
+     */
+    private static void truncateTornTail(final File file) throws IOException {
+        final long length = file.length();
+        if (length == 0) {
+            return;
+        }
+        final long valid = BinaryTelemetryReader.validLength(file);
+        if (valid == length) {
+            return;
+        }
+        LOG.warn("Truncating " + (length - valid) + " unreadable bytes from the end of " + file.getAbsolutePath());
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(valid);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Sets the longest time a point waits in a partial block before the block
+     * is written.
+     *
+     * @param delay the delay, 0 to write a block on every pass.
+     * @param unit the unit of the delay.
+     * @return this sink.
+     */
+    public BinaryFileRTTelemetrySink setBlockDelay(final long delay, final TimeUnit unit) {
+        checkArgument(delay >= 0, "Can not set a block delay that does not meet (delay >= 0).");
+        this.blockDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Waits briefly for telemetry while the sink runs and hands everything
+     * buffered to the writer, then writes the partial block if it is due.
+     * Once the sink has been told to stop the buffer is written out
+     * completely.
+     *
+     * @throws UnavailableException if the file can not be written.
+     */
+    @Override
+    protected synchronized void flushData() throws UnavailableException {
+        if (writer == null) {
+            throw new UnavailableException("The BinaryFileRTTelemetrySink for " + outFile.getAbsolutePath() + " is closed.");
+        }
+        final boolean running = getShouldRun();
+        try {
+            TelemetryPoint first = running ? telemetryBuffer.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS) : telemetryBuffer.poll();
+            while (first != null) {
+                batch.add(first);
+                telemetryBuffer.drainTo(batch, MAX_BATCH - 1);
+                if (writer.getBufferedCount() == 0) {
+                    blockStartedNanos = System.nanoTime();
+                }
+                for (TelemetryPoint point : batch) {
+                    writer.write(point);
+                }
+                recordCount.addAndGet(batch.size());
+                batch.clear();
+                first = running ? null : telemetryBuffer.poll();
+            }
+            if (writer.getBufferedCount() > 0 && (!running || System.nanoTime() - blockStartedNanos >= blockDelayNanos)) {
+                writer.flush();
+            }
+            byteCount.set(writer.getBytesWritten());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            throw new UnavailableException("IOException caught while writing to File " + outFile.getAbsolutePath(), ex);
+        } finally {
+            if (!batch.isEmpty()) {
+                lostCount.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the partial block and closes the file.
+     */
+    @Override
+    protected synchronized void closeData() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            byteCount.set(writer.getBytesWritten());
+        } catch (IOException ex) {
+            lostCount.addAndGet(writer.getBufferedCount());
+            LOG.error("IOException caught while closing File " + outFile.getAbsolutePath(), ex);
+        } finally {
+            writer = null;
+        }
+    }
+
+    /**
+     * The file written to.
+     *
+     * @return the file.
+     */
+    public File getOutFile() {
+        return outFile;
+    }
+
+    /**
+     * The number of points handed to the writer.
+     *
+     * @return the record count.
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * The number of bytes written, headers included.
+     *
+     * @return the byte count.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * The number of points that could not be written.
+     *
+     * @return the lost count.
+     */
+    public long getLostCount() {
+        return lostCount.get();
+    }
+}
@@ -0,0 +1,827 @@
+package org.bml.util.rt.telemetry.impl;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.io.ByteCodec;
+import org.bml.util.rt.telemetry.RTTelemetrySink;
+import org.bml.util.threads.ByteSlotRing;
+import org.bml.util.threads.WaitStrategies;
+
+/**
+ * A telemetry sink that appends to a file through one {@link FileChannel}
+ * held open for the life of the sink. Each pass of the sink thread takes
+ * everything buffered, up to a batch limit, encodes it into a small pool of
+ * reused direct buffers and writes the lot with one gathering write, so
+ * telemetry that arrives while a write or fsync is in progress is committed
+ * together with the next one. Records are written as the codec's bytes
+ * followed by a delimiter, a newline by default.
+ * <p>
+ * The {@link FsyncPolicy} trades durability for throughput: leave syncing to
+ * the operating system, sync on an interval, or sync after every group
+ * commit. The file is rotated once it reaches a size, once it has been open
+ * for an interval, or both. A rotated file is renamed to the file name
+ * followed by the time of the rotation in milliseconds, and a new file is
+ * started at the original path. An existing file is appended to.</p>
+ * <p>
+ * Build the sink on a {@link org.bml.util.threads.MpscArrayBlockingQueue} to
+ * take offers through a lock free ring instead of a lock per offer, and set a
+ * {@link ByteSlotRing} to also take records that callers have already
+ * serialized with {@link #offerBytes(byte[], int, int)}. Those are copied
+ * into a preallocated slot and from there straight into the write buffers,
+ * so nothing is allocated between the caller and the file. Byte offers are
+ * not rate limited; the ring's capacity bounds them.</p>
+ * <p>
+ * Settings should be made before the sink is started. Like the other sinks
+ * this one starts disabled; call {@link #enable()} and start it once
+ * configured.</p>
+ *
+ * @author Brian M. Lima
+ * @param <T> The type of the telemetry object this sink will accept.
+ */
+public class FileChannelRTTelemetrySink<T> extends RTTelemetrySink<T> {
+
+    /**
+     * When written data is forced to the storage device.
+     */
+    public enum FsyncPolicy {
+
+        /**
+         * Leave it to the operating system. The file is only forced on
+         * rotation and close.
+         */
+        NEVER,
+        /**
+         * Force at most once per fsync interval.
+         */
+        INTERVAL,
+        /**
+         * Force after every group commit. The batch is durable once the sink
+         * moves on to the next one.
+         */
+        EVERY_COMMIT
+    }
+
+    private static final Log LOG = LogFactory.getLog(FileChannelRTTelemetrySink.class);
+
+    /**
+     * The default size of each pooled direct buffer, 256KB.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 << 10;
+    /**
+     * The default number of pooled direct buffers, which bounds the bytes
+     * handed to a single gathering write.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 16;
+    /**
+     * The default most records taken from the buffer for one group commit.
+     */
+    public static final int DEFAULT_MAX_BATCH = 16384;
+    /**
+     * The default milliseconds between forces with
+     * {@link FsyncPolicy#INTERVAL}.
+     */
+    public static final long DEFAULT_FSYNC_INTERVAL = 1000L;
+    /**
+     * The longest the sink thread waits for telemetry before checking for
+     * interval forces and rotations.
+     */
+    private static final long IDLE_WAIT_MILLIS = 100L;
+
+    /**
+     * The file written to.
+     */
+    private final File outFile;
+    /**
+     * Turns telemetry into bytes.
+     */
+    private final ByteCodec<? super T> codec;
+    /**
+     * Written after each record.
+     */
+    private volatile byte[] delimiter = "\n".getBytes(StandardCharsets.UTF_8);
+    /**
+     * When written data is forced.
+     */
+    private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    /**
+     * Nanoseconds between forces with {@link FsyncPolicy#INTERVAL}.
+     */
+    private volatile long fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FSYNC_INTERVAL);
+    /**
+     * The file size that triggers a rotation.
+     */
+    private volatile long maxFileBytes = Long.MAX_VALUE;
+    /**
+     * Nanoseconds a file is open before it is rotated, 0 for no time based
+     * rotation.
+     */
+    private volatile long rotateIntervalNanos = 0;
+    /**
+     * The size of each pooled direct buffer.
+     */
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    /**
+     * The most records taken for one group commit.
+     */
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+    /**
+     * Preserialized records, null if the sink only takes objects.
+     */
+    private volatile ByteSlotRing byteSlots = null;
+
+    /**
+     * The open channel, null once closed. Guarded by this.
+     */
+    private FileChannel channel;
+    /**
+     * The size of the current file. Guarded by this.
+     */
+    private long fileBytes;
+    /**
+     * When the current file was opened. Guarded by this.
+     */
+    private long openedNanos;
+    /**
+     * When the file was last forced. Guarded by this.
+     */
+    private long lastFsyncNanos;
+    /**
+     * True if anything has been written since the last force. Guarded by
+     * this.
+     */
+    private boolean dirty = false;
+    /**
+     * The direct buffers not in use. Guarded by this.
+     */
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>(DEFAULT_BUFFER_COUNT);
+    /**
+     * The buffers handed to the next gathering write. Guarded by this.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[DEFAULT_BUFFER_COUNT];
+    /**
+     * The number of buffers in use in gather. Guarded by this.
+     */
+    private int gathered = 0;
+    /**
+     * The bytes in gather. Guarded by this.
+     */
+    private long pending = 0;
+    /**
+     * The records of the group commit in progress. Guarded by this.
+     */
+    private final List<T> batch = new ArrayList<T>();
+    /**
+     * The records of the batch written or dropped so far. Guarded by this.
+     */
+    private int settled = 0;
+
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong fsyncCount = new AtomicLong();
+    private final AtomicLong rotationCount = new AtomicLong();
+    private final AtomicLong lostCount = new AtomicLong();
+
+    /**
+     * Creates a new FileChannelRTTelemetrySink and opens its file for
+     * appending.
+     *
+     * @param outputToFile the file to append to.
+     * @param codec turns telemetry into bytes.
+     * @param theThreadGroup The thread group to add this thread to.
+     * @param theThreadName the name of the thread.
+     * @param maxOffersPerSecond number of offers per second this sink will
+     * take before throwing OverloadedException. Set to 0 to disable rate
+     * limiting.
+     * @param bufferCapacity sets the capacity of the telemetry object buffer.
+     * @throws IOException if the file can not be opened.
+     */
+    public FileChannelRTTelemetrySink(
+            final File outputToFile,
+            final ByteCodec<? super T> codec,
+            final ThreadGroup theThreadGroup,
+            final String theThreadName,
+            final Double maxOffersPerSecond,
+            final int bufferCapacity
+    ) throws IOException {
+        this(outputToFile, codec, theThreadGroup, theThreadName, maxOffersPerSecond, new LinkedBlockingQueue<T>(bufferCapacity));
+    }
+
+    /**
+     * Creates a new FileChannelRTTelemetrySink on a buffer of the caller's
+     * choosing and opens its file for appending.
+     *
+     * @param outputToFile the file to append to.
+     * @param codec turns telemetry into bytes.
+     * @param theThreadGroup The thread group to add this thread to.
+     * @param theThreadName the name of the thread.
+     * @param maxOffersPerSecond number of offers per second this sink will
+     * take before throwing OverloadedException. Set to 0 to disable rate
+     * limiting.
+     * @param telemetryBuffer the empty telemetry object buffer, for example a
+     * {@link org.bml.util.threads.MpscArrayBlockingQueue}.
+     * @throws IOException if the file can not be opened.
+     */
+    public FileChannelRTTelemetrySink(
+            final File outputToFile,
+            final ByteCodec<? super T> codec,
+            final ThreadGroup theThreadGroup,
+            final String theThreadName,
+            final Double maxOffersPerSecond,
+            final BlockingQueue<T> telemetryBuffer
+    ) throws IOException {
+        super(
+                theThreadGroup,
+                theThreadName,
+                maxOffersPerSecond,
+                telemetryBuffer,
+                false
+        );
+        checkNotNull(outputToFile, "Can not create a FileChannelRTTelemetrySink with a null outputToFile parameter.");
+        checkNotNull(codec, "Can not create a FileChannelRTTelemetrySink with a null codec parameter.");
+        this.outFile = outputToFile;
+        this.codec = codec;
+        super.setLogName("FileChannelRTTelemetrySink " + theThreadName);
+        open();
+    }
+
+    /**
+     * Sets the bytes written after each record.
+     *
+     * @param delimiter the delimiter, empty for none.
+     * @return this sink.
+     */
+    public FileChannelRTTelemetrySink<T> setDelimiter(final byte[] delimiter) {
+        checkNotNull(delimiter, "Can not set a null delimiter.");
+        this.delimiter = delimiter.clone();
+        return this;
+    }
+
+    /**
+     * Sets when written data is forced to the storage device.
+     *
+     * @param fsyncPolicy the policy.
+     * @return this sink.
+     */
+    public FileChannelRTTelemetrySink<T> setFsyncPolicy(final FsyncPolicy fsyncPolicy) {
+        checkNotNull(fsyncPolicy, "Can not set a null fsyncPolicy.");
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the time between forces with {@link FsyncPolicy#INTERVAL}.
+     *
+     * @param interval the interval.
+     * @param unit the unit of the interval.
+     * @return this sink.
+     * @pre interval&gt;0
+     */
+    public FileChannelRTTelemetrySink<T> setFsyncInterval(final long interval, final TimeUnit unit) {
+        checkArgument(interval > 0, "Can not set an fsync interval that does not meet (interval > 0).");
+        this.fsyncIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Sets the file size that triggers a rotation.
+     *
+     * @param maxFileBytes the size, Long.MAX_VALUE for no size based rotation.
+     * @return this sink.
+     * @pre maxFileBytes&gt;0
+     */
+    public FileChannelRTTelemetrySink<T> setMaxFileBytes(final long maxFileBytes) {
+        checkArgument(maxFileBytes > 0, "Can not set a maxFileBytes that does not meet (maxFileBytes > 0).");
+        this.maxFileBytes = maxFileBytes;
+        return this;
+    }
+
+    /**
+     * Sets how long a file is written to before it is rotated.
+     *
+     * @param interval the interval, 0 for no time based rotation.
+     * @param unit the unit of the interval.
+     * @return this sink.
+     * @pre interval&gt;=0
+     */
+    public FileChannelRTTelemetrySink<T> setRotateInterval(final long interval, final TimeUnit unit) {
+        checkArgument(interval >= 0, "Can not set a rotate interval that does not meet (interval >= 0).");
+        this.rotateIntervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Sets the size of each pooled direct buffer. Records larger than a
+     * buffer are written from the heap.
+     *
+     * @param bufferSize the size in bytes.
+     * @return this sink.
+     * @pre bufferSize&gt;0
+     */
+    public synchronized FileChannelRTTelemetrySink<T> setBufferSize(final int bufferSize) {
+        checkArgument(bufferSize > 0, "Can not set a bufferSize that does not meet (bufferSize > 0).");
+        this.bufferSize = bufferSize;
+        pool.clear();
+        return this;
+    }
+
+    /**
+     * Sets the most records taken from the buffer for one group commit.
+     *
+     * @param maxBatch the batch limit.
+     * @return this sink.
+     * @pre maxBatch&gt;0
+     */
+    public FileChannelRTTelemetrySink<T> setMaxBatch(final int maxBatch) {
+        checkArgument(maxBatch > 0, "Can not set a maxBatch that does not meet (maxBatch > 0).");
+        this.maxBatch = maxBatch;
+        return this;
+    }
+
+    /**
+     * Sets the ring preserialized records are offered through.
+     *
+     * @param byteSlots the ring, null to take objects only.
+     * @return this sink.
+     */
+    public FileChannelRTTelemetrySink<T> setByteSlots(final ByteSlotRing byteSlots) {
+        this.byteSlots = byteSlots;
+        return this;
+    }
+
+    /**
+     * The ring preserialized records are offered through. Callers that want
+     * to serialize straight into a slot can claim, fill and publish slots on
+     * it directly, at the cost of bypassing the enabled check.
+     *
+     * @return the ring or null if none is set.
+     */
+    public ByteSlotRing getByteSlots() {
+        return byteSlots;
+    }
+
+    /**
+     * Offers a record that is already serialized. It is copied into a
+     * preallocated slot, so the caller may reuse the array as soon as this
+     * returns. Never blocks and allocates nothing.
+     *
+     * @param bytes the array holding the record.
+     * @param offset the offset of the record in the array.
+     * @param length the length of the record, at most the ring's slot size.
+     * @return false if the ring is full.
+     * @throws UnavailableException if this sink is disabled.
+     * @throws IllegalStateException if no ring has been set.
+     */
+    public boolean offerBytes(final byte[] bytes, final int offset, final int length) throws UnavailableException {
+        final ByteSlotRing slots = byteSlots;
+        if (slots == null) {
+            throw new IllegalStateException("Can not offer bytes to a FileChannelRTTelemetrySink without a ByteSlotRing.");
+        }
+        enterOffer();
+        try {
+            return slots.offer(bytes, offset, length);
+        } finally {
+            exitOffer();
+        }
+    }
+
+    /**
+     * Opens the channel on the file for appending.
+     *
+     * @throws IOException if the file can not be opened.
+     */
+    private synchronized void open() throws IOException {
+        channel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        openedNanos = System.nanoTime();
+        lastFsyncNanos = openedNanos;
+        dirty = false;
+    }
+
+    /**
+     * Waits briefly for telemetry while the sink runs, then commits
+     * everything buffered in batches. Once the sink has been told to stop
+     * nothing is waited for and the buffer is written out completely.
+     *
+     * @throws UnavailableException if the file can not be written.
+     */
+    @Override
+    protected synchronized void flushData() throws UnavailableException {
+        if (channel == null) {
+            throw new UnavailableException("The FileChannelRTTelemetrySink for " + outFile.getAbsolutePath() + " is closed.");
+        }
+        final boolean running = getShouldRun();
+        final ByteSlotRing slots = byteSlots;
+        try {
+            T first;
+            if (slots == null) {
+                first = running ? telemetryBuffer.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS) : telemetryBuffer.poll();
+            } else {
+                first = running ? awaitWork(slots) : telemetryBuffer.poll();
+            }
+            while (first != null) {
+                batch.add(first);
+                telemetryBuffer.drainTo(batch, maxBatch - 1);
+                commit();
+                first = running ? null : telemetryBuffer.poll();
+            }
+            if (slots != null) {
+                commitSlots(slots);
+            }
+            maintain();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            throw new UnavailableException("IOException caught while writing to File " + outFile.getAbsolutePath(), ex);
+        } finally {
+            if (!batch.isEmpty()) {
+                lostCount.addAndGet(batch.size() - settled);
+            }
+            batch.clear();
+            settled = 0;
+            releaseGathered();
+        }
+    }
+
+    /**
+     * Writes the batch with as few gathering writes as the buffer pool
+     * allows, rotating the file between records when it fills, then forces
+     * it if the policy asks for it.
+     *
+     * @throws IOException if the file can not be written.
+     */
+    private void commit() throws IOException {
+        final byte[] delim = delimiter;
+        final int size = bufferSize;
+        int unwritten = 0;
+        ByteBuffer current = null;
+        byte[] bytes;
+        int length;
+        for (T telemetry : batch) {
+            try {
+                bytes = codec.encode(telemetry);
+            } catch (IOException ex) {
+                lostCount.incrementAndGet();
+                settled++;
+                LOG.error("IOException caught while encoding telemetry for File " + outFile.getAbsolutePath() + ". It is dropped.", ex);
+                continue;
+            }
+            length = bytes.length + delim.length;
+            if (fileBytes + pending > 0 && fileBytes + pending + length > maxFileBytes) {
+                writeGathered(unwritten);
+                unwritten = 0;
+                current = null;
+                rotate();
+            }
+            if (length > size) {
+                if (gathered + 2 > gather.length) {
+                    writeGathered(unwritten);
+                    unwritten = 0;
+                }
+                gather[gathered++] = ByteBuffer.wrap(bytes);
+                gather[gathered++] = ByteBuffer.wrap(delim);
+                current = null;
+            } else {
+                if (current == null || current.remaining() < length) {
+                    if (gathered == gather.length) {
+                        writeGathered(unwritten);
+                        unwritten = 0;
+                    }
+                    current = takeBuffer(size);
+                    gather[gathered++] = current;
+                }
+                current.put(bytes).put(delim);
+            }
+            pending += length;
+            unwritten++;
+        }
+        writeGathered(unwritten);
+        batch.clear();
+        settled = 0;
+        committed();
+    }
+
+    /**
+     * Waits up to the idle wait for objects or preserialized records.
+     *
+     * @param slots the ring of preserialized records.
+     * @return the first object, or null if there are only records or nothing
+     * arrived.
+     */
+    private T awaitWork(final ByteSlotRing slots) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS);
+        long remaining;
+        int attempt = 0;
+        T first;
+        while ((first = telemetryBuffer.poll()) == null && slots.isEmpty()) {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            WaitStrategies.PARK.idle(++attempt, remaining);
+        }
+        return first;
+    }
+
+    /**
+     * Copies the published preserialized records straight into pooled
+     * buffers and writes them with as few gathering writes as the pool allows,
+     * filling each file exactly to its size limit before rotating it.
+     *
+     * @param slots the ring of preserialized records.
+     * @throws IOException if the file can not be written.
+     */
+    private void commitSlots(final ByteSlotRing slots) throws IOException {
+        final byte[] delim = delimiter;
+        final int size = Math.max(bufferSize, slots.getSlotSize() + delim.length);
+        int unwritten = 0, copied;
+        long room;
+        boolean limited;
+        ByteBuffer buffer;
+        try {
+            while (!slots.isEmpty()) {
+                if (gathered == gather.length) {
+                    writeGathered(unwritten);
+                    unwritten = 0;
+                }
+                buffer = takeBuffer(size);
+                room = maxFileBytes - fileBytes - pending;
+                limited = room < size && fileBytes + pending > 0;
+                if (limited) {
+                    buffer.limit((int) Math.max(0, room));
+                }
+                copied = slots.drainTo(buffer, delim, Integer.MAX_VALUE);
+                if (copied == 0) {
+                    buffer.clear();
+                    pool.push(buffer);
+                    if (!limited) {
+                        break;
+                    }
+                    writeGathered(unwritten);
+                    unwritten = 0;
+                    rotate();
+                    continue;
+                }
+                gather[gathered++] = buffer;
+                pending += buffer.position();
+                unwritten += copied;
+            }
+            if (unwritten == 0 && gathered == 0) {
+                return;
+            }
+            writeGathered(unwritten);
+        } catch (IOException ex) {
+            lostCount.addAndGet(unwritten);
+            throw ex;
+        } finally {
+            settled = 0;
+        }
+        committed();
+    }
+
+    /**
+     * Counts a group commit and forces the file if the policy asks for it.
+     *
+     * @throws IOException if the force fails.
+     */
+    private void committed() throws IOException {
+        commitCount.incrementAndGet();
+        if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastFsyncNanos >= fsyncIntervalNanos)) {
+            force();
+        }
+    }
+
+    /**
+     * A cleared direct buffer from the pool, allocated if the pool is empty.
+     *
+     * @param size the buffer size.
+     * @return a buffer ready to be filled.
+     */
+    private ByteBuffer takeBuffer(final int size) {
+        final ByteBuffer buffer = pool.poll();
+        return buffer == null || buffer.capacity() != size ? ByteBuffer.allocateDirect(size) : buffer;
+    }
+
+    /**
+     * Writes every gathered buffer in one gathering write, looping until
+     * the channel has taken them all, and hands the direct buffers back to the
+     * pool.
+     *
+     * @param records the number of records in the gathered buffers.
+     * @throws IOException if the file can not be written.
+     */
+    private void writeGathered(final int records) throws IOException {
+        if (gathered == 0) {
+            return;
+        }
+        for (int c = 0; c < gathered; c++) {
+            if (gather[c].isDirect()) {
+                gather[c].flip();
+            }
+        }
+        final ByteBuffer last = gather[gathered - 1];
+        while (last.hasRemaining()) {
+            channel.write(gather, 0, gathered);
+        }
+        fileBytes += pending;
+        byteCount.addAndGet(pending);
+        recordCount.addAndGet(records);
+        settled += records;
+        dirty = true;
+        releaseGathered();
+    }
+
+    /**
+     * Hands the gathered direct buffers back to the pool and empties gather.
+     */
+    private void releaseGathered() {
+        for (int c = 0; c < gathered; c++) {
+            if (gather[c].isDirect()) {
+                gather[c].clear();
+                pool.push(gather[c]);
+            }
+            gather[c] = null;
+        }
+        gathered = 0;
+        pending = 0;
+    }
+
+    /**
+     * Forces the file to the storage device if anything has been written
+     * since the last force.
+     *
+     * @throws IOException if the force fails.
+     */
+    private void force() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            fsyncCount.incrementAndGet();
+            dirty = false;
+        }
+        lastFsyncNanos = System.nanoTime();
+    }
+
+    /**
+     * Forces the file on the interval and rotates it on the rotate interval
+     * while the sink is idle.
+     *
+     * @throws IOException if the force or rotation fails.
+     */
+    private void maintain() throws IOException {
+        final long now = System.nanoTime();
+        if (rotateIntervalNanos > 0 && fileBytes > 0 && now - openedNanos >= rotateIntervalNanos) {
+            rotate();
+        } else if (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsyncNanos >= fsyncIntervalNanos) {
+            force();
+        }
+    }
+
+    /**
+     * Closes the current file, renames it to the file name followed by the
+     * current time in milliseconds and starts a new file at the original path.
+     * The old file is forced first unless the policy is
+     * {@link FsyncPolicy#NEVER}.
+     *
+     * @throws IOException if the file can not be closed, renamed or reopened.
+     */
+    private void rotate() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            force();
+        }
+        channel.close();
+        final long millis = System.currentTimeMillis();
+        File rotated = new File(outFile.getParentFile(), outFile.getName() + "." + millis);
+        for (int c = 1; rotated.exists(); c++) {
+            rotated = new File(outFile.getParentFile(), outFile.getName() + "." + millis + "-" + c);
+        }
+        if (!outFile.renameTo(rotated)) {
+            open();
+            throw new IOException("Can not rotate " + outFile.getAbsolutePath() + " to " + rotated.getAbsolutePath());
+        }
+        rotationCount.incrementAndGet();
+        open();
+    }
+
+    /**
+     * Forces and closes the file.
+     */
+    @Override
+    protected synchronized void closeData() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                force();
+            }
+            channel.close();
+        } catch (IOException ex) {
+            LOG.error("IOException caught while closing File " + outFile.getAbsolutePath(), ex);
+        } finally {
+            channel = null;
+            pool.clear();
+        }
+    }
+
+    /**
+     * The file written to.
+     *
+     * @return the file.
+     */
+    public File getOutFile() {
+        return outFile;
+    }
+
+    /**
+     * The number of records written.
+     *
+     * @return the record count.
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     * The number of bytes written, delimiters included.
+     *
+     * @return the byte count.
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    /**
+     * The number of group commits.
+     *
+     * @return the commit count.
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * The number of times the file was forced to the storage device.
+     *
+     * @return the fsync count.
+     */
+    public long getFsyncCount() {
+        return fsyncCount.get();
+    }
+
+    /**
+     * The number of rotations.
+     *
+     * @return the rotation count.
+     */
+    public long getRotationCount() {
+        return rotationCount.get();
+    }
+
+    /**
+     * The number of records that could not be encoded or written.
+     *
+     * @return the lost count.
+     */
+    public long getLostCount() {
+        return lostCount.get();
+    }
+}
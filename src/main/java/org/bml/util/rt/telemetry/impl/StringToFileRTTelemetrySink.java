@@ -46,6 +46,10 @@ import org.bml.util.rt.telemetry.RTTelemetrySink;
 /**
  *
  * @author Brian M. Lima
+ * @deprecated Creates an executor on every flush and writes line by line. Use
+ * {@link FileChannelRTTelemetrySink} with
+ * {@link org.bml.util.io.ByteCodecs#utf8()}, which group commits through one
+ * long lived channel.
  *
  *
  * @todo This class can block on offer indefinitely if the out file is removed
@@ -53,6 +57,7 @@ import org.bml.util.rt.telemetry.RTTelemetrySink;
  * and using the executor service still blocks the Future object.
  *
  */
+@Deprecated
 public class StringToFileRTTelemetrySink extends RTTelemetrySink<String> {
 
     private static final String NL = System.getProperty("line.separator");
@@ -0,0 +1,68 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up. Increments are striped across cells by a
+ * {@link LongAdder}, so threads counting the same event do not contend, and
+ * the cells are only summed when the registry is scraped.
+ *
+ * @author Brian M. Lima
+ */
+public final class Counter {
+
+    /**
+     * The striped count.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Adds one.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Adds an amount.
+     *
+     * @param amount the amount to add.
+     * @pre amount&gt;=0
+     */
+    public void add(final long amount) {
+        checkArgument(amount >= 0, "Can not add an amount to a Counter that does not meet (amount >= 0).");
+        count.add(amount);
+    }
+
+    /**
+     * The count.
+     *
+     * @return the sum of all increments.
+     */
+    public long get() {
+        return count.sum();
+    }
+}
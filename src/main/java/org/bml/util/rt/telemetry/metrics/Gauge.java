@@ -0,0 +1,42 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * A value read when the registry is scraped. Implement this to expose a value
+ * that already lives elsewhere, such as the size of a queue, without copying
+ * it on every change. It is called on the scraping thread, so it must be
+ * thread safe and cheap.
+ *
+ * @author Brian M. Lima
+ */
+public interface Gauge {
+
+    /**
+     * The current value.
+     *
+     * @return the value.
+     */
+    double getValue();
+}
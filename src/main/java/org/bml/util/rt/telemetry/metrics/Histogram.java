@@ -0,0 +1,127 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Observations counted into buckets with fixed upper bounds, exposed as an
+ * OpenMetrics histogram. Each bucket is a {@link LongAdder} and the sum a
+ * {@link DoubleAdder}, so observing is a binary search and two striped adds
+ * and nothing is summed until the registry is scraped.
+ * <p>
+ * For durations in nanoseconds, where the interesting range is not known up
+ * front, a {@link Timer} is usually the better fit.</p>
+ *
+ * @author Brian M. Lima
+ */
+public final class Histogram {
+
+    /**
+     * The default bucket upper bounds, suited to request times in seconds.
+     */
+    public static final double[] DEFAULT_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /**
+     * The inclusive upper bound of each bucket but the last, ascending.
+     */
+    private final double[] bounds;
+    /**
+     * The count in each bucket. The last bucket has no upper bound.
+     */
+    private final LongAdder[] buckets;
+    /**
+     * The sum of all observations.
+     */
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * Creates a new Histogram.
+     *
+     * @param bounds the inclusive upper bound of each bucket, ascending. A
+     * bucket for everything larger is always added.
+     * @pre bounds are finite and strictly ascending.
+     */
+    public Histogram(final double... bounds) {
+        checkNotNull(bounds, "Can not create a Histogram with a null bounds parameter.");
+        for (int c = 0; c < bounds.length; c++) {
+            checkArgument(!Double.isNaN(bounds[c]) && !Double.isInfinite(bounds[c]) && (c == 0 || bounds[c] > bounds[c - 1]),
+                    "Can not create a Histogram with a bounds parameter that does not meet (bounds are finite and strictly ascending).");
+        }
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int c = 0; c < buckets.length; c++) {
+            buckets[c] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records an observation.
+     *
+     * @param value the observation.
+     */
+    public void observe(final double value) {
+        int index = Arrays.binarySearch(bounds, value);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        buckets[index].increment();
+        sum.add(value);
+    }
+
+    /**
+     * The bucket upper bounds.
+     *
+     * @return a copy of the bounds.
+     */
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * The count in each bucket, not cumulative. The last element is the count
+     * above the highest bound.
+     *
+     * @return the bucket counts.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length];
+        for (int c = 0; c < counts.length; c++) {
+            counts[c] = buckets[c].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * The sum of all observations.
+     *
+     * @return the sum.
+     */
+    public double getSum() {
+        return sum.sum();
+    }
+}
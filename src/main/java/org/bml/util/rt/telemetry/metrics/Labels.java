@@ -0,0 +1,212 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable set of label names and values that tells apart the series of
+ * one metric, for example one series per worker. Labels are kept sorted by
+ * name, and the exposition text is built once, when the labels are created.
+ *
+ * @author Brian M. Lima
+ */
+public final class Labels implements Comparable<Labels> {
+
+    /**
+     * No labels.
+     */
+    public static final Labels EMPTY = new Labels(new String[0]);
+
+    /**
+     * What a label name may look like.
+     */
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    /**
+     * Names and values, alternating, sorted by name.
+     */
+    private final String[] pairs;
+    /**
+     * The labels as exposed, without the braces.
+     */
+    private final String text;
+
+    private Labels(final String[] pairs) {
+        this.pairs = pairs;
+        final StringBuilder builder = new StringBuilder();
+        for (int c = 0; c < pairs.length; c += 2) {
+            if (c > 0) {
+                builder.append(',');
+            }
+            builder.append(pairs[c]).append("=\"");
+            escape(pairs[c + 1], builder);
+            builder.append('"');
+        }
+        this.text = builder.toString();
+    }
+
+    /**
+     * Creates labels from names and values.
+     *
+     * @param namesAndValues label names and values, alternating.
+     * @return the labels.
+     * @pre an even number of non null arguments, names valid and distinct.
+     */
+    public static Labels of(final String... namesAndValues) {
+        checkNotNull(namesAndValues, "Can not create Labels with a null namesAndValues parameter.");
+        checkArgument(namesAndValues.length % 2 == 0, "Can not create Labels with a namesAndValues parameter that does not meet (an even number of names and values).");
+        Labels labels = EMPTY;
+        for (int c = 0; c < namesAndValues.length; c += 2) {
+            checkArgument(labels.get(namesAndValues[c]) == null, "Can not create Labels with the label name " + namesAndValues[c] + " twice.");
+            labels = labels.with(namesAndValues[c], namesAndValues[c + 1]);
+        }
+        return labels;
+    }
+
+    /**
+     * These labels with one more, or with a new value for an existing one.
+     *
+     * @param name the label name.
+     * @param value the label value.
+     * @return the new labels.
+     * @pre name is a valid label name, value!=null
+     */
+    public Labels with(final String name, final String value) {
+        checkNotNull(name, "Can not add a label with a null name.");
+        checkNotNull(value, "Can not add a label with a null value.");
+        checkArgument(NAME.matcher(name).matches(), "Can not add a label with a name that does not meet ([a-zA-Z_][a-zA-Z0-9_]*): " + name);
+        int index = 0;
+        while (index < pairs.length && pairs[index].compareTo(name) < 0) {
+            index += 2;
+        }
+        final String[] added;
+        if (index < pairs.length && pairs[index].equals(name)) {
+            added = pairs.clone();
+        } else {
+            added = new String[pairs.length + 2];
+            System.arraycopy(pairs, 0, added, 0, index);
+            System.arraycopy(pairs, index, added, index + 2, pairs.length - index);
+            added[index] = name;
+        }
+        added[index + 1] = value;
+        return new Labels(added);
+    }
+
+    /**
+     * The value of a label.
+     *
+     * @param name the label name.
+     * @return the value or null if there is no such label.
+     */
+    public String get(final String name) {
+        for (int c = 0; c < pairs.length; c += 2) {
+            if (pairs[c].equals(name)) {
+                return pairs[c + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The number of labels.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return pairs.length / 2;
+    }
+
+    /**
+     * Appends the labels in exposition format, with one extra label that is
+     * not part of the identity of the series, such as a histogram bucket
+     * bound. Nothing is appended when there are no labels at all.
+     *
+     * @param out the text to append to.
+     * @param extraName the extra label name or null for none.
+     * @param extraValue the extra label value.
+     */
+    void appendTo(final StringBuilder out, final String extraName, final String extraValue) {
+        if (text.isEmpty() && extraName == null) {
+            return;
+        }
+        out.append('{').append(text);
+        if (extraName != null) {
+            if (!text.isEmpty()) {
+                out.append(',');
+            }
+            out.append(extraName).append("=\"");
+            escape(extraValue, out);
+            out.append('"');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Escapes a label value or help text.
+     *
+     * @param value the raw text.
+     * @param out the text to append the escaped text to.
+     */
+    static void escape(final String value, final StringBuilder out) {
+        for (int c = 0; c < value.length(); c++) {
+            final char ch = value.charAt(c);
+            switch (ch) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                default:
+                    out.append(ch);
+            }
+        }
+    }
+
+    @Override
+    public int compareTo(final Labels other) {
+        return text.compareTo(other.text);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof Labels && Arrays.equals(pairs, ((Labels) obj).pairs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(pairs);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + text + "}";
+    }
+}
@@ -0,0 +1,452 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import org.bml.util.rt.telemetry.LatencyHistogram;
+
+/**
+ * One place to register and scrape telemetry: counters, gauges, histograms
+ * and timers, each family of series under one name and told apart by
+ * {@link Labels}. {@link #scrape()} renders everything in the OpenMetrics
+ * text format, which a {@link MetricsHttpServer} serves to Prometheus or any
+ * other collector that reads it.
+ * <p>
+ * Collection is built to be left on. The metric types stripe their writes
+ * and keep no history, registration is the only place a lock could be
+ * taken, and values are only read, summed and formatted when scraped. The
+ * registering methods return the series already registered under a name and
+ * labels, so callers can look a metric up again rather than hold on to it.
+ * Registering the same name as a different type fails.</p>
+ * <p>
+ * Names must match <code>[a-zA-Z_:][a-zA-Z0-9_:]*</code>; use
+ * {@link #sanitize(String)} on names built from stream ids or thread names.
+ * Counter names are exposed with a <code>_total</code> suffix, which is
+ * added if missing. Timers expose seconds, so their names should end in
+ * <code>_seconds</code>.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class MetricRegistry {
+
+    /**
+     * The registry shared by components that are not handed one.
+     */
+    private static final MetricRegistry DEFAULT = new MetricRegistry();
+    /**
+     * What a metric name may look like.
+     */
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    /**
+     * The characters {@link #sanitize(String)} replaces.
+     */
+    private static final Pattern INVALID = Pattern.compile("[^a-zA-Z0-9_:]");
+
+    /**
+     * The families by name, sorted so scrapes are stable.
+     */
+    private final ConcurrentNavigableMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    /**
+     * The registry shared by components that are not handed one.
+     *
+     * @return the default registry.
+     */
+    public static MetricRegistry defaultRegistry() {
+        return DEFAULT;
+    }
+
+    /**
+     * Turns an arbitrary string, such as a dotted telemetry stream id, into a
+     * valid metric name by replacing every invalid character with an
+     * underscore.
+     *
+     * @param name the string.
+     * @return a valid metric name.
+     * @pre name!=null and not empty
+     */
+    public static String sanitize(final String name) {
+        checkArgument(name != null && !name.isEmpty(), "Can not sanitize a null or empty metric name.");
+        final String sanitized = INVALID.matcher(name).replaceAll("_");
+        return Character.isDigit(sanitized.charAt(0)) ? "_" + sanitized : sanitized;
+    }
+
+    /**
+     * A family of series sharing a name, a type and a help text.
+     */
+    private static final class Family {
+
+        final String name;
+        final String help;
+        final MetricType type;
+        final ConcurrentNavigableMap<Labels, Object> series = new ConcurrentSkipListMap<Labels, Object>();
+
+        Family(final String name, final String help, final MetricType type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The family for a name, created if it does not exist.
+     *
+     * @param name the family name.
+     * @param help the help text, used if the family is created.
+     * @param type the type.
+     * @return the family.
+     * @throws IllegalArgumentException if the name is invalid or registered
+     * with a different type.
+     */
+    private Family family(final String name, final String help, final MetricType type) {
+        checkNotNull(name, "Can not register a metric with a null name.");
+        checkArgument(NAME.matcher(name).matches(), "Can not register a metric with a name that does not meet ([a-zA-Z_:][a-zA-Z0-9_:]*): " + name);
+        Family family = families.get(name);
+        if (family == null) {
+            final Family created = new Family(name, help == null ? "" : help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        checkArgument(family.type == type, "Can not register " + name + " as a " + type + ", it is already registered as a " + family.type + ".");
+        return family;
+    }
+
+    /**
+     * The series registered under a name and labels, or the passed series if
+     * there is none.
+     *
+     * @param family the family.
+     * @param labels the labels.
+     * @param series the series to register if there is none.
+     * @param kind the class the registered series must be.
+     * @return the registered series.
+     */
+    private <M> M register(final Family family, final Labels labels, final M series, final Class<M> kind) {
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        final Object existing = family.series.putIfAbsent(labels, series);
+        if (existing == null) {
+            return series;
+        }
+        checkArgument(kind.isInstance(existing), "Can not register " + family.name + labels + " as a " + kind.getSimpleName() + ", it is already registered as a " + existing.getClass().getSimpleName() + ".");
+        return kind.cast(existing);
+    }
+
+    /**
+     * Strips the <code>_total</code> suffix counters are exposed with.
+     *
+     * @param name a counter name.
+     * @return the family name.
+     */
+    private static String counterName(final String name) {
+        return name != null && name.endsWith("_total") ? name.substring(0, name.length() - 6) : name;
+    }
+
+    /**
+     * The counter with no labels under a name, registered if there is none.
+     *
+     * @param name the name.
+     * @param help what is counted.
+     * @return the counter.
+     */
+    public Counter counter(final String name, final String help) {
+        return counter(name, help, Labels.EMPTY);
+    }
+
+    /**
+     * The counter under a name and labels, registered if there is none.
+     *
+     * @param name the name.
+     * @param help what is counted.
+     * @param labels the labels of the series.
+     * @return the counter.
+     */
+    public Counter counter(final String name, final String help, final Labels labels) {
+        return register(family(counterName(name), help, MetricType.COUNTER), labels, new Counter(), Counter.class);
+    }
+
+    /**
+     * Registers a counter whose value is read from elsewhere when scraped,
+     * replacing any series already under the name and labels.
+     *
+     * @param name the name.
+     * @param help what is counted.
+     * @param labels the labels of the series.
+     * @param source the count. It must never go down.
+     */
+    public void counter(final String name, final String help, final Labels labels, final Gauge source) {
+        checkNotNull(source, "Can not register a counter with a null source.");
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        family(counterName(name), help, MetricType.COUNTER).series.put(labels, source);
+    }
+
+    /**
+     * The settable gauge with no labels under a name, registered if there is
+     * none.
+     *
+     * @param name the name.
+     * @param help what is measured.
+     * @return the gauge.
+     */
+    public SettableGauge gauge(final String name, final String help) {
+        return gauge(name, help, Labels.EMPTY);
+    }
+
+    /**
+     * The settable gauge under a name and labels, registered if there is none.
+     *
+     * @param name the name.
+     * @param help what is measured.
+     * @param labels the labels of the series.
+     * @return the gauge.
+     */
+    public SettableGauge gauge(final String name, final String help, final Labels labels) {
+        return register(family(name, help, MetricType.GAUGE), labels, new SettableGauge(), SettableGauge.class);
+    }
+
+    /**
+     * Registers a gauge whose value is read when scraped, replacing any series
+     * already under the name and labels.
+     *
+     * @param name the name.
+     * @param help what is measured.
+     * @param labels the labels of the series.
+     * @param gauge the gauge.
+     */
+    public void gauge(final String name, final String help, final Labels labels, final Gauge gauge) {
+        checkNotNull(gauge, "Can not register a null gauge.");
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        family(name, help, MetricType.GAUGE).series.put(labels, gauge);
+    }
+
+    /**
+     * The histogram under a name and labels, registered with the passed bounds
+     * if there is none. An existing histogram keeps its own bounds.
+     *
+     * @param name the name.
+     * @param help what is observed.
+     * @param labels the labels of the series.
+     * @param bounds the bucket upper bounds, {@link Histogram#DEFAULT_BOUNDS}
+     * if none are passed.
+     * @return the histogram.
+     */
+    public Histogram histogram(final String name, final String help, final Labels labels, final double... bounds) {
+        final Family family = family(name, help, MetricType.HISTOGRAM);
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        final Object existing = family.series.get(labels);
+        if (existing instanceof Histogram) {
+            return (Histogram) existing;
+        }
+        return register(family, labels, new Histogram(bounds == null || bounds.length == 0 ? Histogram.DEFAULT_BOUNDS : bounds), Histogram.class);
+    }
+
+    /**
+     * The timer with no labels under a name, registered if there is none.
+     *
+     * @param name the name, ending in <code>_seconds</code>.
+     * @param help what is timed.
+     * @return the timer.
+     */
+    public Timer timer(final String name, final String help) {
+        return timer(name, help, Labels.EMPTY);
+    }
+
+    /**
+     * The timer under a name and labels, registered if there is none.
+     *
+     * @param name the name, ending in <code>_seconds</code>.
+     * @param help what is timed.
+     * @param labels the labels of the series.
+     * @return the timer.
+     */
+    public Timer timer(final String name, final String help, final Labels labels) {
+        final Family family = family(name, help, MetricType.SUMMARY);
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        final Object existing = family.series.get(labels);
+        if (existing instanceof Timer) {
+            return (Timer) existing;
+        }
+        return register(family, labels, new Timer(), Timer.class);
+    }
+
+    /**
+     * Registers a timer over a histogram that is recorded into elsewhere,
+     * replacing any series already under the name and labels.
+     *
+     * @param name the name, ending in <code>_seconds</code>.
+     * @param help what is timed.
+     * @param labels the labels of the series.
+     * @param histogram a histogram of durations in nanoseconds.
+     * @return the registered timer.
+     */
+    public Timer timer(final String name, final String help, final Labels labels, final LatencyHistogram histogram) {
+        final Timer timer = new Timer(histogram);
+        checkNotNull(labels, "Can not register a metric with null labels.");
+        family(name, help, MetricType.SUMMARY).series.put(labels, timer);
+        return timer;
+    }
+
+    /**
+     * Removes a series. The family stays registered, with its type, even once
+     * it has no series left.
+     *
+     * @param name the name the series was registered under.
+     * @param labels the labels of the series.
+     * @return true if the series was registered.
+     */
+    public boolean remove(final String name, final Labels labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.get(counterName(name));
+        }
+        return family != null && family.series.remove(labels) != null;
+    }
+
+    /**
+     * The number of registered series.
+     *
+     * @return the series count.
+     */
+    public int size() {
+        int size = 0;
+        for (Family family : families.values()) {
+            size += family.series.size();
+        }
+        return size;
+    }
+
+    /**
+     * Renders every series in the OpenMetrics text format.
+     *
+     * @return the exposition text, ending in <code># EOF</code>.
+     */
+    public String scrape() {
+        final StringBuilder out = new StringBuilder(4096);
+        scrape(out);
+        return out.toString();
+    }
+
+    /**
+     * Renders every series in the OpenMetrics text format.
+     *
+     * @param out the text to append to.
+     */
+    public void scrape(final StringBuilder out) {
+        for (Family family : families.values()) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            if (!family.help.isEmpty()) {
+                out.append("# HELP ").append(family.name).append(' ');
+                Labels.escape(family.help, out);
+                out.append('\n');
+            }
+            for (Map.Entry<Labels, Object> entry : family.series.entrySet()) {
+                write(family, entry.getKey(), entry.getValue(), out);
+            }
+        }
+        out.append("# EOF\n");
+    }
+
+    /**
+     * Renders the samples of one series.
+     *
+     * @param family the family of the series.
+     * @param labels the labels of the series.
+     * @param series the series.
+     * @param out the text to append to.
+     */
+    private static void write(final Family family, final Labels labels, final Object series, final StringBuilder out) {
+        final String name = family.name;
+        if (series instanceof Counter) {
+            sample(out, name, "_total", labels, null, null, ((Counter) series).get());
+        } else if (series instanceof Gauge) {
+            final double value = ((Gauge) series).getValue();
+            sample(out, name, family.type == MetricType.COUNTER ? "_total" : "", labels, null, null, value);
+        } else if (series instanceof Histogram) {
+            final Histogram histogram = (Histogram) series;
+            final double[] bounds = histogram.getBounds();
+            final long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+            for (int c = 0; c < counts.length; c++) {
+                cumulative += counts[c];
+                sample(out, name, "_bucket", labels, "le", c < bounds.length ? Double.toString(bounds[c]) : "+Inf", cumulative);
+            }
+            sample(out, name, "_count", labels, null, null, cumulative);
+            sample(out, name, "_sum", labels, null, null, histogram.getSum());
+        } else if (series instanceof Timer) {
+            final LatencyHistogram snapshot = ((Timer) series).getHistogram().snapshot();
+            final long count = snapshot.getCount();
+            for (double quantile : Timer.QUANTILES) {
+                sample(out, name, "", labels, "quantile", Double.toString(quantile), count == 0 ? Double.NaN : seconds(snapshot.getValueAtPercentile(quantile * 100)));
+            }
+            sample(out, name, "_count", labels, null, null, count);
+            sample(out, name, "_sum", labels, null, null, seconds(snapshot.getMean() * count));
+        }
+    }
+
+    /**
+     * Nanoseconds to seconds.
+     *
+     * @param nanos a duration in nanoseconds.
+     * @return the duration in seconds.
+     */
+    private static double seconds(final double nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Renders one sample line.
+     *
+     * @param out the text to append to.
+     * @param name the family name.
+     * @param suffix the sample suffix, such as <code>_count</code>.
+     * @param labels the labels of the series.
+     * @param extraName an extra label name or null for none.
+     * @param extraValue the extra label value.
+     * @param value the sample value.
+     */
+    private static void sample(final StringBuilder out, final String name, final String suffix, final Labels labels,
+            final String extraName, final String extraValue, final double value) {
+        out.append(name).append(suffix);
+        labels.appendTo(out, extraName, extraValue);
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,64 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * The kinds of metric a {@link MetricRegistry} holds, named as in the
+ * OpenMetrics text format.
+ *
+ * @author Brian M. Lima
+ */
+public enum MetricType {
+
+    /**
+     * A value that only goes up, such as a number of operations.
+     */
+    COUNTER("counter"),
+    /**
+     * A value that goes up and down, such as a queue depth.
+     */
+    GAUGE("gauge"),
+    /**
+     * Observations counted into fixed buckets.
+     */
+    HISTOGRAM("histogram"),
+    /**
+     * Durations summarized by quantiles, a count and a sum.
+     */
+    SUMMARY("summary");
+
+    /**
+     * The name of the type in the exposition format.
+     */
+    private final String exposedName;
+
+    MetricType(final String exposedName) {
+        this.exposedName = exposedName;
+    }
+
+    @Override
+    public String toString() {
+        return exposedName;
+    }
+}
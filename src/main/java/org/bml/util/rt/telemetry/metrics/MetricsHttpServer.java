@@ -0,0 +1,171 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A small embedded HTTP endpoint that serves a {@link MetricRegistry} in the
+ * OpenMetrics text format at <code>/metrics</code>. It runs on the JDK's own
+ * HTTP server with one daemon thread, so it adds no dependencies and costs
+ * nothing between scrapes. Scrapes are rendered on that thread, one at a
+ * time.
+ *
+ * @author Brian M. Lima
+ */
+public class MetricsHttpServer implements Closeable {
+
+    /**
+     * The standard Log.
+     */
+    private static final Log LOG = LogFactory.getLog(MetricsHttpServer.class);
+    /**
+     * The content type of the exposition text.
+     */
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    /**
+     * The path the metrics are served at.
+     */
+    public static final String PATH = "/metrics";
+
+    /**
+     * The registry served.
+     */
+    private final MetricRegistry registry;
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+    /**
+     * The thread requests are handled on.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new MetricsHttpServer and starts serving.
+     *
+     * @param registry the registry to serve.
+     * @param address the address to listen on. Port 0 picks a free port.
+     * @throws IOException if the address can not be bound.
+     * @pre registry!=null
+     * @pre address!=null
+     */
+    public MetricsHttpServer(final MetricRegistry registry, final InetSocketAddress address) throws IOException {
+        checkNotNull(registry, "Can not create a MetricsHttpServer with a null registry parameter.");
+        checkNotNull(address, "Can not create a MetricsHttpServer with a null address parameter.");
+        this.registry = registry;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, MetricsHttpServer.class.getSimpleName() + " " + address);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Answers one request.
+     *
+     * @param exchange the request and response.
+     * @throws IOException if the response can not be written.
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body;
+            try {
+                body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException ex) {
+                LOG.error("RuntimeException caught while scraping metrics.", ex);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * The address the server is listening on.
+     *
+     * @return the bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * The port the server is listening on.
+     *
+     * @return the bound port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving and releases the port.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A gauge holding a value that callers set.
+ *
+ * @author Brian M. Lima
+ */
+public final class SettableGauge implements Gauge {
+
+    /**
+     * The bits of the double value.
+     */
+    private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(0d));
+
+    /**
+     * Sets the value.
+     *
+     * @param value the new value.
+     */
+    public void set(final double value) {
+        bits.set(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Adds to the value.
+     *
+     * @param delta the amount to add, negative to subtract.
+     */
+    public void add(final double delta) {
+        long current;
+        do {
+            current = bits.get();
+        } while (!bits.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta)));
+    }
+
+    @Override
+    public double getValue() {
+        return Double.longBitsToDouble(bits.get());
+    }
+}
@@ -0,0 +1,104 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.concurrent.TimeUnit;
+import org.bml.util.rt.telemetry.LatencyHistogram;
+
+/**
+ * Durations recorded into a {@link LatencyHistogram} and exposed as an
+ * OpenMetrics summary in seconds: the median, 99th and 99.9th percentiles, a
+ * count and a sum. Recording is lock free and memory is fixed. A scrape reads
+ * a snapshot, so the quantiles and the count agree with each other.
+ *
+ * @author Brian M. Lima
+ */
+public final class Timer {
+
+    /**
+     * The quantiles exposed.
+     */
+    static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * The histogram durations are recorded into, in nanoseconds.
+     */
+    private final LatencyHistogram histogram;
+
+    /**
+     * Creates a new Timer with its own histogram.
+     */
+    public Timer() {
+        this(new LatencyHistogram());
+    }
+
+    /**
+     * Creates a new Timer over an existing histogram, so durations recorded
+     * elsewhere can be exposed without copying them.
+     *
+     * @param histogram a histogram of durations in nanoseconds.
+     * @pre histogram!=null
+     */
+    public Timer(final LatencyHistogram histogram) {
+        checkNotNull(histogram, "Can not create a Timer with a null histogram parameter.");
+        this.histogram = histogram;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void recordNanos(final long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param duration the duration.
+     * @param unit the unit of the duration.
+     */
+    public void record(final long duration, final TimeUnit unit) {
+        histogram.record(unit.toNanos(duration));
+    }
+
+    /**
+     * Records the time since a reading of {@link System#nanoTime()}.
+     *
+     * @param startNanos the reading taken when the timed work started.
+     */
+    public void recordSince(final long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * The histogram durations are recorded into.
+     *
+     * @return the histogram, in nanoseconds.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
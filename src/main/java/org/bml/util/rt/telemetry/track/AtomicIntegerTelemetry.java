@@ -25,6 +25,9 @@ package org.bml.util.rt.telemetry.track;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bml.util.rt.telemetry.metrics.Gauge;
+import org.bml.util.rt.telemetry.metrics.Labels;
+import org.bml.util.rt.telemetry.metrics.MetricRegistry;
 
 /**
  * @author Brian M. Lima
@@ -126,6 +129,25 @@ public class AtomicIntegerTelemetry implements AtomicIntegerInterface {
         return atomicInteger.shortValue();
     }
 
+    /**
+     * Exposes the value as a gauge, read when the registry is scraped.
+     *
+     * @param registry the registry to register into.
+     * @param name the metric name.
+     * @param help what the value measures.
+     * @param labels the labels of the series.
+     * @return this AtomicIntegerTelemetry.
+     */
+    public AtomicIntegerTelemetry register(final MetricRegistry registry, final String name, final String help, final Labels labels) {
+        registry.gauge(name, help, labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return atomicInteger.get();
+            }
+        });
+        return this;
+    }
+
     /**
      * standard commons Logging
      */
@@ -22,22 +22,34 @@ package org.bml.util.rt.telemetry.track;
  *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
  * #L%
  */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.math3.stat.Frequency;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.math3.stat.descriptive.SynchronizedDescriptiveStatistics;
+import org.bml.util.rt.telemetry.metrics.Gauge;
+import org.bml.util.rt.telemetry.metrics.Labels;
+import org.bml.util.rt.telemetry.metrics.MetricRegistry;
 
 /**
  * The integer Track class is used to replace an AtomicInteger when you want to
  * track the telemetry of the AtomicInteger.
  *
- * Note: this class blocks in order to accurately track the integers values. As
- * a result it is not ment for high speed implementations and should only be
- * used in testing or in situations where you need the Atomic Integer and wish
- * to track values.
+ * Note: the DESCRIPTIVE and SUMMARY track types count calls in a commons math
+ * {@link Frequency}, which boxes every call into a shared map. They are not
+ * ment for high speed implementations and should only be used in testing. The
+ * STRIPED track type counts calls in a fixed array of {@link LongAdder}, one
+ * per {@link FUNCTION_KEY}, which costs about as much as the atomic operation
+ * itself and can be left on in production. Either way calls can be sampled,
+ * counting one in <code>sampleEvery</code> calls with a weight of
+ * <code>sampleEvery</code>, so the counts become estimates that cost a
+ * thread local random number on the calls that are not counted.
  *
  * @author Brian M. Lima
  */
@@ -55,7 +67,12 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
     public static enum TRACK_TYPE {
 
         DESCRIPTIVE,
-        SUMMARY
+        SUMMARY,
+        /**
+         * Count calls in striped counters indexed by
+         * {@link FUNCTION_KEY#value()} instead of a {@link Frequency}.
+         */
+        STRIPED
     }
 
     /**
@@ -174,16 +191,54 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
     private SummaryStatistics sStats = null;
     private DescriptiveStatistics dStats = null;
     private Frequency frequency = null;
+    /**
+     * Call counts indexed by {@link FUNCTION_KEY#value()} for the STRIPED
+     * track type, null otherwise.
+     */
+    private LongAdder[] counts = null;
+    /**
+     * One in this many calls is counted, with this weight.
+     */
+    private final int sampleEvery;
     private final AtomicInteger atomicInteger;
 
     public AtomicIntegerTrack(TRACK_TYPE trackType) {
+        this(trackType, 1);
+    }
+
+    /**
+     * Creates a new AtomicIntegerTrack that samples the calls it counts.
+     *
+     * @param trackType how calls are counted.
+     * @param sampleEvery count one in this many calls, 1 to count every call.
+     * @pre trackType!=null
+     * @pre sampleEvery&gt;0
+     */
+    public AtomicIntegerTrack(final TRACK_TYPE trackType, final int sampleEvery) {
+        checkNotNull(trackType, "Can not create a AtomicIntegerTrack with a null trackType parameter.");
+        checkArgument(sampleEvery > 0, "Can not create a AtomicIntegerTrack with a sampleEvery parameter that does not meet (sampleEvery > 0).");
         this.trackType = trackType;
+        this.sampleEvery = sampleEvery;
         this.atomicInteger = new AtomicInteger();
         initTrack(trackType);
     }
 
-    private void track(AtomicIntegerTrack integerTrack) {
-
+    /**
+     * Counts a call, or one in sampleEvery calls with a weight of
+     * sampleEvery.
+     *
+     * @param key the function called.
+     */
+    private void track(final FUNCTION_KEY key) {
+        final int every = sampleEvery;
+        if (every > 1 && ThreadLocalRandom.current().nextInt(every) != 0) {
+            return;
+        }
+        if (counts != null) {
+            counts[key.value()].add(every);
+        } else {
+            frequency.incrementValue(Long.valueOf(key.value()), every);
+        }
     }
 
     private void initTrack(TRACK_TYPE trackType) {
@@ -194,17 +249,85 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
             case SUMMARY:
                 sStats = new SummaryStatistics();
                 break;
+            case STRIPED:
+                int size = 0;
+                for (FUNCTION_KEY key : FUNCTION_KEY.values()) {
+                    size = Math.max(size, key.value() + 1);
+                }
+                counts = new LongAdder[size];
+                for (FUNCTION_KEY key : FUNCTION_KEY.values()) {
+                    counts[key.value()] = new LongAdder();
+                }
+                return;
         }
         frequency = new Frequency();
     }
 
+    /**
+     * The number of calls to a function, an estimate when sampling.
+     *
+     * @param key the function.
+     * @return the count.
+     */
+    public long getCount(final FUNCTION_KEY key) {
+        return counts != null ? counts[key.value()].sum() : frequency.getCount(key.value());
+    }
+
+    /**
+     * How calls are counted.
+     *
+     * @return the track type.
+     */
+    public TRACK_TYPE getTrackType() {
+        return trackType;
+    }
+
+    /**
+     * One in this many calls is counted.
+     *
+     * @return the sample rate, 1 when every call is counted.
+     */
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * Exposes the value as a gauge and the number of calls to each tracked
+     * function as a counter named <code>name_operations</code> with a
+     * <code>function</code> label. Both are read when the registry is
+     * scraped, and reading them does not count as a call.
+     *
+     * @param registry the registry to register into.
+     * @param name the metric name.
+     * @param help what the value measures.
+     * @param labels the labels of the series.
+     * @return this AtomicIntegerTrack.
+     */
+    public AtomicIntegerTrack register(final MetricRegistry registry, final String name, final String help, final Labels labels) {
+        registry.gauge(name, help, labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return atomicInteger.get();
+            }
+        });
+        for (final FUNCTION_KEY key : FUNCTION_KEY.values()) {
+            registry.counter(name + "_operations", "Calls to each function of " + name + ".", labels.with("function", key.toString()), new Gauge() {
+                @Override
+                public double getValue() {
+                    return getCount(key);
+                }
+            });
+        }
+        return this;
+    }
+
     /**
      * Gets the current value.
      *
      * @return the current value
      */
     public final int get() {
-        frequency.addValue(FUNCTION_KEY.GET.value());
+        track(FUNCTION_KEY.GET);
         return atomicInteger.get();
     }
 
@@ -214,7 +337,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @param newValue the new value
      */
     public final void set(int newValue) {
-        frequency.addValue(FUNCTION_KEY.SET.value());
+        track(FUNCTION_KEY.SET);
         atomicInteger.set(newValue);
     }
 
@@ -225,7 +348,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @since 1.6
      */
     public final void lazySet(int newValue) {
-        frequency.addValue(FUNCTION_KEY.LAZYSET.value());
+        track(FUNCTION_KEY.LAZYSET);
         atomicInteger.lazySet(newValue);
     }
 
@@ -236,7 +359,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the previous value
      */
     public final int getAndSet(int newValue) {
-        frequency.addValue(FUNCTION_KEY.GETANDSET.value());
+        track(FUNCTION_KEY.GETANDSET);
         return atomicInteger.getAndSet(newValue);
     }
 
@@ -250,7 +373,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * was not equal to the expected value.
      */
     public final boolean compareAndSet(int expect, int update) {
-        frequency.addValue(FUNCTION_KEY.COMPAREANDSET.value());
+        track(FUNCTION_KEY.COMPAREANDSET);
         return atomicInteger.compareAndSet(expect, update);
     }
 
@@ -268,7 +391,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return true if successful.
      */
     public final boolean weakCompareAndSet(int expect, int update) {
-        frequency.addValue(FUNCTION_KEY.WEAKCOMPAREANDSET.value());
+        track(FUNCTION_KEY.WEAKCOMPAREANDSET);
         return atomicInteger.weakCompareAndSet(expect, update);
     }
 
@@ -278,7 +401,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the previous value
      */
     public final int getAndIncrement() {
-        frequency.addValue(FUNCTION_KEY.GETANDINCREMENT.value());
+        track(FUNCTION_KEY.GETANDINCREMENT);
         return atomicInteger.getAndIncrement();
     }
 
@@ -288,7 +411,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the previous value
      */
     public final int getAndDecrement() {
-        frequency.addValue(FUNCTION_KEY.GETANDDECREMENT.value());
+        track(FUNCTION_KEY.GETANDDECREMENT);
         return atomicInteger.getAndDecrement();
     }
 
@@ -299,7 +422,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the previous value
      */
     public final int getAndAdd(int delta) {
-        frequency.addValue(FUNCTION_KEY.GETANDADD.value());
+        track(FUNCTION_KEY.GETANDADD);
         return atomicInteger.getAndAdd(delta);
     }
 
@@ -309,7 +432,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the updated value
      */
     public final int incrementAndGet() {
-        frequency.addValue(FUNCTION_KEY.INCREMENTANDGET.value());
+        track(FUNCTION_KEY.INCREMENTANDGET);
         return atomicInteger.incrementAndGet();
     }
 
@@ -319,6 +442,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the updated value
      */
     public final int decrementAndGet() {
+        track(FUNCTION_KEY.DECREMENTANDGET);
         return atomicInteger.decrementAndGet();
     }
 
@@ -329,7 +453,7 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the updated value
      */
     public final int addAndGet(int delta) {
-        frequency.addValue(FUNCTION_KEY.ADDANDGET.value());
+        track(FUNCTION_KEY.ADDANDGET);
         return atomicInteger.addAndGet(delta);
     }
 
@@ -339,37 +463,37 @@ public class AtomicIntegerTrack implements AtomicIntegerInterface {
      * @return the String representation of the current value.
      */
     public String toString() {
-        frequency.addValue(FUNCTION_KEY.TOSTRING.value());
+        track(FUNCTION_KEY.TOSTRING);
         return atomicInteger.toString();
     }
 
     public int intValue() {
-        frequency.addValue(FUNCTION_KEY.INTVALUE.value());
+        track(FUNCTION_KEY.INTVALUE);
         return atomicInteger.intValue();
     }
 
     public long longValue() {
-        frequency.addValue(FUNCTION_KEY.LONGVALUE.value());
+        track(FUNCTION_KEY.LONGVALUE);
         return atomicInteger.longValue();
     }
 
     public float floatValue() {
-        frequency.addValue(FUNCTION_KEY.FLOATVALUE.value());
+        track(FUNCTION_KEY.FLOATVALUE);
         return atomicInteger.floatValue();
     }
 
     public double doubleValue() {
-        frequency.addValue(FUNCTION_KEY.DOUBLEVALUE.value());
+        track(FUNCTION_KEY.DOUBLEVALUE);
         return atomicInteger.doubleValue();
     }
 
     public byte byteValue() {
-        frequency.addValue(FUNCTION_KEY.BYTEVALUE.value());
+        track(FUNCTION_KEY.BYTEVALUE);
         return atomicInteger.byteValue();
     }
 
     public short shortValue() {
-        frequency.addValue(FUNCTION_KEY.SHORTVALUE.value());
+        track(FUNCTION_KEY.SHORTVALUE);
         return atomicInteger.shortValue();
     }
 
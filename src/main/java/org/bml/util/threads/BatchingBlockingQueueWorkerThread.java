@@ -0,0 +1,208 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An Extension of Worker Thread that feeds off of a {@link BlockingQueue} in
+ * batches. Where {@link BlockingQueueWorkerThread} takes one object per cycle
+ * and sleeps when the queue is empty, this class blocks in
+ * {@link BlockingQueue#poll(long, TimeUnit)} for the first object, takes
+ * whatever else is queued with {@link BlockingQueue#drainTo(java.util.Collection, int)}
+ * and then lingers for up to <code>theMaxLinger</code> milliseconds for the
+ * batch to fill. Each cycle costs one or two lock round trips no matter how
+ * many objects it takes, and a worker wakes as soon as an object arrives.
+ * <p>
+ * The batch handed to {@link #doIt(List)} is reused from cycle to cycle.
+ * Implementations must finish with it, or copy it, before returning.</p>
+ *
+ * @author Brian M. Lima
+ * @param <T> The object type that will be worked on. This is usually some type of data container or object that needs an operation to be performed.
+ */
+public abstract class BatchingBlockingQueueWorkerThread<T> extends WorkerThread {
+
+    /**
+     * Standard Logging. All logging should be funneled through this log.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingBlockingQueueWorkerThread.class);
+    /**
+     * Use to avoid calling .class.getSimpleName() in high throughput situations.
+     */
+    private static final String SIMPLE_CLASS_NAME = BatchingBlockingQueueWorkerThread.class.getSimpleName().intern();
+    /**
+     * The input queue {@link BlockingQueue}.
+     */
+    private final BlockingQueue<T> theInputBlockingQueue;
+    /**
+     * The most objects handed to one {@link #doIt(List)} call.
+     */
+    private final int theMaxBatchSize;
+    /**
+     * How long to block for the first object of a batch in nanoseconds. This
+     * bounds how long a soft shutdown takes to be noticed on an idle queue.
+     */
+    private final long theTimeoutNanos;
+    /**
+     * How long to wait for a partial batch to fill in nanoseconds.
+     */
+    private final long theMaxLingerNanos;
+    /**
+     * The batch reused from cycle to cycle.
+     */
+    private final List<T> batch;
+    /**
+     * True once the worker should stop on the first poll that times out.
+     */
+    private volatile boolean stopWhenIdle = false;
+
+    /**
+     * Creates a new instance of BatchingBlockingQueueWorkerThread.
+     *
+     * @param theInputBlockingQueue The BlockingQueue for worker threads to poll.
+     * @param theMaxBatchSize The most objects handed to one doIt(List) call.
+     * @param theTimeout How long to block for the first object of a batch in
+     * milliseconds.
+     * @param theMaxLinger How long to wait for a partial batch to fill in
+     * milliseconds. 0 hands over whatever was queued without waiting.
+     * @pre theInputBlockingQueue!=null
+     * @pre theMaxBatchSize>0
+     * @pre theTimeout>0
+     * @pre theMaxLinger>=0
+     */
+    public BatchingBlockingQueueWorkerThread(final BlockingQueue<T> theInputBlockingQueue, final int theMaxBatchSize, final long theTimeout, final long theMaxLinger) {
+        super();
+        checkNotNull(theInputBlockingQueue, "Can not create a %s with a null theInputBlockingQueue parameter.", SIMPLE_CLASS_NAME);
+        checkArgument((theMaxBatchSize > 0), "Can not create a %s with a theMaxBatchSize parameter that does not meet (theMaxBatchSize > 0).", SIMPLE_CLASS_NAME);
+        checkArgument((theTimeout > 0), "Can not create a %s with a theTimeout parameter that does not meet (theTimeout > 0).", SIMPLE_CLASS_NAME);
+        checkArgument((theMaxLinger >= 0), "Can not create a %s with a theMaxLinger parameter that does not meet (theMaxLinger >= 0).", SIMPLE_CLASS_NAME);
+        this.theInputBlockingQueue = theInputBlockingQueue;
+        this.theMaxBatchSize = theMaxBatchSize;
+        this.theTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(theTimeout);
+        this.theMaxLingerNanos = TimeUnit.MILLISECONDS.toNanos(theMaxLinger);
+        this.batch = new ArrayList<T>(theMaxBatchSize);
+    }
+
+    /**
+     * The main run method substitute from WorkerThread. This method is called
+     * repeatedly until its {@link Thread} is stopped or the base
+     * {@link WorkerThread} is shutdown.
+     *
+     * This method builds a batch off the queue and passes it to
+     * <code>protected abstract void doIt(List&lt;T&gt; batch);</code>
+     * It handles common exceptions and shuts down gracefully.
+     */
+    @Override
+    protected void doIt() {
+        batch.clear();
+        try {
+            setWorkerState(WORKER_STATE.PULLING);
+            final T first = theInputBlockingQueue.poll(theTimeoutNanos, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                if (stopWhenIdle) {
+                    this.setShouldRun(false);
+                }
+                return;
+            }
+            batch.add(first);
+            theInputBlockingQueue.drainTo(batch, theMaxBatchSize - 1);
+            if (batch.size() < theMaxBatchSize && theMaxLingerNanos > 0) {
+                setWorkerState(WORKER_STATE.BATCHING);
+                linger();
+            }
+            setWorkerState(WORKER_STATE.EXECUTING_BATCH);
+            doIt(batch);
+        } catch (InterruptedException ex) {
+            LOG.warn("InterruptedException caught. Shutting down gracefully", ex);
+            this.setShouldRun(false);
+        } catch (OutOfMemoryError oome) {
+            LOG.error("OutOfMemoryError caught. Generally unrecoverable. Shutting down gracefully", oome);
+            this.setShouldRun(false);
+        } catch (Exception ex) {
+            LOG.error("Exception caught. It must have bubbled up from the doIt(batch) implementation. Generally unrecoverable. Shutting down gracefully", ex);
+            this.setShouldRun(false);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Keeps taking batches until a poll times out on an empty queue, then
+     * stops.
+     */
+    @Override
+    public void stopWhenIdle() {
+        stopWhenIdle = true;
+    }
+
+    /**
+     * Waits up to the max linger for the batch to fill, blocking in poll for
+     * each arrival and draining anything queued behind it. An interrupt ends
+     * the wait and shuts the worker down once the objects already taken have
+     * been handed to {@link #doIt(List)}.
+     */
+    private void linger() {
+        final long deadline = System.nanoTime() + theMaxLingerNanos;
+        long remaining = theMaxLingerNanos;
+        T next;
+        while (batch.size() < theMaxBatchSize && remaining > 0) {
+            try {
+                next = theInputBlockingQueue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                LOG.warn("InterruptedException caught while batching. Shutting down gracefully after this batch", ex);
+                this.setShouldRun(false);
+                return;
+            }
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            theInputBlockingQueue.drainTo(batch, theMaxBatchSize - batch.size());
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Getter for the most objects handed to one {@link #doIt(List)} call.
+     *
+     * @return the max batch size.
+     */
+    public int getMaxBatchSize() {
+        return theMaxBatchSize;
+    }
+
+    /**
+     * This is the operation method.
+     *
+     * @param batch between 1 and the max batch size objects to be acted upon,
+     * in queue order. The list is reused and cleared after this returns.
+     */
+    protected abstract void doIt(final List<T> batch);
+}
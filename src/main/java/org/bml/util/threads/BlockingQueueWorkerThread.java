@@ -67,6 +67,10 @@ public abstract class BlockingQueueWorkerThread<T> extends WorkerThread {
      * The worker threads sleep time on an empty queue.
      */
     private final long theEmptyQueueWait;
+    /**
+     * True once the worker should stop on the first poll that times out.
+     */
+    private volatile boolean stopWhenIdle = false;
 
     /**
      * The worker threads sleep time on an empty queue.
@@ -110,6 +114,10 @@ public abstract class BlockingQueueWorkerThread<T> extends WorkerThread {
         try {
             data = theInputBlockingQueue.poll(theTimeout, unit);
             if (data == null) {
+                if (stopWhenIdle) {
+                    this.setShouldRun(false);
+                    return;
+                }
                 sleep(theEmptyQueueWait);
             } else {
                 doIt(data);
@@ -126,6 +134,15 @@ public abstract class BlockingQueueWorkerThread<T> extends WorkerThread {
         }
     }
 
+    /**
+     * Keeps taking objects until a poll times out on an empty queue, then
+     * stops.
+     */
+    @Override
+    public void stopWhenIdle() {
+        stopWhenIdle = true;
+    }
+
     /**
      * This is the operation method.
      *
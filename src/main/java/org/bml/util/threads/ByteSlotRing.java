@@ -0,0 +1,267 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free, multi producer single consumer ring of preallocated byte
+ * slots, for handing serialized records from many threads to one writer
+ * without allocating anything per record. The slots are carved out of one
+ * direct buffer when the ring is created.
+ * <p>
+ * A producer claims a sequence with {@link #claim()}, writes up to
+ * {@link #getSlotSize()} bytes into the buffer returned by
+ * {@link #slot(long)} and makes the record visible with
+ * {@link #publish(long)}. Every claimed sequence must be published, an empty
+ * slot included, or the consumer stops at it. {@link #offer(byte[], int, int)}
+ * does all three for a record already in an array. Claiming is one CAS on the
+ * tail sequence and never blocks; it fails at once when the ring is full.</p>
+ * <p>
+ * The single consumer copies published records out in order with
+ * {@link #drainTo(ByteBuffer, byte[], int)}, which frees their slots in one
+ * store. Only one thread may drain at a time.</p>
+ *
+ * @author Brian M. Lima
+ */
+public class ByteSlotRing {
+
+    /**
+     * The slots.
+     */
+    private final ByteBuffer slab;
+    /**
+     * The producers' view of each slot.
+     */
+    private final ByteBuffer[] writeViews;
+    /**
+     * The consumer's view of each slot.
+     */
+    private final ByteBuffer[] readViews;
+    /**
+     * The length of the record in each slot. Written before the slot is
+     * published.
+     */
+    private final int[] lengths;
+    /**
+     * The sequence last published in each slot. A slot holds the record for
+     * sequence p when this equals p.
+     */
+    private final AtomicLongArray published;
+    /**
+     * capacity - 1, to map a sequence to a slot.
+     */
+    private final int mask;
+    /**
+     * The size of each slot.
+     */
+    private final int slotSize;
+    /**
+     * The next sequence a producer will claim.
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    /**
+     * The producers' last reading of the head. Never ahead of the head.
+     */
+    private final PaddedAtomicLong headCache = new PaddedAtomicLong();
+    /**
+     * The next sequence the consumer will read. Only written by the consumer.
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+    /**
+     * Creates a new ByteSlotRing.
+     *
+     * @param capacity the minimum number of slots, rounded up to a power of
+     * two.
+     * @param slotSize the most bytes a record may have.
+     * @pre 2 &lt;= capacity &lt;= 2^30
+     * @pre slotSize&gt;0
+     * @pre capacity*slotSize &lt;= Integer.MAX_VALUE
+     */
+    public ByteSlotRing(final int capacity, final int slotSize) {
+        checkArgument(capacity >= 2 && capacity <= 1 << 30, "Can not create a ByteSlotRing with a capacity parameter that does not meet (2 <= capacity <= 2^30).");
+        checkArgument(slotSize > 0, "Can not create a ByteSlotRing with a slotSize parameter that does not meet (slotSize > 0).");
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        checkArgument((long) size * slotSize <= Integer.MAX_VALUE, "Can not create a ByteSlotRing with capacity*slotSize over Integer.MAX_VALUE.");
+        this.mask = size - 1;
+        this.slotSize = slotSize;
+        this.slab = ByteBuffer.allocateDirect(size * slotSize);
+        this.writeViews = new ByteBuffer[size];
+        this.readViews = new ByteBuffer[size];
+        this.lengths = new int[size];
+        this.published = new AtomicLongArray(size);
+        ByteBuffer view;
+        for (int c = 0; c < size; c++) {
+            view = slab.duplicate();
+            view.position(c * slotSize).limit((c + 1) * slotSize);
+            writeViews[c] = view.slice();
+            readViews[c] = view.slice();
+            published.lazySet(c, -1L);
+        }
+    }
+
+    /**
+     * Claims the next slot.
+     *
+     * @return the sequence of the claimed slot, or -1 if the ring is full.
+     */
+    public long claim() {
+        final int capacity = mask + 1;
+        long pos, limit = headCache.get() + capacity;
+        do {
+            pos = tail.get();
+            if (pos >= limit) {
+                final long headNow = head.get();
+                limit = headNow + capacity;
+                if (pos >= limit) {
+                    return -1L;
+                }
+                headCache.lazySet(headNow);
+            }
+        } while (!tail.compareAndSet(pos, pos + 1));
+        return pos;
+    }
+
+    /**
+     * The buffer for a claimed slot, cleared and ready to be written. The
+     * same buffer object is handed out every time the slot comes round, so
+     * it must not be kept past {@link #publish(long)}.
+     *
+     * @param sequence a sequence returned by {@link #claim()}.
+     * @return the slot's buffer.
+     */
+    public ByteBuffer slot(final long sequence) {
+        final ByteBuffer view = writeViews[(int) sequence & mask];
+        view.clear();
+        return view;
+    }
+
+    /**
+     * Publishes a claimed slot. The record is the bytes from 0 to the slot
+     * buffer's position.
+     *
+     * @param sequence a sequence returned by {@link #claim()}.
+     */
+    public void publish(final long sequence) {
+        final int index = (int) sequence & mask;
+        lengths[index] = writeViews[index].position();
+        published.lazySet(index, sequence);
+    }
+
+    /**
+     * Claims a slot, copies a record into it and publishes it.
+     *
+     * @param bytes the array holding the record.
+     * @param offset the offset of the record in the array.
+     * @param length the length of the record.
+     * @return false if the ring is full.
+     * @throws IllegalArgumentException if the record is larger than a slot.
+     */
+    public boolean offer(final byte[] bytes, final int offset, final int length) {
+        checkArgument(length <= slotSize, "Can not offer a record larger than a slot. length=%s slotSize=%s", length, slotSize);
+        final long sequence = claim();
+        if (sequence < 0) {
+            return false;
+        }
+        slot(sequence).put(bytes, offset, length);
+        publish(sequence);
+        return true;
+    }
+
+    /**
+     * Copies published records, each followed by a delimiter, into a buffer
+     * until the next record does not fit, is not published yet or the
+     * maximum has been copied, then frees their slots.
+     *
+     * @param target the buffer to copy into, from its position to its limit.
+     * @param delimiter written after each record, empty for none.
+     * @param maxRecords the most records to copy.
+     * @return the number of records copied.
+     */
+    public int drainTo(final ByteBuffer target, final byte[] delimiter, final int maxRecords) {
+        checkNotNull(target, "Can not drain to a null buffer.");
+        final long start = head.get();
+        long pos = start;
+        int index, length;
+        ByteBuffer view;
+        while (pos - start < maxRecords) {
+            index = (int) pos & mask;
+            if (published.get(index) != pos) {
+                break;
+            }
+            length = lengths[index];
+            if (target.remaining() < length + delimiter.length) {
+                break;
+            }
+            view = readViews[index];
+            view.limit(length).position(0);
+            target.put(view).put(delimiter);
+            pos++;
+        }
+        if (pos != start) {
+            head.lazySet(pos);
+        }
+        return (int) (pos - start);
+    }
+
+    /**
+     * True if no record has been claimed and not yet drained.
+     *
+     * @return true if the ring is empty.
+     */
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * The number of slots claimed and not yet drained. An estimate while
+     * other threads are working on the ring.
+     *
+     * @return the number of slots in use.
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head.get(), capacity()));
+    }
+
+    /**
+     * The number of slots.
+     *
+     * @return the capacity of the ring.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * The most bytes a record may have.
+     *
+     * @return the slot size.
+     */
+    public int getSlotSize() {
+        return slotSize;
+    }
+}
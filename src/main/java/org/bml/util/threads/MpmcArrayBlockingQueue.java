@@ -0,0 +1,307 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free, multi producer multi consumer {@link BlockingQueue}
+ * backed by a ring of slots, after Dmitry Vyukov's bounded MPMC queue. Each
+ * slot carries a sequence number that tells producers and consumers whether it
+ * is free to write or ready to read. An uncontended offer or poll is one CAS
+ * on a cursor plus two ordered stores. There is no lock to convoy on and
+ * nothing is allocated per element.
+ * <p>
+ * Without locks there are no conditions to wait on, so the blocking methods
+ * retry and call a {@link WaitStrategy} between attempts. The strategy sets
+ * the trade between CPU use and wake up latency. The blocking methods honor
+ * interrupts and timeouts the same way {@link java.util.concurrent.LinkedBlockingQueue}
+ * does, so this queue can be handed to
+ * {@link org.bml.util.elasticconsumer.ElasticConsumer} and its workers as is.</p>
+ * <p>
+ * The capacity is rounded up to a power of two. {@link #size()} and
+ * {@link #iterator()} are estimates while other threads are working on the
+ * queue, and the iterator does not support removal.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ */
+public class MpmcArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * The elements.
+     */
+    private final AtomicReferenceArray<E> buffer;
+    /**
+     * The sequence number of each slot. A slot at index i is free for the
+     * producer claiming position p when its sequence equals p, and ready for
+     * the consumer claiming position p when its sequence equals p + 1.
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * capacity - 1, to map a position to a slot.
+     */
+    private final int mask;
+    /**
+     * The next position a producer will claim.
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    /**
+     * The next position a consumer will claim.
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    /**
+     * What blocked producers and consumers do between attempts.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Creates a new MpmcArrayBlockingQueue that parks waiting threads.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two.
+     * @pre 2 &lt;= capacity &lt;= 2^30
+     */
+    public MpmcArrayBlockingQueue(final int capacity) {
+        this(capacity, WaitStrategies.PARK);
+    }
+
+    /**
+     * Creates a new MpmcArrayBlockingQueue.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two.
+     * @param waitStrategy what blocked producers and consumers do between attempts.
+     * @pre 2 &lt;= capacity &lt;= 2^30
+     * @pre waitStrategy!=null
+     */
+    public MpmcArrayBlockingQueue(final int capacity, final WaitStrategy waitStrategy) {
+        checkArgument(capacity >= 2 && capacity <= 1 << 30, "Can not create a MpmcArrayBlockingQueue with a capacity parameter that does not meet (2 <= capacity <= 2^30).");
+        checkNotNull(waitStrategy, "Can not create a MpmcArrayBlockingQueue with a null waitStrategy parameter.");
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int c = 0; c < size; c++) {
+            sequences.lazySet(c, c);
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        checkNotNull(e, "Can not offer a null element.");
+        long pos = tail.get();
+        int index;
+        long dif;
+        while (true) {
+            index = (int) pos & mask;
+            dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        buffer.lazySet(index, e);
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long pos = head.get();
+        int index;
+        long dif;
+        while (true) {
+            index = (int) pos & mask;
+            dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+        final E e = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, pos + mask + 1);
+        return e;
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(e, "Can not offer a null element.");
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        int attempt = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            waitStrategy.idle(++attempt, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        checkNotNull(e, "Can not put a null element.");
+        int attempt = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(++attempt, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            waitStrategy.idle(++attempt, remaining);
+        }
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(++attempt, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        final long pos = head.get();
+        final int index = (int) pos & mask;
+        return sequences.get(index) == pos + 1 ? buffer.get(index) : null;
+    }
+
+    @Override
+    public int size() {
+        long before, after, size;
+        do {
+            before = head.get();
+            size = tail.get() - before;
+            after = head.get();
+        } while (before != after);
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * The number of slots in the ring.
+     *
+     * @return the capacity of this queue.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        checkNotNull(c, "Can not drain to a null collection.");
+        checkArgument(c != this, "Can not drain a queue to itself.");
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * A weakly consistent snapshot of the elements between the head and tail
+     * at the time of the call. Removal is not supported.
+     *
+     * @return an iterator over a snapshot of this queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final long start = head.get(), end = tail.get();
+        final List<E> snapshot = new ArrayList<E>((int) Math.max(0, Math.min(end - start, capacity())));
+        E e;
+        for (long pos = start; pos < end; pos++) {
+            e = buffer.get((int) pos & mask);
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
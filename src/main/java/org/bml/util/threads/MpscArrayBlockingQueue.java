@@ -0,0 +1,305 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free, multi producer single consumer {@link BlockingQueue}
+ * backed by a preallocated ring of slots. A producer claims a position by
+ * moving the tail sequence forward with one CAS, writes its element into the
+ * slot and publishes it with an ordered store. The single consumer reads the
+ * slot at the head sequence, sees a published element as soon as it is
+ * non-null, clears the slot and moves the head forward with plain ordered
+ * stores, so taking costs no CAS at all. Nothing is allocated per element.
+ * <p>
+ * Producers only read the head when their cached copy says the ring is full,
+ * which keeps the consumer's cache line out of the producers' way. An offer
+ * never blocks: it fails at once if the ring is full. The timed and blocking
+ * methods retry between calls to a {@link WaitStrategy}, as in
+ * {@link MpmcArrayBlockingQueue}.</p>
+ * <p>
+ * Only one thread may take from the queue at a time. That is the thread
+ * draining an {@link org.bml.util.rt.telemetry.RTTelemetrySink}, or a
+ * single worker. Use {@link MpmcArrayBlockingQueue} for more consumers. The
+ * capacity is rounded up to a power of two. {@link #size()} and
+ * {@link #iterator()} are estimates while other threads are working on the
+ * queue, and the iterator does not support removal.</p>
+ *
+ * @author Brian M. Lima
+ * @param <E> the type of elements held in this queue.
+ */
+public class MpscArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * The elements. A null slot at the head has not been published yet.
+     */
+    private final AtomicReferenceArray<E> buffer;
+    /**
+     * capacity - 1, to map a sequence to a slot.
+     */
+    private final int mask;
+    /**
+     * The next sequence a producer will claim.
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    /**
+     * The producers' last reading of the head. Only ever behind the head, so
+     * a producer that finds room against it has room.
+     */
+    private final PaddedAtomicLong headCache = new PaddedAtomicLong();
+    /**
+     * The next sequence the consumer will take. Only written by the consumer.
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    /**
+     * What blocked producers and the consumer do between attempts.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Creates a new MpscArrayBlockingQueue that parks waiting threads.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two.
+     * @pre 2 &lt;= capacity &lt;= 2^30
+     */
+    public MpscArrayBlockingQueue(final int capacity) {
+        this(capacity, WaitStrategies.PARK);
+    }
+
+    /**
+     * Creates a new MpscArrayBlockingQueue.
+     *
+     * @param capacity the minimum capacity, rounded up to a power of two.
+     * @param waitStrategy what blocked producers and the consumer do between
+     * attempts.
+     * @pre 2 &lt;= capacity &lt;= 2^30
+     * @pre waitStrategy!=null
+     */
+    public MpscArrayBlockingQueue(final int capacity, final WaitStrategy waitStrategy) {
+        checkArgument(capacity >= 2 && capacity <= 1 << 30, "Can not create a MpscArrayBlockingQueue with a capacity parameter that does not meet (2 <= capacity <= 2^30).");
+        checkNotNull(waitStrategy, "Can not create a MpscArrayBlockingQueue with a null waitStrategy parameter.");
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        checkNotNull(e, "Can not offer a null element.");
+        final int capacity = mask + 1;
+        long pos, limit = headCache.get() + capacity;
+        do {
+            pos = tail.get();
+            if (pos >= limit) {
+                final long headNow = head.get();
+                limit = headNow + capacity;
+                if (pos >= limit) {
+                    return false;
+                }
+                headCache.lazySet(headNow);
+            }
+        } while (!tail.compareAndSet(pos, pos + 1));
+        buffer.lazySet((int) pos & mask, e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        final long pos = head.get();
+        final int index = (int) pos & mask;
+        final E e = buffer.get(index);
+        if (e == null) {
+            return null;
+        }
+        buffer.lazySet(index, null);
+        head.lazySet(pos + 1);
+        return e;
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(e, "Can not offer a null element.");
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        int attempt = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            waitStrategy.idle(++attempt, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        checkNotNull(e, "Can not put a null element.");
+        int attempt = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(++attempt, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            waitStrategy.idle(++attempt, remaining);
+        }
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitStrategy.idle(++attempt, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        return buffer.get((int) head.get() & mask);
+    }
+
+    @Override
+    public int size() {
+        long before, after, size;
+        do {
+            before = head.get();
+            size = tail.get() - before;
+            after = head.get();
+        } while (before != after);
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * The number of slots in the ring.
+     *
+     * @return the capacity of this queue.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes published elements in order until the first slot that has not
+     * been published, and moves the head once for the whole batch.
+     *
+     * @param c the collection to add the elements to.
+     * @param maxElements the most elements to take.
+     * @return the number of elements taken.
+     */
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        checkNotNull(c, "Can not drain to a null collection.");
+        checkArgument(c != this, "Can not drain a queue to itself.");
+        final long start = head.get();
+        long pos = start;
+        int index;
+        E e;
+        while (pos - start < maxElements) {
+            index = (int) pos & mask;
+            e = buffer.get(index);
+            if (e == null) {
+                break;
+            }
+            c.add(e);
+            buffer.lazySet(index, null);
+            pos++;
+        }
+        if (pos != start) {
+            head.lazySet(pos);
+        }
+        return (int) (pos - start);
+    }
+
+    /**
+     * A weakly consistent snapshot of the published elements between the head
+     * and tail at the time of the call. Removal is not supported.
+     *
+     * @return an iterator over a snapshot of this queue.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final long start = head.get(), end = tail.get();
+        final List<E> snapshot = new ArrayList<E>((int) Math.max(0, Math.min(end - start, capacity())));
+        E e;
+        for (long pos = start; pos < end; pos++) {
+            e = buffer.get((int) pos & mask);
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
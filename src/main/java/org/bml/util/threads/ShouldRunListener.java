@@ -0,0 +1,43 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+/**
+ * Told when a {@link WorkerThread}'s shouldRun control changes, so a registry
+ * of workers can keep running counts up to date instead of walking every
+ * worker to build them.
+ *
+ * @see WorkerThread#addShouldRunListener(ShouldRunListener)
+ * @author Brian M. Lima
+ */
+public interface ShouldRunListener {
+
+    /**
+     * Called on the thread that changed the control, after the change. Must be
+     * short and must not block.
+     *
+     * @param worker the worker whose control changed.
+     * @param shouldRun the new value.
+     */
+    void shouldRunChanged(WorkerThread worker, boolean shouldRun);
+}
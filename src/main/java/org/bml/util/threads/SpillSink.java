@@ -0,0 +1,48 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Where queued objects go when a consumer is shut down before it can process
+ * them, so a drain with a deadline does not have to choose between waiting
+ * forever and losing data. A spill sink should be fast and local, a file or
+ * a log segment, and the objects it takes are replayed later by whatever owns
+ * it.
+ *
+ * @author Brian M. Lima
+ * @param <T> the type of the objects spilled.
+ */
+public interface SpillSink<T> {
+
+    /**
+     * Takes objects that could not be processed. Called from the thread
+     * running the drain.
+     *
+     * @param objects the objects, in the order they were taken from the queue.
+     * @throws IOException if the objects could not be stored. They are lost.
+     */
+    void spill(Collection<? extends T> objects) throws IOException;
+}
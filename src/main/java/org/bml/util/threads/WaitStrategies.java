@@ -0,0 +1,90 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The built in {@link WaitStrategy} implementations.
+ *
+ * @author Brian M. Lima
+ */
+public enum WaitStrategies implements WaitStrategy {
+
+    /**
+     * Spins without yielding the CPU. The lowest wake up latency, at the cost
+     * of a full core per waiting thread. Only use this with fewer waiting
+     * threads than cores.
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(final int attempt, final long remainingNanos) {
+        }
+    },
+    /**
+     * Spins briefly and then calls {@link Thread#yield()}. Low latency while
+     * leaving the CPU to runnable threads, but a waiting thread still shows as
+     * busy.
+     */
+    YIELD {
+        @Override
+        public void idle(final int attempt, final long remainingNanos) {
+            if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+    /**
+     * Spins, then yields, then parks for up to {@link #MAX_PARK_NANOS}. Idle
+     * threads cost close to nothing, and a thread wakes at most
+     * {@link #MAX_PARK_NANOS} after the queue changes. This is the sensible
+     * default for consumers that may sit idle.
+     */
+    PARK {
+        @Override
+        public void idle(final int attempt, final long remainingNanos) {
+            if (attempt <= SPIN_TRIES) {
+                return;
+            }
+            if (attempt <= SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return;
+            }
+            LockSupport.parkNanos(Math.min(remainingNanos, MAX_PARK_NANOS));
+        }
+    };
+
+    /**
+     * The number of attempts spent spinning before yielding.
+     */
+    static final int SPIN_TRIES = 100;
+    /**
+     * The number of attempts spent yielding before parking.
+     */
+    static final int YIELD_TRIES = 100;
+    /**
+     * The longest a {@link #PARK} wait sleeps in one call.
+     */
+    public static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+}
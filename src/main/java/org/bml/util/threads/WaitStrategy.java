@@ -0,0 +1,48 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+/**
+ * What a thread does while it waits on a lock free structure, such as
+ * {@link MpmcArrayBlockingQueue}, that has no locks or conditions to block on.
+ * The choice trades CPU for wake up latency.
+ * <p>
+ * Implementations must be stateless so a single instance can be shared by any
+ * number of queues and threads.</p>
+ *
+ * @see WaitStrategies
+ * @author Brian M. Lima
+ */
+public interface WaitStrategy {
+
+    /**
+     * Called each time a waiting thread finds it can not make progress yet.
+     * Implementations must return within <code>remainingNanos</code>.
+     *
+     * @param attempt the number of consecutive failed attempts so far, starting at 1.
+     * @param remainingNanos the time left before the caller gives up,
+     * {@link Long#MAX_VALUE} if it waits without a timeout.
+     */
+    void idle(int attempt, long remainingNanos);
+}
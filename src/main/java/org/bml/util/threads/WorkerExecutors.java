@@ -0,0 +1,125 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors for running {@link WorkerThread} run loops with
+ * {@link WorkerThread#start(java.util.concurrent.Executor)}.
+ * <p>
+ * Virtual threads are looked up reflectively so this library still builds and
+ * runs on Java 8. On Java 21 and later {@link #newVirtualThreadExecutor(String)}
+ * returns an executor that starts a named virtual thread per worker. A virtual
+ * thread parked in blocking IO costs a few hundred bytes of heap instead of a
+ * platform stack, so thousands of blocking DB or HTTP workers are practical.
+ * Workers that block inside <code>synchronized</code> blocks pin their carrier
+ * thread. Build with the <code>java21</code> profile to have the tests report
+ * pinning.</p>
+ *
+ * @author Brian M. Lima
+ */
+public final class WorkerExecutors {
+
+    /**
+     * <code>Thread.ofVirtual()</code>, null before Java 21.
+     */
+    private static final Method OF_VIRTUAL;
+    /**
+     * <code>Thread.Builder.name(String, long)</code>, null before Java 21.
+     */
+    private static final Method BUILDER_NAME;
+    /**
+     * <code>Thread.Builder.factory()</code>, null before Java 21.
+     */
+    private static final Method BUILDER_FACTORY;
+    /**
+     * <code>Executors.newThreadPerTaskExecutor(ThreadFactory)</code>, null
+     * before Java 21.
+     */
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, perTask = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException ex) {
+            ofVirtual = null;
+        } catch (NoSuchMethodException ex) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+    }
+
+    /**
+     * Utility class. Do not instantiate.
+     */
+    private WorkerExecutors() {
+    }
+
+    /**
+     * Tests if the running JVM supports virtual threads.
+     *
+     * @return true on Java 21 and later.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread named
+     * <code>namePrefix</code> followed by a sequence number. The caller owns
+     * the executor and should shut it down once its workers have stopped.
+     *
+     * @param namePrefix the prefix for the virtual thread names.
+     * @return a virtual thread per task executor.
+     * @throws UnsupportedOperationException if the running JVM does not
+     * support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor(final String namePrefix) {
+        checkNotNull(namePrefix, "Can not create a virtual thread executor with a null namePrefix.");
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later. Running on Java " + System.getProperty("java.version"));
+        }
+        try {
+            final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+            final ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException ex) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread executor.", ex);
+        } catch (InvocationTargetException ex) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread executor.", ex.getCause());
+        }
+    }
+}
@@ -19,10 +19,21 @@ package org.bml.util.threads;
  *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
  * #L%
  */
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.bml.util.rt.telemetry.LatencyHistogram;
+import org.bml.util.rt.telemetry.metrics.Gauge;
+import org.bml.util.rt.telemetry.metrics.Labels;
+import org.bml.util.rt.telemetry.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,7 +60,7 @@ import org.slf4j.LoggerFactory;
  * their supporting sub-systems.</p>
  *
  * <p>
- * Commons math <code>DescriptiveStatistics</code> based cycle telemetry and
+ * {@link LatencyHistogram} based cycle telemetry in nanoseconds and
  * extensions allowing thread state telemetry using the
  * <code>WORKER_STATE</code> Enum. NOTE: Implementations of this class must use
  * <code>WORKER_STATE</code> and the tracking methods at runtime for state to
@@ -57,13 +68,19 @@ import org.slf4j.LoggerFactory;
  * </p>
  *
  * <p>
+ * A WorkerThread can be started as its own platform thread with
+ * {@link #start()} or have its run loop executed by an {@link Executor} with
+ * {@link #start(Executor)}, for example a virtual thread per task executor from
+ * {@link WorkerExecutors#newVirtualThreadExecutor(String)} on Java 21 and
+ * later. Use {@link #isWorkerAlive()} and {@link #interruptWorker()} in place
+ * of {@link #isAlive()} and {@link #interrupt()} so both modes behave the
+ * same.</p>
+ *
+ * <p>
  * <b>Note:</b> Be aware extensions of this class will not 'run' unless<br/>
  * <code>getShouldRun() == true</code> </p>
  *
- * @see org.apache.commons.math3.stat.descriptive.DescriptiveStatistics
- * DescriptiveStatistics
- * @see org.apache.commons.math3.stat.descriptive.SummaryStatistics
- * SummaryStatistics
+ * @see org.bml.util.rt.telemetry.LatencyHistogram LatencyHistogram
  * @see java.lang.Thread Thread
  * @see org.bml.util.elasticconsumer.ElasticConsumer ElasticConsumer
  *
@@ -102,17 +119,57 @@ public abstract class WorkerThread extends Thread {
     /**
      * Controls if a thread is capable of starting or if it should keep running.
      */
-    private boolean shouldRun = false;
+    private final AtomicBoolean shouldRun = new AtomicBoolean(false);
+    /**
+     * Told when shouldRun changes.
+     */
+    private final List<ShouldRunListener> shouldRunListeners = new CopyOnWriteArrayList<ShouldRunListener>();
+    /**
+     * The WorkerThread whose run loop the current thread is executing.
+     */
+    private static final ThreadLocal<WorkerThread> CURRENT = new ThreadLocal<WorkerThread>();
+    /**
+     * The thread executing the run loop, this thread when started with
+     * {@link #start()} or an executor thread when started with
+     * {@link #start(Executor)}. Null when the run loop is not executing.
+     */
+    private volatile Thread runner = null;
+    /**
+     * True once this worker has been handed to an executor.
+     */
+    private volatile boolean submitted = false;
+    /**
+     * True once the run loop has returned.
+     */
+    private volatile boolean finished = false;
+    /**
+     * Released once the run loop has returned and the termination listeners
+     * have run.
+     */
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    /**
+     * Called once the run loop has returned. Guarded by itself.
+     */
+    private final List<Runnable> terminationListeners = new ArrayList<Runnable>(1);
     /**
-     * If true the thread will attempt to track the elapsed time for each run
-     * cycle using the DescriptiveStatistics object if it is not null.
+     * If true the thread will track the elapsed time for each run cycle in the
+     * cycle histogram.
      */
-    private boolean trackInstanceCycles = false;
+    private volatile boolean trackInstanceCycles = false;
 
     /**
-     * Commons Math based statistics object for cycle telemetry tracking.
+     * Fixed memory histogram of run cycle times in nanoseconds. Created the
+     * first time cycle tracking is turned on and kept when it is turned off so
+     * the last readings can still be collected.
      */
-    private DescriptiveStatistics theDescriptiveStatistics = null;
+    private volatile LatencyHistogram cycleHistogram = null;
+
+    /**
+     * Legacy Commons Math based statistics object for cycle telemetry
+     * tracking. Only fed when a caller sets one. It holds every sample so it
+     * grows without bound.
+     */
+    private volatile DescriptiveStatistics theDescriptiveStatistics = null;
     /**
      * Helps track application behavior and provide a way to avoid all workers
      * entering into the DB at once. IE: starving the incoming queue. Also
@@ -313,7 +370,7 @@ public abstract class WorkerThread extends Thread {
      * called. False otherwise.
      */
     public boolean getShouldRun() {
-        return shouldRun;
+        return shouldRun.get();
     }
 
     /**
@@ -323,35 +380,183 @@ public abstract class WorkerThread extends Thread {
      */
     @Override
     public void run() {
-        long startTime, endTime;
+        runner = Thread.currentThread();
+        CURRENT.set(this);
+        try {
+            runLoop();
+        } finally {
+            CURRENT.remove();
+            runner = null;
+            finished = true;
+            fireTerminationListeners();
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Calls the termination listeners once the run loop has returned.
+     */
+    private void fireTerminationListeners() {
+        final List<Runnable> listeners;
+        synchronized (terminationListeners) {
+            listeners = new ArrayList<Runnable>(terminationListeners);
+            terminationListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException ex) {
+                LOG.error("{} RuntimeException caught from a termination listener.", getLogPrefix(), ex);
+            }
+        }
+    }
+
+    /**
+     * Adds a callback for when this worker's run loop returns, after
+     * {@link #doShutdown()}. The callback runs on the worker's thread, or on
+     * the calling thread right away if the run loop has already returned, so
+     * it must be short and must not block. Waiting for a set of workers this
+     * way, for example counting down a shared latch, wakes the waiter exactly
+     * when the last one finishes instead of polling.
+     *
+     * @param listener the callback.
+     */
+    public void addTerminationListener(final Runnable listener) {
+        checkNotNull(listener, "Can not add a null termination listener.");
+        synchronized (terminationListeners) {
+            if (!finished) {
+                terminationListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Waits for this worker's run loop to return and its termination
+     * listeners to run. Never returns true for a worker that was not started.
+     *
+     * @param timeout the longest to wait.
+     * @param unit the unit of the timeout.
+     * @return true if the run loop returned, false if the timeout passed
+     * first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * The WorkerThread whose run loop the calling thread is executing. For a
+     * worker started with {@link #start()} this is the same as
+     * {@link Thread#currentThread()}. For a worker started with
+     * {@link #start(Executor)} it is the worker, not the executor thread.
+     *
+     * @return the current worker or null if the calling thread is not
+     * executing a WorkerThread run loop.
+     */
+    public static WorkerThread currentWorker() {
+        return CURRENT.get();
+    }
+
+    /**
+     * The run loop shared by both execution modes.
+     */
+    private void runLoop() {
+        long startTime, elapsed;
+        LatencyHistogram histogram;
+        DescriptiveStatistics stats;
         /**
          * check shoudlRun. We commit to a full run so overrides of doIt are
          * expected to operate as an atomic transaction.
          */
-        while (shouldRun) {
-            startTime = System.currentTimeMillis(); //TRACK TELEMETRY
+        while (shouldRun.get()) {
+            if (!trackInstanceCycles) {
+                doIt(); //EXECUTE
+                continue;
+            }
+            startTime = System.nanoTime(); //TRACK TELEMETRY
             doIt(); //EXECUTE
-            endTime = System.currentTimeMillis(); //TRACK TELEMETRY
-            if (trackInstanceCycles) {
-                //Be definsive. NOTE: This should probubly be encapsulated or
-                //initialization should be revisited to ensure these checks are
-                //not necessary.
-                if (theDescriptiveStatistics == null) {
-                    this.trackInstanceCycles = Boolean.FALSE;
-                    String tmpWarning = this.getLogPrefix() + "WorkerThread object Cycle Telemtry Tracking sub-system is misconfigured. I am taking action and halting Cycle Telemtry Tracking for THREAD #";
-                    if (LOG != null) {
-                        LOG.warn(tmpWarning);
-                    } else {
-                        System.out.println(tmpWarning); //Last ditch effort log.
-                    }
-                    continue; //skip to next loop cycle.
-                }
-                theDescriptiveStatistics.addValue(endTime - startTime); //Log telemetry in stats object.
+            elapsed = System.nanoTime() - startTime; //TRACK TELEMETRY
+            histogram = cycleHistogram;
+            if (histogram != null) {
+                histogram.record(elapsed);
+            }
+            stats = theDescriptiveStatistics;
+            if (stats != null) {
+                stats.addValue(TimeUnit.NANOSECONDS.toMillis(elapsed));
             }
         }
         doShutdown(); //call shutdown handler.
     }
 
+    /**
+     * Starts this worker as its own platform thread.
+     *
+     * @throws IllegalThreadStateException if this worker has already been
+     * started in either mode.
+     */
+    @Override
+    public synchronized void start() {
+        if (submitted) {
+            throw new IllegalThreadStateException(getLogPrefix() + " WorkerThread has already been started on an Executor.");
+        }
+        super.start();
+    }
+
+    /**
+     * Runs this worker's run loop on an {@link Executor} instead of starting
+     * it as its own thread. The executor must run each task on a thread of its
+     * own for as long as the task runs, as a virtual thread per task executor
+     * or an unbounded thread pool do. A bounded pool smaller than the number of
+     * workers will leave some workers queued and never running.
+     *
+     * @param executor the executor to run the loop on.
+     * @throws IllegalThreadStateException if this worker has already been
+     * started in either mode.
+     * @throws java.util.concurrent.RejectedExecutionException if the executor
+     * rejects the loop. The worker is left unstarted and may be started again.
+     */
+    public synchronized void start(final Executor executor) {
+        checkNotNull(executor, "Can not start a WorkerThread on a null Executor.");
+        if (submitted || getState() != State.NEW) {
+            throw new IllegalThreadStateException(getLogPrefix() + " WorkerThread has already been started.");
+        }
+        submitted = true;
+        try {
+            executor.execute(this);
+        } catch (RuntimeException ex) {
+            submitted = false;
+            throw ex;
+        }
+    }
+
+    /**
+     * Tests if this worker has been started and its run loop has not
+     * returned. Unlike {@link #isAlive()} this is correct for workers started
+     * with {@link #start(Executor)}, including while they wait in the
+     * executor's queue.
+     *
+     * @return true if the worker is running or waiting to run.
+     */
+    public boolean isWorkerAlive() {
+        return isAlive() || (submitted && !finished);
+    }
+
+    /**
+     * Interrupts the thread executing this worker's run loop. For a worker
+     * started with {@link #start(Executor)} that is the executor thread, not
+     * this Thread object.
+     */
+    public void interruptWorker() {
+        final Thread current = runner;
+        if (current != null && current != this) {
+            current.interrupt();
+        } else {
+            interrupt();
+        }
+    }
+
     /**
      * The actual run operation. this is called continuously by the
      * WorkerThread.run method until shouldRun is false.
@@ -366,13 +571,54 @@ public abstract class WorkerThread extends Thread {
         setShouldRun(false);
     }
 
+    /**
+     * Asks this worker to stop once it runs out of work, for a drain that
+     * should finish what is queued instead of abandoning it. Workers that take
+     * their work from a queue override this to keep going until the queue is
+     * empty. By default the worker stops after its current cycle, as with
+     * <code>setShouldRun(false)</code>.
+     */
+    public void stopWhenIdle() {
+        setShouldRun(false);
+    }
+
     /**
      * Sets the shouldRun control for the WorkerThread.
      *
      * @param shouldRun A boolean to set shouldRun to.
      */
     public void setShouldRun(final boolean shouldRun) {
-        this.shouldRun = shouldRun;
+        if (this.shouldRun.getAndSet(shouldRun) == shouldRun) {
+            return;
+        }
+        for (ShouldRunListener listener : shouldRunListeners) {
+            try {
+                listener.shouldRunChanged(this, shouldRun);
+            } catch (RuntimeException ex) {
+                LOG.error("{} RuntimeException caught from a shouldRun listener.", getLogPrefix(), ex);
+            }
+        }
+    }
+
+    /**
+     * Adds a callback for every change of the shouldRun control. The callback
+     * runs on the thread making the change.
+     *
+     * @param listener the callback.
+     */
+    public void addShouldRunListener(final ShouldRunListener listener) {
+        checkNotNull(listener, "Can not add a null shouldRun listener.");
+        shouldRunListeners.add(listener);
+    }
+
+    /**
+     * Removes a callback added with
+     * {@link #addShouldRunListener(ShouldRunListener)}.
+     *
+     * @param listener the callback.
+     */
+    public void removeShouldRunListener(final ShouldRunListener listener) {
+        shouldRunListeners.remove(listener);
     }
 
     /**
@@ -402,32 +648,75 @@ public abstract class WorkerThread extends Thread {
     }
 
     /**
-     * Setter for track instance cycles to avoid null pointer exceptions from run when under very high
-     * load. <b>WARNING</b> This method synchronizes on trackInstanceCycles.
+     * Turns cycle tracking on or off. Turning it on creates the cycle
+     * histogram if this thread does not have one yet. Turning it off stops
+     * recording but keeps the histogram so it can still be read.
      *
      * @param trackInstanceCycles the trackInstanceCycles to set.
      */
-    public void setTrackInstanceCycles(final boolean trackInstanceCycles) {
-        if (trackInstanceCycles) {
-            if (!this.trackInstanceCycles) {
-                this.setTheDescriptiveStatistics(new DescriptiveStatistics());
-            }
-        } else {
-            /**
-             * Because we are looking for speed, we use a DescriptiveStatistics
-             * with an empty addValue method so no logic needs to be executed
-             * during run loops to synchronize and avoid null pointers.
-             */
-            this.trackInstanceCycles = Boolean.FALSE;
-            this.setTheDescriptiveStatistics(new EMPTYDescriptiveStatistics());
+    public synchronized void setTrackInstanceCycles(final boolean trackInstanceCycles) {
+        if (trackInstanceCycles && this.cycleHistogram == null) {
+            this.cycleHistogram = new LatencyHistogram();
+        }
+        this.trackInstanceCycles = trackInstanceCycles;
+    }
+
+    /**
+     * Getter for the histogram of run cycle times in nanoseconds. Callers that
+     * report on an interval should use {@link LatencyHistogram#snapshotAndReset()}
+     * so each cycle is reported once.
+     *
+     * @return the cycle histogram or null if cycle tracking has never been
+     * turned on.
+     */
+    public LatencyHistogram getCycleHistogram() {
+        return cycleHistogram;
+    }
+
+    /**
+     * Exposes this worker in a registry with a <code>worker</code> label of
+     * its log name, or its thread name if it has none. Cycle tracking is
+     * turned on and the cycle histogram exposed as the
+     * <code>worker_cycle_seconds</code> summary, and the state as a
+     * <code>worker_state</code> gauge that is 1 for the current state and 0
+     * for the others. Everything is read when the registry is scraped. The
+     * series are removed once the run loop returns.
+     *
+     * @param registry the registry to register into.
+     */
+    public void registerMetrics(final MetricRegistry registry) {
+        checkNotNull(registry, "Can not register a WorkerThread with a null registry.");
+        final Labels labels = Labels.of("worker", logName == null ? getName() : logName);
+        setTrackInstanceCycles(true);
+        registry.timer("worker_cycle_seconds", "Run cycle time of each worker.", labels, cycleHistogram);
+        for (final WORKER_STATE state : WORKER_STATE.values()) {
+            registry.gauge("worker_state", "The state each worker is in.", labels.with("state", state.name()), new Gauge() {
+                @Override
+                public double getValue() {
+                    return theState == state ? 1 : 0;
+                }
+            });
         }
+        addTerminationListener(new Runnable() {
+            @Override
+            public void run() {
+                registry.remove("worker_cycle_seconds", labels);
+                for (WORKER_STATE state : WORKER_STATE.values()) {
+                    registry.remove("worker_state", labels.with("state", state.name()));
+                }
+            }
+        });
     }
 
     /**
      * Getter for the {@link DescriptiveStatistics} object used to track this {@link WorkerThread}.
      *
-     * @return the theStatisticalSummary or null if tracking is disabled.
+     * @return the theStatisticalSummary or null if tracking is disabled or no
+     * DescriptiveStatistics has been set.
+     * @deprecated use {@link #getCycleHistogram()}, which is fixed memory and
+     * has nanosecond resolution.
      */
+    @Deprecated
     public DescriptiveStatistics getTheDescriptiveStatistics() {
         if (!trackInstanceCycles) {
             return null;
@@ -436,18 +725,18 @@ public abstract class WorkerThread extends Thread {
     }
 
     /**
-     * Allow classes to set the {@link DescriptiveStatistics} this {@link WorkerThread} uses to hold telemetry.
+     * Allow classes to set a {@link DescriptiveStatistics} that receives each
+     * cycle time in milliseconds alongside the cycle histogram.
      *
      * @param theDescriptiveStatistics a DescriptiveStatistics object used to log telemetry.
+     * Passing null stops cycle tracking.
+     * @deprecated use {@link #getCycleHistogram()}, which is fixed memory and
+     * has nanosecond resolution.
      */
-    public void setTheDescriptiveStatistics(final DescriptiveStatistics theDescriptiveStatistics) {
-        if (theDescriptiveStatistics == null) {
-            this.trackInstanceCycles = Boolean.FALSE;
-            this.theDescriptiveStatistics = null;
-            return;
-        }
+    @Deprecated
+    public synchronized void setTheDescriptiveStatistics(final DescriptiveStatistics theDescriptiveStatistics) {
         this.theDescriptiveStatistics = theDescriptiveStatistics;
-        trackInstanceCycles = Boolean.TRUE;
+        setTrackInstanceCycles(theDescriptiveStatistics != null);
     }
 
     /**
@@ -489,25 +778,4 @@ public abstract class WorkerThread extends Thread {
         this.logName = logName;
     }
 
-    /**
-     * Empty class for pass through telemetry. This is just a DescriptiveStatistics object that drops all added data on the floor.
-     */
-    private static final class EMPTYDescriptiveStatistics extends DescriptiveStatistics {
-
-        /**
-         * Version UID required. NEVER USE!
-         */
-        static final long serialVersionUID = 42L;
-
-        /**
-         * Creates a new EMPTY_DescriptiveStatistics.
-         */
-        EMPTYDescriptiveStatistics() {
-        }
-
-        @Override
-        public void addValue(final double v) {
-        }
-    }
-
 }
@@ -66,7 +66,7 @@ public abstract class WorkerThreadStateWatcher extends TimeoutNotificationThread
             } catch (InterruptedException ex) {
                 LOG.error("InterruptedException caught while sleeping.", ex);
             }
-            if (!theWorkerThread.isAlive()) {
+            if (!theWorkerThread.isWorkerAlive()) {
                 this.setShouldRun(false);
                 break;
             }
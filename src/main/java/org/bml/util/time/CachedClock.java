@@ -0,0 +1,107 @@
+package org.bml.util.time;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ *
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A monotonic clock that is read from a volatile field instead of the OS. A
+ * single daemon thread refreshes the field from {@link System#nanoTime()}
+ * every {@link #RESOLUTION_MILLIS} milliseconds, so a read costs the same as
+ * any other volatile load no matter how many threads are reading.
+ * <p>
+ * Use this for telemetry that buckets by the second or coarser, where
+ * {@link #RESOLUTION_MILLIS} of error does not matter and the clock is read on
+ * every event.
+ * Use {@link System#nanoTime()} for anything that times short intervals.</p>
+ *
+ * @author Brian M. Lima
+ */
+public final class CachedClock {
+
+    /**
+     * How often the cached time is refreshed. Ten milliseconds is two orders
+     * of magnitude finer than the second buckets this clock serves while
+     * waking the updater only a hundred times a second.
+     */
+    public static final long RESOLUTION_MILLIS = 10L;
+
+    /**
+     * The last reading of {@link System#nanoTime()}.
+     */
+    private static volatile long nanoTime = System.nanoTime();
+
+    /**
+     * A {@link Ticker} view of the cached clock.
+     */
+    private static final Ticker TICKER = new Ticker() {
+        @Override
+        public long read() {
+            return nanoTime;
+        }
+    };
+
+    static {
+        final Thread updater = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long resolution = TimeUnit.MILLISECONDS.toNanos(RESOLUTION_MILLIS);
+                while (true) {
+                    LockSupport.parkNanos(resolution);
+                    nanoTime = System.nanoTime();
+                }
+            }
+        }, CachedClock.class.getSimpleName());
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    /**
+     * Utility class. Do not instantiate.
+     */
+    private CachedClock() {
+    }
+
+    /**
+     * The cached value of {@link System#nanoTime()}. Like
+     * {@link System#nanoTime()} this is only meaningful as a difference
+     * between two readings.
+     *
+     * @return the cached monotonic time in nanoseconds.
+     */
+    public static long nanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * A {@link Ticker} that reads the cached clock, for classes that take a
+     * ticker so tests can substitute their own time source.
+     *
+     * @return the cached clock as a ticker.
+     */
+    public static Ticker ticker() {
+        return TICKER;
+    }
+}
@@ -0,0 +1,82 @@
+package org.bml.csv;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures construction of a {@link CSVUtil.BCSV} from already parsed rows,
+ * which covers column building and cell type detection.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVUtilBenchmark {
+
+    /**
+     * The number of data rows, not counting the header.
+     */
+    @Param({"100", "10000"})
+    public int rows;
+
+    private List<String[]> entries;
+
+    @Setup
+    public void setup() {
+        entries = new ArrayList<String[]>(rows + 1);
+        entries.add(new String[]{"id", "email", "zip", "amount", "signup", "note"});
+        for (int c = 0; c < rows; c++) {
+            entries.add(new String[]{
+                Integer.toString(c),
+                "user" + c + "@example.com",
+                String.format("%05d", c % 99999),
+                (c % 100) + "." + (c % 7),
+                "2014-03-" + String.format("%02d", c % 28 + 1),
+                c % 10 == 0 ? "" : "note " + c
+            });
+        }
+    }
+
+    @Benchmark
+    public CSVUtil.BCSV construct() {
+        return new CSVUtil.BCSV(entries, true);
+    }
+}
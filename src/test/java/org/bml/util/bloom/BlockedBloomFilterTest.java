@@ -0,0 +1,84 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import junit.framework.TestCase;
+
+/**
+ * A Test for the BlockedBloomFilter.class.
+ *
+ * @author Brian M. Lima
+ */
+public class BlockedBloomFilterTest extends TestCase {
+
+    private static final int ELEMENTS = 100000;
+    private static final int PROBES = 400000;
+
+    public BlockedBloomFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Every added element must be found.
+     */
+    public void testNoFalseNegatives() {
+        System.out.println("noFalseNegatives");
+        BlockedBloomFilter<String> instance = BloomFilter.createBlocked(0.01, ELEMENTS);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        assertEquals(ELEMENTS, instance.count());
+        for (int c = 0; c < ELEMENTS; c++) {
+            assertTrue(instance.contains("element-" + c));
+        }
+    }
+
+    /**
+     * Measures the false positive rate of a full filter and checks it against
+     * the Poisson block model the filter reports, at several target rates.
+     * The tolerance is five binomial standard errors of the measurement plus
+     * 10% for the model itself.
+     */
+    public void testFalsePositiveRateMatchesModel() {
+        System.out.println("falsePositiveRateMatchesModel");
+        for (double fpp : new double[]{0.1, 0.01, 0.001}) {
+            BlockedBloomFilter<String> instance = BloomFilter.createBlocked(fpp, ELEMENTS);
+            for (int c = 0; c < ELEMENTS; c++) {
+                instance.add("element-" + c);
+            }
+            int falsePositives = 0;
+            for (int c = 0; c < PROBES; c++) {
+                if (instance.contains("missing-" + c)) {
+                    falsePositives++;
+                }
+            }
+            double rate = falsePositives / (double) PROBES;
+            double model = instance.getFalsePositiveProbability();
+            double tolerance = 5 * Math.sqrt(model * (1 - model) / PROBES) + model * 0.1;
+            System.out.println("Target " + fpp + " false positive rate " + rate + " model " + model);
+            assertEquals("False positive rate for a target of " + fpp, model, rate, tolerance);
+            assertTrue("The blocked rate should stay within 2x of the target " + fpp, model < fpp * 2);
+        }
+    }
+}
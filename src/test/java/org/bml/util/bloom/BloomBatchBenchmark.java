@@ -0,0 +1,127 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares scalar and batch membership checks. The filters are sized well past
+ * the last level cache so the probes are dominated by memory latency, which is
+ * what the batch path is built to hide.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomBatchBenchmark {
+
+    /**
+     * The number of keys checked per invocation.
+     */
+    private static final int KEYS = 4096;
+
+    /**
+     * The filter implementation under test.
+     */
+    @Param({"concurrent", "blocked"})
+    public String filter;
+
+    /**
+     * The number of elements the filter is sized for.
+     */
+    @Param({"10000000"})
+    public int elements;
+
+    private AbstractBloom<String> bloom;
+    private byte[][] keys;
+    private long[] hashes;
+    private boolean[] out;
+
+    @Setup
+    public void setup() {
+        bloom = "blocked".equals(filter)
+                ? new BlockedBloomFilter<String>(0.01, elements)
+                : new ConcurrentBloomFilter<String>(0.01, elements);
+        for (int c = 0; c < elements; c++) {
+            bloom.addLong(c);
+        }
+        keys = new byte[KEYS][];
+        hashes = new long[KEYS];
+        for (int c = 0; c < KEYS; c++) {
+            keys[c] = ("key-" + (c * 7919L)).getBytes(StandardCharsets.UTF_8);
+            if (c % 2 == 0) {
+                bloom.add(keys[c]);
+            }
+            hashes[c] = bloom.getHashStrategy().hash(keys[c], 0, keys[c].length);
+        }
+        out = new boolean[KEYS];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public void scalarContains(final Blackhole blackhole) {
+        for (int c = 0; c < KEYS; c++) {
+            blackhole.consume(bloom.contains(keys[c]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public boolean[] batchContains() {
+        bloom.containsAll(keys, out);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public void scalarContainsHash(final Blackhole blackhole) {
+        for (int c = 0; c < KEYS; c++) {
+            blackhole.consume(bloom.containsHash(hashes[c]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public boolean[] batchContainsHash() {
+        bloom.containsAll(hashes, out);
+        return out;
+    }
+}
@@ -0,0 +1,99 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BloomFilter#add(Object)} and {@link BloomFilter#contains(Object)}
+ * on the legacy MD5 path and the Murmur3 path.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFilterBenchmark {
+
+    /**
+     * The number of distinct keys cycled through.
+     */
+    private static final int KEYS = 1 << 16;
+
+    /**
+     * The hash path under test.
+     */
+    @Param({"md5", "murmur3"})
+    public String hash;
+
+    private BloomFilter<String> filter;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        filter = "murmur3".equals(hash)
+                ? new BloomFilter<String>(0.01, KEYS, BloomHashStrategies.MURMUR3_128)
+                : new BloomFilter<String>(0.01, KEYS);
+        keys = new String[KEYS];
+        for (int c = 0; c < KEYS; c++) {
+            keys[c] = "user-agent-key-" + c;
+            if (c % 2 == 0) {
+                filter.add(keys[c]);
+            }
+        }
+    }
+
+    /**
+     * The next key, cycling through the key set.
+     *
+     * @return a key, half of which are in the filter.
+     */
+    private String nextKey() {
+        return keys[next++ & (KEYS - 1)];
+    }
+
+    @Benchmark
+    public void add() {
+        filter.add(nextKey());
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return filter.contains(nextKey());
+    }
+}
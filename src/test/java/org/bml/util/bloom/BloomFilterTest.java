@@ -0,0 +1,247 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+/**
+ * A Test for the BloomFilter.class.
+ *
+ * @author Brian M. Lima
+ */
+public class BloomFilterTest extends TestCase {
+
+    private static final int ELEMENTS = 10000;
+    private static final double FPP = 0.01;
+
+    public BloomFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test of the legacy MD5 hash path. Every added element must be found.
+     */
+    public void testLegacyNoFalseNegatives() {
+        System.out.println("legacyNoFalseNegatives");
+        BloomFilter<String> instance = new BloomFilter<String>(FPP, ELEMENTS);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        for (int c = 0; c < ELEMENTS; c++) {
+            assertTrue(instance.contains("element-" + c));
+        }
+        assertEquals(ELEMENTS, instance.count());
+    }
+
+    /**
+     * Test of the Murmur3 hash path. Elements added through any overload must
+     * be found through every equivalent overload.
+     */
+    public void testMurmur3Overloads() {
+        System.out.println("murmur3Overloads");
+        BloomFilter<Object> instance = new BloomFilter<Object>(FPP, ELEMENTS, BloomHashStrategies.MURMUR3_128);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.addLong(c);
+            instance.add(new StringBuilder("element-").append(c));
+        }
+        for (int c = 0; c < ELEMENTS; c++) {
+            assertTrue(instance.containsLong(c));
+            assertTrue(instance.contains(Long.valueOf(c)));
+            assertTrue(instance.contains(Integer.valueOf(c)));
+            assertTrue(instance.contains((Object) ("element-" + c)));
+            assertTrue(instance.contains(new StringBuilder("element-").append(c)));
+        }
+    }
+
+    /**
+     * A char added to a filter of Characters is boxed as the element, not
+     * widened to a long, so it is found again as a Character in both the
+     * legacy and the Murmur3 hash paths.
+     */
+    public void testCharacterElementsAreNotWidened() {
+        System.out.println("characterElementsAreNotWidened");
+        List<BloomFilter<Character>> filters = new ArrayList<BloomFilter<Character>>();
+        filters.add(new BloomFilter<Character>(FPP, ELEMENTS));
+        filters.add(new BloomFilter<Character>(FPP, ELEMENTS, BloomHashStrategies.MURMUR3_128));
+        for (BloomFilter<Character> instance : filters) {
+            for (char c = 'a'; c <= 'z'; c++) {
+                instance.add(c);
+            }
+            for (char c = 'a'; c <= 'z'; c++) {
+                assertTrue(instance.contains(c));
+                assertTrue(instance.contains(Character.valueOf(c)));
+            }
+        }
+    }
+
+    /**
+     * Test the observed false positive rate of the Murmur3 hash path stays
+     * close to the configured rate.
+     */
+    public void testMurmur3FalsePositiveRate() {
+        System.out.println("murmur3FalsePositiveRate");
+        BloomFilter<String> instance = new BloomFilter<String>(FPP, ELEMENTS, BloomHashStrategies.MURMUR3_128);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        int falsePositives = 0;
+        for (int c = 0; c < ELEMENTS; c++) {
+            if (instance.contains("missing-" + c)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) ELEMENTS;
+        System.out.println("False positive rate " + rate + " expected " + instance.expectedFalsePositiveProbability());
+        assertTrue("False positive rate too high " + rate, rate < FPP * 2);
+    }
+
+    /**
+     * Test the scalable filter grows past its initial capacity without
+     * false negatives and holds its false positive bound.
+     */
+    public void testScalableGrowth() {
+        System.out.println("scalableGrowth");
+        ScalableBloomFilter<String> instance = new ScalableBloomFilter<String>(FPP, ELEMENTS / 10);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        assertTrue(instance.getNumberOfFilters() > 1);
+        for (int c = 0; c < ELEMENTS; c++) {
+            assertTrue(instance.contains("element-" + c));
+        }
+        int falsePositives = 0;
+        for (int c = 0; c < ELEMENTS; c++) {
+            if (instance.contains("missing-" + c)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) ELEMENTS;
+        System.out.println("False positive rate " + rate + " reported " + instance.getFalsePositiveProbability());
+        assertTrue(instance.getFalsePositiveProbability() < FPP);
+        assertTrue("False positive rate too high " + rate, rate < FPP * 2);
+    }
+
+    /**
+     * Test the rotating filter forgets elements once they age out of the
+     * window.
+     */
+    public void testRotatingWindow() {
+        System.out.println("rotatingWindow");
+        final AtomicLong now = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        RotatingBloomFilter<String> instance = new RotatingBloomFilter<String>(3, TimeUnit.SECONDS, 3, FPP, ELEMENTS,
+                BloomHashStrategies.MURMUR3_128, ticker);
+        instance.add("old");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        instance.add("new");
+        assertTrue(instance.contains("old"));
+        assertTrue(instance.contains("new"));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertFalse(instance.contains("old"));
+        assertTrue(instance.contains("new"));
+        now.addAndGet(TimeUnit.DAYS.toNanos(1));
+        assertEquals(0, instance.count());
+        assertFalse(instance.contains("new"));
+    }
+
+    /**
+     * Test the counting filter forgets removed elements and keeps the rest.
+     */
+    public void testCountingRemove() {
+        System.out.println("countingRemove");
+        CountingBloomFilter<String> instance = new CountingBloomFilter<String>(FPP, ELEMENTS);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        for (int c = 0; c < ELEMENTS; c += 2) {
+            assertTrue(instance.remove("element-" + c));
+        }
+        assertEquals(ELEMENTS / 2, instance.count());
+        int stillPresent = 0;
+        for (int c = 0; c < ELEMENTS; c++) {
+            if (c % 2 == 1) {
+                assertTrue(instance.contains("element-" + c));
+            } else if (instance.contains("element-" + c)) {
+                stillPresent++;
+            }
+        }
+        assertTrue("Too many removed elements still present " + stillPresent, stillPresent < ELEMENTS * FPP);
+    }
+
+    /**
+     * Test the count-min sketch never undercounts and stays within its error
+     * bound on a skewed stream.
+     */
+    public void testCountMinSketch() {
+        System.out.println("countMinSketch");
+        CountMinSketch<String> instance = new CountMinSketch<String>(0.001, 0.99);
+        for (int c = 1; c <= 1000; c++) {
+            instance.add("element-" + c, ELEMENTS / c);
+        }
+        long bound = (long) (instance.getRelativeError() * instance.getTotalCount());
+        for (int c = 1; c <= 1000; c++) {
+            long estimate = instance.estimateCount("element-" + c);
+            assertTrue(estimate >= ELEMENTS / c);
+            assertTrue(estimate <= ELEMENTS / c + bound);
+        }
+    }
+
+    /**
+     * Test the batch methods agree with the scalar methods for every filter
+     * that overrides the batch probe.
+     */
+    public void testBatchMatchesScalar() {
+        System.out.println("batchMatchesScalar");
+        java.util.List<AbstractBloom<String>> filters = new java.util.ArrayList<AbstractBloom<String>>();
+        filters.add(new ConcurrentBloomFilter<String>(FPP, ELEMENTS));
+        filters.add(new BlockedBloomFilter<String>(FPP, ELEMENTS));
+        filters.add(new CountingBloomFilter<String>(FPP, ELEMENTS));
+        byte[][] added = new byte[ELEMENTS][];
+        byte[][] probe = new byte[ELEMENTS * 2][];
+        for (int c = 0; c < ELEMENTS; c++) {
+            added[c] = ("element-" + c).getBytes();
+            probe[c * 2] = added[c];
+            probe[c * 2 + 1] = ("missing-" + c).getBytes();
+        }
+        for (AbstractBloom<String> instance : filters) {
+            instance.addAll(added);
+            assertEquals(ELEMENTS, instance.count());
+            boolean[] out = new boolean[probe.length];
+            instance.containsAll(probe, out);
+            for (int c = 0; c < probe.length; c++) {
+                assertEquals(instance.contains(probe[c]), out[c]);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * A Test for the ConcurrentBloomFilter.class.
+ *
+ * @author Brian M. Lima
+ */
+public class ConcurrentBloomFilterTest extends TestCase {
+
+    private static final int THREADS = 8;
+    private static final int ELEMENTS_PER_THREAD = 50000;
+    private static final double FPP = 0.01;
+
+    public ConcurrentBloomFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Threads adding disjoint sets at the same time lose no bits and no
+     * counts. Every element added by any thread is found afterwards and the
+     * count is the total number of adds.
+     */
+    public void testConcurrentAdds() throws Exception {
+        System.out.println("concurrentAdds");
+        final ConcurrentBloomFilter<String> instance = new ConcurrentBloomFilter<String>(FPP, THREADS * ELEMENTS_PER_THREAD,
+                BloomHashStrategies.MURMUR3_128);
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    barrier.await();
+                    for (int c = 0; c < ELEMENTS_PER_THREAD; c++) {
+                        instance.add("thread-" + id + "-element-" + c);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(THREADS * ELEMENTS_PER_THREAD, instance.count());
+        for (int t = 0; t < THREADS; t++) {
+            for (int c = 0; c < ELEMENTS_PER_THREAD; c++) {
+                assertTrue(instance.contains("thread-" + t + "-element-" + c));
+            }
+        }
+        int falsePositives = 0;
+        for (int c = 0; c < ELEMENTS_PER_THREAD; c++) {
+            if (instance.contains("missing-" + c)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) ELEMENTS_PER_THREAD;
+        System.out.println("False positive rate " + rate + " expected " + instance.expectedFalsePositiveProbability());
+        assertTrue("False positive rate too high " + rate, rate < FPP * 2);
+    }
+}
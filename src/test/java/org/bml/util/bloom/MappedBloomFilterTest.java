@@ -0,0 +1,199 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import junit.framework.TestCase;
+
+/**
+ * A Test for the MappedBloomFilter.class.
+ *
+ * @author Brian M. Lima
+ */
+public class MappedBloomFilterTest extends TestCase {
+
+    private static final int ELEMENTS = 10000;
+    private static final double FPP = 0.01;
+
+    private File file;
+
+    public MappedBloomFilterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("mapped-bloom", ".bf");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Elements added before a close are found after the file is opened again,
+     * with the header values intact.
+     */
+    public void testReopen() throws IOException {
+        System.out.println("reopen");
+        MappedBloomFilter<String> instance = MappedBloomFilter.create(file, FPP, ELEMENTS);
+        for (int c = 0; c < ELEMENTS; c++) {
+            instance.add("element-" + c);
+        }
+        long bits = instance.bitSize();
+        int k = instance.getK();
+        instance.close();
+
+        MappedBloomFilter<String> reopened = MappedBloomFilter.open(file, false);
+        assertEquals(bits, reopened.bitSize());
+        assertEquals(k, reopened.getK());
+        assertEquals(ELEMENTS, reopened.count());
+        for (int c = 0; c < ELEMENTS; c++) {
+            assertTrue(reopened.contains("element-" + c));
+        }
+        reopened.add("late");
+        reopened.close();
+
+        MappedBloomFilter<String> readOnly = MappedBloomFilter.open(file, true);
+        assertTrue(readOnly.contains("late"));
+        assertEquals(ELEMENTS + 1, readOnly.count());
+    }
+
+    /**
+     * A filter opened read only answers queries and rejects changes.
+     */
+    public void testReadOnly() throws IOException {
+        System.out.println("readOnly");
+        MappedBloomFilter<String> instance = MappedBloomFilter.create(file, FPP, ELEMENTS);
+        instance.add("element");
+        instance.close();
+
+        MappedBloomFilter<String> readOnly = MappedBloomFilter.open(file, true);
+        assertTrue(readOnly.isReadOnly());
+        assertTrue(readOnly.contains("element"));
+        try {
+            readOnly.add("other");
+            fail("A read only filter must reject add.");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            readOnly.clear();
+            fail("A read only filter must reject clear.");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(1, readOnly.count());
+    }
+
+    /**
+     * Writes an int into the header of the test file.
+     */
+    private void putHeaderInt(long offset, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(value);
+        }
+    }
+
+    /**
+     * Asserts that opening the test file fails.
+     */
+    private void assertRejected(String message) {
+        try {
+            MappedBloomFilter.open(file, true);
+            fail(message);
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * A corrupt magic number, version, hash strategy id or k is rejected on
+     * open. The offsets are those of the header layout documented on the
+     * class.
+     */
+    public void testBadHeader() throws IOException {
+        System.out.println("badHeader");
+        MappedBloomFilter.create(file, FPP, ELEMENTS).close();
+        MappedBloomFilter.open(file, true);
+
+        putHeaderInt(0, 0x12345678);
+        assertRejected("A bad magic number must be rejected.");
+
+        MappedBloomFilter.create(file, FPP, ELEMENTS).close();
+        putHeaderInt(4, 99);
+        assertRejected("An unknown version must be rejected.");
+
+        MappedBloomFilter.create(file, FPP, ELEMENTS).close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeByte(0x7f);
+        }
+        assertRejected("An unknown hash strategy id must be rejected.");
+
+        MappedBloomFilter.create(file, FPP, ELEMENTS).close();
+        putHeaderInt(12, 0);
+        assertRejected("A k of 0 must be rejected.");
+        putHeaderInt(12, -3);
+        assertRejected("A negative k must be rejected.");
+        putHeaderInt(12, Integer.MAX_VALUE);
+        assertRejected("An impossible k must be rejected.");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(MappedBloomFilter.HEADER_SIZE - 1);
+        }
+        assertRejected("A short file must be rejected.");
+    }
+
+    /**
+     * A filter of more than 2^31 bits spans more than one 1GB mapped segment.
+     * The file is sparse so only the pages touched by the adds use disk.
+     */
+    public void testLargerThanOneSegment() throws IOException {
+        System.out.println("largerThanOneSegment");
+        MappedBloomFilter<String> instance = MappedBloomFilter.create(file, 1e-20, 100000000);
+        assertTrue(instance.bitSize() > (1L << 33));
+        assertEquals(Integer.MAX_VALUE, instance.size());
+        for (int c = 0; c < 1000; c++) {
+            instance.add("element-" + c);
+        }
+        instance.close();
+
+        MappedBloomFilter<String> readOnly = MappedBloomFilter.open(file, true);
+        assertEquals(instance.bitSize(), readOnly.bitSize());
+        for (int c = 0; c < 1000; c++) {
+            assertTrue(readOnly.contains("element-" + c));
+        }
+        int falsePositives = 0;
+        for (int c = 0; c < 1000; c++) {
+            if (readOnly.contains("missing-" + c)) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0, falsePositives);
+    }
+}
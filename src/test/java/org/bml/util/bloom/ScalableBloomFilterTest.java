@@ -0,0 +1,83 @@
+package org.bml.util.bloom;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import junit.framework.TestCase;
+
+/**
+ * A Test for the ScalableBloomFilter.class.
+ *
+ * @author Brian M. Lima
+ */
+public class ScalableBloomFilterTest extends TestCase {
+
+    private static final double FPP = 0.01;
+    private static final int INITIAL_ELEMENTS = 10000;
+
+    public ScalableBloomFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test the fullness check is sampled more sparsely as filters get larger,
+     * but never more sparsely than one add in 64.
+     */
+    public void testGrowthCheckMask() {
+        System.out.println("growthCheckMask");
+        assertEquals(0, ScalableBloomFilter.growthCheckMask(1));
+        assertEquals(0, ScalableBloomFilter.growthCheckMask(100));
+        assertEquals(7, ScalableBloomFilter.growthCheckMask(1000));
+        assertEquals(63, ScalableBloomFilter.growthCheckMask(10000));
+        assertEquals(63, ScalableBloomFilter.growthCheckMask(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test the chain still grows soon after a filter is full even though
+     * only a sample of adds checks the count.
+     */
+    public void testGrowsPastFirstFilter() {
+        System.out.println("growsPastFirstFilter");
+        ScalableBloomFilter<String> instance = new ScalableBloomFilter<String>(FPP, INITIAL_ELEMENTS);
+        int firstFull = -1;
+        for (int i = 0; i < INITIAL_ELEMENTS * 2; i++) {
+            instance.add("element" + i);
+            if (firstFull < 0 && instance.getNumberOfFilters() > 1) {
+                firstFull = i + 1;
+            }
+        }
+        assertTrue("Chain never grew", firstFull > 0);
+        assertTrue("Grew at " + firstFull, firstFull >= INITIAL_ELEMENTS && firstFull <= INITIAL_ELEMENTS * 1.02);
+        for (int i = 0; i < INITIAL_ELEMENTS * 2; i++) {
+            assertTrue(instance.contains("element" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < INITIAL_ELEMENTS * 2; i++) {
+            if (instance.contains("absent" + i)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) (INITIAL_ELEMENTS * 2);
+        assertTrue("False positive rate too high " + rate, rate < FPP * 2);
+    }
+}
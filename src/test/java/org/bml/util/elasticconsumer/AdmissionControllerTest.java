@@ -0,0 +1,230 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.bml.util.exception.OverloadedException;
+import org.bml.util.exception.RejectionReason;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.threads.BlockingQueueWorkerThread;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class AdmissionControllerTest extends TestCase {
+
+  private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+  public AdmissionControllerTest(String testName) {
+    super(testName);
+  }
+
+  private static final class FakeTicker extends Ticker {
+
+    long now = 0;
+
+    @Override
+    public long read() {
+      return now;
+    }
+  }
+
+  /**
+   * A standing queue brings the limit down and sheds low priorities first, a
+   * drained queue lets it climb back.
+   */
+  public void testAimdOnStandingQueue() {
+    final FakeTicker ticker = new FakeTicker();
+    final AdmissionController controller = new AdmissionController(1000, ticker).setIncrease(100);
+    assertEquals(1000, controller.getLimit());
+    assertTrue(controller.admit(Priority.LOW, 400));
+    assertFalse(controller.admit(Priority.LOW, 500));
+    assertTrue(controller.admit(Priority.NORMAL, 500));
+
+    //Depth never drops under 500 while only 100 objects are dequeued an interval.
+    int depth = 500;
+    for (int interval = 0; interval < 3; interval++) {
+      for (int c = 0; c < 100; c++) {
+        controller.onEnqueued();
+      }
+      ticker.now += INTERVAL;
+      controller.admit(Priority.CRITICAL, depth);
+    }
+    assertTrue(controller.getDelayNanos() > controller.getTargetDelayNanos());
+    assertEquals((int) (((int) (((int) (1000 * 0.75)) * 0.75)) * 0.75), controller.getLimit());
+    assertFalse(controller.admit(Priority.LOW, depth));
+    assertFalse(controller.admit(Priority.NORMAL, depth));
+    assertFalse(controller.admit(Priority.HIGH, depth));
+    assertTrue(controller.admit(Priority.CRITICAL, depth));
+    assertEquals(2, controller.getShedCount(Priority.LOW));
+    assertEquals(1, controller.getShedCount(Priority.NORMAL));
+    assertEquals(0, controller.getShedCount(Priority.CRITICAL));
+
+    //The queue drains.
+    final int low = controller.getLimit();
+    controller.admit(Priority.HIGH, 0);
+    ticker.now += INTERVAL;
+    controller.admit(Priority.HIGH, 0);
+    assertEquals(0, controller.getDelayNanos());
+    assertEquals(low + 100, controller.getLimit());
+    for (int interval = 0; interval < 20; interval++) {
+      ticker.now += INTERVAL;
+      controller.admit(Priority.HIGH, 0);
+    }
+    assertEquals(1000, controller.getLimit());
+  }
+
+  /**
+   * A burst that drains within the interval does not count as a standing
+   * queue.
+   */
+  public void testBurstIsNotStanding() {
+    final FakeTicker ticker = new FakeTicker();
+    final AdmissionController controller = new AdmissionController(1000, ticker);
+    controller.admit(Priority.NORMAL, 0);
+    for (int c = 0; c < 700; c++) {
+      controller.onEnqueued();
+    }
+    controller.admit(Priority.NORMAL, 700);
+    controller.admit(Priority.NORMAL, 0);
+    ticker.now += INTERVAL;
+    controller.admit(Priority.NORMAL, 0);
+    assertEquals(0, controller.getDelayNanos());
+    assertEquals(1000, controller.getLimit());
+  }
+
+  private static final class BlockedWorker extends BlockingQueueWorkerThread<Integer> {
+
+    private final CountDownLatch release;
+
+    BlockedWorker(BlockingQueue<Integer> queue, CountDownLatch release) {
+      super(queue, 5, 1);
+      this.release = release;
+      setDaemon(true);
+    }
+
+    @Override
+    protected void doIt(Integer item) {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Rejections carry the reason for the rejection.
+   */
+  public void testOfferReasons() throws Exception {
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    ElasticConsumer<Integer, BlockedWorker> consumer = new ElasticConsumer<Integer, BlockedWorker>(
+            new BasePooledObjectFactory<BlockedWorker>() {
+      @Override
+      public BlockedWorker create() {
+        return new BlockedWorker(queue, release);
+      }
+
+      @Override
+      public PooledObject<BlockedWorker> wrap(BlockedWorker worker) {
+        return new DefaultPooledObject<BlockedWorker>(worker);
+      }
+    }, queue, 1, false);
+    consumer.setDaemon(true);
+    try {
+      consumer.tryOffer(0, Priority.HIGH);
+      fail("Offer to an unstarted consumer");
+    } catch (UnavailableException ex) {
+      assertEquals(RejectionReason.NOT_STARTED, ex.getReason());
+    }
+    consumer.start();
+
+    //The worker blocks on the first object, the next two fill the queue.
+    consumer.tryOffer(0, Priority.HIGH);
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    consumer.tryOffer(1, Priority.HIGH);
+    consumer.tryOffer(2, Priority.HIGH);
+    try {
+      consumer.tryOffer(3, Priority.CRITICAL);
+      fail("Offer to a full queue");
+    } catch (OverloadedException ex) {
+      assertEquals(RejectionReason.QUEUE_FULL, ex.getReason());
+    }
+    try {
+      consumer.tryOffer(3, Priority.HIGH, 10, TimeUnit.MILLISECONDS);
+      fail("Timed offer to a full queue");
+    } catch (OverloadedException ex) {
+      assertEquals(RejectionReason.QUEUE_FULL, ex.getReason());
+    }
+
+    //Under a limit of 4 low priority objects are shed at a depth of 2.
+    consumer.setAdmissionController(new AdmissionController(4));
+    try {
+      consumer.offerAsync(3, Priority.LOW, 10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+      fail("Low priority object admitted");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof OverloadedException);
+      assertEquals(RejectionReason.SHED, ((OverloadedException) ex.getCause()).getReason());
+    }
+    final CompletableFuture<Void> pending = consumer.offerAsync(3, Priority.HIGH, 10, TimeUnit.SECONDS);
+    assertFalse(pending.isDone());
+    final AtomicReference<String> completedOn = new AtomicReference<String>();
+    final CompletableFuture<Void> observed = pending.thenRun(new Runnable() {
+      @Override
+      public void run() {
+        completedOn.set(Thread.currentThread().getName());
+      }
+    });
+    release.countDown();
+    pending.get(10, TimeUnit.SECONDS);
+    observed.get(10, TimeUnit.SECONDS);
+    //Waiting offers run on the consumer's own pool, not the common pool.
+    assertEquals(consumer.getName() + " async offer", completedOn.get());
+    assertEquals(1, consumer.getAdmissionController().getShedCount(Priority.LOW));
+
+    consumer.doShutdown();
+    try {
+      consumer.tryOffer(5, Priority.CRITICAL);
+      fail("Offer to a shut down consumer");
+    } catch (UnavailableException ex) {
+      assertTrue(ex.getReason() == RejectionReason.SHUTTING_DOWN || ex.getReason() == RejectionReason.STOPPED);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.bml.util.threads.BlockingQueueWorkerThread;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ElasticConsumer#offer(Object, long, TimeUnit)} with workers
+ * that drain the queue as fast as they can, so the numbers reflect the hand
+ * off cost rather than the work done.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElasticConsumerBenchmark {
+
+    /**
+     * The number of draining workers.
+     */
+    private static final int WORKERS = 2;
+
+    /**
+     * The object offered. Workers discard it.
+     */
+    private static final Object PAYLOAD = new Object();
+
+    private ElasticConsumer<Object, DrainWorker> consumer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>(1 << 16);
+        consumer = new ElasticConsumer<Object, DrainWorker>(new DrainWorkerFactory(queue), queue, WORKERS, false);
+        consumer.setLogName(ElasticConsumerBenchmark.class.getSimpleName());
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        consumer.doShutdown();
+        consumer.interrupt();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean offer() throws InterruptedException {
+        return consumer.offer(PAYLOAD, 1, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean offerContended() throws InterruptedException {
+        return consumer.offer(PAYLOAD, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A worker that takes objects off the queue and drops them.
+     */
+    static final class DrainWorker extends BlockingQueueWorkerThread<Object> {
+
+        /**
+         * Creates a new DrainWorker.
+         *
+         * @param queue the queue to drain.
+         */
+        DrainWorker(final BlockingQueue<Object> queue) {
+            super(queue, 1, 1);
+            setDaemon(true);
+        }
+
+        @Override
+        protected void doIt(final Object obj) {
+        }
+    }
+
+    /**
+     * Makes {@link DrainWorker} instances for the consumer.
+     */
+    static final class DrainWorkerFactory extends BasePooledObjectFactory<DrainWorker> {
+
+        /**
+         * The queue handed to each worker.
+         */
+        private final BlockingQueue<Object> queue;
+
+        /**
+         * Creates a new DrainWorkerFactory.
+         *
+         * @param queue the queue handed to each worker.
+         */
+        DrainWorkerFactory(final BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public DrainWorker create() {
+            return new DrainWorker(queue);
+        }
+
+        @Override
+        public PooledObject<DrainWorker> wrap(final DrainWorker worker) {
+            return new DefaultPooledObject<DrainWorker>(worker);
+        }
+    }
+}
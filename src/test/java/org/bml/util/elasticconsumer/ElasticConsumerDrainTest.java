@@ -0,0 +1,295 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import com.google.common.base.Functions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.bml.util.exception.RejectionReason;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.threads.BlockingQueueWorkerThread;
+import org.bml.util.threads.SpillSink;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class ElasticConsumerDrainTest extends TestCase {
+
+  public ElasticConsumerDrainTest(String testName) {
+    super(testName);
+  }
+
+  private static final class GatedWorker extends BlockingQueueWorkerThread<Integer> {
+
+    private final CountDownLatch gate;
+    private final AtomicInteger processed;
+
+    GatedWorker(BlockingQueue<Integer> queue, CountDownLatch gate, AtomicInteger processed) {
+      super(queue, 5, 1);
+      this.gate = gate;
+      this.processed = processed;
+      setDaemon(true);
+    }
+
+    @Override
+    protected void doIt(Integer item) {
+      try {
+        gate.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      processed.incrementAndGet();
+    }
+  }
+
+  private static final class ListSpillSink implements SpillSink<Integer> {
+
+    final List<Integer> spilled = new ArrayList<Integer>();
+
+    @Override
+    public void spill(Collection<? extends Integer> objects) {
+      spilled.addAll(objects);
+    }
+  }
+
+  private static ElasticConsumer<Integer, GatedWorker> newConsumer(final BlockingQueue<Integer> queue, final CountDownLatch gate,
+          final AtomicInteger processed, final int workers) {
+    ElasticConsumer<Integer, GatedWorker> consumer = new ElasticConsumer<Integer, GatedWorker>(
+            new BasePooledObjectFactory<GatedWorker>() {
+      @Override
+      public GatedWorker create() {
+        return new GatedWorker(queue, gate, processed);
+      }
+
+      @Override
+      public PooledObject<GatedWorker> wrap(GatedWorker worker) {
+        return new DefaultPooledObject<GatedWorker>(worker);
+      }
+    }, queue, workers, false);
+    consumer.setDaemon(true);
+    return consumer;
+  }
+
+  /**
+   * A drain processes everything queued and returns once the workers stop.
+   */
+  public void testDrainFinishesQueue() throws Exception {
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger processed = new AtomicInteger();
+    final ElasticConsumer<Integer, GatedWorker> consumer = newConsumer(queue, gate, processed, 3);
+    consumer.start();
+    for (int c = 0; c < 500; c++) {
+      assertTrue(consumer.offer(c, 1, TimeUnit.SECONDS));
+    }
+    gate.countDown();
+    final ListSpillSink spill = new ListSpillSink();
+    final DrainProgress result = consumer.drain(10, TimeUnit.SECONDS, spill);
+    assertEquals(500, processed.get());
+    assertFalse(result.isTimedOut());
+    assertTrue(result.isFinished());
+    assertEquals(3, result.getWorkers());
+    assertEquals(3, result.getWorkersStopped());
+    assertEquals(0, result.getQueued());
+    assertEquals(0, result.getSpilled());
+    assertTrue(spill.spilled.isEmpty());
+    assertTrue(result.getElapsedNanos() < TimeUnit.SECONDS.toNanos(5));
+    try {
+      consumer.tryOffer(1, Priority.CRITICAL);
+      fail("Offer to a drained consumer");
+    } catch (UnavailableException ex) {
+      assertNotNull(ex.getReason());
+    }
+  }
+
+  /**
+   * A consumer built without an input queue drains to a finished progress
+   * instead of failing.
+   */
+  public void testDrainWithoutQueue() throws Exception {
+    final ElasticConsumer<Integer, GatedWorker> consumer = newConsumer(null, new CountDownLatch(0), new AtomicInteger(), 0);
+    final ListSpillSink spill = new ListSpillSink();
+    final DrainProgress result = consumer.drain(1, TimeUnit.SECONDS, spill);
+    assertTrue(result.isFinished());
+    assertFalse(result.isTimedOut());
+    assertEquals(0, result.getWorkers());
+    assertEquals(0, result.getQueued());
+    assertEquals(0, result.getSpilled());
+    assertTrue(spill.spilled.isEmpty());
+  }
+
+  /**
+   * Objects still queued at the deadline go to the spill sink.
+   */
+  public void testDeadlineSpills() throws Exception {
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger processed = new AtomicInteger();
+    final ElasticConsumer<Integer, GatedWorker> consumer = newConsumer(queue, gate, processed, 2);
+    consumer.start();
+    for (int c = 0; c < 20; c++) {
+      assertTrue(consumer.offer(c, 1, TimeUnit.SECONDS));
+    }
+    final ListSpillSink spill = new ListSpillSink();
+    final DrainProgress result = consumer.drain(200, TimeUnit.MILLISECONDS, spill);
+    assertTrue(result.isTimedOut());
+    assertEquals(2, result.getWorkers());
+    assertEquals(0, result.getWorkersStopped());
+    assertEquals(0, result.getQueued());
+    assertEquals(spill.spilled.size(), result.getSpilled());
+    //Each worker holds the object it is blocked on.
+    assertEquals(18, result.getSpilled());
+    assertEquals(Integer.valueOf(2), spill.spilled.get(0));
+    gate.countDown();
+    consumer.doShutdown();
+    assertEquals(2, processed.get());
+    assertSame(result, consumer.getDrainProgress());
+  }
+
+  /**
+   * Drains to a deadline with two workers blocked on their first object and
+   * checks everything else queued was spilled, whatever lane it was on.
+   *
+   * @param queue an empty queue.
+   */
+  private static void assertDeadlineSpillsEverythingQueued(final BlockingQueue<Integer> queue) throws Exception {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger processed = new AtomicInteger();
+    final ElasticConsumer<Integer, GatedWorker> consumer = newConsumer(queue, gate, processed, 2);
+    consumer.start();
+    for (int c = 0; c < 20; c++) {
+      assertTrue(consumer.offer(c, 1, TimeUnit.SECONDS));
+    }
+    final ListSpillSink spill = new ListSpillSink();
+    final DrainProgress result = consumer.drain(200, TimeUnit.MILLISECONDS, spill);
+    assertTrue(result.isTimedOut());
+    assertEquals(0, result.getQueued());
+    assertEquals(0, queue.size());
+    assertEquals(spill.spilled.size(), result.getSpilled());
+    //Each worker holds the object it is blocked on.
+    assertEquals(18, result.getSpilled());
+    assertEquals(18, new HashSet<Integer>(spill.spilled).size());
+    gate.countDown();
+    consumer.doShutdown();
+    assertEquals(2, processed.get());
+  }
+
+  /**
+   * Objects on the stopped workers' deques are spilled at the deadline.
+   */
+  public void testDeadlineSpillsWorkStealing() throws Exception {
+    assertDeadlineSpillsEverythingQueued(new WorkStealingBlockingQueue<Integer>(100));
+  }
+
+  /**
+   * Objects in partitions owned by the stopped workers are spilled at the
+   * deadline. Each of the 20 keys gets a partition of its own.
+   */
+  public void testDeadlineSpillsPartitioned() throws Exception {
+    assertDeadlineSpillsEverythingQueued(new PartitionedBlockingQueue<Integer>(Functions.<Integer>identity(), 256, 100));
+  }
+
+  /**
+   * A worker that flushes one object per call, or fails.
+   */
+  private static final class FlushingWorker extends BlockingQueueWorkerThread<Integer> {
+
+    private final boolean fail;
+
+    FlushingWorker(BlockingQueue<Integer> queue, boolean fail) {
+      super(queue, 5, 1);
+      this.fail = fail;
+      setDaemon(true);
+    }
+
+    @Override
+    protected void doIt(Integer item) {
+    }
+
+    @Override
+    public synchronized int flush() {
+      if (fail) {
+        throw new IllegalStateException("flush failed");
+      }
+      return 1;
+    }
+  }
+
+  /**
+   * Workers without a flush count as flushing nothing and a worker whose
+   * flush fails does not stop the rest being flushed.
+   */
+  public void testFlushSkipsFailingWorkers() throws Exception {
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    final ElasticConsumer<Integer, GatedWorker> plain = newConsumer(queue, new CountDownLatch(0), new AtomicInteger(), 2);
+    plain.start();
+    assertEquals(0, plain.flush());
+    plain.doShutdown();
+
+    final AtomicInteger created = new AtomicInteger();
+    final ElasticConsumer<Integer, FlushingWorker> consumer = new ElasticConsumer<Integer, FlushingWorker>(
+            new BasePooledObjectFactory<FlushingWorker>() {
+      @Override
+      public FlushingWorker create() {
+        return new FlushingWorker(queue, created.getAndIncrement() == 0);
+      }
+
+      @Override
+      public PooledObject<FlushingWorker> wrap(FlushingWorker worker) {
+        return new DefaultPooledObject<FlushingWorker>(worker);
+      }
+    }, queue, 4, false);
+    consumer.setDaemon(true);
+    consumer.start();
+    assertEquals(3, consumer.flush());
+    consumer.doShutdown();
+  }
+
+  /**
+   * A shutdown waits for the workers without sleeping between checks.
+   */
+  public void testShutdownWaitsForWorkers() throws Exception {
+    final BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    final CountDownLatch gate = new CountDownLatch(0);
+    final AtomicInteger processed = new AtomicInteger();
+    final ElasticConsumer<Integer, GatedWorker> consumer = newConsumer(queue, gate, processed, 4);
+    consumer.start();
+    final long start = System.nanoTime();
+    consumer.doShutdown();
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+    assertEquals(Integer.valueOf(4), consumer.getWorkerProfileMetrics().get(ElasticConsumer.REPORT_KEYS.REPORT_MAP_KEY_DEAD));
+  }
+}
@@ -0,0 +1,155 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import com.google.common.base.Function;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import junit.framework.TestCase;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.bml.util.threads.BlockingQueueWorkerThread;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class PartitionedBlockingQueueTest extends TestCase {
+
+  private static final int KEYS = 50;
+  private static final int PER_KEY = 400;
+
+  public PartitionedBlockingQueueTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * An object keyed by an int with its position in the key's sequence.
+   */
+  private static final class Item {
+
+    final int key;
+    final int seq;
+
+    Item(int key, int seq) {
+      this.key = key;
+      this.seq = seq;
+    }
+  }
+
+  private static final Function<Item, Integer> KEY = new Function<Item, Integer>() {
+    @Override
+    public Integer apply(Item item) {
+      return item.key;
+    }
+  };
+
+  /**
+   * Shared checks across all workers.
+   */
+  private static final class Checker {
+
+    final AtomicIntegerArray next = new AtomicIntegerArray(KEYS);
+    final ConcurrentHashMap<Integer, Thread> inFlight = new ConcurrentHashMap<Integer, Thread>();
+    final AtomicBoolean violated = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(KEYS * PER_KEY);
+
+    void process(Item item) {
+      if (inFlight.putIfAbsent(item.key, Thread.currentThread()) != null) {
+        violated.set(true);
+      }
+      if (!next.compareAndSet(item.key, item.seq, item.seq + 1)) {
+        violated.set(true);
+      }
+      if (item.seq % 50 == 0) {
+        Thread.yield();
+      }
+      inFlight.remove(item.key);
+      done.countDown();
+    }
+  }
+
+  private static final class CheckingWorker extends BlockingQueueWorkerThread<Item> {
+
+    private final Checker checker;
+
+    CheckingWorker(BlockingQueue<Item> queue, Checker checker) {
+      super(queue, 5, 1);
+      this.checker = checker;
+      setDaemon(true);
+    }
+
+    @Override
+    protected void doIt(Item item) {
+      checker.process(item);
+    }
+  }
+
+  /**
+   * Per key order holds while workers are added and removed.
+   */
+  public void testOrderedWithRebalance() throws InterruptedException {
+    final PartitionedBlockingQueue<Item> queue = new PartitionedBlockingQueue<Item>(KEY, 16, 1000);
+    final Checker checker = new Checker();
+    ElasticConsumer<Item, CheckingWorker> consumer = new ElasticConsumer<Item, CheckingWorker>(
+            new BasePooledObjectFactory<CheckingWorker>() {
+      @Override
+      public CheckingWorker create() {
+        return new CheckingWorker(queue, checker);
+      }
+
+      @Override
+      public PooledObject<CheckingWorker> wrap(CheckingWorker worker) {
+        return new DefaultPooledObject<CheckingWorker>(worker);
+      }
+    }, queue, 3, false);
+    consumer.setDaemon(true);
+    consumer.start();
+    assertEquals(3, queue.getLaneCount());
+    for (int seq = 0; seq < PER_KEY; seq++) {
+      for (int key = 0; key < KEYS; key++) {
+        assertTrue(consumer.offer(new Item(key, seq), 10, TimeUnit.SECONDS));
+      }
+      if (seq == 100 || seq == 150) {
+        consumer.addWorkerThread();
+      }
+      if (seq == 250 || seq == 300) {
+        consumer.removeWorkerThread(true);
+      }
+    }
+    assertTrue(checker.done.await(30, TimeUnit.SECONDS));
+    assertFalse(checker.violated.get());
+    assertEquals(3, queue.getLaneCount());
+    assertEquals(0, queue.size());
+    for (int key = 0; key < KEYS; key++) {
+      assertEquals(PER_KEY, checker.next.get(key));
+    }
+    consumer.doShutdown();
+  }
+}
@@ -0,0 +1,70 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class QueueDepthScalingPolicyTest extends TestCase {
+
+  public QueueDepthScalingPolicyTest(String testName) {
+    super(testName);
+  }
+
+  private static ScalingMetrics metrics(int workers, int depth, double in, double out) {
+    return new ScalingMetrics(workers, depth, 10000, in, out, 0, 1000000000L);
+  }
+
+  /**
+   * Grows on backlog, holds inside the water marks and only shrinks after the
+   * configured number of quiet intervals.
+   */
+  public void testHysteresis() {
+    QueueDepthScalingPolicy policy = new QueueDepthScalingPolicy(1, 4).setHighWaterPerWorker(10).setHysteresis(1, 3);
+    assertEquals(1, policy.targetWorkers(metrics(0, 0, 0, 0)));
+    assertEquals(2, policy.targetWorkers(metrics(1, 50, 100, 100)));
+    assertEquals(3, policy.targetWorkers(metrics(2, 5, 200, 100)));
+    assertEquals(3, policy.targetWorkers(metrics(3, 5, 100, 100)));
+    assertEquals(4, policy.targetWorkers(metrics(4, 1000, 500, 100)));
+    assertEquals(4, policy.targetWorkers(metrics(4, 1000, 500, 100)));
+    assertEquals(4, policy.targetWorkers(metrics(4, 0, 10, 10)));
+    assertEquals(4, policy.targetWorkers(metrics(4, 0, 10, 10)));
+    assertEquals(3, policy.targetWorkers(metrics(4, 0, 10, 10)));
+    assertEquals(3, policy.targetWorkers(metrics(3, 0, 10, 10)));
+    assertEquals(3, policy.targetWorkers(metrics(3, 20, 100, 100)));
+    assertEquals(3, policy.targetWorkers(metrics(3, 0, 10, 10)));
+  }
+
+  /**
+   * A slow worker cycle grows the pool only while objects are waiting.
+   */
+  public void testLatency() {
+    QueueDepthScalingPolicy policy = new QueueDepthScalingPolicy(1, 4).setMaxCycleNanos(1000000L);
+    assertEquals(2, policy.targetWorkers(new ScalingMetrics(1, 5, 100, 10, 10, 5000000L, 1000000000L)));
+    assertEquals(2, policy.targetWorkers(new ScalingMetrics(2, 0, 100, 10, 10, 5000000L, 1000000000L)));
+  }
+}
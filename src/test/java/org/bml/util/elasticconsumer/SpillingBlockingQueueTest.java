@@ -0,0 +1,159 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.bml.util.io.ByteCodecs;
+import org.bml.util.io.SegmentLog;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class SpillingBlockingQueueTest extends TestCase {
+
+  private File dir;
+
+  public SpillingBlockingQueueTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("spillingqueue", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdir());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  /**
+   * Offers past the high water mark go to disk, the heap stays bounded and
+   * everything comes back out in offer order.
+   */
+  public void testSpillAndReplayInOrder() throws Exception {
+    SpillingBlockingQueue<String> queue = new SpillingBlockingQueue<String>(10, new SegmentLog(dir, 4096, Long.MAX_VALUE), ByteCodecs.utf8());
+    for (int c = 0; c < 1000; c++) {
+      assertTrue(queue.offer("object-" + c));
+      assertTrue(queue.getMemorySize() <= 10);
+    }
+    assertTrue(queue.isSpilling());
+    assertEquals(1000, queue.size());
+    assertEquals(990, queue.getSpilledCount());
+    for (int c = 0; c < 500; c++) {
+      assertEquals("object-" + c, queue.take());
+      assertTrue(queue.getMemorySize() <= 10);
+    }
+    for (int c = 1000; c < 1100; c++) {
+      queue.put("object-" + c);
+    }
+    List<String> rest = new ArrayList<String>();
+    queue.drainTo(rest);
+    assertEquals(600, rest.size());
+    for (int c = 0; c < rest.size(); c++) {
+      assertEquals("object-" + (c + 500), rest.get(c));
+    }
+    assertFalse(queue.isSpilling());
+    assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    queue.close();
+  }
+
+  /**
+   * Offers are refused once the log is full and accepted again once
+   * consumers make room.
+   */
+  public void testFullLog() throws Exception {
+    SpillingBlockingQueue<String> queue = new SpillingBlockingQueue<String>(2, new SegmentLog(dir, 64, 128), ByteCodecs.utf8());
+    int accepted = 0;
+    while (queue.offer("0123456789")) {
+      accepted++;
+    }
+    assertTrue(accepted > 2);
+    assertFalse(queue.offer("0123456789", 5, TimeUnit.MILLISECONDS));
+    for (int c = 0; c < accepted; c++) {
+      assertEquals("0123456789", queue.poll());
+    }
+    assertTrue(queue.offer("0123456789"));
+    queue.close();
+  }
+
+  /**
+   * A log limited to one segment keeps taking spills after it has been
+   * emptied, and timed offers to a full queue return at their timeout.
+   */
+  public void testSingleSegmentLogRefills() throws Exception {
+    SpillingBlockingQueue<String> queue = new SpillingBlockingQueue<String>(2, new SegmentLog(dir, 64, 64), ByteCodecs.utf8());
+    for (int round = 0; round < 3; round++) {
+      int accepted = 0;
+      while (queue.offer("0123456789")) {
+        accepted++;
+      }
+      assertTrue(accepted > 2);
+      final long start = System.nanoTime();
+      assertFalse(queue.offer("0123456789", 50, TimeUnit.MILLISECONDS));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+      for (int c = 0; c < accepted; c++) {
+        assertEquals("0123456789", queue.poll());
+      }
+      assertNull(queue.poll());
+    }
+    queue.close();
+  }
+
+  /**
+   * A queue closed with objects on the heap and on disk is reopened with
+   * every object, in order.
+   */
+  public void testCloseAndReopen() throws Exception {
+    SpillingBlockingQueue<String> queue = new SpillingBlockingQueue<String>(5, dir, ByteCodecs.utf8());
+    for (int c = 0; c < 20; c++) {
+      queue.offer("object-" + c);
+    }
+    assertEquals("object-0", queue.poll());
+    queue.close();
+    assertFalse(queue.offer("late"));
+    queue = new SpillingBlockingQueue<String>(5, dir, ByteCodecs.utf8());
+    assertEquals(19, queue.size());
+    for (int c = 1; c < 20; c++) {
+      assertEquals("object-" + c, queue.poll());
+    }
+    assertNull(queue.poll());
+    queue.close();
+  }
+}
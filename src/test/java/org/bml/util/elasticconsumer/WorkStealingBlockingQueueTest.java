@@ -0,0 +1,237 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import junit.framework.TestCase;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.bml.util.threads.BlockingQueueWorkerThread;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class WorkStealingBlockingQueueTest extends TestCase {
+
+  private static final int CHILDREN = 200;
+
+  public WorkStealingBlockingQueueTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Item 0 forks the rest onto the deque of the worker processing it and then
+   * blocks that worker until every child is done.
+   */
+  private static final class Forker {
+
+    final AtomicIntegerArray seen = new AtomicIntegerArray(CHILDREN + 1);
+    final AtomicBoolean duplicate = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(CHILDREN);
+    volatile Thread parent;
+
+    void process(BlockingQueue<Integer> queue, Integer item) throws InterruptedException {
+      if (seen.getAndIncrement(item) != 0) {
+        duplicate.set(true);
+      }
+      if (item == 0) {
+        parent = Thread.currentThread();
+        for (int c = 1; c <= CHILDREN; c++) {
+          queue.put(c);
+        }
+        done.await(30, TimeUnit.SECONDS);
+      } else {
+        done.countDown();
+      }
+    }
+  }
+
+  private static final class ForkingWorker extends BlockingQueueWorkerThread<Integer> {
+
+    private final Forker forker;
+    private final BlockingQueue<Integer> queue;
+
+    ForkingWorker(BlockingQueue<Integer> queue, Forker forker) {
+      super(queue, 5, 1);
+      this.queue = queue;
+      this.forker = forker;
+      setDaemon(true);
+    }
+
+    @Override
+    protected void doIt(Integer item) {
+      try {
+        forker.process(queue, item);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Work forked onto a blocked worker's deque is stolen and processed exactly
+   * once by the other workers.
+   */
+  public void testIdleWorkersSteal() throws InterruptedException {
+    final WorkStealingBlockingQueue<Integer> queue = new WorkStealingBlockingQueue<Integer>(1000);
+    final Forker forker = new Forker();
+    ElasticConsumer<Integer, ForkingWorker> consumer = new ElasticConsumer<Integer, ForkingWorker>(
+            new BasePooledObjectFactory<ForkingWorker>() {
+      @Override
+      public ForkingWorker create() {
+        return new ForkingWorker(queue, forker);
+      }
+
+      @Override
+      public PooledObject<ForkingWorker> wrap(ForkingWorker worker) {
+        return new DefaultPooledObject<ForkingWorker>(worker);
+      }
+    }, queue, 3, false);
+    consumer.setDaemon(true);
+    consumer.start();
+    assertEquals(3, queue.getLaneCount());
+    assertTrue(consumer.offer(0, 10, TimeUnit.SECONDS));
+    assertTrue(forker.done.await(30, TimeUnit.SECONDS));
+    assertFalse(forker.duplicate.get());
+    for (int c = 0; c <= CHILDREN; c++) {
+      assertEquals(1, forker.seen.get(c));
+    }
+    assertTrue(queue.getStealCount() > 0);
+    assertTrue(queue.getStolenCount() >= CHILDREN);
+    assertEquals(0, queue.size());
+    final Map<WorkerThread, Double> utilization = queue.getUtilization();
+    assertEquals(3, utilization.size());
+    for (Double value : utilization.values()) {
+      assertTrue(value >= 0 && value <= 1);
+    }
+    consumer.doShutdown();
+  }
+
+  /**
+   * An unregistered worker's deque is handed to the overflow deque, where a
+   * thread that is not a worker can take from it.
+   */
+  public void testUnregisterHandsOffDeque() throws InterruptedException {
+    final WorkStealingBlockingQueue<Integer> queue = new WorkStealingBlockingQueue<Integer>(10);
+    final ForkingWorker worker = new ForkingWorker(queue, new Forker());
+    queue.register(worker);
+    assertEquals(1, queue.getLaneCount());
+    for (int c = 0; c < 10; c++) {
+      assertTrue(queue.offer(c));
+    }
+    assertFalse(queue.offer(10));
+    assertEquals(10, queue.size());
+    queue.unregister(worker);
+    assertEquals(0, queue.getLaneCount());
+    assertEquals(10, queue.size());
+    for (int c = 0; c < 10; c++) {
+      assertEquals(Integer.valueOf(c), queue.poll(1, TimeUnit.SECONDS));
+    }
+    assertNull(queue.poll());
+    assertEquals(0, queue.size());
+    assertEquals(0, queue.getStealCount());
+  }
+
+  /**
+   * A thread that is not a worker drains every deque and the overflow deque,
+   * up to the requested maximum.
+   */
+  public void testDrainToFromOutsideAWorker() {
+    final WorkStealingBlockingQueue<Integer> queue = new WorkStealingBlockingQueue<Integer>(1000);
+    final ForkingWorker a = new ForkingWorker(queue, new Forker());
+    final ForkingWorker b = new ForkingWorker(queue, new Forker());
+    queue.register(a);
+    queue.register(b);
+    for (int c = 0; c < 500; c++) {
+      assertTrue(queue.offer(c));
+    }
+    queue.unregister(b);
+    for (int c = 500; c < 1000; c++) {
+      assertTrue(queue.offer(c));
+    }
+    final List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(300, queue.drainTo(drained, 300));
+    assertEquals(700, queue.size());
+    assertEquals(700, queue.drainTo(drained));
+    assertEquals(0, queue.size());
+    assertEquals(1000, queue.remainingCapacity());
+    assertEquals(1000, new HashSet<Integer>(drained).size());
+    assertEquals(0, queue.drainTo(drained));
+  }
+
+  /**
+   * Objects offered while lanes are registered and unregistered under the
+   * producers are never stranded on a retired deque.
+   */
+  public void testNothingLostToUnregister() throws InterruptedException {
+    final WorkStealingBlockingQueue<Integer> queue = new WorkStealingBlockingQueue<Integer>(1 << 20);
+    final int producers = 4, perProducer = 50000;
+    final CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      final int base = p * perProducer;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int c = 0; c < perProducer; c++) {
+            assertTrue(queue.offer(base + c));
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    final ForkingWorker[] workers = new ForkingWorker[4];
+    for (int w = 0; w < workers.length; w++) {
+      workers[w] = new ForkingWorker(queue, new Forker());
+    }
+    int round = 0;
+    while (done.getCount() > 0) {
+      ForkingWorker worker = workers[round++ % workers.length];
+      queue.register(worker);
+      queue.unregister(workers[round % workers.length]);
+    }
+    for (ForkingWorker worker : workers) {
+      queue.unregister(worker);
+    }
+    final AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+    Integer e;
+    int taken = 0;
+    while ((e = queue.poll()) != null) {
+      assertEquals(0, seen.getAndIncrement(e));
+      taken++;
+    }
+    assertEquals(producers * perProducer, taken);
+    assertEquals(0, queue.size());
+  }
+}
@@ -0,0 +1,109 @@
+package org.bml.util.elasticconsumer;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class WorkerRegistryTest extends TestCase {
+
+  public WorkerRegistryTest(String testName) {
+    super(testName);
+  }
+
+  private static final class IdleWorker extends WorkerThread {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    protected void doIt() {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      setShouldRun(false);
+    }
+
+    @Override
+    protected void doShutdown() {
+    }
+
+    @Override
+    public int flush() {
+      return 0;
+    }
+  }
+
+  /**
+   * The counts follow workers through start, stop, death and removal.
+   */
+  public void testCountsFollowWorkerState() throws Exception {
+    WorkerRegistry registry = new WorkerRegistry();
+    IdleWorker a = new IdleWorker();
+    IdleWorker b = new IdleWorker();
+    a.setShouldRun(true);
+    b.setShouldRun(true);
+    registry.add(a);
+    registry.add(b);
+    a.start();
+    b.start();
+    long snapshot = registry.snapshot();
+    assertEquals(2, WorkerRegistry.registered(snapshot));
+    assertEquals(2, WorkerRegistry.alive(snapshot));
+    assertEquals(2, WorkerRegistry.running(snapshot));
+    assertSame(b, registry.lastRunning());
+
+    a.setShouldRun(false);
+    a.setShouldRun(false);
+    a.release.countDown();
+    assertTrue(a.awaitTermination(5, TimeUnit.SECONDS));
+    snapshot = registry.snapshot();
+    assertEquals(2, WorkerRegistry.registered(snapshot));
+    assertEquals(1, WorkerRegistry.alive(snapshot));
+    assertEquals(1, WorkerRegistry.running(snapshot));
+
+    assertTrue(registry.remove(a));
+    assertFalse(registry.remove(a));
+    a.setShouldRun(true);
+    snapshot = registry.snapshot();
+    assertEquals(1, WorkerRegistry.registered(snapshot));
+    assertEquals(1, WorkerRegistry.alive(snapshot));
+    assertEquals(1, WorkerRegistry.running(snapshot));
+    assertEquals(1, registry.getWorkers().size());
+
+    b.release.countDown();
+    assertTrue(b.awaitTermination(5, TimeUnit.SECONDS));
+    snapshot = registry.snapshot();
+    assertEquals(0, WorkerRegistry.alive(snapshot));
+    assertEquals(0, WorkerRegistry.running(snapshot));
+    assertNull(registry.lastRunning());
+  }
+}
@@ -0,0 +1,206 @@
+package org.bml.util.io;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class SegmentLogTest extends TestCase {
+
+  private File dir;
+
+  public SegmentLogTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("segmentlog", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdir());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] b) {
+    return b == null ? null : new String(b, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Records come back in order across segments and read segments are
+   * deleted.
+   */
+  public void testAppendPollAcrossSegments() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 128, Long.MAX_VALUE);
+    for (int c = 0; c < 50; c++) {
+      assertTrue(log.append(bytes("record-" + c)));
+    }
+    assertEquals(50, log.size());
+    assertTrue(dir.listFiles().length > 1);
+    for (int c = 0; c < 50; c++) {
+      assertEquals("record-" + c, string(log.poll()));
+    }
+    assertNull(log.poll());
+    assertTrue(log.isEmpty());
+    assertEquals(1, dir.listFiles().length);
+    log.close();
+  }
+
+  /**
+   * A reopened log resumes from the first unread record.
+   */
+  public void testReopenResumesAfterLastRead() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 256, Long.MAX_VALUE);
+    for (int c = 0; c < 40; c++) {
+      log.append(bytes("record-" + c));
+    }
+    for (int c = 0; c < 15; c++) {
+      log.poll();
+    }
+    log.close();
+    log = new SegmentLog(dir, 256, Long.MAX_VALUE);
+    assertEquals(25, log.size());
+    for (int c = 15; c < 40; c++) {
+      assertEquals("record-" + c, string(log.poll()));
+    }
+    assertNull(log.poll());
+    log.append(bytes("after"));
+    assertEquals("after", string(log.poll()));
+    log.close();
+  }
+
+  /**
+   * Appends fail once the disk limit is reached.
+   */
+  public void testMaxBytes() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 64, 128);
+    int appended = 0;
+    while (log.append(new byte[10])) {
+      appended++;
+    }
+    assertEquals(4, appended);
+    assertEquals(128, log.getDiskBytes());
+    log.poll();
+    log.poll();
+    assertTrue(log.append(new byte[10]));
+    log.close();
+  }
+
+  /**
+   * A log limited to a single segment takes appends again once that segment
+   * has been used up, rather than counting it against the limit.
+   */
+  public void testSingleSegmentIsReused() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 64, 64);
+    for (int round = 0; round < 3; round++) {
+      int appended = 0;
+      while (log.append(new byte[10])) {
+        appended++;
+      }
+      assertEquals(2, appended);
+      assertEquals(64, log.getDiskBytes());
+      assertNotNull(log.poll());
+      assertNotNull(log.poll());
+      assertNull(log.poll());
+      assertTrue(log.isEmpty());
+    }
+    assertTrue(log.append(new byte[10]));
+    log.close();
+    log = new SegmentLog(dir, 64, 64);
+    assertEquals(1, log.size());
+    assertNotNull(log.poll());
+    log.close();
+  }
+
+  /**
+   * Prepended records come out ahead of appended ones, in order, and survive
+   * a reopen.
+   */
+  public void testPrepend() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 128, Long.MAX_VALUE);
+    for (int c = 0; c < 10; c++) {
+      log.append(bytes("tail-" + c));
+    }
+    List<byte[]> head = new ArrayList<byte[]>();
+    for (int c = 0; c < 20; c++) {
+      head.add(bytes("head-" + c));
+    }
+    log.prepend(head);
+    log.prepend(Arrays.asList(bytes("first")));
+    log.close();
+    log = new SegmentLog(dir, 128, Long.MAX_VALUE);
+    assertEquals(31, log.size());
+    assertEquals("first", string(log.poll()));
+    for (int c = 0; c < 20; c++) {
+      assertEquals("head-" + c, string(log.poll()));
+    }
+    for (int c = 0; c < 10; c++) {
+      assertEquals("tail-" + c, string(log.poll()));
+    }
+    assertNull(log.poll());
+    log.close();
+  }
+
+  /**
+   * An empty record in the middle of a segment survives a reopen, and so do
+   * the records after it.
+   */
+  public void testEmptyRecordSurvivesReopen() throws Exception {
+    SegmentLog log = new SegmentLog(dir, 256, Long.MAX_VALUE);
+    assertTrue(log.append(bytes("before")));
+    assertTrue(log.append(new byte[0]));
+    assertTrue(log.append(bytes("after")));
+    log.close();
+    log = new SegmentLog(dir, 256, Long.MAX_VALUE);
+    assertEquals(3, log.size());
+    assertEquals("before", string(log.poll()));
+    assertEquals("", string(log.poll()));
+    assertEquals("after", string(log.poll()));
+    assertNull(log.poll());
+    log.close();
+  }
+}
@@ -0,0 +1,119 @@
+package org.bml.util.rt.telemetry;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class LatencyHistogramTest extends TestCase {
+
+  public LatencyHistogramTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Percentiles of a uniform spread of values are within the histogram
+   * precision of the exact answer.
+   */
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long c = 1; c <= 100000; c++) {
+      histogram.record(c * 1000);
+    }
+    assertEquals(100000, histogram.getCount());
+    assertEquals(100000000L, histogram.getMax());
+    double error = 1.0 / (1 << (LatencyHistogram.DEFAULT_PRECISION_BITS - 1));
+    assertEquals(50000000.0, histogram.getP50(), 50000000.0 * error);
+    assertEquals(99000000.0, histogram.getP99(), 99000000.0 * error);
+    assertEquals(99900000.0, histogram.getP999(), 99900000.0 * error);
+    assertEquals(50000500.0, histogram.getMean(), 1);
+  }
+
+  /**
+   * Small values are exact and out of range values are clamped.
+   */
+  public void testRange() {
+    LatencyHistogram histogram = new LatencyHistogram(1000, 4);
+    for (long c = 0; c < 16; c++) {
+      histogram.record(c);
+    }
+    for (long c = 0; c < 16; c++) {
+      assertEquals(c, histogram.getValueAtPercentile((c + 1) * 100.0 / 16));
+    }
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(18, histogram.getCount());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(1000, histogram.getValueAtPercentile(100));
+  }
+
+  /**
+   * Snapshot and reset moves every count and merged snapshots add up.
+   */
+  public void testSnapshotAndReset() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    for (int c = 0; c < 1000; c++) {
+      a.record(10000);
+      b.record(2000000);
+    }
+    LatencyHistogram copy = a.snapshot();
+    LatencyHistogram moved = b.snapshotAndReset();
+    assertEquals(1000, a.getCount());
+    assertEquals(0, b.getCount());
+    assertEquals(0, b.getMax());
+    copy.add(moved);
+    assertEquals(2000, copy.getCount());
+    assertEquals(2000000, copy.getMax());
+    assertEquals(10000.0, copy.getValueAtPercentile(50), 10000.0 / 128);
+    assertEquals(2000000.0, copy.getP99(), 2000000.0 / 128);
+  }
+
+  /**
+   * The difference from an earlier snapshot holds only the later values and
+   * leaves the histogram untouched.
+   */
+  public void testMinus() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int c = 0; c < 1000; c++) {
+      histogram.record(2000000);
+    }
+    LatencyHistogram previous = histogram.snapshot();
+    for (int c = 0; c < 1000; c++) {
+      histogram.record(10000);
+    }
+    LatencyHistogram delta = histogram.minus(previous);
+    assertEquals(2000, histogram.getCount());
+    assertEquals(1000, delta.getCount());
+    assertEquals(10000.0, delta.getP99(), 10000.0 / 128);
+    assertEquals(10000.0, delta.getMax(), 10000.0 / 128);
+    assertEquals(10000.0, delta.getMean(), 1);
+    assertEquals(0, histogram.minus(histogram.snapshot()).getCount());
+    histogram.reset();
+    assertEquals(0, histogram.minus(previous).getCount());
+  }
+}
@@ -23,7 +23,10 @@ package org.bml.util.rt.telemetry;
  * #L%
  */
 
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import junit.framework.TestCase;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
@@ -99,4 +102,38 @@ public class SecondBasedCounterTest extends TestCase {
     // TODO review the generated test code and remove the default call to fail.
     //fail("The test case is a prototype.");
   }
+
+  /**
+   * Test slots are cleared when the window wraps and read as zero once their
+   * second has left the window.
+   */
+  public void testRollover() {
+    System.out.println("rollover");
+    final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1000));
+    SecondBasedCounter instance = new SecondBasedCounter(5, "SecondBasedCounter", new Ticker() {
+      @Override
+      public long read() {
+        return now.get();
+      }
+    });
+    for (int c = 0; c < 3; c++) {
+      instance.increment();
+    }
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    instance.increment();
+    long[] counts = instance.getWindowCounts();
+    assertEquals(3, counts[3]);
+    assertEquals(1, counts[4]);
+    //Same slot as the first second, one window later.
+    now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+    instance.increment();
+    counts = instance.getWindowCounts();
+    assertEquals(1, counts[0]);
+    assertEquals(0, counts[3]);
+    assertEquals(1, counts[4]);
+    assertEquals(2, (long) instance.getLastMinutesTelemetry().getSum());
+    now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+    assertEquals(0, (long) instance.getLastMinutesTelemetry().getSum());
+    assertEquals(5, instance.getNumOperations());
+  }
 }
@@ -0,0 +1,204 @@
+package org.bml.util.rt.telemetry.binary;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class BinaryTelemetryWriterTest extends TestCase {
+
+  public BinaryTelemetryWriterTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * A second of readings every 10ms for a handful of streams with jittered
+   * counters and latencies, the shape of real sink traffic.
+   */
+  private static List<TelemetryPoint> sample(int count) {
+    Random random = new Random(42);
+    String[] streams = {"requests.count", "requests.latency.p99", "queue.depth", "workers.running", "errors.count"};
+    long[] values = {0, 1500, 10, 8, 0};
+    long time = 1400000000000L;
+    List<TelemetryPoint> points = new ArrayList<TelemetryPoint>(count);
+    for (int c = 0; c < count; c++) {
+      int stream = c % streams.length;
+      if (stream == 0) {
+        time += 10;
+      }
+      values[stream] += random.nextInt(21) - (stream == 0 ? 0 : 10);
+      points.add(new TelemetryPoint(time, streams[stream], values[stream]));
+    }
+    return points;
+  }
+
+  private static byte[] write(List<TelemetryPoint> points, int blockRecords, BinaryTelemetryWriter.Compression compression) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryTelemetryWriter writer = new BinaryTelemetryWriter(bytes, blockRecords, compression);
+    for (TelemetryPoint point : points) {
+      writer.write(point);
+    }
+    writer.close();
+    assertEquals(points.size(), writer.getRecordCount());
+    assertEquals(bytes.size(), writer.getBytesWritten());
+    return bytes.toByteArray();
+  }
+
+  private static List<TelemetryPoint> read(byte[] bytes) throws IOException {
+    BinaryTelemetryReader reader = new BinaryTelemetryReader(new ByteArrayInputStream(bytes));
+    List<TelemetryPoint> points = new ArrayList<TelemetryPoint>();
+    TelemetryPoint point;
+    while ((point = reader.read()) != null) {
+      points.add(point);
+    }
+    reader.close();
+    return points;
+  }
+
+  /**
+   * Points round trip through full and partial blocks with and without
+   * compression, extreme values included.
+   */
+  public void testRoundTrip() throws Exception {
+    List<TelemetryPoint> points = sample(10007);
+    points.add(new TelemetryPoint(Long.MIN_VALUE, "extremes", Long.MAX_VALUE));
+    points.add(new TelemetryPoint(Long.MAX_VALUE, "extremes", Long.MIN_VALUE));
+    points.add(new TelemetryPoint(0, "\u00fcnicode", -1));
+    for (BinaryTelemetryWriter.Compression compression : BinaryTelemetryWriter.Compression.values()) {
+      assertEquals(points, read(write(points, 1000, compression)));
+      assertEquals(points, read(write(points, 1, compression)));
+    }
+    assertTrue(read(write(new ArrayList<TelemetryPoint>(), 10, BinaryTelemetryWriter.Compression.DEFLATE)).isEmpty());
+  }
+
+  /**
+   * The encoding is at least five times smaller than the same points as
+   * tab separated lines.
+   */
+  public void testSmallerThanText() throws Exception {
+    List<TelemetryPoint> points = sample(100000);
+    long text = 0;
+    for (TelemetryPoint point : points) {
+      text += (point.toString() + "\n").getBytes(StandardCharsets.UTF_8).length;
+    }
+    byte[] raw = write(points, BinaryTelemetryWriter.DEFAULT_BLOCK_RECORDS, BinaryTelemetryWriter.Compression.NONE);
+    byte[] deflated = write(points, BinaryTelemetryWriter.DEFAULT_BLOCK_RECORDS, BinaryTelemetryWriter.Compression.DEFLATE);
+    assertTrue(raw.length * 5 < text);
+    assertTrue(deflated.length < raw.length);
+  }
+
+  /**
+   * Writers appending to the same stream each start a new dictionary, and
+   * the reader follows them.
+   */
+  public void testAppendedWriters() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryTelemetryWriter first = new BinaryTelemetryWriter(bytes);
+    first.write(1, "a", 10);
+    first.write(2, "b", 20);
+    first.flush();
+    BinaryTelemetryWriter second = new BinaryTelemetryWriter(bytes);
+    second.write(3, "b", 30);
+    second.close();
+    List<TelemetryPoint> points = read(bytes.toByteArray());
+    assertEquals(3, points.size());
+    assertEquals(new TelemetryPoint(3, "b", 30), points.get(2));
+  }
+
+  /**
+   * A damaged block fails its checksum and a truncated one fails the read.
+   */
+  public void testCorruptionIsDetected() throws Exception {
+    byte[] bytes = write(sample(100), 1000, BinaryTelemetryWriter.Compression.DEFLATE);
+    byte[] damaged = bytes.clone();
+    damaged[damaged.length - 3] ^= 0x10;
+    try {
+      read(damaged);
+      fail("A damaged block must not read.");
+    } catch (IOException expected) {
+    }
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    try {
+      read(truncated);
+      fail("A truncated block must not read.");
+    } catch (IOException expected) {
+    }
+    try {
+      read("not telemetry".getBytes(StandardCharsets.UTF_8));
+      fail("A stream without a header must not read.");
+    } catch (IOException expected) {
+    }
+  }
+
+  /**
+   * A block that fails to write is written whole on the next try, including
+   * the stream names it introduces.
+   */
+  public void testFailedBlockIsRetried() throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final boolean[] fail = {false};
+    OutputStream flaky = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (fail[0]) {
+          fail[0] = false;
+          throw new IOException("Simulated write failure.");
+        }
+        bytes.write(b, off, len);
+      }
+    };
+    BinaryTelemetryWriter writer = new BinaryTelemetryWriter(flaky, 2, BinaryTelemetryWriter.Compression.NONE);
+    writer.write(1, "a", 1);
+    fail[0] = true;
+    try {
+      writer.write(2, "b", 2);
+      fail("The block write should have failed.");
+    } catch (IOException expected) {
+    }
+    assertEquals(0, writer.getBlockCount());
+    writer.close();
+    assertEquals(1, writer.getBlockCount());
+    List<TelemetryPoint> points = read(bytes.toByteArray());
+    assertEquals(2, points.size());
+    assertEquals(new TelemetryPoint(1, "a", 1), points.get(0));
+    assertEquals(new TelemetryPoint(2, "b", 2), points.get(1));
+  }
+}
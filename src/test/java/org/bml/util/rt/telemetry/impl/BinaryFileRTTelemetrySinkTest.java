@@ -0,0 +1,139 @@
+package org.bml.util.rt.telemetry.impl;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.bml.util.rt.telemetry.binary.BinaryTelemetryReader;
+import org.bml.util.rt.telemetry.binary.BinaryTelemetryWriter;
+import org.bml.util.rt.telemetry.binary.TelemetryPoint;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class BinaryFileRTTelemetrySinkTest extends TestCase {
+
+  private File out;
+
+  public BinaryFileRTTelemetrySinkTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    out = File.createTempFile("binarysink", ".bin");
+    assertTrue(out.delete());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    out.delete();
+    super.tearDown();
+  }
+
+  private BinaryFileRTTelemetrySink start() throws Exception {
+    BinaryFileRTTelemetrySink sink = new BinaryFileRTTelemetrySink(out,
+        new ThreadGroup("BinaryFileRTTelemetrySinkTest"), "BinaryFileRTTelemetrySinkTest", 0d, 100000);
+    sink.setShouldRun(true);
+    sink.enable();
+    sink.start();
+    return sink;
+  }
+
+  /**
+   * Points offered across two runs of the sink on the same file all read
+   * back in order.
+   */
+  public void testPointsReadBack() throws Exception {
+    for (int run = 0; run < 2; run++) {
+      BinaryFileRTTelemetrySink sink = start();
+      for (int c = 0; c < 10000; c++) {
+        assertTrue(sink.offerTelemetry(new TelemetryPoint(run * 10000 + c, "stream-" + (c % 7), c), 100, 1000, false));
+      }
+      assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+      assertEquals(10000, sink.getRecordCount());
+      assertEquals(0, sink.getLostCount());
+    }
+    BinaryTelemetryReader reader = new BinaryTelemetryReader(new BufferedInputStream(new FileInputStream(out)));
+    try {
+      for (int c = 0; c < 20000; c++) {
+        assertTrue(reader.next());
+        assertEquals(c, reader.getTimestamp());
+        assertEquals("stream-" + (c % 10000 % 7), reader.getStream());
+        assertEquals(c % 10000, reader.getValue());
+      }
+      assertFalse(reader.next());
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * A file left with a partial block by a crash is cut back to its last
+   * whole block, so the points appended after a restart can be read.
+   */
+  public void testAppendAfterTornBlock() throws Exception {
+    BinaryTelemetryWriter writer = new BinaryTelemetryWriter(new FileOutputStream(out), 10, BinaryTelemetryWriter.Compression.DEFLATE);
+    for (int c = 0; c < 25; c++) {
+      writer.write(c, "before", c);
+    }
+    writer.close();
+    long whole = BinaryTelemetryReader.validLength(out);
+    assertEquals(out.length(), whole);
+    RandomAccessFile raf = new RandomAccessFile(out, "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+    assertTrue(BinaryTelemetryReader.validLength(out) < out.length());
+
+    BinaryFileRTTelemetrySink sink = start();
+    for (int c = 0; c < 100; c++) {
+      assertTrue(sink.offerTelemetry(new TelemetryPoint(1000 + c, "after", c), 100, 1000, false));
+    }
+    assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+    assertEquals(out.length(), BinaryTelemetryReader.validLength(out));
+    BinaryTelemetryReader reader = new BinaryTelemetryReader(new BufferedInputStream(new FileInputStream(out)));
+    try {
+      for (int c = 0; c < 20; c++) {
+        assertTrue(reader.next());
+        assertEquals("before", reader.getStream());
+        assertEquals(c, reader.getValue());
+      }
+      for (int c = 0; c < 100; c++) {
+        assertTrue(reader.next());
+        assertEquals("after", reader.getStream());
+        assertEquals(c, reader.getValue());
+      }
+      assertFalse(reader.next());
+    } finally {
+      reader.close();
+    }
+  }
+}
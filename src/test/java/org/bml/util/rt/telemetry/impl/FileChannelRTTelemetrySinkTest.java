@@ -0,0 +1,235 @@
+package org.bml.util.rt.telemetry.impl;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import junit.framework.TestCase;
+import org.bml.util.exception.UnavailableException;
+import org.bml.util.io.ByteCodecs;
+import org.bml.util.threads.ByteSlotRing;
+import org.bml.util.threads.MpscArrayBlockingQueue;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class FileChannelRTTelemetrySinkTest extends TestCase {
+
+  private File dir;
+
+  public FileChannelRTTelemetrySinkTest(String testName) {
+    super(testName);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("filechannelsink", "");
+    assertTrue(dir.delete());
+    assertTrue(dir.mkdir());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static List<String> readAll(File dir) throws Exception {
+    List<String> lines = new ArrayList<String>();
+    File[] files = dir.listFiles();
+    for (File file : files) {
+      lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+    return lines;
+  }
+
+  /**
+   * Offers from several threads are all written once the sink shuts down,
+   * in fewer commits than records.
+   */
+  public void testConcurrentOffersAreAllWritten() throws Exception {
+    final File out = new File(dir, "telemetry.log");
+    final FileChannelRTTelemetrySink<String> sink = new FileChannelRTTelemetrySink<String>(out, ByteCodecs.utf8(),
+        new ThreadGroup("FileChannelRTTelemetrySinkTest"), "FileChannelRTTelemetrySinkTest", 0d, 100000);
+    sink.setFsyncPolicy(FileChannelRTTelemetrySink.FsyncPolicy.EVERY_COMMIT).setBufferSize(4096);
+    sink.setShouldRun(true);
+    sink.enable();
+    sink.start();
+    final int threads = 4, perThread = 20000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int c = 0; c < perThread; c++) {
+              assertTrue(sink.offerTelemetry("thread-" + id + "-" + c, 100, 1000, false));
+            }
+          } catch (Exception ex) {
+            ex.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+    assertEquals(threads * perThread, sink.getRecordCount());
+    assertEquals(0, sink.getLostCount());
+    assertTrue(sink.getCommitCount() < threads * perThread);
+    assertTrue(sink.getFsyncCount() > 0);
+    List<String> lines = readAll(dir);
+    assertEquals(threads * perThread, lines.size());
+    assertEquals(out.length(), sink.getByteCount());
+  }
+
+  /**
+   * A shutdown waits for an offer blocked on a full buffer to finish before
+   * it writes the buffer out.
+   */
+  public void testShutdownWaitsForOffersInProgress() throws Exception {
+    final File out = new File(dir, "telemetry.log");
+    final FileChannelRTTelemetrySink<String> sink = new FileChannelRTTelemetrySink<String>(out, ByteCodecs.utf8(),
+        new ThreadGroup("FileChannelRTTelemetrySinkTest"), "FileChannelRTTelemetrySinkTest", 0d, 1);
+    sink.setShouldRun(true);
+    sink.enable();
+    //The sink thread is not started so nothing drains the buffer.
+    assertTrue(sink.offerTelemetry("first", 100, 100, false));
+    final AtomicBoolean offered = new AtomicBoolean(true);
+    final CountDownLatch done = new CountDownLatch(1);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          offered.set(sink.offerTelemetry("second", 100, 500, false));
+        } catch (Exception ex) {
+          ex.printStackTrace();
+        } finally {
+          done.countDown();
+        }
+      }
+    }).start();
+    Thread.sleep(100);
+    assertEquals(1, done.getCount());
+    final long start = System.nanoTime();
+    assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+    assertEquals(0, done.getCount());
+    //The offer gives up about 400ms in and wakes the shutdown, well before its one second progress report.
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+    assertFalse(offered.get());
+    assertEquals(1, sink.getRecordCount());
+    try {
+      sink.offerTelemetry("third", 100, 100, false);
+      fail("A shut down sink must not take offers.");
+    } catch (UnavailableException expected) {
+    }
+  }
+
+  /**
+   * The file is rotated by size without splitting or losing a record.
+   */
+  public void testSizeRotation() throws Exception {
+    final File out = new File(dir, "telemetry.log");
+    final FileChannelRTTelemetrySink<String> sink = new FileChannelRTTelemetrySink<String>(out, ByteCodecs.utf8(),
+        new ThreadGroup("FileChannelRTTelemetrySinkTest"), "FileChannelRTTelemetrySinkTest", 0d, 10000);
+    sink.setMaxFileBytes(1000).setFsyncPolicy(FileChannelRTTelemetrySink.FsyncPolicy.NEVER);
+    for (int c = 0; c < 1000; c++) {
+      sink.enable();
+      sink.offerTelemetry(String.format("record-%05d", c), 0, 0, false);
+    }
+    assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+    assertTrue(sink.getRotationCount() >= 12);
+    assertEquals(sink.getRotationCount() + 1, dir.listFiles().length);
+    long total = 0;
+    for (File file : dir.listFiles()) {
+      assertTrue(file.length() <= 1000);
+      total += file.length();
+    }
+    assertEquals(13000, total);
+    List<String> lines = readAll(dir);
+    assertEquals(1000, lines.size());
+    for (String line : lines) {
+      assertTrue(line.matches("record-\\d{5}"));
+    }
+  }
+
+  /**
+   * Objects through an MPSC ring and preserialized records through byte
+   * slots all land in the file, rotated exactly at the size limit.
+   */
+  public void testRingBuffers() throws Exception {
+    final File out = new File(dir, "telemetry.log");
+    final FileChannelRTTelemetrySink<String> sink = new FileChannelRTTelemetrySink<String>(out, ByteCodecs.utf8(),
+        new ThreadGroup("FileChannelRTTelemetrySinkTest"), "FileChannelRTTelemetrySinkTest", 0d,
+        new MpscArrayBlockingQueue<String>(1024));
+    sink.setByteSlots(new ByteSlotRing(1024, 16)).setMaxFileBytes(1300).setBufferSize(64);
+    sink.setShouldRun(true);
+    sink.enable();
+    sink.start();
+    final byte[] record = new byte[12];
+    for (int c = 0; c < 1000; c++) {
+      byte[] digits = String.format("bytes-%06d", c).getBytes(StandardCharsets.UTF_8);
+      System.arraycopy(digits, 0, record, 0, record.length);
+      while (!sink.offerBytes(record, 0, record.length)) {
+        Thread.yield();
+      }
+      while (!sink.offerTelemetry(String.format("objct-%06d", c), 0, 0, false)) {
+        Thread.yield();
+      }
+    }
+    assertTrue(sink.shutDown(10, TimeUnit.SECONDS, null));
+    assertEquals(2000, sink.getRecordCount());
+    List<String> lines = readAll(dir);
+    assertEquals(2000, lines.size());
+    int bytes = 0, objects = 0;
+    for (String line : lines) {
+      if (line.startsWith("bytes-")) {
+        bytes++;
+      } else if (line.startsWith("objct-")) {
+        objects++;
+      }
+    }
+    assertEquals(1000, bytes);
+    assertEquals(1000, objects);
+    for (File file : dir.listFiles()) {
+      assertTrue(file.length() <= 1300);
+    }
+  }
+}
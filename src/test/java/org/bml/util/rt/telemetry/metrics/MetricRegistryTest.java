@@ -0,0 +1,128 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.bml.util.rt.telemetry.SecondBasedCounter;
+import org.bml.util.rt.telemetry.track.AtomicIntegerTrack;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class MetricRegistryTest extends TestCase {
+
+  public MetricRegistryTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Each type renders in the OpenMetrics text format, families sorted by name
+   * and labels escaped.
+   */
+  public void testScrape() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("requests_total", "Requests served.", Labels.of("method", "GET")).add(3);
+    registry.counter("requests", "Requests served.", Labels.of("method", "GET")).increment();
+    registry.gauge("queue_depth", "Items \"queued\".", Labels.of("queue", "a\\b\nc")).set(2.5);
+    Histogram histogram = registry.histogram("size_bytes", "Sizes.", Labels.EMPTY, 10, 100);
+    histogram.observe(5);
+    histogram.observe(10);
+    histogram.observe(50);
+    histogram.observe(500);
+    registry.timer("io_seconds", "IO time.").record(2, TimeUnit.MILLISECONDS);
+    String text = registry.scrape();
+    String expected = "# TYPE io_seconds summary\n"
+        + "# HELP io_seconds IO time.\n"
+        + "io_seconds{quantile=\"0.5\"} 0.002\n"
+        + "io_seconds{quantile=\"0.99\"} 0.002\n"
+        + "io_seconds{quantile=\"0.999\"} 0.002\n"
+        + "io_seconds_count 1\n"
+        + "io_seconds_sum 0.002\n"
+        + "# TYPE queue_depth gauge\n"
+        + "# HELP queue_depth Items \\\"queued\\\".\n"
+        + "queue_depth{queue=\"a\\\\b\\nc\"} 2.5\n"
+        + "# TYPE requests counter\n"
+        + "# HELP requests Requests served.\n"
+        + "requests_total{method=\"GET\"} 4\n"
+        + "# TYPE size_bytes histogram\n"
+        + "# HELP size_bytes Sizes.\n"
+        + "size_bytes_bucket{le=\"10.0\"} 2\n"
+        + "size_bytes_bucket{le=\"100.0\"} 3\n"
+        + "size_bytes_bucket{le=\"+Inf\"} 4\n"
+        + "size_bytes_count 4\n"
+        + "size_bytes_sum 565\n"
+        + "# EOF\n";
+    assertEquals(expected, text);
+  }
+
+  /**
+   * A name registered as one type can not be registered as another, and the
+   * same name and labels return the same series.
+   */
+  public void testRegistration() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    Counter counter = registry.counter("ops", "Ops.");
+    assertSame(counter, registry.counter("ops_total", "Ops."));
+    assertNotSame(counter, registry.counter("ops", "Ops.", Labels.of("shard", "1")));
+    try {
+      registry.gauge("ops", "Ops.");
+      fail("A counter can not be registered again as a gauge.");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      registry.counter("bad name", "Bad.");
+      fail("An invalid name must be refused.");
+    } catch (IllegalArgumentException expected) {
+    }
+    assertEquals(2, registry.size());
+    assertTrue(registry.remove("ops_total", Labels.EMPTY));
+    assertEquals(1, registry.size());
+    assertEquals("requests_p99_2xx", MetricRegistry.sanitize("requests.p99-2xx"));
+    assertEquals("_9lives", MetricRegistry.sanitize("9lives"));
+    assertEquals(Labels.of("b", "2", "a", "1"), Labels.of("a", "1").with("b", "2"));
+  }
+
+  /**
+   * Telemetry classes register into the registry and are read on scrape.
+   */
+  public void testTelemetryRegisters() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    SecondBasedCounter counter = new SecondBasedCounter(60, "ingest.events").register(registry, Labels.EMPTY);
+    counter.increment();
+    counter.increment();
+    AtomicIntegerTrack track = new AtomicIntegerTrack(AtomicIntegerTrack.TRACK_TYPE.SUMMARY)
+        .register(registry, "connections", "Open connections.", Labels.EMPTY);
+    track.incrementAndGet();
+    track.incrementAndGet();
+    track.getAndDecrement();
+    String text = registry.scrape();
+    assertTrue(text, text.contains("ingest_events_total 2\n"));
+    assertTrue(text, text.contains("ingest_events_window 2\n"));
+    assertTrue(text, text.contains("connections 1\n"));
+    assertTrue(text, text.contains("connections_operations_total{function=\"incrementAndGet\"} 2\n"));
+    assertTrue(text, text.contains("connections_operations_total{function=\"getAndDecrement\"} 1\n"));
+  }
+}
@@ -0,0 +1,108 @@
+package org.bml.util.rt.telemetry.metrics;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import junit.framework.TestCase;
+import org.bml.util.threads.WorkerThread;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class MetricsHttpServerTest extends TestCase {
+
+  public MetricsHttpServerTest(String testName) {
+    super(testName);
+  }
+
+  private static HttpURLConnection open(MetricsHttpServer server, String method) throws Exception {
+    URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), MetricsHttpServer.PATH);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  private static String get(MetricsHttpServer server) throws Exception {
+    HttpURLConnection connection = open(server, "GET");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(MetricsHttpServer.CONTENT_TYPE, connection.getContentType());
+    InputStream in = connection.getInputStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) > 0) {
+      bytes.write(buffer, 0, read);
+    }
+    in.close();
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A scrape serves the registry, including a running worker, and the
+   * worker's series go away once it stops.
+   */
+  public void testServesRegistry() throws Exception {
+    MetricRegistry registry = new MetricRegistry();
+    registry.counter("scrapes", "Scrapes.").increment();
+    WorkerThread worker = new WorkerThread(new ThreadGroup("MetricsHttpServerTest"), "MetricsHttpServerTest") {
+      @Override
+      protected void doIt() {
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    worker.setLogName("metrics-test-worker");
+    worker.registerMetrics(registry);
+    worker.setShouldRun(true);
+    worker.start();
+    MetricsHttpServer server = new MetricsHttpServer(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    try {
+      Thread.sleep(50);
+      String text = get(server);
+      assertTrue(text, text.contains("scrapes_total 1\n"));
+      assertTrue(text, text.contains("worker_cycle_seconds_count{worker=\"metrics-test-worker\"} "));
+      assertTrue(text, text.contains("worker_state{state=\"STOPPED\",worker=\"metrics-test-worker\"} 1\n"));
+      assertTrue(text, text.endsWith("# EOF\n"));
+      assertEquals(405, open(server, "POST").getResponseCode());
+
+      worker.setShouldRun(false);
+      assertTrue(worker.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS));
+      text = get(server);
+      assertFalse(text, text.contains("metrics-test-worker"));
+    } finally {
+      worker.setShouldRun(false);
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package org.bml.util.rt.telemetry.track;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link AtomicIntegerTrack#incrementAndGet()} for each track type
+ * and sample rate against a plain {@link AtomicInteger}, from one thread and
+ * from several threads sharing one track.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtomicIntegerTrackBenchmark {
+
+    /**
+     * The track type under test.
+     */
+    @Param({"SUMMARY", "STRIPED"})
+    public String trackType;
+
+    /**
+     * Count one in this many calls.
+     */
+    @Param({"1", "16"})
+    public int sampleEvery;
+
+    private AtomicIntegerTrack track;
+    private final AtomicInteger plain = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        track = new AtomicIntegerTrack(AtomicIntegerTrack.TRACK_TYPE.valueOf(trackType), sampleEvery);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int plain() {
+        return plain.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int tracked() {
+        return track.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int trackedContended() {
+        return track.incrementAndGet();
+    }
+}
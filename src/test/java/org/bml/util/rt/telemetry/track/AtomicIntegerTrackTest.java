@@ -0,0 +1,103 @@
+package org.bml.util.rt.telemetry.track;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+import org.bml.util.rt.telemetry.track.AtomicIntegerTrack.FUNCTION_KEY;
+import org.bml.util.rt.telemetry.track.AtomicIntegerTrack.TRACK_TYPE;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class AtomicIntegerTrackTest extends TestCase {
+
+  public AtomicIntegerTrackTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Every track type counts each function, decrementAndGet included.
+   */
+  public void testCountsEachFunction() throws Exception {
+    for (TRACK_TYPE type : TRACK_TYPE.values()) {
+      AtomicIntegerTrack track = new AtomicIntegerTrack(type);
+      track.incrementAndGet();
+      track.incrementAndGet();
+      track.decrementAndGet();
+      track.addAndGet(5);
+      assertEquals(6, track.get());
+      assertEquals(type.name(), 2, track.getCount(FUNCTION_KEY.INCREMENTANDGET));
+      assertEquals(type.name(), 1, track.getCount(FUNCTION_KEY.DECREMENTANDGET));
+      assertEquals(type.name(), 1, track.getCount(FUNCTION_KEY.ADDANDGET));
+      assertEquals(type.name(), 1, track.getCount(FUNCTION_KEY.GET));
+      assertEquals(type.name(), 0, track.getCount(FUNCTION_KEY.SET));
+    }
+  }
+
+  /**
+   * Striped counts are exact under contention.
+   */
+  public void testStripedIsExactUnderContention() throws Exception {
+    final AtomicIntegerTrack track = new AtomicIntegerTrack(TRACK_TYPE.STRIPED);
+    final int threads = 4, perThread = 100000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int c = 0; c < perThread; c++) {
+            track.incrementAndGet();
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    done.await();
+    assertEquals(threads * perThread, track.getCount(FUNCTION_KEY.INCREMENTANDGET));
+    assertEquals(threads * perThread, track.intValue());
+  }
+
+  /**
+   * Sampled counts are weighted estimates close to the true count, and the
+   * value itself is never sampled.
+   */
+  public void testSampling() throws Exception {
+    AtomicIntegerTrack track = new AtomicIntegerTrack(TRACK_TYPE.STRIPED, 16);
+    assertEquals(16, track.getSampleEvery());
+    for (int c = 0; c < 160000; c++) {
+      track.getAndIncrement();
+    }
+    assertEquals(160000, track.intValue());
+    long estimate = track.getCount(FUNCTION_KEY.GETANDINCREMENT);
+    assertEquals(0, estimate % 16);
+    assertTrue(String.valueOf(estimate), Math.abs(estimate - 160000) < 16000);
+    try {
+      new AtomicIntegerTrack(TRACK_TYPE.STRIPED, 0);
+      fail("A sample rate of 0 must be refused.");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.bml.util.search;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SearchUtils#binarySearchLower(int[], int, int, int)} the way
+ * the GeoLite lookup uses it, random keys against a sorted array of range
+ * starts.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchUtilsBenchmark {
+
+    /**
+     * The number of random keys cycled through.
+     */
+    private static final int KEYS = 1 << 12;
+
+    /**
+     * The length of the sorted array searched.
+     */
+    @Param({"1000", "1000000"})
+    public int size;
+
+    private int[] searchBase;
+    private Integer[] boxedSearchBase;
+    private int[] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        searchBase = new int[size];
+        boxedSearchBase = new Integer[size];
+        for (int c = 0; c < size; c++) {
+            searchBase[c] = c * 16;
+            boxedSearchBase[c] = searchBase[c];
+        }
+        keys = new int[KEYS];
+        for (int c = 0; c < KEYS; c++) {
+            keys[c] = random.nextInt(size * 16);
+        }
+    }
+
+    @Benchmark
+    public int binarySearchLower() {
+        return SearchUtils.binarySearchLower(searchBase, 0, size, keys[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public Integer binarySearchLowerBoxed() {
+        return SearchUtils.binarySearchLower(boxedSearchBase, 0, size, keys[next++ & (KEYS - 1)]);
+    }
+}
@@ -0,0 +1,120 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class BatchingBlockingQueueWorkerThreadTest extends TestCase {
+
+  public BatchingBlockingQueueWorkerThreadTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Records every batch it is handed.
+   */
+  private static final class RecordingWorker extends BatchingBlockingQueueWorkerThread<Integer> {
+
+    private final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final CountDownLatch latch;
+    private List<Integer> lastBatch;
+    private boolean reused = true;
+
+    RecordingWorker(BlockingQueue<Integer> queue, int maxBatch, long linger, CountDownLatch latch) {
+      super(queue, maxBatch, 10, linger);
+      this.latch = latch;
+    }
+
+    @Override
+    protected void doIt(List<Integer> batch) {
+      if (lastBatch != null && lastBatch != batch) {
+        reused = false;
+      }
+      lastBatch = batch;
+      sizes.add(batch.size());
+      seen.addAll(batch);
+      for (int c = 0; c < batch.size(); c++) {
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Every object is handed over once, in order, in batches no larger than the
+   * max batch size.
+   */
+  public void testDrain() throws InterruptedException {
+    BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    for (int c = 0; c < 1000; c++) {
+      queue.add(c);
+    }
+    CountDownLatch latch = new CountDownLatch(1000);
+    RecordingWorker worker = new RecordingWorker(queue, 64, 0, latch);
+    worker.setShouldRun(true);
+    worker.start();
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    worker.setShouldRun(false);
+    worker.join(5000);
+    assertEquals(1000, worker.seen.size());
+    for (int c = 0; c < 1000; c++) {
+      assertEquals(Integer.valueOf(c), worker.seen.get(c));
+    }
+    for (Integer size : worker.sizes) {
+      assertTrue(size > 0 && size <= 64);
+    }
+    assertEquals(16, worker.sizes.size());
+    assertTrue(worker.reused);
+  }
+
+  /**
+   * Objects that trickle in within the linger time share one batch.
+   */
+  public void testLinger() throws InterruptedException {
+    BlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+    CountDownLatch latch = new CountDownLatch(3);
+    RecordingWorker worker = new RecordingWorker(queue, 3, 2000, latch);
+    worker.setShouldRun(true);
+    worker.start();
+    for (int c = 0; c < 3; c++) {
+      queue.add(c);
+      Thread.sleep(20);
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    worker.setShouldRun(false);
+    worker.join(5000);
+    assertEquals(Collections.singletonList(3), worker.sizes);
+  }
+}
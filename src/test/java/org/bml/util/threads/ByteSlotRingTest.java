@@ -0,0 +1,70 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class ByteSlotRingTest extends TestCase {
+
+  public ByteSlotRingTest(String testName) {
+    super(testName);
+  }
+
+  private static String drain(ByteSlotRing ring, int capacity) {
+    ByteBuffer target = ByteBuffer.allocate(capacity);
+    ring.drainTo(target, new byte[]{'\n'}, Integer.MAX_VALUE);
+    target.flip();
+    return StandardCharsets.UTF_8.decode(target).toString();
+  }
+
+  /**
+   * Records come out in claim order, a claimed but unpublished slot holds
+   * back the records behind it and a full ring refuses claims.
+   */
+  public void testClaimPublishDrain() {
+    ByteSlotRing ring = new ByteSlotRing(4, 8);
+    assertEquals(4, ring.capacity());
+    assertTrue(ring.offer("a".getBytes(StandardCharsets.UTF_8), 0, 1));
+    long held = ring.claim();
+    ring.slot(held).put("bb".getBytes(StandardCharsets.UTF_8));
+    assertTrue(ring.offer("ccc".getBytes(StandardCharsets.UTF_8), 0, 3));
+    assertTrue(ring.offer("dddd".getBytes(StandardCharsets.UTF_8), 0, 4));
+    assertEquals(-1L, ring.claim());
+    assertEquals("a\n", drain(ring, 64));
+    ring.publish(held);
+    assertEquals("bb\nccc\n", drain(ring, 7));
+    assertEquals("dddd\n", drain(ring, 64));
+    assertTrue(ring.isEmpty());
+    for (int c = 0; c < 4; c++) {
+      assertTrue(ring.offer("12345678".getBytes(StandardCharsets.UTF_8), 0, 8));
+    }
+    assertEquals(4, ring.size());
+  }
+}
@@ -0,0 +1,124 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class MpmcArrayBlockingQueueTest extends TestCase {
+
+  public MpmcArrayBlockingQueueTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * FIFO order, capacity rounding, full and empty behavior on one thread.
+   */
+  public void testSingleThread() throws InterruptedException {
+    MpmcArrayBlockingQueue<Integer> queue = new MpmcArrayBlockingQueue<Integer>(5);
+    assertEquals(8, queue.capacity());
+    assertNull(queue.poll());
+    for (int c = 0; c < 8; c++) {
+      assertTrue(queue.offer(c));
+    }
+    assertFalse(queue.offer(8));
+    assertFalse(queue.offer(8, 5, TimeUnit.MILLISECONDS));
+    assertEquals(8, queue.size());
+    assertEquals(0, queue.remainingCapacity());
+    assertEquals(Integer.valueOf(0), queue.peek());
+    for (int c = 0; c < 4; c++) {
+      assertEquals(Integer.valueOf(c), queue.poll());
+    }
+    List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(3, queue.drainTo(drained, 3));
+    assertEquals(Integer.valueOf(4), drained.get(0));
+    assertEquals(Integer.valueOf(7), queue.take());
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll(5, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Every element offered by several producers is taken exactly once by
+   * several consumers.
+   */
+  public void testConcurrent() throws InterruptedException {
+    for (WaitStrategies strategy : WaitStrategies.values()) {
+      final MpmcArrayBlockingQueue<Long> queue = new MpmcArrayBlockingQueue<Long>(64, strategy);
+      final int producers = 3, consumers = 3, perProducer = 5000;
+      final AtomicLong sum = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(producers * perProducer);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int p = 0; p < producers; p++) {
+        final long base = p * (long) perProducer;
+        threads.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (long c = 1; c <= perProducer; c++) {
+                queue.put(base + c);
+              }
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }));
+      }
+      for (int c = 0; c < consumers; c++) {
+        Thread consumer = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              while (true) {
+                sum.addAndGet(queue.take());
+                done.countDown();
+              }
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+        consumer.setDaemon(true);
+        threads.add(consumer);
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      assertTrue(strategy.name(), done.await(30, TimeUnit.SECONDS));
+      long n = producers * (long) perProducer;
+      assertEquals(strategy.name(), n * (n + 1) / 2, sum.get());
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      assertTrue(queue.isEmpty());
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class MpscArrayBlockingQueueTest extends TestCase {
+
+  public MpscArrayBlockingQueueTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * FIFO order, capacity rounding, full and empty behavior on one thread.
+   */
+  public void testSingleThread() throws InterruptedException {
+    MpscArrayBlockingQueue<Integer> queue = new MpscArrayBlockingQueue<Integer>(5);
+    assertEquals(8, queue.capacity());
+    assertNull(queue.poll());
+    for (int c = 0; c < 8; c++) {
+      assertTrue(queue.offer(c));
+    }
+    assertFalse(queue.offer(8));
+    assertFalse(queue.offer(8, 5, TimeUnit.MILLISECONDS));
+    assertEquals(8, queue.size());
+    assertEquals(Integer.valueOf(0), queue.peek());
+    for (int c = 0; c < 4; c++) {
+      assertEquals(Integer.valueOf(c), queue.poll());
+    }
+    assertTrue(queue.offer(8));
+    List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(3, queue.drainTo(drained, 3));
+    assertEquals(Integer.valueOf(4), drained.get(0));
+    assertEquals(Integer.valueOf(7), queue.take());
+    assertEquals(Integer.valueOf(8), queue.take());
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll(5, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Every element from several producers reaches the single consumer
+   * exactly once and in each producer's order.
+   */
+  public void testConcurrentProducers() throws InterruptedException {
+    final MpscArrayBlockingQueue<Long> queue = new MpscArrayBlockingQueue<Long>(64);
+    final int producers = 4, perProducer = 20000;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final long id = p;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (long c = 0; c < perProducer; c++) {
+              queue.put(id << 32 | c);
+            }
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long[] next = new long[producers];
+    List<Long> batch = new ArrayList<Long>();
+    int taken = 0;
+    while (taken < producers * perProducer) {
+      batch.clear();
+      if (queue.drainTo(batch, 16) == 0) {
+        batch.add(queue.poll(5, TimeUnit.SECONDS));
+      }
+      for (Long value : batch) {
+        assertNotNull(value);
+        int id = (int) (value >>> 32);
+        assertEquals(next[id]++, value & 0xffffffffL);
+        taken++;
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -0,0 +1,143 @@
+package org.bml.util.threads;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Brian M. Lima
+ */
+public class WorkerThreadExecutorTest extends TestCase {
+
+  public WorkerThreadExecutorTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * Counts down a latch for each object it takes.
+   */
+  private static final class LatchWorker extends BlockingQueueWorkerThread<Object> {
+
+    private final CountDownLatch latch;
+
+    LatchWorker(BlockingQueue<Object> queue, CountDownLatch latch) {
+      super(queue, 10, 1);
+      this.latch = latch;
+    }
+
+    @Override
+    protected void doIt(Object obj) {
+      latch.countDown();
+    }
+  }
+
+  private void runWorkers(ExecutorService executor) throws InterruptedException {
+    BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    CountDownLatch latch = new CountDownLatch(1000);
+    LatchWorker[] workers = new LatchWorker[8];
+    for (int c = 0; c < workers.length; c++) {
+      workers[c] = new LatchWorker(queue, latch);
+      workers[c].setShouldRun(true);
+      workers[c].start(executor);
+      assertTrue(workers[c].isWorkerAlive());
+      assertFalse(workers[c].isAlive());
+    }
+    for (int c = 0; c < 1000; c++) {
+      queue.add(c);
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    for (LatchWorker worker : workers) {
+      worker.setShouldRun(false);
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    for (LatchWorker worker : workers) {
+      assertFalse(worker.isWorkerAlive());
+    }
+    try {
+      workers[0].start();
+      fail("A worker started on an Executor must not start again.");
+    } catch (IllegalThreadStateException expected) {
+    }
+  }
+
+  /**
+   * Workers run, report alive and stop on a supplied executor.
+   */
+  public void testExecutor() throws InterruptedException {
+    runWorkers(Executors.newCachedThreadPool());
+  }
+
+  /**
+   * Workers run on virtual threads where the JVM supports them.
+   */
+  public void testVirtualThreads() throws InterruptedException {
+    if (!WorkerExecutors.isVirtualThreadSupported()) {
+      try {
+        WorkerExecutors.newVirtualThreadExecutor("worker-");
+        fail("Virtual threads are not supported on " + System.getProperty("java.version"));
+      } catch (UnsupportedOperationException expected) {
+      }
+      return;
+    }
+    runWorkers(WorkerExecutors.newVirtualThreadExecutor("worker-"));
+  }
+
+  /**
+   * A worker rejected by its executor is not left reporting alive and can be
+   * started again.
+   */
+  public void testRejectedStart() throws InterruptedException {
+    ExecutorService shutDown = Executors.newCachedThreadPool();
+    shutDown.shutdown();
+    BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    CountDownLatch latch = new CountDownLatch(1);
+    LatchWorker worker = new LatchWorker(queue, latch);
+    worker.setShouldRun(true);
+    try {
+      worker.start(shutDown);
+      fail("A shut down executor must reject the worker.");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertFalse(worker.isWorkerAlive());
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    worker.start(executor);
+    assertTrue(worker.isWorkerAlive());
+    queue.add(1);
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    worker.setShouldRun(false);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertFalse(worker.isWorkerAlive());
+  }
+}
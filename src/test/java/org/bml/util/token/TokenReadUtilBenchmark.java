@@ -0,0 +1,67 @@
+package org.bml.util.token;
+
+/*
+ * #%L
+ * org.bml
+ * %%
+ * Copyright (C) 2006 - 2014 Brian M. Lima
+ * %%
+ * This file is part of ORG.BML.
+ * 
+ *     ORG.BML is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ * 
+ *     ORG.BML is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ * 
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with ORG.BML.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link TokenReadUtil#nextToken(char)} tokenizing a whole log line,
+ * including construction of the {@link TokenReadUtil}.
+ *
+ * @author Brian M. Lima
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenReadUtilBenchmark {
+
+    /**
+     * A tab delimited access log line with an escaped tab in the user agent.
+     */
+    private static final String LINE = "2014-03-01 12:00:01\t10.1.2.3\tGET\t/index.html?q=bloom\t200\t5120\t"
+            + "Mozilla/5.0 (X11; Linux x86_64)\\\tAppleWebKit/537.36 (KHTML, like Gecko) Chrome/33.0.1750.117 Safari/537.36\t"
+            + "http://www.example.com/referrer";
+
+    @Benchmark
+    public void nextTokenLine(final Blackhole blackhole) throws IOException {
+        final TokenReadUtil reader = new TokenReadUtil(LINE);
+        while (!reader.isEndReached()) {
+            blackhole.consume(reader.nextToken('\t'));
+        }
+        reader.close();
+    }
+}